@@ -0,0 +1,107 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.BatchTransform;
+import main.Mat4;
+import main.MatrixOperations;
+import main.PointBuffer;
+
+/**
+ * Throughput of the batch point transform: the per-vertex path
+ * LegacyMatrixOperations used, the interleaved Mat4 loop, and the scalar,
+ * vector and fork/join BatchTransform kernels.
+ *
+ * Times are per call, so points per second per core is pointCount divided by
+ * the time for the single-threaded benchmarks, and that figure divided by
+ * ForkJoinPool.getCommonPoolParallelism() for transformParallel.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class BatchTransformBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int pointCount;
+
+	private float[] matrix;
+	private LegacyMatrixOperations legacy;
+	private double[][] vertices;
+	private float[] interleaved;
+	private PointBuffer points, transformed;
+
+	@Setup
+	public void setUp () {
+		Mat4 m = new Mat4().rotate(30,1,2,3).translate(1,2,3).scale(2,2,2);
+		matrix = m.array();
+		legacy = new LegacyMatrixOperations();
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			for ( int j = 0 ; j < 4 ; j++ ) {
+				legacy.matrix[i][j] = m.get(i,j);
+			}
+		}
+		Random random = new Random(42);
+		vertices = new double[pointCount][3];
+		interleaved = new float[3 * pointCount];
+		for ( int i = 0 ; i < pointCount ; i++ ) {
+			for ( int j = 0 ; j < 3 ; j++ ) {
+				vertices[i][j] = random.nextDouble();
+				interleaved[3 * i + j] = (float) vertices[i][j];
+			}
+		}
+		points = PointBuffer.of(vertices);
+		transformed = new PointBuffer(pointCount);
+	}
+
+	@Benchmark
+	public double[][] legacyPerVertex () {
+		return legacy.multiply(vertices);
+	}
+
+	@Benchmark
+	public float[] interleavedScalar () {
+		Mat4.transformPoints(matrix,0,interleaved,0,interleaved,0,pointCount);
+		return interleaved;
+	}
+
+	@Benchmark
+	public PointBuffer scalar () {
+		BatchTransform.transformScalar(matrix,0,points,transformed);
+		return transformed;
+	}
+
+	@Benchmark
+	public PointBuffer vector () {
+		BatchTransform.transformVector(matrix,0,points,transformed);
+		return transformed;
+	}
+
+	@Benchmark
+	public PointBuffer parallel () {
+		BatchTransform.transformParallel(matrix,0,points,transformed);
+		return transformed;
+	}
+
+	@Benchmark
+	public double[][] matrixOperationsBulk () {
+		return MatrixOperations.createShearY(1,1).multiply(vertices);
+	}
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The entry point of the benchmarks jar. It runs JMH with the given
+ * arguments, but writes the results as JSON to
+ * results/jmh-<version>.json unless -rf or -rff is given, so every release
+ * leaves a file to compare the next one against.
+ *
+ * @author Sayf Elhawary
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain () {}
+
+	public static void main ( String[] args ) throws Exception {
+		List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+		if ( !jmhArgs.contains("-rf") ) {
+			jmhArgs.add("-rf");
+			jmhArgs.add("json");
+		}
+		if ( !jmhArgs.contains("-rff") ) {
+			String version = BenchmarkMain.class.getPackage().getImplementationVersion();
+			Path results = Paths.get("results","jmh-"
+			    + (version == null ? "dev" : version) + ".json");
+			Files.createDirectories(results.getParent());
+			jmhArgs.add("-rff");
+			jmhArgs.add(results.toString());
+		}
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+	}
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.Camera;
+
+/**
+ * Camera.applyTransvection, the trackball's per-drag-event rotation. Each call
+ * rotates one way and then back, so the camera stays near its starting view.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class CameraBenchmark {
+
+	private Camera camera;
+	private double[] from, to;
+
+	@Setup
+	public void setUp () {
+		camera = new Camera();
+		camera.lookAt(0,5,30,0,0,0,0,1,0);
+		from = unit(0.1,0.2,1);
+		to = unit(0.15,0.18,1);
+	}
+
+	@Benchmark
+	public Camera applyTransvection () {
+		camera.applyTransvection(from,to);
+		camera.applyTransvection(to,from);
+		return camera;
+	}
+
+	private static double[] unit ( double x, double y, double z ) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		return new double[] { x / length, y / length, z / length };
+	}
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapes.ComplexShape;
+import shapes.PackedGeometry;
+
+/**
+ * ComplexShape construction, which computes the face normals, centroid,
+ * bounding radius and vertex normals: for a generated latitude/longitude
+ * sphere of bands*bands quads, held in arrays or packed off the heap, and for
+ * a copy of the built-in soccer ball.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class ComplexShapeBenchmark {
+
+	@Param({ "16", "64", "256" })
+	public int bands;
+
+	private double[][] vertices;
+	private int[][] faces;
+
+	@Setup
+	public void setUp () {
+		int columns = bands + 1;
+		vertices = new double[columns * columns][];
+		for ( int i = 0 ; i <= bands ; i++ ) {
+			double theta = Math.PI * i / bands;
+			for ( int j = 0 ; j <= bands ; j++ ) {
+				double phi = 2 * Math.PI * j / bands;
+				vertices[i * columns + j] =
+				    new double[] { Math.sin(theta) * Math.cos(phi), Math.cos(theta),
+				                   Math.sin(theta) * Math.sin(phi) };
+			}
+		}
+		faces = new int[bands * bands][];
+		for ( int i = 0 ; i < bands ; i++ ) {
+			for ( int j = 0 ; j < bands ; j++ ) {
+				int a = i * columns + j;
+				faces[i * bands + j] = new int[] { a, a + columns, a + columns + 1,
+				                                   a + 1 };
+			}
+		}
+	}
+
+	@Benchmark
+	public ComplexShape sphere () {
+		return new ComplexShape("smooth",vertices,faces,null);
+	}
+
+	@Benchmark
+	public ComplexShape packedSphere () {
+		return new ComplexShape("smooth",PackedGeometry.of(vertices,faces,null));
+	}
+
+	@Benchmark
+	public ComplexShape copySoccerBall () {
+		return new ComplexShape(ComplexShape.SOCCER_BALL);
+	}
+}
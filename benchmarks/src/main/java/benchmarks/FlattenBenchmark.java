@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.Renderer;
+
+/**
+ * Renderer.flatten on vertex-like arrays of three doubles per row.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class FlattenBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	private double[][] array2d;
+
+	@Setup
+	public void setUp () {
+		Random random = new Random(42);
+		array2d = new double[rows][3];
+		for ( double[] row : array2d ) {
+			for ( int j = 0 ; j < row.length ; j++ ) {
+				row[j] = random.nextDouble();
+			}
+		}
+	}
+
+	@Benchmark
+	public double[] flatten () {
+		return Renderer.flatten(array2d);
+	}
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nodes.InstancedShapeNode;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.ShapeNode;
+import nodes.TransformNode;
+import shapes.Sphere;
+import transformations.Translation;
+
+/**
+ * The CPU cost of a frame that moves every copy of a shape: as a
+ * TransformNode and ShapeNode pair per copy, moved through their Translations
+ * and traversed node by node, against one InstancedShapeNode, moved by
+ * writing its transform buffer and collecting the changed range as the
+ * renderer does before uploading it. Traversal is against a
+ * RecordingRenderer, so no GL calls are made or timed.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+                                   "--add-exports",
+                                   "java.base/java.lang=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.awt=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.java2d=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class InstancingBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int copies;
+
+	@Param({ "false", "true" })
+	public boolean instanced;
+
+	private PartialScene root;
+	private Translation[] translations;
+	private InstancedShapeNode node;
+	private RecordingRenderer renderer;
+	private final int[] range = new int[2];
+	private int token = -1;
+	private float time;
+
+	@Setup
+	public void setUp () {
+		Scene scene = new Scene(0,0,0,1);
+		root = scene.getRootNode();
+		Sphere sphere = new Sphere("solid",0.5,16,16);
+		if ( instanced ) {
+			node = new InstancedShapeNode(sphere,copies,false);
+			root.addChild(node);
+		} else {
+			translations = new Translation[copies];
+			for ( int i = 0 ; i < copies ; i++ ) {
+				PartialScene copy = new PartialScene();
+				translations[i] = new Translation(i,0,0,false);
+				copy.addChild(new TransformNode(translations[i]));
+				copy.addChild(new ShapeNode(sphere));
+				root.addChild(copy);
+			}
+		}
+		renderer = new RecordingRenderer(scene);
+	}
+
+	@Benchmark
+	public long frame () {
+		time += 0.01f;
+		if ( instanced ) {
+			for ( int i = 0 ; i < copies ; i++ ) {
+				node.setTranslation(i,i,time,0);
+			}
+			token = node.takeChanges(token,range);
+		} else {
+			for ( int i = 0 ; i < copies ; i++ ) {
+				translations[i].setY(time);
+			}
+		}
+		renderer.resetCalls();
+		root.draw(renderer);
+		return renderer.getCalls() + range[1];
+	}
+}
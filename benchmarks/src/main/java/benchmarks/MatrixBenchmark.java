@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.Mat4;
+import main.MatrixOperations;
+import main.Vec4;
+
+/**
+ * Compares the float[4][4] MatrixOperations that used to be in the tree with
+ * the flat Mat4 core it now runs on: matrix products, single vectors and
+ * vertex arrays, each through the allocating API and the Into variants. Run
+ * with -prof gc to see the allocation rate alongside the times.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class MatrixBenchmark {
+
+	@Param({ "1000" })
+	public int vertexCount;
+
+	private LegacyMatrixOperations legacyA, legacyB;
+	private LegacyMatrixOperations.Vector4 legacyVector;
+	private MatrixOperations a, b, product;
+	private Vec4 vector, transformed;
+	private double[][] vertices, transformedVertices;
+
+	@Setup
+	public void setUp () {
+		Random random = new Random(42);
+		legacyA = new LegacyMatrixOperations();
+		legacyB = new LegacyMatrixOperations();
+		a = new MatrixOperations();
+		b = new MatrixOperations();
+		product = new MatrixOperations();
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			for ( int j = 0 ; j < 4 ; j++ ) {
+				float x = random.nextFloat(), y = random.nextFloat();
+				legacyA.matrix[i][j] = x;
+				legacyB.matrix[i][j] = y;
+				a.set(i,j,x);
+				b.set(i,j,y);
+			}
+		}
+		legacyVector = legacyA.new Vector4(1,2,3,1);
+		vector = new Vec4(1,2,3,1);
+		transformed = new Vec4();
+		vertices = new double[vertexCount][3];
+		transformedVertices = new double[vertexCount][3];
+		for ( double[] v : vertices ) {
+			v[0] = random.nextDouble();
+			v[1] = random.nextDouble();
+			v[2] = random.nextDouble();
+		}
+	}
+
+	@Benchmark
+	public LegacyMatrixOperations legacyMultiply () {
+		return legacyA.multiply(legacyB);
+	}
+
+	@Benchmark
+	public MatrixOperations multiply () {
+		return a.multiply(b);
+	}
+
+	@Benchmark
+	public MatrixOperations multiplyInto () {
+		return a.multiplyInto(b,product);
+	}
+
+	@Benchmark
+	public LegacyMatrixOperations.Vector4 legacyMultiplyVector () {
+		return legacyA.multiply(legacyVector);
+	}
+
+	@Benchmark
+	public Vec4 transformVectorInto () {
+		return a.transformInto(vector,transformed);
+	}
+
+	@Benchmark
+	public double[][] legacyMultiplyVertices () {
+		return legacyA.multiply(vertices);
+	}
+
+	@Benchmark
+	public double[][] multiplyVertices () {
+		return a.multiply(vertices);
+	}
+
+	@Benchmark
+	public double[][] transformVerticesInto () {
+		return a.transformInto(vertices,transformedVertices);
+	}
+
+	@Benchmark
+	public Mat4 pooledProduct () {
+		Mat4 scratch = Mat4.acquire();
+		scratch.identity().rotate(30,0,1,0).translate(1,2,3);
+		Mat4.release(scratch);
+		return scratch;
+	}
+}
@@ -0,0 +1,186 @@
+package benchmarks;
+
+import lights.DirectionalLight;
+import lights.PointLight;
+import lights.SpotLight;
+import main.Camera;
+import main.Material;
+import main.Renderer;
+import main.Tex;
+import nodes.InstancedShapeNode;
+import nodes.Scene;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.AnimatedRotation;
+import transformations.AnimatedScale;
+import transformations.AnimatedTranslation;
+import transformations.KeyframeTransform;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Translation;
+
+/**
+ * A renderer that makes no GL calls: every method the scene graph calls while
+ * drawing is overridden to count the call instead, so that PartialScene.draw
+ * can be timed without a GL context. The counts also keep the JIT from
+ * discarding the traversal.
+ *
+ * Constructing it still constructs a GLJPanel, which needs JOGL to find a GL
+ * profile: a display, or Mesa (e.g. under xvfb-run) on a headless machine.
+ *
+ * @author Sayf Elhawary
+ */
+public class RecordingRenderer extends Renderer {
+
+	private long transforms;
+	private long shapes;
+	private long states; // materials, lights, textures and cameras
+	private long saves;
+
+	public RecordingRenderer ( Scene scene ) {
+		super(scene);
+	}
+
+	/**
+	 * Gets the number of calls recorded since the last reset.
+	 */
+	public long getCalls () {
+		return transforms + shapes + states + saves;
+	}
+
+	public long getTransforms () {
+		return transforms;
+	}
+
+	public long getShapes () {
+		return shapes;
+	}
+
+	public long getStateChanges () {
+		return states;
+	}
+
+	public void resetCalls () {
+		transforms = shapes = states = saves = 0;
+	}
+
+	@Override
+	public void saveTransform () {
+		saves++;
+	}
+
+	@Override
+	public void restoreTransform () {
+		saves++;
+	}
+
+	@Override
+	public void drawCube ( Cube cube ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawSphere ( Sphere sphere ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawCone ( Cone cone ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawTorus ( Torus torus ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawCylinder ( Cylinder cylinder ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawTeapot ( Teapot teapot ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawComplexShape ( ComplexShape cShape ) {
+		shapes++;
+	}
+
+	@Override
+	public void drawInstances ( InstancedShapeNode node ) {
+		shapes++;
+	}
+
+	@Override
+	public void applyMaterial ( Material material ) {
+		states++;
+	}
+
+	@Override
+	public void applyPointLight ( PointLight pLight ) {
+		states++;
+	}
+
+	@Override
+	public void applyDirectionalLight ( DirectionalLight dLight ) {
+		states++;
+	}
+
+	@Override
+	public void applySpotLight ( SpotLight sLight ) {
+		states++;
+	}
+
+	@Override
+	public void applyTexture ( Tex texture ) {
+		states++;
+	}
+
+	@Override
+	public void applyCamera ( Camera camera ) {
+		states++;
+	}
+
+	@Override
+	public void translate ( Translation t ) {
+		transforms++;
+	}
+
+	@Override
+	public void rotate ( Rotation r ) {
+		transforms++;
+	}
+
+	@Override
+	public void scale ( Scale s ) {
+		transforms++;
+	}
+
+	@Override
+	public void animateTranslate ( AnimatedTranslation t ) {
+		transforms++;
+	}
+
+	@Override
+	public void animateRotate ( AnimatedRotation r ) {
+		transforms++;
+	}
+
+	@Override
+	public void animateScale ( AnimatedScale s ) {
+		transforms++;
+	}
+
+	@Override
+	public void animateKeyframes ( KeyframeTransform t ) {
+		transforms++;
+	}
+}
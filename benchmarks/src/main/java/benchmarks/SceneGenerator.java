@@ -0,0 +1,178 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import main.Material;
+import nodes.MaterialNode;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.ShapeNode;
+import nodes.TransformNode;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Torus;
+import transformations.Rotation;
+import transformations.Translation;
+
+/**
+ * Generates scenes of a given size for the benchmarks, as XML files and as
+ * scene graphs. Both are trees of groups, each group holding a transform, a
+ * material, a shape and up to BRANCHING child groups, so a scene of n nodes
+ * has n/4 groups and is about log4(n/4) groups deep. The same seed gives the
+ * same scene, and writeXML writes the scene that scene builds.
+ *
+ * @author Sayf Elhawary
+ */
+public final class SceneGenerator {
+
+	/**
+	 * The number of child groups per group.
+	 */
+	public static final int BRANCHING = 4;
+
+	private static final int NODES_PER_GROUP = 4;
+
+	private static final Material[] MATERIALS =
+	    { Material.CYAN_RUBBER, Material.EMERALD, Material.RED_PLASTIC,
+	      Material.CHROME, Material.GOLD };
+
+	private static final String[] MATERIAL_NAMES =
+	    { "CYAN_RUBBER", "EMERALD", "RED_PLASTIC", "CHROME", "GOLD" };
+
+	// the elements for the shapes shape(i) returns
+	private static final String[] SHAPE_ELEMENTS =
+	    { "<Cube status=\"solid\" sideLength=\"1\" />",
+	      "<Sphere status=\"solid\" radius=\"1\" slices=\"16\" stacks=\"16\" />",
+	      "<Cone status=\"solid\" base=\"1\" height=\"2\" slices=\"16\" stacks=\"4\" />",
+	      "<Torus status=\"solid\" innerRadius=\"0.25\" outerRadius=\"1\" slices=\"16\" stacks=\"16\" />",
+	      "<Cylinder status=\"solid\" radius=\"0.5\" height=\"2\" slices=\"16\" stacks=\"4\" />" };
+
+	private SceneGenerator () {}
+
+	/**
+	 * Builds a scene graph of about a number of nodes. Transforms alternate
+	 * between translations and rotations, and shapes cycle through the
+	 * primitive types.
+	 *
+	 * @param nodes
+	 *          The number of nodes, rounded down to a multiple of 4.
+	 * @param seed
+	 *          The seed for transform values.
+	 * @return The scene.
+	 */
+	public static Scene scene ( int nodes, long seed ) {
+		Random random = new Random(seed);
+		int groups = Math.max(1,nodes / NODES_PER_GROUP);
+		PartialScene[] built = new PartialScene[groups];
+		Scene scene = new Scene(0,0,0,1);
+		for ( int i = 0 ; i < groups ; i++ ) {
+			PartialScene group = new PartialScene();
+			if ( i % 2 == 0 ) {
+				group.addChild(new TransformNode(new Translation(coordinate(random),
+				                                                 coordinate(random),
+				                                                 coordinate(random),
+				                                                 false)));
+			} else {
+				group.addChild(new TransformNode(new Rotation(random.nextFloat() * 360,
+				                                              0,1,0,false)));
+			}
+			group.addChild(new MaterialNode(MATERIALS[i % MATERIALS.length]));
+			group.addChild(new ShapeNode(shape(i)));
+			built[i] = group;
+			if ( i == 0 ) {
+				scene.add(group);
+			} else {
+				built[(i - 1) / BRANCHING].addChild(group);
+			}
+		}
+		return scene;
+	}
+
+	/**
+	 * Writes an XML scene of about a number of nodes to a file, in the format
+	 * FileManager.loadXMLScene reads.
+	 *
+	 * @param file
+	 *          The file to write.
+	 * @param nodes
+	 *          The number of nodes, rounded down to a multiple of 4.
+	 * @param seed
+	 *          The seed for transform values.
+	 * @throws IOException
+	 *           if the file cannot be written.
+	 */
+	public static void writeXML ( Path file, int nodes, long seed )
+	    throws IOException {
+		Random random = new Random(seed);
+		int groups = Math.max(1,nodes / NODES_PER_GROUP);
+		// drawn in the order scene draws them, as groups are written depth first
+		float[] transforms = new float[3 * groups];
+		for ( int i = 0 ; i < groups ; i++ ) {
+			if ( i % 2 == 0 ) {
+				transforms[3 * i] = coordinate(random);
+				transforms[3 * i + 1] = coordinate(random);
+				transforms[3 * i + 2] = coordinate(random);
+			} else {
+				transforms[3 * i] = random.nextFloat() * 360;
+			}
+		}
+		try ( Writer out = Files.newBufferedWriter(file,StandardCharsets.UTF_8) ) {
+			out.write("<?xml version=\"1.0\"?>\n<Scene color=\"0,0,0,1\">\n");
+			writeGroup(out,0,groups,transforms,1);
+			out.write("</Scene>\n");
+		}
+	}
+
+	private static void writeGroup ( Writer out, int group, int groups,
+	                                 float[] transforms, int depth )
+	    throws IOException {
+		String indent = "\t".repeat(depth);
+		out.write(indent + "<PartialScene>\n");
+		if ( group % 2 == 0 ) {
+			out.write(indent + "\t<Translation x=\"" + transforms[3 * group]
+			    + "\" y=\"" + transforms[3 * group + 1] + "\" z=\""
+			    + transforms[3 * group + 2] + "\" texture=\"false\" />\n");
+		} else {
+			out.write(indent + "\t<Rotation angle=\"" + transforms[3 * group]
+			    + "\" x=\"0\" y=\"1\" z=\"0\" texture=\"false\" />\n");
+		}
+		out.write(indent + "\t<Material type=\"" + MATERIAL_NAMES[group
+		    % MATERIALS.length] + "\" />\n");
+		out.write(indent + "\t" + SHAPE_ELEMENTS[group % SHAPE_ELEMENTS.length]
+		    + "\n");
+		for ( int i = 1 ; i <= BRANCHING ; i++ ) {
+			int child = group * BRANCHING + i;
+			if ( child < groups ) {
+				writeGroup(out,child,groups,transforms,depth + 1);
+			}
+		}
+		out.write(indent + "</PartialScene>\n");
+	}
+
+	private static float coordinate ( Random random ) {
+		return random.nextInt(2001) / 100f - 10;
+	}
+
+	private static Shape shape ( int i ) {
+		switch ( i % 5 ) {
+		case 0:
+			return new Cube("solid",1);
+		case 1:
+			return new Sphere("solid",1,16,16);
+		case 2:
+			return new Cone("solid",1,2,16,4);
+		case 3:
+			return new Torus("solid",0.25,1,16,16);
+		default:
+			return new Cylinder("solid",0.5,2,16,4);
+		}
+	}
+}
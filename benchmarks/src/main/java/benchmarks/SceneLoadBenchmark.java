@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.FileManager;
+import nodes.Scene;
+
+/**
+ * The streaming FileManager.loadXMLScene, the DOM-based loadXMLSceneDOM and
+ * the memory-mapped loadBinaryScene on generated scenes of 1k to 1M nodes.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class SceneLoadBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int nodeCount;
+
+	private Path file;
+	private Path binary;
+
+	@Setup
+	public void setUp () throws IOException {
+		file = Files.createTempFile("scene-" + nodeCount + "-",".xml");
+		SceneGenerator.writeXML(file,nodeCount,42);
+		binary = Files.createTempFile("scene-" + nodeCount + "-",".sgb");
+		FileManager.saveBinaryScene(FileManager.loadXMLScene(file.toString()),
+		                            binary.toString());
+	}
+
+	@TearDown
+	public void tearDown () throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(binary);
+	}
+
+	@Benchmark
+	public Scene loadXMLScene () {
+		return FileManager.loadXMLScene(file.toString());
+	}
+
+	@Benchmark
+	public Scene loadXMLSceneDOM () {
+		return FileManager.loadXMLSceneDOM(file.toString());
+	}
+
+	@Benchmark
+	public Scene loadBinaryScene () {
+		return FileManager.loadBinaryScene(binary.toString());
+	}
+}
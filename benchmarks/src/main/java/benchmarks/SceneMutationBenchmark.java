@@ -0,0 +1,114 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import nodes.CommandBuffer;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.SceneUpdate;
+
+/**
+ * Mutation throughput with several producer threads. "direct" has four
+ * threads adding and removing children of one shared node through the
+ * copy-on-write child lists. "staged" has three producers submitting batches
+ * to a scene while a fourth thread plays the renderer, publishing them and
+ * recompiling the graph as each frame would. Producers wait while BACKLOG
+ * batches are pending, so the score is the rate at which submitted changes
+ * reach a frame rather than the rate at which an unbounded queue can grow.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class SceneMutationBenchmark {
+
+	private static final int BACKLOG = 1024;
+
+	/**
+	 * The graph shared by all threads.
+	 */
+	@State(Scope.Group)
+	public static class Shared {
+
+		@Param({ "1000", "10000" })
+		public int nodeCount;
+
+		Scene scene;
+		PartialScene target;
+
+		@Setup
+		public void setUp () {
+			scene = SceneGenerator.scene(nodeCount,42);
+			target = new PartialScene();
+			for ( int i = 0 ; i < 8 ; i++ ) {
+				target.addChild(new PartialScene());
+			}
+			scene.add(target);
+			scene.compile();
+		}
+	}
+
+	/**
+	 * The node each producer adds and removes.
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+
+		PartialScene node;
+
+		@Setup
+		public void setUp () {
+			node = new PartialScene();
+		}
+	}
+
+	@Benchmark
+	@Group("direct")
+	@GroupThreads(4)
+	public PartialScene directMutation ( Shared shared, Producer producer ) {
+		shared.target.addChild(producer.node);
+		shared.target.removeChild(producer.node);
+		return shared.target;
+	}
+
+	@Benchmark
+	@Group("staged")
+	@GroupThreads(3)
+	public SceneUpdate submit ( Shared shared, Producer producer,
+                            Control control ) {
+		SceneUpdate update = new SceneUpdate()
+		    .addChild(shared.target,producer.node)
+		    .removeChild(shared.target,producer.node);
+		while ( shared.scene.getPendingUpdates() >= BACKLOG
+		    && !control.stopMeasurement ) {
+			Thread.yield();
+		}
+		shared.scene.submit(update);
+		return update;
+	}
+
+	@Benchmark
+	@Group("staged")
+	@GroupThreads(1)
+	public CommandBuffer frame ( Shared shared ) {
+		return shared.scene.getCommands();
+	}
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+import main.Camera;
+import main.RenderBackend;
+import main.RenderSurface;
+import main.Renderer;
+import nodes.CameraNode;
+import nodes.Scene;
+
+/**
+ * The time to draw and show one frame of a generated scene in a 3840x2160
+ * window, on each of the renderer's surfaces. A GLJPanel frame includes
+ * reading every pixel back and blitting it through Swing; GLCanvas and NEWT
+ * frames end with a buffer swap. Swapping is not synchronized to the display,
+ * so frame rates are not capped at its refresh rate.
+ *
+ * This draws with real GL: run it on a machine with a display and a GL
+ * driver, at a resolution of at least 4K so the window is not clipped.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+                                   "--add-exports",
+                                   "java.base/java.lang=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.awt=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.java2d=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class SurfaceBenchmark {
+
+	private static final int WIDTH = 3840, HEIGHT = 2160;
+
+	@Param({ "panel", "canvas", "newt" })
+	public String surface;
+
+	@Param({ "fixed", "core" })
+	public String backend;
+
+	@Param({ "1000" })
+	public int nodeCount;
+
+	private JFrame frame;
+	private GLAutoDrawable drawable;
+
+	@Setup
+	public void setUp () throws Exception {
+		Camera camera = new Camera();
+		camera.lookAt(0,0,40,0,0,0,0,1,0);
+		camera.setScale(20);
+		Scene scene = new Scene(0,0,0,1);
+		scene.add(new CameraNode(camera));
+		scene.add(SceneGenerator.scene(nodeCount,42).getRootNode());
+		Renderer renderer = new Renderer(scene,RenderBackend.forName(backend),
+		                                 RenderSurface.forName(surface));
+		renderer.setPreferredSize(new Dimension(WIDTH,HEIGHT));
+		EventQueue.invokeAndWait(() -> {
+			frame = new JFrame();
+			frame.setUndecorated(true);
+			frame.setContentPane(renderer);
+			frame.pack();
+			frame.setVisible(true);
+		});
+		drawable = renderer.getDrawable();
+		drawable.display(); // creates the context
+		drawable.invoke(true,d -> {
+			d.getGL().setSwapInterval(0);
+			return true;
+		});
+	}
+
+	@TearDown
+	public void tearDown () throws Exception {
+		EventQueue.invokeAndWait(() -> frame.dispose());
+	}
+
+	@Benchmark
+	public void frame () {
+		drawable.display();
+	}
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.StaticBatcher;
+import nodes.PartialScene;
+import nodes.Scene;
+
+/**
+ * The node-by-node traversal of PartialScene.draw over generated scenes,
+ * against a RecordingRenderer, so that only the scene graph's own dispatch
+ * and the renderer calls it makes are measured. With batched, the scenes are
+ * first merged by StaticBatcher, leaving a mesh for each material instead of
+ * a shape for each node. The exports are the ones JOGL 2.3 needs on JDK 17 to
+ * construct the renderer's GLJPanel.
+ *
+ * @author Sayf Elhawary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector",
+                                   "--add-exports",
+                                   "java.base/java.lang=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.awt=ALL-UNNAMED",
+                                   "--add-exports",
+                                   "java.desktop/sun.java2d=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class TraversalBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int nodeCount;
+
+	@Param({ "false", "true" })
+	public boolean batched;
+
+	private PartialScene root;
+	private RecordingRenderer renderer;
+
+	@Setup
+	public void setUp () {
+		Scene scene = SceneGenerator.scene(nodeCount,42);
+		root = scene.getRootNode();
+		if ( batched ) {
+			StaticBatcher.batch(root);
+		}
+		renderer = new RecordingRenderer(scene);
+	}
+
+	@Benchmark
+	public long draw () {
+		renderer.resetCalls();
+		root.draw(renderer);
+		return renderer.getCalls();
+	}
+}
@@ -0,0 +1,120 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The scalar, Vector API and fork/join transforms give the same floats, bit
+ * for bit, as each other and as Mat4.transformPoints, at sizes with and
+ * without a partial vector at the end and on both sides of
+ * PARALLEL_THRESHOLD.
+ *
+ * @author Sayf Elhawary
+ */
+class BatchTransformTest {
+
+	private final Random random = new Random(20261018);
+
+	@Test
+	void everyPathGivesTheSameFloats () {
+		// the surefire JVM has the module, and the vector path must be tested
+		assertTrue(BatchTransform.isVectorAvailable(),"jdk.incubator.vector");
+		int lanes = VectorTransformKernel.lanes();
+		int threshold = BatchTransform.PARALLEL_THRESHOLD;
+		int[] sizes = { 0, 1, lanes - 1, lanes, lanes + 1, 3 * lanes + lanes / 2,
+		                1000, threshold - 1, threshold, threshold + 1,
+		                threshold + lanes - 1, 3 * threshold + 5 };
+		for ( int size : sizes ) {
+			for ( int trial = 0 ; trial < 3 ; trial++ ) {
+				check(size,matrix());
+			}
+		}
+	}
+
+	@Test
+	void transformingInPlaceGivesTheSameFloats () {
+		int size = 2 * BatchTransform.PARALLEL_THRESHOLD + 3;
+		float[] m = matrix();
+		PointBuffer src = points(size);
+		PointBuffer expected = new PointBuffer(size);
+		BatchTransform.transformScalar(m,0,src,expected);
+		BatchTransform.transformParallel(m,0,src,src);
+		assertSame(expected,src,"in place, " + size + " points");
+	}
+
+	private void check ( int size, float[] m ) {
+		PointBuffer src = points(size);
+		PointBuffer scalar = new PointBuffer(size),
+		    vector = new PointBuffer(size), parallel = new PointBuffer(size),
+		    chosen = new PointBuffer(size);
+		BatchTransform.transformScalar(m,0,src,scalar);
+		BatchTransform.transformVector(m,0,src,vector);
+		BatchTransform.transformParallel(m,0,src,parallel);
+		BatchTransform.transform(m,0,src,chosen);
+		assertSame(scalar,vector,"vector, " + size + " points");
+		assertSame(scalar,parallel,"fork/join, " + size + " points");
+		assertSame(scalar,chosen,"transform, " + size + " points");
+
+		// and the interleaved loop the rest of the renderer uses
+		float[] packed = new float[3 * size];
+		for ( int i = 0 ; i < size ; i++ ) {
+			packed[3 * i] = src.getX()[i];
+			packed[3 * i + 1] = src.getY()[i];
+			packed[3 * i + 2] = src.getZ()[i];
+		}
+		Mat4.transformPoints(m,0,packed,0,packed,0,size);
+		PointBuffer interleaved = new PointBuffer(size);
+		interleaved.setSize(size);
+		for ( int i = 0 ; i < size ; i++ ) {
+			interleaved.set(i,packed[3 * i],packed[3 * i + 1],packed[3 * i + 2]);
+		}
+		assertSame(scalar,interleaved,
+		           "Mat4.transformPoints, " + size + " points");
+	}
+
+	private static void assertSame ( PointBuffer expected, PointBuffer actual,
+	                                 String what ) {
+		int n = expected.size();
+		assertArrayEquals(bits(expected.getX(),n),bits(actual.getX(),n),what);
+		assertArrayEquals(bits(expected.getY(),n),bits(actual.getY(),n),what);
+		assertArrayEquals(bits(expected.getZ(),n),bits(actual.getZ(),n),what);
+	}
+
+	private static int[] bits ( float[] values, int n ) {
+		int[] bits = new int[n];
+		for ( int i = 0 ; i < n ; i++ ) {
+			bits[i] = Float.floatToRawIntBits(values[i]);
+		}
+		return bits;
+	}
+
+	// an affine matrix with entries of mixed sizes and signs, so that the sums
+	// round differently depending on the order they are added in
+	private float[] matrix () {
+		float[] m = new float[16];
+		for ( int i = 0 ; i < 16 ; i++ ) {
+			m[i] = value();
+		}
+		m[3] = m[7] = m[11] = 0;
+		m[15] = 1;
+		return m;
+	}
+
+	private PointBuffer points ( int size ) {
+		PointBuffer points = new PointBuffer(size);
+		points.setSize(size);
+		for ( int i = 0 ; i < size ; i++ ) {
+			points.set(i,value(),value(),value());
+		}
+		return points;
+	}
+
+	private float value () {
+		return (float) ((random.nextDouble() * 2 - 1)
+		    * Math.pow(10,random.nextInt(7) - 3));
+	}
+}
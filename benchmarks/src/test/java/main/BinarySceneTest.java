@@ -0,0 +1,26 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A scene converted to the binary format must load back as the graph the XML
+ * describes: the same node types, transforms, material colors and texture
+ * files, and the same shapes, lights and cameras.
+ *
+ * @author Sayf Elhawary
+ */
+class BinarySceneTest {
+
+	@Test
+	void loadsTheSameGraphAsTheXML ( @TempDir Path dir ) throws IOException {
+		Path binary = dir.resolve("x.sgb");
+		SceneConverter.convert(Path.of(StreamingSceneLoaderTest.SCENE),binary);
+		SceneGraphAssert.assertSameScene(FileManager
+		    .loadXMLScene(StreamingSceneLoaderTest.SCENE),FileManager
+		        .loadBinaryScene(binary.toString()));
+	}
+}
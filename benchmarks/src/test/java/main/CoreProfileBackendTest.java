@@ -0,0 +1,90 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+import org.junit.jupiter.api.Test;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLException;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
+
+/**
+ * The core profile backend's program must compile and link on a real GL3
+ * context, and draw scenes/x.xml without GL errors. This needs a GL driver
+ * that can make an offscreen GL3 context; without one it is skipped, unless
+ * the gl.required system property is true (as in CI, which runs it under
+ * Mesa's llvmpipe), in which case it fails.
+ *
+ * @author Sayf Elhawary
+ */
+class CoreProfileBackendTest {
+
+	private static final int WIDTH = 256, HEIGHT = 256;
+
+	@Test
+	void drawsTheSceneOffscreen () {
+		if ( !gl3Available() ) {
+			unavailable("no GL3 profile");
+		}
+		CoreProfileBackend backend = new CoreProfileBackend();
+		GLCapabilities caps = backend.getCapabilities();
+		GLOffscreenAutoDrawable drawable = null;
+		try {
+			drawable = GLDrawableFactory.getFactory(caps.getGLProfile())
+			    .createOffscreenAutoDrawable(null,caps,null,WIDTH,HEIGHT);
+		} catch ( GLException e ) {
+			unavailable("no offscreen GL3 drawable: " + e.getMessage());
+		}
+
+		// the renderer draws; setup() throws if the program does not link
+		Renderer renderer =
+		    new Renderer(FileManager.loadXMLScene(StreamingSceneLoaderTest.SCENE),
+		                 backend,RenderSurface.PANEL);
+		int[] error = new int[1];
+		drawable.addGLEventListener(renderer);
+		drawable.addGLEventListener(new GLEventListener() {
+			public void init ( GLAutoDrawable d ) {}
+
+			public void display ( GLAutoDrawable d ) {
+				error[0] = d.getGL().glGetError();
+			}
+
+			public void reshape ( GLAutoDrawable d, int x, int y, int w, int h ) {}
+
+			public void dispose ( GLAutoDrawable d ) {}
+		});
+		try {
+			drawable.display(); // the first frame also compiles and links
+			assertEquals(GL.GL_NO_ERROR,error[0],"GL error in the first frame");
+			drawable.display(); // and the second draws from the caches
+			assertEquals(GL.GL_NO_ERROR,error[0],"GL error in the second frame");
+		} finally {
+			drawable.destroy();
+		}
+	}
+
+	// skips the test, or fails it where a GL driver is required
+	private static void unavailable ( String reason ) {
+		if ( Boolean.getBoolean("gl.required") ) {
+			fail(reason);
+		}
+		abort(reason);
+	}
+
+	// without JOGL's native libraries, or the system libraries they need, the
+	// profiles cannot even be probed
+	private static boolean gl3Available () {
+		try {
+			return GLProfile.isAvailable(GLProfile.GL3);
+		} catch ( GLException | LinkageError e ) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import nodes.PartialScene;
+import nodes.Scene;
+
+/**
+ * Compares scene graphs node by node: the same node types in the same places,
+ * and the same values from every public getter of the nodes and of the
+ * transforms, shapes, lights, materials, textures and cameras they hold.
+ * Getters are found by reflection, so a property added later is compared
+ * without changing this class.
+ *
+ * @author Sayf Elhawary
+ */
+final class SceneGraphAssert {
+
+	// getters that are not part of what a scene describes: change counters,
+	// caches, and whether a mesh happens to be kept in packed buffers
+	private static final Set<String> IGNORED =
+	    Set.of("getVersion","getGeometryVersion","getStructureVersion",
+	           "getChildren","getBounds","getGeometry","isPacked");
+
+	// the packages whose objects are compared property by property
+	private static final Set<String> PACKAGES =
+	    Set.of("main","nodes","shapes","lights","transformations");
+
+	private SceneGraphAssert () {}
+
+	/**
+	 * Asserts that two scenes have the same background and the same graph.
+	 */
+	static void assertSameScene ( Scene expected, Scene actual ) {
+		assertEquals(Arrays.toString(expected.getBGColors()),
+		             Arrays.toString(actual.getBGColors()),"background");
+		assertSameGraph("root",expected.getRootNode(),actual.getRootNode());
+	}
+
+	/**
+	 * Asserts that two subtrees have the same nodes with the same properties.
+	 *
+	 * @param path
+	 *          Where the subtrees are, for failure messages.
+	 */
+	static void assertSameGraph ( String path, PartialScene expected,
+	                              PartialScene actual ) {
+		assertSameProperties(path,expected,actual,new IdentityHashMap<>());
+		List<PartialScene> e = expected.getChildren(), a = actual.getChildren();
+		assertEquals(e.size(),a.size(),path + ": number of children");
+		for ( int i = 0 ; i < e.size() ; i++ ) {
+			String child = e.get(i).getClass().getSimpleName();
+			assertSameGraph(path + "/" + i + ":" + child,e.get(i),a.get(i));
+		}
+	}
+
+	private static void assertSameProperties ( String path, Object expected,
+	                                           Object actual,
+	                                           Map<Object,Object> compared ) {
+		if ( expected == null || actual == null ) {
+			assertSame(expected,actual,path);
+			return;
+		}
+		assertEquals(expected.getClass(),actual.getClass(),path + ": type");
+		if ( compared.put(expected,actual) != null ) {
+			return; // shared, and compared where it was first met
+		}
+		Method[] getters = expected.getClass().getMethods();
+		Arrays.sort(getters,Comparator.comparing(Method::getName));
+		for ( Method getter : getters ) {
+			String name = getter.getName();
+			if ( getter.getParameterCount() != 0
+			    || Modifier.isStatic(getter.getModifiers())
+			    || getter.getDeclaringClass() == Object.class
+			    || !(name.startsWith("get") || name.startsWith("is"))
+			    || IGNORED.contains(name) ) {
+				continue;
+			}
+			String where = path + "." + name;
+			Object e = get(getter,expected,where), a = get(getter,actual,where);
+			Class<?> type = getter.getReturnType();
+			if ( type.isPrimitive() || type.isEnum() || type == String.class ) {
+				assertEquals(e,a,where);
+			} else if ( type.isArray() ) {
+				assertTrue(Objects.deepEquals(e,a),where + ": expected "
+				    + Arrays.deepToString(new Object[] { e }) + " but was "
+				    + Arrays.deepToString(new Object[] { a }));
+			} else if ( e != null
+			    && PACKAGES.contains(e.getClass().getPackageName()) ) {
+				assertSameProperties(where,e,a,compared);
+			} else {
+				assertEquals(e,a,where);
+			}
+		}
+	}
+
+	private static Object get ( Method getter, Object target, String where ) {
+		try {
+			return getter.invoke(target);
+		} catch ( IllegalAccessException | InvocationTargetException e ) {
+			return fail(where + " could not be read",e);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The streaming XML loader must build the same graph as the DOM loader it
+ * replaced.
+ *
+ * @author Sayf Elhawary
+ */
+class StreamingSceneLoaderTest {
+
+	static final String SCENE = "scenes/x.xml";
+
+	@Test
+	void buildsTheSameGraphAsTheDOMLoader () {
+		SceneGraphAssert.assertSameScene(FileManager.loadXMLSceneDOM(SCENE),
+		                                 FileManager.loadXMLScene(SCENE));
+	}
+
+	@Test
+	void encodesToTheSameBytesAsTheDOMLoader ( @TempDir Path dir )
+	    throws IOException {
+		Path dom = dir.resolve("dom.bin"), streamed = dir.resolve("streamed.bin");
+		FileManager.saveBinaryScene(FileManager.loadXMLSceneDOM(SCENE),
+		                            dom.toString());
+		FileManager.saveBinaryScene(FileManager.loadXMLScene(SCENE),
+		                            streamed.toString());
+		assertArrayEquals(Files.readAllBytes(dom),Files.readAllBytes(streamed));
+	}
+}
@@ -0,0 +1,115 @@
+package nodes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import main.Material;
+import shapes.Sphere;
+import transformations.Translation;
+
+/**
+ * A change is seen by the versions of the subtrees it is in, and only by
+ * those.
+ *
+ * @author Sayf Elhawary
+ */
+class PartialSceneTest {
+
+	private final Scene scene = new Scene(0,0,0,1);
+	private final Translation translation = new Translation(1,2,3,false);
+	private final Material material =
+	    new Material(new float[] { 0, 0, 0, 1 },new float[] { 1, 0, 0, 1 },
+	                 new float[] { 0, 0, 0, 1 },new float[] { 0, 0, 0, 1 },0);
+	private final PartialScene changed = new PartialScene();
+	private final PartialScene other = new PartialScene();
+
+	PartialSceneTest () {
+		changed.addChild(new TransformNode(translation));
+		changed.addChild(new MaterialNode(material));
+		changed.addChild(new ShapeNode(new Sphere("SOLID",1,8,8)));
+		other.addChild(new ShapeNode(new Sphere("SOLID",1,8,8)));
+		scene.add(changed);
+		scene.add(other);
+	}
+
+	@Test
+	void aTransformChangesItsAncestorsOnly () {
+		long root = scene.getRootNode().getGeometryVersion(),
+		    group = changed.getGeometryVersion(),
+		    sibling = other.getGeometryVersion();
+		translation.setX(5);
+		assertNotEquals(root,scene.getRootNode().getGeometryVersion());
+		assertNotEquals(group,changed.getGeometryVersion());
+		assertEquals(sibling,other.getGeometryVersion());
+	}
+
+	@Test
+	void aMaterialDoesNotChangeGeometry () {
+		long version = changed.getVersion(),
+		    geometry = changed.getGeometryVersion();
+		material.setDiffuse(0,1,0,1);
+		assertNotEquals(version,changed.getVersion());
+		assertEquals(geometry,changed.getGeometryVersion());
+	}
+
+	@Test
+	void aRemovedChildIsNoLongerHeard () {
+		scene.remove(changed);
+		long root = scene.getRootNode().getVersion();
+		translation.setX(5);
+		assertEquals(root,scene.getRootNode().getVersion());
+	}
+
+	@Test
+	void anotherScenesStructureDoesNotRecompile () {
+		Scene elsewhere = new Scene(0,0,0,1);
+		CommandBuffer commands = scene.getCommands();
+		elsewhere.add(new PartialScene());
+		translation.setX(5);
+		assertTrue(commands.isCurrent());
+		changed.addChild(new PartialScene());
+		assertFalse(commands.isCurrent());
+	}
+
+	@Test
+	void aSnapshotOfTheChildrenDoesNotChange () {
+		PartialScene group = new PartialScene();
+		PartialScene a = new PartialScene(), b = new PartialScene(),
+		    c = new PartialScene();
+		group.addChild(a);
+		group.addChild(b);
+		group.addChild(c); // leaves room for a fourth
+		List<PartialScene> snapshot = group.getChildren();
+		group.addChild(new PartialScene());
+		group.removeChild(a);
+		assertEquals(List.of(a,b,c),snapshot);
+		assertEquals(3,group.getChildren().size());
+		assertEquals(b,group.getChildren().get(0));
+	}
+
+	@Test
+	void addingManyChildrenOneAtATimeDoesNotCopyThemEachTime () {
+		PartialScene group = new PartialScene();
+		assertTimeoutPreemptively(Duration.ofSeconds(10),() -> {
+			for ( int i = 0 ; i < 500_000 ; i++ ) {
+				group.addChild(new PartialScene());
+			}
+		});
+		assertEquals(500_000,group.getChildren().size());
+	}
+
+	@Test
+	void boundsFollowTheTransform () {
+		float before = changed.getBounds().getCenterX();
+		translation.setX(11);
+		assertEquals(before + 10,changed.getBounds().getCenterX(),1e-5);
+	}
+}
@@ -0,0 +1,80 @@
+package nodes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import transformations.Translation;
+
+/**
+ * A submitted batch is applied in full or not at all.
+ *
+ * @author Sayf Elhawary
+ */
+class SceneUpdateTest {
+
+	private final Scene scene = new Scene(0,0,0,1);
+	private final PartialScene a = new PartialScene(), b = new PartialScene(),
+	    c = new PartialScene();
+	private final List<Throwable> reported = new ArrayList<>();
+	private Thread.UncaughtExceptionHandler handler;
+
+	@BeforeEach
+	void catchReports () {
+		handler = Thread.currentThread().getUncaughtExceptionHandler();
+		Thread.currentThread().setUncaughtExceptionHandler((t, e) -> reported
+		    .add(e));
+		scene.add(a);
+		scene.add(b);
+	}
+
+	@AfterEach
+	void restoreHandler () {
+		Thread.currentThread().setUncaughtExceptionHandler(handler);
+	}
+
+	@Test
+	void aFailingBatchIsRolledBackAndReported () {
+		Translation translation = new Translation(1,2,3,false);
+		RuntimeException failure = new IllegalArgumentException("bad change");
+		scene.submit(new SceneUpdate().addChild(a,c).removeChild(scene
+		    .getRootNode(),b).run(() -> translation.setX(7),
+		                          () -> translation.setX(1))
+		    .run(() -> { throw failure; }));
+		assertEquals(1,scene.publish());
+
+		assertEquals(List.of(a,b),scene.getRootNode().getChildren());
+		assertEquals(List.of(),a.getChildren());
+		assertEquals(1,translation.getX());
+		assertSame(failure,scene.getUpdateFailure());
+		assertEquals(List.of(failure),reported);
+	}
+
+	@Test
+	void theBatchesAfterAFailingOneAreApplied () {
+		scene.submit(new SceneUpdate().run(() -> {
+			throw new IllegalArgumentException();
+		}));
+		scene.submit(new SceneUpdate().addChild(a,c));
+		assertEquals(2,scene.publish());
+		assertEquals(List.of(c),a.getChildren());
+		assertEquals(1,reported.size());
+	}
+
+	@Test
+	void aBatchThatCannotBeRolledBackIsNotDrawn () {
+		scene.submit(new SceneUpdate().run(() -> a.addChild(c)).run(() -> {
+			throw new IllegalArgumentException();
+		}));
+		scene.submit(new SceneUpdate().addChild(b,c));
+		assertThrows(IllegalStateException.class,scene::publish);
+		assertEquals(1,scene.getPendingUpdates());
+	}
+}
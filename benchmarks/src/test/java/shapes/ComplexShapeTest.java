@@ -0,0 +1,55 @@
+package shapes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A shape packed in place keeps its geometry and no longer holds its arrays.
+ *
+ * @author Sayf Elhawary
+ */
+class ComplexShapeTest {
+
+	private final ComplexShape house = new ComplexShape(ComplexShape.HOUSE);
+
+	@Test
+	void packingKeepsTheGeometryAndDropsTheArrays () {
+		double[][] vertices = house.getVertices();
+		int[][] faces = house.getFaces();
+		PackedGeometry geometry = house.getGeometry();
+		int version = house.getVersion();
+
+		house.pack();
+
+		assertTrue(house.isPacked());
+		assertNull(house.vertices);
+		assertNull(house.faces);
+		assertNull(house.faceNormals);
+		assertNull(house.vertexNormals);
+		assertSame(geometry,house.getGeometry());
+		assertEquals(version,house.getVersion());
+		assertArrayEquals(faces,house.getFaces());
+		double[][] packed = house.getVertices();
+		assertEquals(vertices.length,packed.length);
+		for ( int i = 0 ; i < vertices.length ; i++ ) {
+			for ( int c = 0 ; c < 3 ; c++ ) {
+				assertEquals((float) vertices[i][c],packed[i][c]);
+			}
+		}
+	}
+
+	@Test
+	void theShapeItWasCopiedFromKeepsItsArrays () {
+		house.pack();
+		house.pack(); // and packing twice does nothing
+		assertNotNull(ComplexShape.HOUSE.vertices);
+		assertFalse(ComplexShape.HOUSE.isPacked());
+	}
+}
@@ -0,0 +1,140 @@
+package transformations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import nodes.CommandBuffer;
+import nodes.PartialScene;
+import nodes.TransformNode;
+
+/**
+ * The values keyframe tracks take between and around their keys, and that
+ * an animation is evaluated once for all of its transforms.
+ *
+ * @author Sayf Elhawary
+ */
+class KeyframeAnimationTest {
+
+	private static final float EPSILON = 1e-5f;
+
+	private final KeyframeAnimation animation = new KeyframeAnimation(1);
+
+	@Test
+	void aStepTrackHoldsEachKeyUntilTheNext () {
+		KeyframeTrack track = translation(Interpolation.STEP);
+		track.addKey(0,1,0,0).addKey(1,5,0,0);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		assertEquals(1,x(t,0.99),EPSILON);
+		assertEquals(5,x(t,1),EPSILON);
+		assertEquals(5,x(t,7),EPSILON); // held after the last key
+		assertEquals(1,x(t,-3),EPSILON); // and before the first
+	}
+
+	@Test
+	void aLinearTrackBlendsInAStraightLine () {
+		KeyframeTrack track = translation(Interpolation.LINEAR);
+		track.addKey(0,0,0,0).addKey(2,10,-4,6);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		animation.evaluate(0.5);
+		float[] m = animation.getMatrices();
+		int o = 16 * t.getIndex();
+		assertEquals(2.5f,m[o + 12],EPSILON);
+		assertEquals(-1,m[o + 13],EPSILON);
+		assertEquals(1.5f,m[o + 14],EPSILON);
+	}
+
+	@Test
+	void aRotationTakesTheShorterWayRound () {
+		// the second key is the 90 degree turn with its sign flipped: the same
+		// rotation, but in the other hemisphere from the first key
+		float[] turn = KeyframeTrack.axisAngle(90,0,0,1);
+		float[] flipped = { -turn[0], -turn[1], -turn[2], -turn[3] };
+		KeyframeTrack track =
+		    new KeyframeTrack(KeyframeTrack.Target.ROTATION,Interpolation.LINEAR);
+		track.addKey(0,0,0,0,1).addKey(1,flipped);
+		KeyframeTransform t = animation.createTransform(null,track,null,false);
+		animation.evaluate(0.5);
+		float[] m = animation.getMatrices();
+		int o = 16 * t.getIndex();
+		// halfway is 45 degrees about z, not 135 the long way round
+		float half = (float) Math.sqrt(0.5);
+		assertEquals(half,m[o],EPSILON);
+		assertEquals(half,m[o + 1],EPSILON);
+		assertEquals(1,m[o + 10],EPSILON);
+	}
+
+	@Test
+	void hermiteTangentsArePerSecond () {
+		// a key 2 seconds from the next, leaving at 1 unit per second: over the
+		// segment the tangent is 2, and halfway the basis gives 0.125 of it
+		KeyframeTrack track = translation(Interpolation.HERMITE);
+		track.addKey(0,new float[] { 0, 0, 0 },null,new float[] { 1, 0, 0 })
+		    .addKey(2,new float[] { 0, 0, 0 },null,null);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		assertEquals(0.25f,x(t,1),EPSILON);
+	}
+
+	@Test
+	void bezierControlPointsBecomeTheSameCurve () {
+		// P0 = 0, P1 = 2, P2 = 2, P3 = 0
+		KeyframeTrack track = translation(Interpolation.CUBIC_BEZIER);
+		track.addKey(0,new float[] { 0, 0, 0 },null,new float[] { 2, 0, 0 })
+		    .addKey(1,new float[] { 0, 0, 0 },new float[] { 2, 0, 0 },null);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		for ( double s = 0 ; s <= 1 ; s += 0.125 ) {
+			double bezier = 3 * (1 - s) * (1 - s) * s * 2 + 3 * (1 - s) * s * s * 2;
+			assertEquals(bezier,x(t,s),EPSILON,"at " + s);
+		}
+	}
+
+	@Test
+	void aLoopingTrackWrapsAroundInBothDirections () {
+		KeyframeTrack track = translation(Interpolation.LINEAR).setLoop(true);
+		track.addKey(0,0,0,0).addKey(1,10,0,0);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		assertEquals(2.5f,x(t,1.25),EPSILON);
+		assertEquals(2.5f,x(t,3.25),EPSILON);
+		assertEquals(7.5f,x(t,-0.25),EPSILON);
+	}
+
+	@Test
+	void aTransformOnlyReadsItsAnimation () {
+		KeyframeTrack track = translation(Interpolation.LINEAR);
+		track.addKey(0,0,0,0).addKey(10,10,0,0);
+		KeyframeTransform t = animation.createTransform(track,null,null,false);
+		animation.evaluateAt(3);
+		float[] m = new float[16];
+		m[0] = m[5] = m[10] = m[15] = 1;
+		t.applyTo(m,0,7); // a later tick, but the animation is not evaluated
+		assertEquals(3,m[12],EPSILON);
+	}
+
+	@Test
+	void aCommandBufferListsEachAnimationOnce () {
+		KeyframeAnimation other = new KeyframeAnimation(1);
+		KeyframeTrack track = translation(Interpolation.LINEAR).addKey(0,0,0,0);
+		PartialScene root = new PartialScene();
+		root.addChild(new TransformNode(animation.createTransform(track,null,
+		                                                          null,false)));
+		root.addChild(new TransformNode(other.createTransform(track,null,null,
+		                                                      false)));
+		root.addChild(new TransformNode(animation.createTransform(track,null,
+		                                                          null,false)));
+		CommandBuffer commands = new CommandBuffer();
+		commands.compile(root);
+		assertEquals(2,commands.getAnimationCount());
+		assertEquals(animation,commands.getAnimations()[0]);
+		assertEquals(other,commands.getAnimations()[1]);
+	}
+
+	private static KeyframeTrack translation ( Interpolation interpolation ) {
+		return new KeyframeTrack(KeyframeTrack.Target.TRANSLATION,interpolation);
+	}
+
+	// the x of the transform's translation at a time
+	private float x ( KeyframeTransform t, double time ) {
+		animation.evaluate(time);
+		return animation.getMatrices()[16 * t.getIndex() + 12];
+	}
+}
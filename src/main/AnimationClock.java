@@ -0,0 +1,165 @@
+package main;
+
+/**
+ * The time base for animated transforms. Time advances in fixed steps (ticks),
+ * 1/60 s by default, independently of how often frames are drawn: update()
+ * turns the wall-clock time since the last call into whole ticks, so an
+ * animation runs at the same speed whether the scene is drawn at 30 or 144
+ * frames per second. Animated transforms are functions of the tick only.
+ *
+ * The clock can be paused, run faster or slower with a time scale, and moved
+ * to any tick with seek(). A paused clock is not advanced by update(), so a
+ * headless render can seek to a tick and draw it, and always get the same
+ * frame.
+ *
+ * The clock is advanced on the GL thread and may be paused, scaled or moved
+ * from any other, e.g. a UI thread: every method is synchronized.
+ *
+ * @author Sayf Elhawary
+ */
+public class AnimationClock {
+
+	/**
+	 * The default length of a tick, in nanoseconds.
+	 */
+	public static final long DEFAULT_STEP_NANOS = 1_000_000_000L / 60;
+
+	// the most ticks one update() may add, so that a long stall (e.g. a
+	// debugger break) does not make animations jump ahead
+	private static final int MAX_STEPS_PER_UPDATE = 30;
+
+	private final long stepNanos;
+	private long tick;
+	private double accumulated; // scaled nanoseconds not yet making up a tick
+	private long lastTime;
+	private boolean started;
+	private boolean paused;
+	private double timeScale;
+
+	/**
+	 * Constructs a clock at tick 0 with the default step.
+	 */
+	public AnimationClock () {
+		this(DEFAULT_STEP_NANOS);
+	}
+
+	/**
+	 * Constructs a clock at tick 0.
+	 *
+	 * @param stepNanos
+	 *          The length of a tick, in nanoseconds.
+	 */
+	public AnimationClock ( long stepNanos ) {
+		if ( stepNanos <= 0 ) {
+			throw new IllegalArgumentException("step must be positive: "
+			    + stepNanos);
+		}
+		this.stepNanos = stepNanos;
+		timeScale = 1;
+	}
+
+	/**
+	 * Advances the clock by the time since the last update, in whole ticks. The
+	 * first call only records the time.
+	 *
+	 * @param nanoTime
+	 *          The current time, from System.nanoTime().
+	 * @return The number of ticks the clock advanced.
+	 */
+	public synchronized int update ( long nanoTime ) {
+		if ( !started ) {
+			started = true;
+			lastTime = nanoTime;
+			return 0;
+		}
+		long elapsed = nanoTime - lastTime;
+		lastTime = nanoTime;
+		if ( paused || elapsed <= 0 ) {
+			return 0;
+		}
+		accumulated += elapsed * timeScale;
+		int steps = 0;
+		while ( accumulated >= stepNanos && steps < MAX_STEPS_PER_UPDATE ) {
+			accumulated -= stepNanos;
+			steps++;
+		}
+		if ( steps == MAX_STEPS_PER_UPDATE ) {
+			accumulated = 0;
+		}
+		tick += steps;
+		return steps;
+	}
+
+	/**
+	 * Advances the clock by a number of ticks, whether or not it is paused.
+	 *
+	 * @param ticks
+	 *          The number of ticks.
+	 */
+	public synchronized void advance ( long ticks ) {
+		tick += ticks;
+	}
+
+	/**
+	 * Moves the clock to a tick, discarding any partial tick.
+	 *
+	 * @param tick
+	 *          The new tick.
+	 */
+	public synchronized void seek ( long tick ) {
+		this.tick = tick;
+		accumulated = 0;
+	}
+
+	/**
+	 * Gets the current tick.
+	 *
+	 * @return The number of ticks since the clock started, as moved by seek().
+	 */
+	public synchronized long getTick () {
+		return tick;
+	}
+
+	/**
+	 * Gets the animation time of the current tick.
+	 *
+	 * @return The time, in seconds.
+	 */
+	public synchronized double getTime () {
+		return tick * (stepNanos / 1e9);
+	}
+
+	public long getStepNanos () {
+		return stepNanos;
+	}
+
+	public synchronized boolean isPaused () {
+		return paused;
+	}
+
+	/**
+	 * Pauses or resumes the clock. Time that passes while paused is not made up
+	 * later.
+	 */
+	public synchronized void setPaused ( boolean paused ) {
+		this.paused = paused;
+	}
+
+	public synchronized double getTimeScale () {
+		return timeScale;
+	}
+
+	/**
+	 * Sets how fast animation time runs relative to real time: 2 is twice as
+	 * fast, 0.5 half as fast.
+	 *
+	 * @param timeScale
+	 *          The scale; must not be negative.
+	 */
+	public synchronized void setTimeScale ( double timeScale ) {
+		if ( !(timeScale >= 0) || Double.isInfinite(timeScale) ) {
+			throw new IllegalArgumentException("invalid time scale: " + timeScale);
+		}
+		this.timeScale = timeScale;
+	}
+}
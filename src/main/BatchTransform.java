@@ -0,0 +1,181 @@
+package main;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transforms many points by one matrix, for baking transformed meshes and
+ * bounds of large ComplexShapes. Points are held in PointBuffers (one array per
+ * coordinate) and w is taken to be 1.
+ *
+ * There are three ways to run the transform:
+ * <ul>
+ * <li>transformScalar, a plain loop;</li>
+ * <li>transformVector, which uses the Java Vector API and is only available
+ * when the JVM was started with --add-modules jdk.incubator.vector;</li>
+ * <li>transformParallel, which splits large inputs across the common fork/join
+ * pool and uses the vector kernel in each piece when it is available.</li>
+ * </ul>
+ * transform() picks the vector kernel when it is available and the scalar loop
+ * otherwise.
+ *
+ * All of them compute each coordinate as ((m0*x + m4*y) + m8*z) + m12 in float,
+ * with no fused multiply-add, and Java float arithmetic is strict, so every
+ * path gives the same bits as the others and as Mat4.transformPoints: the
+ * tolerance is zero ulps, which BatchTransformTest checks on random input. A
+ * kernel that used FMA would round once instead of twice per term and could
+ * differ by up to 2 ulps per coordinate; none does.
+ *
+ * @author Sayf Elhawary
+ */
+public final class BatchTransform {
+
+	/**
+	 * Inputs with fewer points than this are not split by transformParallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	private static final int MIN_SPLIT = 1 << 14; // points per fork/join task
+
+	private static final boolean VECTOR_AVAILABLE = vectorAvailable();
+
+	private BatchTransform () {}
+
+	private static boolean vectorAvailable () {
+		try {
+			return VectorTransformKernel.lanes() > 1;
+		} catch ( LinkageError e ) {
+			return false; // jdk.incubator.vector is not in the module graph
+		}
+	}
+
+	/**
+	 * Tells whether the Vector API kernel can be used.
+	 *
+	 * @return true if transformVector is available.
+	 */
+	public static boolean isVectorAvailable () {
+		return VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * Transforms all the points in src into dst, using the vector kernel if it is
+	 * available. dst is resized to match and may be src.
+	 *
+	 * @param m
+	 *          The array holding the column-major matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 */
+	public static void transform ( float[] m, int offset, PointBuffer src,
+	                               PointBuffer dst ) {
+		dst.setSize(src.size());
+		run(m,offset,src,dst,0,src.size(),VECTOR_AVAILABLE);
+	}
+
+	/**
+	 * Transforms all the points in src into dst with the scalar loop.
+	 */
+	public static void transformScalar ( float[] m, int offset, PointBuffer src,
+	                                     PointBuffer dst ) {
+		dst.setSize(src.size());
+		run(m,offset,src,dst,0,src.size(),false);
+	}
+
+	/**
+	 * Transforms all the points in src into dst with the Vector API kernel.
+	 *
+	 * @throws UnsupportedOperationException
+	 *           if the jdk.incubator.vector module is not available.
+	 */
+	public static void transformVector ( float[] m, int offset, PointBuffer src,
+	                                     PointBuffer dst ) {
+		if ( !VECTOR_AVAILABLE ) {
+			throw new UnsupportedOperationException("jdk.incubator.vector is not available");
+		}
+		dst.setSize(src.size());
+		run(m,offset,src,dst,0,src.size(),true);
+	}
+
+	/**
+	 * Transforms all the points in src into dst, splitting inputs of at least
+	 * PARALLEL_THRESHOLD points across the common fork/join pool.
+	 */
+	public static void transformParallel ( float[] m, int offset,
+	                                       PointBuffer src, PointBuffer dst ) {
+		dst.setSize(src.size());
+		if ( src.size() < PARALLEL_THRESHOLD ) {
+			run(m,offset,src,dst,0,src.size(),VECTOR_AVAILABLE);
+		} else {
+			ForkJoinPool.commonPool()
+			    .invoke(new TransformTask(m,offset,src,dst,0,src.size()));
+		}
+	}
+
+	private static void run ( float[] m, int offset, PointBuffer src,
+	                          PointBuffer dst, int from, int to,
+	                          boolean vector ) {
+		if ( vector ) {
+			VectorTransformKernel.transform(m,offset,src.getX(),src.getY(),
+			                                src.getZ(),dst.getX(),dst.getY(),
+			                                dst.getZ(),from,to);
+		} else {
+			transformScalar(m,offset,src.getX(),src.getY(),src.getZ(),dst.getX(),
+			                dst.getY(),dst.getZ(),from,to);
+		}
+	}
+
+	/**
+	 * Transforms points from to to-1 of the source arrays into the destination
+	 * arrays, which may be the same arrays.
+	 */
+	static void transformScalar ( float[] m, int offset, float[] sx, float[] sy,
+	                              float[] sz, float[] dx, float[] dy, float[] dz,
+	                              int from, int to ) {
+		float m0 = m[offset], m1 = m[offset + 1], m2 = m[offset + 2];
+		float m4 = m[offset + 4], m5 = m[offset + 5], m6 = m[offset + 6];
+		float m8 = m[offset + 8], m9 = m[offset + 9], m10 = m[offset + 10];
+		float m12 = m[offset + 12], m13 = m[offset + 13], m14 = m[offset + 14];
+		for ( int i = from ; i < to ; i++ ) {
+			float x = sx[i], y = sy[i], z = sz[i];
+			dx[i] = m0 * x + m4 * y + m8 * z + m12;
+			dy[i] = m1 * x + m5 * y + m9 * z + m13;
+			dz[i] = m2 * x + m6 * y + m10 * z + m14;
+		}
+	}
+
+	/**
+	 * Halves its range until the pieces are small, then transforms each piece.
+	 */
+	private static class TransformTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] m;
+		private final int offset;
+		private final PointBuffer src, dst;
+		private final int from, to;
+
+		TransformTask ( float[] m, int offset, PointBuffer src, PointBuffer dst,
+		                int from, int to ) {
+			this.m = m;
+			this.offset = offset;
+			this.src = src;
+			this.dst = dst;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if ( to - from <= 2 * MIN_SPLIT ) {
+				run(m,offset,src,dst,from,to,VECTOR_AVAILABLE);
+				return;
+			}
+			// split on a multiple of MIN_SPLIT so vector loops stay whole
+			int mid = from + ((to - from) / 2 / MIN_SPLIT) * MIN_SPLIT;
+			invokeAll(new TransformTask(m,offset,src,dst,from,mid),
+			          new TransformTask(m,offset,src,dst,mid,to));
+		}
+	}
+}
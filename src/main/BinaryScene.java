@@ -0,0 +1,102 @@
+package main;
+
+import java.nio.ByteOrder;
+
+/**
+ * The layout of a binary scene file, shared by BinarySceneWriter and
+ * BinarySceneReader. A binary scene holds the same graph an XML scene does,
+ * laid out so that it can be mapped into memory and read in place.
+ *
+ * All values are little-endian. The file starts with a header of HEADER_SIZE
+ * bytes: MAGIC, VERSION, then the counts and the byte offsets of the
+ * sections, each of which starts on an ALIGNMENT-byte boundary:
+ *
+ * <ul>
+ * <li>nodes: a record of four ints for each node, in depth-first order: its
+ * kind, its number of children (whose records follow it), the index of its
+ * first value in the floats section and the index of its first value in the
+ * ints section. A node whose kind has the SHARED bit has the same content
+ * (shape, transform, material, ...) as the node at the index in its third
+ * field. A LINK node is the node at that index, added again.</li>
+ * <li>floats: the float attributes of the nodes and the keys of the tracks.
+ * </li>
+ * <li>ints: the int attributes of the nodes; strings, tracks, animations and
+ * meshes are referred to by their index, or -1 for none.</li>
+ * <li>tracks: a record of four ints for each keyframe track: its target (with
+ * the LOOP bit if it loops), its interpolation, its number of keys and the
+ * index of its times in the floats section, which are followed by its values,
+ * in controls and out controls.</li>
+ * <li>animations: the seconds per tick of each keyframe animation, as
+ * doubles.</li>
+ * <li>meshes: a record of MESH_RECORD ints for each mesh; see the MESH_
+ * constants. A mesh's vertices (3 floats each), vertex normals (3 floats
+ * each), face starts (one more than there are faces), face indices, texture
+ * coordinate row starts and texture coordinates are aligned blocks of their
+ * own, so they can be handed to GL as views of the mapped file. The normals
+ * are stored, rather than computed when the file is read, so that meshes
+ * whose normals were not averaged from their faces, such as those
+ * StaticBatcher makes, keep them. MESH_TEX_ROWS is -1 for a mesh without texture
+ * coordinates.</li>
+ * <li>strings: the byte offset of each string and then of the end of the
+ * last one, followed by the strings in UTF-8.</li>
+ * </ul>
+ *
+ * Colors, positions and directions are stored with four components and shape
+ * and camera parameters in single precision, as in XML scenes.
+ *
+ * @author Sayf Elhawary
+ */
+final class BinaryScene {
+
+	static final int MAGIC = 0x4E424753; // "SGBN"
+	static final int VERSION = 2;
+
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	static final int ALIGNMENT = 16;
+
+	// the header: ints at these byte offsets
+	static final int HEADER_SIZE = 96;
+	static final int H_MAGIC = 0, H_VERSION = 4, H_NODES = 8, H_FLOATS = 12,
+	    H_INTS = 16, H_TRACKS = 20, H_ANIMATIONS = 24, H_MESHES = 28,
+	    H_STRINGS = 32;
+	static final int H_BACKGROUND = 40; // 4 floats
+	static final int H_NODES_AT = 56, H_FLOATS_AT = 60, H_INTS_AT = 64,
+	    H_TRACKS_AT = 68, H_ANIMATIONS_AT = 72, H_MESHES_AT = 76,
+	    H_STRINGS_AT = 80, H_FILE_SIZE = 84;
+
+	// ints per node and per track record
+	static final int NODE_RECORD = 4, TRACK_RECORD = 4;
+
+	// the kinds of node
+	static final int GROUP = 1, POINT_LIGHT = 2, DIRECTIONAL_LIGHT = 3,
+	    SPOT_LIGHT = 4, CUBE = 5, TEAPOT = 6, SPHERE = 7, UNIT_SPHERE = 8,
+	    CONE = 9, CYLINDER = 10, TORUS = 11, MESH = 12, TRANSLATION = 13,
+	    SCALE = 14, ANIMATED_TRANSLATION = 15, ANIMATED_SCALE = 16,
+	    ROTATION = 17, ANIMATED_ROTATION = 18, KEYFRAME = 19, CAMERA = 20,
+	    MATERIAL = 21, TEXTURE = 22, LINK = 23;
+	static final int SHARED = 0x100;
+
+	static final int LOOP = 0x100;
+
+	// a mesh record: counts, then byte offsets of its blocks
+	static final int MESH_RECORD = 11;
+	static final int MESH_VERTICES = 0, MESH_FACES = 1, MESH_INDICES = 2,
+	    MESH_TEX_ROWS = 3, MESH_TEX_COORDS = 4, MESH_VERTICES_AT = 5,
+	    MESH_FACES_AT = 6, MESH_INDICES_AT = 7, MESH_TEX_ROWS_AT = 8,
+	    MESH_TEX_COORDS_AT = 9, MESH_NORMALS_AT = 10;
+
+	// the predefined materials, which are stored by their index
+	static final Material[] MATERIALS =
+	    { Material.CYAN_RUBBER, Material.EMERALD, Material.RED_PLASTIC,
+	      Material.CHROME, Material.GOLD, Material.OBSIDIAN, Material.PEARL,
+	      Material.RUBY, Material.WHITE_RUBBER };
+
+	private BinaryScene () {}
+
+	/**
+	 * Rounds a byte offset up to the next ALIGNMENT boundary.
+	 */
+	static int align ( int offset ) {
+		return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+}
@@ -0,0 +1,550 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import lights.DirectionalLight;
+import lights.Light;
+import lights.PointLight;
+import lights.SpotLight;
+import nodes.CameraNode;
+import nodes.LightNode;
+import nodes.MaterialNode;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.ShapeNode;
+import nodes.TextureNode;
+import nodes.TransformNode;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.PackedGeometry;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.AnimatedRotation;
+import transformations.AnimatedScale;
+import transformations.AnimatedTranslation;
+import transformations.Interpolation;
+import transformations.KeyframeAnimation;
+import transformations.KeyframeTrack;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Transform;
+import transformations.Translation;
+
+/**
+ * Reads scenes in the binary format BinaryScene describes. The file is mapped
+ * into memory and its tables are read in place; nodes are created in one pass
+ * over the node table, and each node's children are added to it together.
+ *
+ * The blocks of a mesh are available as views of the mapping. They are
+ * little-endian, as GL expects them on the platforms it runs on, so they can
+ * be uploaded without being copied.
+ *
+ * @author Sayf Elhawary
+ */
+final class BinarySceneReader {
+
+	private final String name;
+	private final ByteBuffer file;
+	private final IntBuffer nodes, ints, tracks, meshes;
+	private final FloatBuffer floats;
+	private final DoubleBuffer animations;
+	private final int nodeCount, trackCount, animationCount, meshCount;
+	private final String[] strings;
+
+	/**
+	 * Maps a binary scene file.
+	 *
+	 * @throws IOException
+	 *           If the file cannot be read or is not a binary scene of a
+	 *           version this reads.
+	 */
+	static BinarySceneReader open ( Path path ) throws IOException {
+		try ( FileChannel channel = FileChannel.open(path,StandardOpenOption.READ) ) {
+			long size = channel.size();
+			if ( size > Integer.MAX_VALUE ) {
+				throw new IOException(path + ": too large for a binary scene");
+			}
+			return new BinarySceneReader(path.toString(),
+			                             channel.map(FileChannel.MapMode.READ_ONLY,0,
+			                                         size));
+		}
+	}
+
+	/**
+	 * Reads a binary scene held in a buffer.
+	 *
+	 * @param name
+	 *          What to call the buffer in errors.
+	 * @param buffer
+	 *          The contents of the file.
+	 * @throws IOException
+	 *           If the buffer does not hold a binary scene of a version this
+	 *           reads.
+	 */
+	BinarySceneReader ( String name, ByteBuffer buffer ) throws IOException {
+		this.name = name;
+		file = buffer.duplicate().order(BinaryScene.ORDER);
+		if ( file.limit() < BinaryScene.HEADER_SIZE
+		    || file.getInt(BinaryScene.H_MAGIC) != BinaryScene.MAGIC ) {
+			throw new IOException(name + ": not a binary scene");
+		}
+		int version = file.getInt(BinaryScene.H_VERSION);
+		if ( version != BinaryScene.VERSION ) {
+			throw new IOException(name + ": unsupported binary scene version "
+			    + version);
+		}
+		if ( file.getInt(BinaryScene.H_FILE_SIZE) != file.limit() ) {
+			throw new IOException(name + ": truncated binary scene");
+		}
+		try {
+			nodeCount = file.getInt(BinaryScene.H_NODES);
+			trackCount = file.getInt(BinaryScene.H_TRACKS);
+			animationCount = file.getInt(BinaryScene.H_ANIMATIONS);
+			meshCount = file.getInt(BinaryScene.H_MESHES);
+			nodes = ints(BinaryScene.H_NODES_AT,BinaryScene.NODE_RECORD * nodeCount);
+			floats = floats(file.getInt(BinaryScene.H_FLOATS_AT),
+			                file.getInt(BinaryScene.H_FLOATS));
+			ints = ints(BinaryScene.H_INTS_AT,file.getInt(BinaryScene.H_INTS));
+			tracks =
+			    ints(BinaryScene.H_TRACKS_AT,BinaryScene.TRACK_RECORD * trackCount);
+			animations =
+			    slice(file.getInt(BinaryScene.H_ANIMATIONS_AT),8 * animationCount)
+			        .asDoubleBuffer();
+			meshes =
+			    ints(BinaryScene.H_MESHES_AT,BinaryScene.MESH_RECORD * meshCount);
+			strings = strings(file.getInt(BinaryScene.H_STRINGS_AT),
+			                  file.getInt(BinaryScene.H_STRINGS));
+		} catch ( IndexOutOfBoundsException | IllegalArgumentException e ) {
+			throw corrupt(e);
+		}
+	}
+
+	/**
+	 * Builds the scene.
+	 *
+	 * @throws IOException
+	 *           If the tables are inconsistent.
+	 */
+	Scene read () throws IOException {
+		Scene scene =
+		    new Scene(file.getFloat(BinaryScene.H_BACKGROUND),
+		              file.getFloat(BinaryScene.H_BACKGROUND + 4),
+		              file.getFloat(BinaryScene.H_BACKGROUND + 8),
+		              file.getFloat(BinaryScene.H_BACKGROUND + 12));
+		if ( nodeCount == 0 || nodes.get(0) != BinaryScene.GROUP ) {
+			throw new IOException(name + ": a binary scene starts with its root");
+		}
+		try {
+			build(scene.getRootNode());
+		} catch ( IndexOutOfBoundsException | ClassCastException
+		    | NegativeArraySizeException | IllegalArgumentException e ) {
+			throw corrupt(e);
+		}
+		return scene;
+	}
+
+	/**
+	 * Creates the nodes below the root. The nodes being filled are kept on a
+	 * stack with the children read for them so far; a node gets its children
+	 * once the last of them is complete.
+	 */
+	private void build ( PartialScene root ) throws IOException {
+		PartialScene[] built = new PartialScene[nodeCount];
+		KeyframeTrack[] keyframeTracks = new KeyframeTrack[trackCount];
+		KeyframeAnimation[] keyframeAnimations =
+		    new KeyframeAnimation[animationCount];
+		ComplexShape[] shapes = new ComplexShape[meshCount];
+		built[0] = root;
+
+		int[] open = new int[16];
+		PartialScene[][] children = new PartialScene[16][];
+		int[] filled = new int[16];
+		int depth = -1;
+		int count = nodes.get(1);
+		if ( count > 0 ) {
+			depth = 0;
+			children[0] = new PartialScene[count];
+		}
+		for ( int i = 1 ; i < nodeCount ; i++ ) {
+			if ( depth < 0 ) {
+				throw new IOException(name + ": nodes after the end of the root");
+			}
+			int r = BinaryScene.NODE_RECORD * i;
+			int kind = nodes.get(r), data = nodes.get(r + 2);
+			PartialScene node;
+			if ( (kind & BinaryScene.SHARED) != 0 || kind == BinaryScene.LINK ) {
+				if ( data < 0 || data >= i ) {
+					throw new IOException(name + ": node " + i + " refers to node "
+					    + data);
+				}
+				node = kind == BinaryScene.LINK ? built[data]
+				    : shared(kind & ~BinaryScene.SHARED,built[data]);
+			} else {
+				node = node(kind,data,nodes.get(r + 3),keyframeTracks,
+				            keyframeAnimations,shapes);
+			}
+			count = kind == BinaryScene.LINK ? 0 : nodes.get(r + 1);
+			built[i] = node;
+			children[depth][filled[depth]++] = node;
+			if ( count > 0 ) {
+				if ( ++depth == open.length ) {
+					open = Arrays.copyOf(open,2 * depth);
+					children = Arrays.copyOf(children,2 * depth);
+					filled = Arrays.copyOf(filled,2 * depth);
+				}
+				open[depth] = i;
+				children[depth] = new PartialScene[count];
+				filled[depth] = 0;
+				continue;
+			}
+			while ( depth >= 0 && filled[depth] == children[depth].length ) {
+				built[open[depth]].addChildren(children[depth]);
+				children[depth] = null;
+				depth--;
+			}
+		}
+		if ( depth >= 0 ) {
+			throw new IOException(name + ": node " + open[depth]
+			    + " is missing children");
+		}
+	}
+
+	/**
+	 * Creates a node that has the same content as another.
+	 */
+	private static PartialScene shared ( int kind, PartialScene other ) {
+		if ( kind >= BinaryScene.POINT_LIGHT && kind <= BinaryScene.SPOT_LIGHT ) {
+			return new LightNode(((LightNode) other).getLight());
+		} else if ( kind >= BinaryScene.CUBE && kind <= BinaryScene.MESH ) {
+			return new ShapeNode(((ShapeNode) other).getShape());
+		} else if ( kind >= BinaryScene.TRANSLATION
+		    && kind <= BinaryScene.KEYFRAME ) {
+			return new TransformNode(((TransformNode) other).getTransform());
+		} else if ( kind == BinaryScene.CAMERA ) {
+			return new CameraNode(((CameraNode) other).getCamera());
+		} else if ( kind == BinaryScene.MATERIAL ) {
+			return new MaterialNode(((MaterialNode) other).getMaterial());
+		} else if ( kind == BinaryScene.TEXTURE ) {
+			return new TextureNode(((TextureNode) other).getTexture());
+		}
+		throw new IllegalArgumentException("unknown shared node kind " + kind);
+	}
+
+	/**
+	 * Creates a node from its attributes.
+	 *
+	 * @param f
+	 *          The index of its first float.
+	 * @param n
+	 *          The index of its first int.
+	 */
+	private PartialScene node ( int kind, int f, int n,
+	                            KeyframeTrack[] keyframeTracks,
+	                            KeyframeAnimation[] keyframeAnimations,
+	                            ComplexShape[] shapes ) {
+		switch ( kind ) {
+		case BinaryScene.GROUP:
+			return new PartialScene();
+		case BinaryScene.POINT_LIGHT:
+		case BinaryScene.DIRECTIONAL_LIGHT:
+		case BinaryScene.SPOT_LIGHT:
+			return new LightNode(light(kind,f,n));
+		case BinaryScene.CUBE:
+		case BinaryScene.TEAPOT:
+		case BinaryScene.SPHERE:
+		case BinaryScene.UNIT_SPHERE:
+		case BinaryScene.CONE:
+		case BinaryScene.CYLINDER:
+		case BinaryScene.TORUS:
+		case BinaryScene.MESH:
+			return new ShapeNode(shape(kind,f,n,shapes));
+		case BinaryScene.TRANSLATION:
+		case BinaryScene.SCALE:
+		case BinaryScene.ANIMATED_TRANSLATION:
+		case BinaryScene.ANIMATED_SCALE:
+		case BinaryScene.ROTATION:
+		case BinaryScene.ANIMATED_ROTATION:
+		case BinaryScene.KEYFRAME:
+			return new TransformNode(transform(kind,f,n,keyframeTracks,
+			                                   keyframeAnimations));
+		case BinaryScene.CAMERA:
+			Camera camera = new Camera();
+			camera.lookAt(floats.get(f),floats.get(f + 1),floats.get(f + 2),
+			              floats.get(f + 3),floats.get(f + 4),floats.get(f + 5),
+			              floats.get(f + 6),floats.get(f + 7),floats.get(f + 8));
+			camera.setLimits(floats.get(f + 9),floats.get(f + 10),
+			                 floats.get(f + 11),floats.get(f + 12),
+			                 floats.get(f + 13),floats.get(f + 14));
+			// a new camera is perspective and preserves the aspect ratio
+			if ( ints.get(n) != 0 ) {
+				camera.setOrthographic(true);
+			}
+			if ( ints.get(n + 1) == 0 ) {
+				camera.setPreserveAspect(false);
+			}
+			return new CameraNode(camera);
+		case BinaryScene.MATERIAL:
+			int preset = ints.get(n);
+			if ( preset >= 0 ) {
+				return new MaterialNode(BinaryScene.MATERIALS[preset]);
+			}
+			return new MaterialNode(new Material(vector(f),vector(f + 4),
+			                                     vector(f + 8),vector(f + 12),
+			                                     floats.get(f + 16)));
+		case BinaryScene.TEXTURE:
+			return new TextureNode(new Tex(string(ints.get(n))));
+		default:
+			throw new IllegalArgumentException("unknown node kind " + kind);
+		}
+	}
+
+	private Light light ( int kind, int f, int n ) {
+		int id = ints.get(n);
+		if ( kind == BinaryScene.POINT_LIGHT ) {
+			return new PointLight(id,vector(f),vector(f + 4),vector(f + 8),
+			                      vector(f + 12));
+		} else if ( kind == BinaryScene.DIRECTIONAL_LIGHT ) {
+			return new DirectionalLight(id,vector(f),vector(f + 4),vector(f + 8),
+			                            vector(f + 12));
+		}
+		return new SpotLight(id,vector(f),vector(f + 4),vector(f + 8),
+		                     vector(f + 12),vector(f + 16),floats.get(f + 20),
+		                     floats.get(f + 21));
+	}
+
+	private Shape shape ( int kind, int f, int n, ComplexShape[] shapes ) {
+		if ( kind == BinaryScene.UNIT_SPHERE ) {
+			return Sphere.UNIT_SPHERE;
+		}
+		String status = string(ints.get(n));
+		switch ( kind ) {
+		case BinaryScene.CUBE:
+			return new Cube(status,floats.get(f));
+		case BinaryScene.TEAPOT:
+			return new Teapot(status,floats.get(f));
+		case BinaryScene.SPHERE:
+			return new Sphere(status,floats.get(f),ints.get(n + 1),ints.get(n + 2));
+		case BinaryScene.CONE:
+			return new Cone(status,floats.get(f),floats.get(f + 1),ints.get(n + 1),
+			                ints.get(n + 2));
+		case BinaryScene.CYLINDER:
+			return new Cylinder(status,floats.get(f),floats.get(f + 1),
+			                    ints.get(n + 1),ints.get(n + 2));
+		case BinaryScene.TORUS:
+			return new Torus(status,floats.get(f),floats.get(f + 1),
+			                 ints.get(n + 1),ints.get(n + 2));
+		default:
+			int mesh = ints.get(n + 1);
+			if ( shapes[mesh] == null ) {
+				shapes[mesh] = mesh(status,mesh);
+			}
+			return shapes[mesh];
+		}
+	}
+
+	private Transform transform ( int kind, int f, int n,
+	                              KeyframeTrack[] keyframeTracks,
+	                              KeyframeAnimation[] keyframeAnimations ) {
+		boolean tex = ints.get(n) != 0;
+		switch ( kind ) {
+		case BinaryScene.TRANSLATION:
+			return new Translation(floats.get(f),floats.get(f + 1),floats.get(f + 2),
+			                       tex);
+		case BinaryScene.SCALE:
+			return new Scale(floats.get(f),floats.get(f + 1),floats.get(f + 2),tex);
+		case BinaryScene.ANIMATED_TRANSLATION:
+			return new AnimatedTranslation(floats.get(f),floats.get(f + 1),
+			                               floats.get(f + 2),tex);
+		case BinaryScene.ANIMATED_SCALE:
+			return new AnimatedScale(floats.get(f),floats.get(f + 1),
+			                         floats.get(f + 2),tex);
+		case BinaryScene.ROTATION:
+			return new Rotation(floats.get(f),floats.get(f + 1),floats.get(f + 2),
+			                    floats.get(f + 3),tex);
+		case BinaryScene.ANIMATED_ROTATION:
+			return new AnimatedRotation(floats.get(f),floats.get(f + 1),
+			                            floats.get(f + 2),floats.get(f + 3),tex);
+		default:
+			int a = ints.get(n + 1);
+			if ( keyframeAnimations[a] == null ) {
+				keyframeAnimations[a] = new KeyframeAnimation(animations.get(a));
+			}
+			return keyframeAnimations[a]
+			    .createTransform(track(ints.get(n + 2),keyframeTracks),
+			                     track(ints.get(n + 3),keyframeTracks),
+			                     track(ints.get(n + 4),keyframeTracks),tex);
+		}
+	}
+
+	/**
+	 * Gets a keyframe track, creating it the first time it is asked for.
+	 */
+	private KeyframeTrack track ( int id, KeyframeTrack[] keyframeTracks ) {
+		if ( id < 0 ) {
+			return null;
+		}
+		if ( keyframeTracks[id] != null ) {
+			return keyframeTracks[id];
+		}
+		int r = BinaryScene.TRACK_RECORD * id;
+		int flags = tracks.get(r), keys = tracks.get(r + 2), f = tracks.get(r + 3);
+		KeyframeTrack.Target target =
+		    KeyframeTrack.Target.values()[flags & ~BinaryScene.LOOP];
+		KeyframeTrack track =
+		    new KeyframeTrack(target,Interpolation.values()[tracks.get(r + 1)]);
+		track.setLoop((flags & BinaryScene.LOOP) != 0);
+		int width = target.getWidth();
+		float[] value = new float[width], in = new float[width],
+		    out = new float[width];
+		int values = f + keys, ins = values + keys * width,
+		    outs = ins + keys * width;
+		for ( int k = 0 ; k < keys ; k++ ) {
+			floats.get(values + k * width,value);
+			floats.get(ins + k * width,in);
+			floats.get(outs + k * width,out);
+			track.addKey(floats.get(f + k),value,in,out);
+		}
+		keyframeTracks[id] = track;
+		return track;
+	}
+
+	/**
+	 * Creates the shape for a mesh, packed straight from the mapping without
+	 * building arrays on the heap.
+	 */
+	private ComplexShape mesh ( String status, int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		boolean textured = meshes.get(r + BinaryScene.MESH_TEX_ROWS) >= 0;
+		return new ComplexShape(status,
+		                        PackedGeometry.of(getVertices(mesh),
+		                                          getNormals(mesh),
+		                                          getFaceStarts(mesh),
+		                                          getFaceIndices(mesh),
+		                                          textured ? getTexCoordRows(mesh)
+		                                              : null,
+		                                          textured ? getTexCoords(mesh)
+		                                              : null));
+	}
+
+	/**
+	 * Gets the number of meshes in the file.
+	 */
+	int getMeshCount () {
+		return meshCount;
+	}
+
+	/**
+	 * Gets a mesh's vertices, 3 floats each, as a view of the file.
+	 */
+	FloatBuffer getVertices ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		return slice(meshes.get(r + BinaryScene.MESH_VERTICES_AT),
+		             12 * meshes.get(r + BinaryScene.MESH_VERTICES)).asFloatBuffer();
+	}
+
+	/**
+	 * Gets a mesh's vertex normals, 3 floats each, as a view of the file.
+	 */
+	FloatBuffer getNormals ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		return slice(meshes.get(r + BinaryScene.MESH_NORMALS_AT),
+		             12 * meshes.get(r + BinaryScene.MESH_VERTICES)).asFloatBuffer();
+	}
+
+	/**
+	 * Gets where each of a mesh's faces starts in its face indices, followed by
+	 * the number of indices, as a view of the file.
+	 */
+	IntBuffer getFaceStarts ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		return slice(meshes.get(r + BinaryScene.MESH_FACES_AT),
+		             4 * (meshes.get(r + BinaryScene.MESH_FACES) + 1)).asIntBuffer();
+	}
+
+	/**
+	 * Gets the vertex indices of a mesh's faces, one face after another, as a
+	 * view of the file.
+	 */
+	IntBuffer getFaceIndices ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		return slice(meshes.get(r + BinaryScene.MESH_INDICES_AT),
+		             4 * meshes.get(r + BinaryScene.MESH_INDICES)).asIntBuffer();
+	}
+
+	/**
+	 * Gets where each row of a mesh's texture coordinates starts, followed by
+	 * the number of coordinates, as a view of the file. A mesh without texture
+	 * coordinates has a single 0.
+	 */
+	IntBuffer getTexCoordRows ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		int rows = Math.max(meshes.get(r + BinaryScene.MESH_TEX_ROWS),0);
+		return slice(meshes.get(r + BinaryScene.MESH_TEX_ROWS_AT),4 * (rows + 1))
+		    .asIntBuffer();
+	}
+
+	/**
+	 * Gets a mesh's texture coordinates, as a view of the file.
+	 */
+	FloatBuffer getTexCoords ( int mesh ) {
+		int r = BinaryScene.MESH_RECORD * mesh;
+		return slice(meshes.get(r + BinaryScene.MESH_TEX_COORDS_AT),
+		             4 * meshes.get(r + BinaryScene.MESH_TEX_COORDS))
+		        .asFloatBuffer();
+	}
+
+	private float[] vector ( int f ) {
+		float[] v = new float[4];
+		floats.get(f,v);
+		return v;
+	}
+
+	private String string ( int id ) {
+		return id < 0 ? null : strings[id];
+	}
+
+	private ByteBuffer slice ( int at, int length ) {
+		return file.slice(at,length).order(BinaryScene.ORDER);
+	}
+
+	/**
+	 * Views an int block whose byte offset is in the header.
+	 */
+	private IntBuffer ints ( int header, int count ) {
+		return slice(file.getInt(header),4 * count).asIntBuffer();
+	}
+
+	private FloatBuffer floats ( int at, int count ) {
+		return slice(at,4 * count).asFloatBuffer();
+	}
+
+	private String[] strings ( int at, int count ) {
+		String[] decoded = new String[count];
+		int bytes = at + 4 * (count + 1);
+		for ( int i = 0 ; i < count ; i++ ) {
+			int start = file.getInt(at + 4 * i), end = file.getInt(at + 4 * i + 4);
+			byte[] utf8 = new byte[end - start];
+			file.get(bytes + start,utf8);
+			decoded[i] = new String(utf8,StandardCharsets.UTF_8);
+		}
+		return decoded;
+	}
+
+	private IOException corrupt ( RuntimeException e ) {
+		return new IOException(name + ": corrupt binary scene (" + e.getMessage()
+		    + ")",e);
+	}
+}
@@ -0,0 +1,595 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lights.DirectionalLight;
+import lights.Light;
+import lights.PointLight;
+import lights.SpotLight;
+import nodes.CameraNode;
+import nodes.LightNode;
+import nodes.MaterialNode;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.ShapeNode;
+import nodes.TextureNode;
+import nodes.TransformNode;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.PackedGeometry;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.AnimatedRotation;
+import transformations.AnimatedScale;
+import transformations.AnimatedTranslation;
+import transformations.KeyframeAnimation;
+import transformations.KeyframeTrack;
+import transformations.KeyframeTransform;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Transform;
+import transformations.Translation;
+
+/**
+ * Writes scenes in the binary format BinaryScene describes. The graph is
+ * gathered into flat tables first and then written in one go.
+ *
+ * Only the node, shape, light and transform classes of the engine can be
+ * written; subclasses of them draw in ways the format cannot record.
+ * Nodes and contents that appear more than once in the graph are written
+ * once and referred to afterwards, so sharing survives a round trip.
+ *
+ * @author Sayf Elhawary
+ */
+final class BinarySceneWriter {
+
+	private int[] nodes = new int[BinaryScene.NODE_RECORD * 64];
+	private int nodeCount;
+	private float[] floats = new float[256];
+	private int floatCount;
+	private int[] ints = new int[256];
+	private int intCount;
+	private int[] tracks = new int[BinaryScene.TRACK_RECORD * 4];
+	private int trackCount;
+	private double[] animations = new double[4];
+	private int animationCount;
+	private final List<ComplexShape> meshes = new ArrayList<>();
+	private final List<String> strings = new ArrayList<>();
+
+	// what has been written, and where
+	private final Map<PartialScene,Integer> nodeIds = new IdentityHashMap<>();
+	private final Map<Object,Integer> contentIds = new IdentityHashMap<>();
+	private final Map<KeyframeTrack,Integer> trackIds = new IdentityHashMap<>();
+	private final Map<KeyframeAnimation,Integer> animationIds =
+	    new IdentityHashMap<>();
+	private final Map<String,Integer> stringIds = new HashMap<>();
+
+	private BinarySceneWriter () {}
+
+	/**
+	 * Writes a scene to a file, replacing it if it exists.
+	 *
+	 * @throws IOException
+	 *           If the file cannot be written.
+	 * @throws IllegalArgumentException
+	 *           If the scene has a node, shape, light or transform the format
+	 *           cannot hold.
+	 */
+	static void write ( Scene scene, Path file ) throws IOException {
+		ByteBuffer data = encode(scene);
+		try ( FileChannel channel =
+		    FileChannel.open(file,StandardOpenOption.CREATE,
+		                     StandardOpenOption.WRITE,
+		                     StandardOpenOption.TRUNCATE_EXISTING) ) {
+			while ( data.hasRemaining() ) {
+				channel.write(data);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a scene as the contents of a binary scene file.
+	 *
+	 * @return A buffer holding the file, positioned at its start.
+	 * @throws IllegalArgumentException
+	 *           If the scene has a node, shape, light or transform the format
+	 *           cannot hold.
+	 */
+	static ByteBuffer encode ( Scene scene ) {
+		BinarySceneWriter writer = new BinarySceneWriter();
+		writer.node(scene.getRootNode());
+		return writer.encode(scene.getBGColors());
+	}
+
+	/**
+	 * Adds the records of a node and everything below it.
+	 */
+	private void node ( PartialScene node ) {
+		Integer id = nodeIds.get(node);
+		if ( id != null ) {
+			record(BinaryScene.LINK,0,id);
+			return;
+		}
+		int index = nodeCount;
+		nodeIds.put(node,index);
+		List<PartialScene> children = node.getChildren();
+		record(0,children.size(),floatCount);
+		nodes[BinaryScene.NODE_RECORD * index] = content(node,index);
+		for ( PartialScene child : children ) {
+			node(child);
+		}
+	}
+
+	private void record ( int kind, int children, int floatIndex ) {
+		int r = BinaryScene.NODE_RECORD * nodeCount;
+		if ( r == nodes.length ) {
+			nodes = Arrays.copyOf(nodes,2 * r);
+		}
+		nodes[r] = kind;
+		nodes[r + 1] = children;
+		nodes[r + 2] = floatIndex;
+		nodes[r + 3] = intCount;
+		nodeCount++;
+	}
+
+	/**
+	 * Adds the attributes of what a node holds.
+	 *
+	 * @return The node's kind.
+	 */
+	private int content ( PartialScene node, int index ) {
+		Class<?> type = node.getClass();
+		if ( type == PartialScene.class ) {
+			return BinaryScene.GROUP;
+		}
+		Object content;
+		if ( type == ShapeNode.class ) {
+			content = ((ShapeNode) node).getShape();
+		} else if ( type == TransformNode.class ) {
+			content = ((TransformNode) node).getTransform();
+		} else if ( type == MaterialNode.class ) {
+			content = ((MaterialNode) node).getMaterial();
+		} else if ( type == LightNode.class ) {
+			content = ((LightNode) node).getLight();
+		} else if ( type == TextureNode.class ) {
+			content = ((TextureNode) node).getTexture();
+		} else if ( type == CameraNode.class ) {
+			content = ((CameraNode) node).getCamera();
+		} else {
+			throw new IllegalArgumentException("cannot write a " + type.getName());
+		}
+		if ( content == null ) {
+			throw new IllegalArgumentException("a " + type.getSimpleName()
+			    + " without content");
+		}
+		Integer shared = contentIds.get(content);
+		if ( shared != null ) {
+			nodes[BinaryScene.NODE_RECORD * index + 2] = shared;
+			return nodes[BinaryScene.NODE_RECORD * shared] | BinaryScene.SHARED;
+		}
+		contentIds.put(content,index);
+		if ( content instanceof Shape ) {
+			return shape((Shape) content);
+		} else if ( content instanceof Transform ) {
+			return transform((Transform) content);
+		} else if ( content instanceof Material ) {
+			return material((Material) content);
+		} else if ( content instanceof Light ) {
+			return light((Light) content);
+		} else if ( content instanceof Tex ) {
+			addInt(string(((Tex) content).getFileName()));
+			return BinaryScene.TEXTURE;
+		} else {
+			return camera((Camera) content);
+		}
+	}
+
+	private int shape ( Shape shape ) {
+		if ( shape == Sphere.UNIT_SPHERE ) {
+			return BinaryScene.UNIT_SPHERE;
+		}
+		Class<?> type = shape.getClass();
+		addInt(string(shape.getStatus()));
+		if ( type == Cube.class ) {
+			addFloat(((Cube) shape).getSideLength());
+			return BinaryScene.CUBE;
+		} else if ( type == Teapot.class ) {
+			addFloat(((Teapot) shape).getSideLength());
+			return BinaryScene.TEAPOT;
+		} else if ( type == Sphere.class ) {
+			Sphere sphere = (Sphere) shape;
+			addFloat((float) sphere.getRadius());
+			addInt(sphere.getSlices());
+			addInt(sphere.getStacks());
+			return BinaryScene.SPHERE;
+		} else if ( type == Cone.class ) {
+			Cone cone = (Cone) shape;
+			addFloat((float) cone.getBase());
+			addFloat((float) cone.getHeight());
+			addInt(cone.getSlices());
+			addInt(cone.getStacks());
+			return BinaryScene.CONE;
+		} else if ( type == Cylinder.class ) {
+			Cylinder cylinder = (Cylinder) shape;
+			addFloat((float) cylinder.getRadius());
+			addFloat((float) cylinder.getHeight());
+			addInt(cylinder.getSlices());
+			addInt(cylinder.getStacks());
+			return BinaryScene.CYLINDER;
+		} else if ( type == Torus.class ) {
+			Torus torus = (Torus) shape;
+			addFloat((float) torus.getInnerRadius());
+			addFloat((float) torus.getOuterRadius());
+			addInt(torus.getSlices());
+			addInt(torus.getStacks());
+			return BinaryScene.TORUS;
+		} else if ( type == ComplexShape.class ) {
+			addInt(meshes.size());
+			meshes.add((ComplexShape) shape);
+			return BinaryScene.MESH;
+		}
+		throw new IllegalArgumentException("cannot write a " + type.getName());
+	}
+
+	private int transform ( Transform t ) {
+		Class<?> type = t.getClass();
+		addInt(t.getTex() ? 1 : 0);
+		if ( type == KeyframeTransform.class ) {
+			KeyframeTransform keyframe = (KeyframeTransform) t;
+			KeyframeAnimation animation = keyframe.getAnimation();
+			Integer id = animationIds.get(animation);
+			if ( id == null ) {
+				id = animationCount;
+				animationIds.put(animation,id);
+				if ( animationCount == animations.length ) {
+					animations = Arrays.copyOf(animations,2 * animationCount);
+				}
+				animations[animationCount++] = animation.getSecondsPerTick();
+			}
+			addInt(id);
+			for ( KeyframeTrack.Target target : KeyframeTrack.Target.values() ) {
+				addInt(track(animation.getTrack(keyframe.getIndex(),target)));
+			}
+			return BinaryScene.KEYFRAME;
+		}
+		int kind;
+		if ( type == Translation.class ) {
+			kind = BinaryScene.TRANSLATION;
+		} else if ( type == Scale.class ) {
+			kind = BinaryScene.SCALE;
+		} else if ( type == AnimatedTranslation.class ) {
+			kind = BinaryScene.ANIMATED_TRANSLATION;
+		} else if ( type == AnimatedScale.class ) {
+			kind = BinaryScene.ANIMATED_SCALE;
+		} else if ( type == Rotation.class ) {
+			kind = BinaryScene.ROTATION;
+		} else if ( type == AnimatedRotation.class ) {
+			kind = BinaryScene.ANIMATED_ROTATION;
+		} else {
+			throw new IllegalArgumentException("cannot write a " + type.getName());
+		}
+		if ( t instanceof Rotation ) {
+			addFloat(((Rotation) t).getAngle());
+		}
+		addFloat(t.getX());
+		addFloat(t.getY());
+		addFloat(t.getZ());
+		return kind;
+	}
+
+	/**
+	 * Adds a keyframe track, unless it has been already.
+	 *
+	 * @return The track's index, or -1 for none.
+	 */
+	private int track ( KeyframeTrack track ) {
+		if ( track == null ) {
+			return -1;
+		}
+		Integer id = trackIds.get(track);
+		if ( id != null ) {
+			return id;
+		}
+		int r = BinaryScene.TRACK_RECORD * trackCount;
+		if ( r == tracks.length ) {
+			tracks = Arrays.copyOf(tracks,2 * r);
+		}
+		int keys = track.getKeyCount(), width = track.getTarget().getWidth();
+		tracks[r] = track.getTarget().ordinal()
+		    | (track.isLoop() ? BinaryScene.LOOP : 0);
+		tracks[r + 1] = track.getInterpolation().ordinal();
+		tracks[r + 2] = keys;
+		tracks[r + 3] = floatCount;
+		for ( int k = 0 ; k < keys ; k++ ) {
+			addFloat(track.getTime(k));
+		}
+		for ( int k = 0 ; k < keys ; k++ ) {
+			for ( int c = 0 ; c < width ; c++ ) {
+				addFloat(track.getValue(k,c));
+			}
+		}
+		for ( int k = 0 ; k < keys ; k++ ) {
+			for ( int c = 0 ; c < width ; c++ ) {
+				addFloat(track.getIn(k,c));
+			}
+		}
+		for ( int k = 0 ; k < keys ; k++ ) {
+			for ( int c = 0 ; c < width ; c++ ) {
+				addFloat(track.getOut(k,c));
+			}
+		}
+		trackIds.put(track,trackCount);
+		return trackCount++;
+	}
+
+	private int material ( Material material ) {
+		for ( int i = 0 ; i < BinaryScene.MATERIALS.length ; i++ ) {
+			if ( material == BinaryScene.MATERIALS[i] ) {
+				addInt(i);
+				return BinaryScene.MATERIAL;
+			}
+		}
+		addInt(-1);
+		addVector(material.getAmbient());
+		addVector(material.getDiffuse());
+		addVector(material.getSpecular());
+		addVector(material.getEmissive());
+		addFloat(material.getShininess());
+		return BinaryScene.MATERIAL;
+	}
+
+	private int light ( Light light ) {
+		Class<?> type = light.getClass();
+		int kind;
+		if ( type == PointLight.class ) {
+			kind = BinaryScene.POINT_LIGHT;
+		} else if ( type == DirectionalLight.class ) {
+			kind = BinaryScene.DIRECTIONAL_LIGHT;
+		} else if ( type == SpotLight.class ) {
+			kind = BinaryScene.SPOT_LIGHT;
+		} else {
+			throw new IllegalArgumentException("cannot write a " + type.getName());
+		}
+		addInt(light.getLightId());
+		addVector(light.getAmbient());
+		addVector(light.getDiffuse());
+		addVector(light.getSpecular());
+		addVector(light.getPosition());
+		if ( kind == BinaryScene.SPOT_LIGHT ) {
+			SpotLight spot = (SpotLight) light;
+			addVector(spot.getDirection());
+			addFloat(spot.getCutoff());
+			addFloat(spot.getExponent());
+		}
+		return kind;
+	}
+
+	private int camera ( Camera camera ) {
+		for ( double value : camera.getViewParameters() ) {
+			addFloat((float) value);
+		}
+		for ( double value : camera.getLimits() ) {
+			addFloat((float) value);
+		}
+		addInt(camera.getOrthographic() ? 1 : 0);
+		addInt(camera.getPreserveAspect() ? 1 : 0);
+		return BinaryScene.CAMERA;
+	}
+
+	/**
+	 * Adds a color, position or direction as four floats, a missing fourth
+	 * component being 1.
+	 */
+	private void addVector ( float[] v ) {
+		if ( v.length != 3 && v.length != 4 ) {
+			throw new IllegalArgumentException("expected 3 or 4 components, not "
+			    + v.length);
+		}
+		addFloat(v[0]);
+		addFloat(v[1]);
+		addFloat(v[2]);
+		addFloat(v.length == 4 ? v[3] : 1);
+	}
+
+	private void addFloat ( float value ) {
+		if ( floatCount == floats.length ) {
+			floats = Arrays.copyOf(floats,2 * floatCount);
+		}
+		floats[floatCount++] = value;
+	}
+
+	private void addInt ( int value ) {
+		if ( intCount == ints.length ) {
+			ints = Arrays.copyOf(ints,2 * intCount);
+		}
+		ints[intCount++] = value;
+	}
+
+	/**
+	 * Adds a string to the string table, unless it is there already.
+	 *
+	 * @return The string's index, or -1 for null.
+	 */
+	private int string ( String s ) {
+		if ( s == null ) {
+			return -1;
+		}
+		Integer id = stringIds.get(s);
+		if ( id == null ) {
+			id = strings.size();
+			stringIds.put(s,id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	/**
+	 * Lays out the tables as a file.
+	 */
+	private ByteBuffer encode ( float[] background ) {
+		byte[][] utf8 = new byte[strings.size()][];
+		int stringBytes = 0;
+		for ( int i = 0 ; i < utf8.length ; i++ ) {
+			utf8[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+			stringBytes += utf8[i].length;
+		}
+
+		int nodesAt = BinaryScene.HEADER_SIZE;
+		int floatsAt =
+		    BinaryScene.align(nodesAt + 4 * BinaryScene.NODE_RECORD * nodeCount);
+		int intsAt = BinaryScene.align(floatsAt + 4 * floatCount);
+		int tracksAt = BinaryScene.align(intsAt + 4 * intCount);
+		int animationsAt =
+		    BinaryScene.align(tracksAt + 4 * BinaryScene.TRACK_RECORD * trackCount);
+		int meshesAt = BinaryScene.align(animationsAt + 8 * animationCount);
+		int[] meshRecords = new int[BinaryScene.MESH_RECORD * meshes.size()];
+		int end = BinaryScene.align(meshesAt + 4 * meshRecords.length);
+		for ( int m = 0 ; m < meshes.size() ; m++ ) {
+			end = layOut(meshes.get(m),meshRecords,BinaryScene.MESH_RECORD * m,end);
+		}
+		int stringsAt = end;
+		long size = (long) stringsAt + 4 * (strings.size() + 1) + stringBytes;
+		if ( size > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException("the scene is too large: " + size
+			    + " bytes");
+		}
+
+		ByteBuffer out = ByteBuffer.allocate((int) size).order(BinaryScene.ORDER);
+		out.putInt(BinaryScene.H_MAGIC,BinaryScene.MAGIC);
+		out.putInt(BinaryScene.H_VERSION,BinaryScene.VERSION);
+		out.putInt(BinaryScene.H_NODES,nodeCount);
+		out.putInt(BinaryScene.H_FLOATS,floatCount);
+		out.putInt(BinaryScene.H_INTS,intCount);
+		out.putInt(BinaryScene.H_TRACKS,trackCount);
+		out.putInt(BinaryScene.H_ANIMATIONS,animationCount);
+		out.putInt(BinaryScene.H_MESHES,meshes.size());
+		out.putInt(BinaryScene.H_STRINGS,strings.size());
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			out.putFloat(BinaryScene.H_BACKGROUND + 4 * i,background[i]);
+		}
+		out.putInt(BinaryScene.H_NODES_AT,nodesAt);
+		out.putInt(BinaryScene.H_FLOATS_AT,floatsAt);
+		out.putInt(BinaryScene.H_INTS_AT,intsAt);
+		out.putInt(BinaryScene.H_TRACKS_AT,tracksAt);
+		out.putInt(BinaryScene.H_ANIMATIONS_AT,animationsAt);
+		out.putInt(BinaryScene.H_MESHES_AT,meshesAt);
+		out.putInt(BinaryScene.H_STRINGS_AT,stringsAt);
+		out.putInt(BinaryScene.H_FILE_SIZE,(int) size);
+
+		out.position(nodesAt);
+		out.asIntBuffer().put(nodes,0,BinaryScene.NODE_RECORD * nodeCount);
+		out.position(floatsAt);
+		out.asFloatBuffer().put(floats,0,floatCount);
+		out.position(intsAt);
+		out.asIntBuffer().put(ints,0,intCount);
+		out.position(tracksAt);
+		out.asIntBuffer().put(tracks,0,BinaryScene.TRACK_RECORD * trackCount);
+		out.position(animationsAt);
+		out.asDoubleBuffer().put(animations,0,animationCount);
+		out.position(meshesAt);
+		out.asIntBuffer().put(meshRecords);
+		for ( int m = 0 ; m < meshes.size() ; m++ ) {
+			writeMesh(meshes.get(m),meshRecords,BinaryScene.MESH_RECORD * m,out);
+		}
+		out.position(stringsAt);
+		int offset = 0;
+		for ( byte[] s : utf8 ) {
+			out.putInt(offset);
+			offset += s.length;
+		}
+		out.putInt(offset);
+		for ( byte[] s : utf8 ) {
+			out.put(s);
+		}
+		out.position(0);
+		return out;
+	}
+
+	/**
+	 * Fills in a mesh's record, placing its blocks from a byte offset on.
+	 *
+	 * @return The offset after its last block, aligned.
+	 */
+	private static int layOut ( ComplexShape mesh, int[] records, int r, int at ) {
+		PackedGeometry geometry = mesh.getGeometry();
+		int vertices = geometry.getVertexCount(), faces = geometry.getFaceCount();
+		int indices = geometry.getFaceIndices().capacity();
+		IntBuffer rows = geometry.getTexCoordRows();
+		int texRows = rows == null ? -1 : rows.capacity() - 1;
+		int texCoords = rows == null ? 0 : geometry.getTexCoords().capacity();
+		records[r + BinaryScene.MESH_VERTICES] = vertices;
+		records[r + BinaryScene.MESH_FACES] = faces;
+		records[r + BinaryScene.MESH_INDICES] = indices;
+		records[r + BinaryScene.MESH_TEX_ROWS] = texRows;
+		records[r + BinaryScene.MESH_TEX_COORDS] = texCoords;
+		records[r + BinaryScene.MESH_VERTICES_AT] = at;
+		at = BinaryScene.align(at + 12 * vertices);
+		records[r + BinaryScene.MESH_NORMALS_AT] = at;
+		at = BinaryScene.align(at + 12 * vertices);
+		records[r + BinaryScene.MESH_FACES_AT] = at;
+		at = BinaryScene.align(at + 4 * (faces + 1));
+		records[r + BinaryScene.MESH_INDICES_AT] = at;
+		at = BinaryScene.align(at + 4 * indices);
+		records[r + BinaryScene.MESH_TEX_ROWS_AT] = at;
+		at = BinaryScene.align(at + 4 * (Math.max(texRows,0) + 1));
+		records[r + BinaryScene.MESH_TEX_COORDS_AT] = at;
+		return BinaryScene.align(at + 4 * texCoords);
+	}
+
+	/**
+	 * Copies a mesh's packed geometry into its blocks.
+	 */
+	private static void writeMesh ( ComplexShape mesh, int[] records, int r,
+	                                ByteBuffer out ) {
+		PackedGeometry geometry = mesh.getGeometry();
+		int vertices = geometry.getVertexCount();
+		FloatBuffer positions = geometry.getVertexData();
+		positions.limit(3 * vertices);
+		view(out,records,r,BinaryScene.MESH_VERTICES_AT).asFloatBuffer()
+		    .put(positions);
+		FloatBuffer normals = geometry.getVertexData();
+		normals.position(3 * vertices).limit(6 * vertices);
+		view(out,records,r,BinaryScene.MESH_NORMALS_AT).asFloatBuffer()
+		    .put(normals);
+		view(out,records,r,BinaryScene.MESH_FACES_AT).asIntBuffer()
+		    .put(geometry.getFaceStarts());
+		view(out,records,r,BinaryScene.MESH_INDICES_AT).asIntBuffer()
+		    .put(geometry.getFaceIndices());
+		IntBuffer rows = geometry.getTexCoordRows();
+		if ( rows != null ) {
+			view(out,records,r,BinaryScene.MESH_TEX_ROWS_AT).asIntBuffer().put(rows);
+			view(out,records,r,BinaryScene.MESH_TEX_COORDS_AT).asFloatBuffer()
+			    .put(geometry.getTexCoords());
+		} else {
+			// a mesh without texture coordinates still has its end of rows
+			out.putInt(records[r + BinaryScene.MESH_TEX_ROWS_AT],0);
+		}
+	}
+
+	/**
+	 * Gets a view of the output from one of a mesh's blocks on.
+	 */
+	private static ByteBuffer view ( ByteBuffer out, int[] records, int r,
+	                                 int field ) {
+		ByteBuffer view = out.duplicate().order(BinaryScene.ORDER);
+		view.position(records[r + field]);
+		return view.slice().order(BinaryScene.ORDER);
+	}
+}
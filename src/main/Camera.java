@@ -31,6 +31,19 @@ public class Camera {
 
 	public double xminActual, xmaxActual, yminActual, ymaxActual;
 
+	private int version; // bumped by every change to the view or projection
+	// the nodes holding this camera
+	private final ChangeListeners listeners = new ChangeListeners();
+
+	// working space for applyTransvection, so dragging does not allocate
+	private final double[] xDirection = new double[3];
+	private final double[] yDirection = new double[3];
+	private final double[] zDirection = new double[3];
+	private final double[] e = new double[3];
+	private final double[] viewE1 = new double[3];
+	private final double[] viewE2 = new double[3];
+	private final double[] temp = new double[3];
+
 	public boolean getOrthographic () {
 		return orthographic;
 	}
@@ -45,6 +58,7 @@ public class Camera {
 	 */
 	public void setOrthographic ( boolean orthographic ) {
 		this.orthographic = orthographic;
+		modified();
 	}
 
 	public boolean getPreserveAspect () {
@@ -57,6 +71,7 @@ public class Camera {
 	 */
 	public void setPreserveAspect ( boolean preserveAspect ) {
 		this.preserveAspect = preserveAspect;
+		modified();
 	}
 
 	/**
@@ -82,6 +97,7 @@ public class Camera {
 		ymaxRequested = ymaxActual = ymax;
 		this.zmin = zmin;
 		this.zmax = zmax;
+		modified();
 	}
 
 	/**
@@ -103,6 +119,23 @@ public class Camera {
 		                      ymaxRequested, zmin, zmax };
 	}
 
+	/**
+	 * Copies the view limits into an array, as getLimits() returns them.
+	 *
+	 * @param limits
+	 *          An array of at least 6 elements.
+	 * @return limits.
+	 */
+	public double[] getLimits ( double[] limits ) {
+		limits[0] = xminRequested;
+		limits[1] = xmaxRequested;
+		limits[2] = yminRequested;
+		limits[3] = ymaxRequested;
+		limits[4] = zmin;
+		limits[5] = zmax;
+		return limits;
+	}
+
 	/**
 	 * Returns the actual xmin, xmax, ymin, ymax limits that were used when the
 	 * apply method was most recently called. These are the limits after they
@@ -132,6 +165,7 @@ public class Camera {
 		upx = viewUpX;
 		upy = viewUpY;
 		upz = viewUpZ;
+		modified();
 	}
 
 	/**
@@ -141,6 +175,40 @@ public class Camera {
 		return new double[] { eyex, eyey, eyez, refx, refy, refz, upx, upy, upz };
 	}
 
+	/**
+	 * Copies the view information, as getViewParameters() returns it.
+	 *
+	 * @param params
+	 *          An array of at least 9 elements.
+	 * @return params.
+	 */
+	public double[] getViewParameters ( double[] params ) {
+		params[0] = eyex;
+		params[1] = eyey;
+		params[2] = eyez;
+		params[3] = refx;
+		params[4] = refy;
+		params[5] = refz;
+		params[6] = upx;
+		params[7] = upy;
+		params[8] = upz;
+		return params;
+	}
+
+	/**
+	 * Returns the distance from the eye to the view center.
+	 *
+	 * @throws NumberFormatException
+	 *           if the distance is zero, undefined, or infinite.
+	 */
+	public double getViewDistance () {
+		double dx = refx - eyex, dy = refy - eyey, dz = refz - eyez;
+		double norm2 = dx * dx + dy * dy + dz * dz;
+		if ( Double.isNaN(norm2) || Double.isInfinite(norm2) || norm2 == 0 )
+		  throw new NumberFormatException("Vector length zero, undefined, or infinite.");
+		return Math.sqrt(norm2);
+	}
+
 	/**
 	 * Apply the camera to an OpenGL context. This method completely replaces the
 	 * projection and the modelview transformation in the context. It sets these
@@ -189,11 +257,14 @@ public class Camera {
 	 */
 	public void applyTransvection ( double[] e1, double[] e2 ) {
 		// rotate vector e1 onto e2; must be 3D *UNIT* vectors.
-		double[] zDirection =
-		    new double[] { eyex - refx, eyey - refy, eyez - refz };
+		zDirection[0] = eyex - refx;
+		zDirection[1] = eyey - refy;
+		zDirection[2] = eyez - refz;
 		double viewDistance = norm(zDirection);
 		normalize(zDirection);
-		double[] yDirection = new double[] { upx, upy, upz };
+		yDirection[0] = upx;
+		yDirection[1] = upy;
+		yDirection[2] = upz;
 		double upLength = norm(yDirection);
 		double proj = yDirection[0] * zDirection[0] + yDirection[1] * zDirection[1]
 		    + yDirection[2] * zDirection[2];
@@ -201,18 +272,18 @@ public class Camera {
 		yDirection[1] = yDirection[1] - proj * zDirection[1];
 		yDirection[2] = yDirection[2] - proj * zDirection[2];
 		normalize(yDirection);
-		double[] xDirection = new double[] {
-		                                     yDirection[1] * zDirection[2]
-		                                         - yDirection[2] * zDirection[1],
-		                                     yDirection[2] * zDirection[0]
-		                                         - yDirection[0] * zDirection[2],
-		                                     yDirection[0] * zDirection[1]
-		                                         - yDirection[1] * zDirection[0] };
-		e1 = transformToViewCoords(e1,xDirection,yDirection,zDirection);
-		e2 = transformToViewCoords(e2,xDirection,yDirection,zDirection);
-		double[] e = new double[] { e1[0] + e2[0], e1[1] + e2[1], e1[2] + e2[2] };
+		xDirection[0] =
+		    yDirection[1] * zDirection[2] - yDirection[2] * zDirection[1];
+		xDirection[1] =
+		    yDirection[2] * zDirection[0] - yDirection[0] * zDirection[2];
+		xDirection[2] =
+		    yDirection[0] * zDirection[1] - yDirection[1] * zDirection[0];
+		e1 = transformToViewCoords(e1,xDirection,yDirection,zDirection,viewE1);
+		e2 = transformToViewCoords(e2,xDirection,yDirection,zDirection,viewE2);
+		e[0] = e1[0] + e2[0];
+		e[1] = e1[1] + e2[1];
+		e[2] = e1[2] + e2[2];
 		normalize(e);
-		double[] temp = new double[3];
 		reflectInAxis(e,zDirection,temp);
 		reflectInAxis(e1,temp,zDirection);
 		reflectInAxis(e,xDirection,temp);
@@ -225,6 +296,49 @@ public class Camera {
 		upx = upLength * yDirection[0];
 		upy = upLength * yDirection[1];
 		upz = upLength * yDirection[2];
+		modified();
+	}
+
+	/**
+	 * Gets a counter that changes whenever the view or projection is changed,
+	 * by a setter, lookAt() or the trackball, so that a renderer drawing only on
+	 * demand knows to draw again.
+	 * 
+	 * @return The current version.
+	 */
+	public int getVersion () {
+		return version;
+	}
+
+	/**
+	 * Records that the view or projection has changed, and tells the nodes
+	 * holding the camera.
+	 */
+	private void modified () {
+		version++;
+		listeners.fire(ChangeListener.APPEARANCE);
+	}
+
+	/**
+	 * Adds a listener told whenever the view or projection changes. Nodes
+	 * holding the camera add themselves, so that a renderer drawing on demand
+	 * hears of the change. Listeners are held weakly.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		listeners.remove(listener);
 	}
 
 	/**
@@ -250,11 +364,12 @@ public class Camera {
 	 * @param x
 	 * @param y
 	 * @param z
-	 * @return
+	 * @param w
+	 *          Receives the result.
+	 * @return w
 	 */
 	private double[] transformToViewCoords ( double[] v, double[] x, double[] y,
-	                                         double[] z ) {
-		double[] w = new double[3];
+	                                         double[] z, double[] w ) {
 		w[0] = v[0] * x[0] + v[1] * y[0] + v[2] * z[0];
 		w[1] = v[0] * x[1] + v[1] * y[1] + v[2] * z[1];
 		w[2] = v[0] * x[2] + v[1] * y[2] + v[2] * z[2];
@@ -0,0 +1,44 @@
+package main;
+
+/**
+ * Is told when something it depends on changes: a scene graph node is told
+ * when its transform, shape or material is modified, and when anything in one
+ * of its children's subtrees changes. Changes are reported at one of three
+ * levels, each implying the ones below it: STRUCTURE, GEOMETRY, APPEARANCE.
+ *
+ * Listeners are held weakly by what they listen to, so listening does not keep
+ * a listener alive.
+ *
+ * @author Sayf Elhawary
+ */
+public interface ChangeListener {
+
+	/**
+	 * Only how something looks has changed, e.g. a material's color.
+	 */
+	int APPEARANCE = 0;
+	/**
+	 * Where or how big something is drawn may have changed: a transform's or a
+	 * shape's values.
+	 */
+	int GEOMETRY = 1;
+	/**
+	 * What is drawn has changed: a child was added or removed, or a node's
+	 * transform, shape, material, texture, light or camera was replaced.
+	 */
+	int STRUCTURE = 2;
+
+	/**
+	 * Called, on the thread that made the change, after something this
+	 * listens to has changed.
+	 *
+	 * @param level
+	 *          APPEARANCE, GEOMETRY or STRUCTURE.
+	 * @param stamp
+	 *          A number that identifies the change; it is larger than that of
+	 *          any change reported before it started. A change that reaches a
+	 *          listener along several paths is reported with the same stamp
+	 *          each time.
+	 */
+	void changed ( int level, long stamp );
+}
@@ -0,0 +1,105 @@
+package main;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The listeners told about changes to one object. Listeners are held weakly,
+ * and may be added and removed from any thread while changes are reported;
+ * a report goes to the listeners there were when it started.
+ *
+ * @author Sayf Elhawary
+ */
+public final class ChangeListeners {
+
+	private static final AtomicLong stamps = new AtomicLong();
+
+	private static final WeakReference<?>[] NONE = new WeakReference<?>[0];
+
+	// copy-on-write, and may hold a listener more than once, e.g. a node that
+	// is twice a child of the same parent
+	private volatile WeakReference<?>[] listeners = NONE;
+
+	/**
+	 * Gets a stamp for a new change, larger than all those given out before.
+	 *
+	 * @return The stamp.
+	 */
+	public static long nextStamp () {
+		return stamps.incrementAndGet();
+	}
+
+	/**
+	 * Adds a listener. A listener added twice is told twice, and must be
+	 * removed twice.
+	 *
+	 * @param listener
+	 *          The listener.
+	 */
+	public synchronized void add ( ChangeListener listener ) {
+		WeakReference<?>[] current = listeners;
+		int live = 0;
+		for ( WeakReference<?> ref : current ) {
+			if ( ref.get() != null ) {
+				live++;
+			}
+		}
+		WeakReference<?>[] updated = new WeakReference<?>[live + 1];
+		int i = 0;
+		for ( WeakReference<?> ref : current ) {
+			if ( ref.get() != null ) {
+				updated[i++] = ref;
+			}
+		}
+		updated[i] = new WeakReference<>(listener);
+		listeners = updated;
+	}
+
+	/**
+	 * Removes a listener once. Removing a listener that was not added has no
+	 * effect.
+	 *
+	 * @param listener
+	 *          The listener.
+	 */
+	public synchronized void remove ( ChangeListener listener ) {
+		WeakReference<?>[] current = listeners;
+		for ( int i = 0 ; i < current.length ; i++ ) {
+			if ( current[i].get() == listener ) {
+				WeakReference<?>[] updated =
+				    new WeakReference<?>[current.length - 1];
+				System.arraycopy(current,0,updated,0,i);
+				System.arraycopy(current,i + 1,updated,i,updated.length - i);
+				listeners = updated.length == 0 ? NONE : updated;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Tells the listeners about a new change.
+	 *
+	 * @param level
+	 *          ChangeListener.APPEARANCE, GEOMETRY or STRUCTURE.
+	 */
+	public void fire ( int level ) {
+		fire(level,nextStamp());
+	}
+
+	/**
+	 * Tells the listeners about a change that is being passed on.
+	 *
+	 * @param level
+	 *          ChangeListener.APPEARANCE, GEOMETRY or STRUCTURE.
+	 * @param stamp
+	 *          The change's stamp.
+	 */
+	public void fire ( int level, long stamp ) {
+		for ( WeakReference<?> ref : listeners ) {
+			Object listener = ref.get();
+			if ( listener != null ) {
+				((ChangeListener) listener).changed(level,stamp);
+			}
+		}
+	}
+}
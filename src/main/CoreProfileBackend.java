@@ -0,0 +1,755 @@
+package main;
+
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLProfile;
+
+import lights.DirectionalLight;
+import lights.Light;
+import lights.PointLight;
+import lights.SpotLight;
+import main.VertexArrayCache.Geometry;
+import nodes.InstancedShapeNode;
+import shapes.*;
+
+/**
+ * Draws with a GL3 core profile context: every shape is a vertex array kept by
+ * a {@link VertexArrayCache} and drawn with one call, materials and lights are
+ * held in uniform buffers, and one GLSL program lights each fragment with the
+ * Blinn-Phong model of the fixed-function pipeline (a non-local viewer, a
+ * global ambient of 0.2, no attenuation, and texels modulating the lit color)
+ * so that scenes look as they do with {@link FixedFunctionBackend}. Unlike it,
+ * the backend has MAX_LIGHTS lights, GL_LIGHT0 to GL_LIGHT0 + MAX_LIGHTS - 1.
+ *
+ * The matrices are kept on the CPU. Light positions and spot directions are
+ * moved into eye space with the modelview matrix when the light is applied,
+ * as glLightfv does. As with the fixed-function pipeline, spot cones only
+ * apply to positional lights, and once a texture has been bound texturing
+ * stays on.
+ *
+ * Wire primitives are drawn as the edges of their quads rather than by GLUT,
+ * and teapots as cubes, as they are by the fixed-function backend. Display
+ * lists do not exist in the core profile, so nothing is recorded.
+ *
+ * The program needs GLSL 3.30, which Mesa's llvmpipe software renderer
+ * provides, so the backend also runs on machines without a GPU.
+ *
+ * @author Sayf Elhawary
+ */
+public class CoreProfileBackend implements RenderBackend {
+
+	/**
+	 * The number of lights.
+	 */
+	public static final int MAX_LIGHTS = 32;
+
+	// floats per light in the Lights block: position, ambient, diffuse,
+	// specular, spot direction and cutoff, spot exponent and on
+	private static final int LIGHT_FLOATS = 24;
+	private static final int MATERIAL_FLOATS = 20;
+	private static final int LIGHTS_BINDING = 0;
+	private static final int MATERIAL_BINDING = 1;
+
+	private static final String VERTEX_SHADER = String.join("\n",
+	    "#version 330 core",
+	    "layout(location = 0) in vec3 position;",
+	    "layout(location = 1) in vec3 normal;",
+	    "layout(location = 2) in vec2 texCoord;",
+	    "layout(location = 3) in vec4 instanceColor;",
+	    "layout(location = 4) in mat4 instanceMatrix;",
+	    "uniform mat4 projection;",
+	    "uniform mat4 modelview;",
+	    "uniform mat4 textureMatrix;",
+	    "uniform bool instanced;",
+	    "out vec3 eyePosition;",
+	    "out vec3 eyeNormal;",
+	    "out vec2 uv;",
+	    "out vec4 tint;",
+	    "void main () {",
+	    "  mat4 m = instanced ? modelview * instanceMatrix : modelview;",
+	    "  vec4 eye = m * vec4(position,1.0);",
+	    // the cofactors of the upper 3x3 move normals; their scale is
+	    // normalized away
+	    "  mat3 c = mat3(cross(m[1].xyz,m[2].xyz),cross(m[2].xyz,m[0].xyz),",
+	    "                cross(m[0].xyz,m[1].xyz));",
+	    "  if ( dot(m[0].xyz,c[0]) < 0.0 ) c = -c;",
+	    "  eyePosition = eye.xyz;",
+	    "  eyeNormal = c * normal;",
+	    "  vec4 t = textureMatrix * vec4(texCoord,0.0,1.0);",
+	    "  uv = t.xy / t.w;",
+	    "  tint = instanceColor;",
+	    "  gl_Position = projection * eye;",
+	    "}",
+	    "");
+
+	private static final String FRAGMENT_SHADER = String.join("\n",
+	    "#version 330 core",
+	    "struct Light {",
+	    "  vec4 position;", // in eye space; w is 0 for a direction
+	    "  vec4 ambient;",
+	    "  vec4 diffuse;",
+	    "  vec4 specular;",
+	    "  vec4 spot;", // direction, and the cosine of the cutoff or -1
+	    "  vec4 params;", // spot exponent, and 1 if the light is on
+	    "};",
+	    "layout(std140) uniform Lights {",
+	    "  Light light[" + MAX_LIGHTS + "];",
+	    "};",
+	    "layout(std140) uniform Material {",
+	    "  vec4 ambient;",
+	    "  vec4 diffuse;",
+	    "  vec4 specular;",
+	    "  vec4 emission;",
+	    "  float shininess;",
+	    "} material;",
+	    "uniform int lightCount;",
+	    "uniform bool colored;",
+	    "uniform bool textured;",
+	    "uniform sampler2D sampler;",
+	    "in vec3 eyePosition;",
+	    "in vec3 eyeNormal;",
+	    "in vec2 uv;",
+	    "in vec4 tint;",
+	    "out vec4 fragColor;",
+	    "void main () {",
+	    "  vec3 n = normalize(eyeNormal);",
+	    "  vec4 ambient = colored ? tint : material.ambient;",
+	    "  vec4 diffuse = colored ? tint : material.diffuse;",
+	    "  vec3 sum = material.emission.rgb + 0.2 * ambient.rgb;",
+	    "  for ( int i = 0 ; i < lightCount ; i++ ) {",
+	    "    if ( light[i].params.y == 0.0 ) continue;",
+	    "    vec3 l;",
+	    "    float spot = 1.0;",
+	    "    if ( light[i].position.w == 0.0 ) {",
+	    "      l = normalize(light[i].position.xyz);",
+	    "    } else {",
+	    "      l = normalize(light[i].position.xyz - eyePosition);",
+	    "      if ( light[i].spot.w > -1.0 ) {",
+	    "        float c = dot(-l,normalize(light[i].spot.xyz));",
+	    "        spot = c < light[i].spot.w ? 0.0",
+	    "            : pow(max(c,0.0),light[i].params.x);",
+	    "      }",
+	    "    }",
+	    "    float d = max(dot(n,l),0.0);",
+	    "    vec3 c = ambient.rgb * light[i].ambient.rgb",
+	    "        + d * diffuse.rgb * light[i].diffuse.rgb;",
+	    "    float s = max(dot(n,normalize(l + vec3(0.0,0.0,1.0))),0.0);",
+	    "    if ( d > 0.0 && s > 0.0 ) {",
+	    "      c += pow(s,material.shininess) * material.specular.rgb",
+	    "          * light[i].specular.rgb;",
+	    "    }",
+	    "    sum += spot * c;",
+	    "  }",
+	    "  vec4 lit = vec4(clamp(sum,0.0,1.0),diffuse.a);",
+	    "  fragColor = textured ? lit * texture(sampler,uv) : lit;",
+	    "}",
+	    "");
+
+	private GL3 gl;
+
+	private final TextureCache textureCache = new TextureCache();
+	private final VertexArrayCache vertexArrays = new VertexArrayCache();
+
+	private int program;
+	private int projectionLocation, modelviewLocation, textureMatrixLocation,
+	    instancedLocation, lightCountLocation, coloredLocation,
+	    texturedLocation;
+	private int lightBuffer, materialBuffer;
+
+	// the contents of the uniform buffers, and whether they have changed
+	// since they were uploaded
+	private final FloatBuffer lightData =
+	    Buffers.newDirectFloatBuffer(LIGHT_FLOATS * MAX_LIGHTS);
+	private final FloatBuffer materialData =
+	    Buffers.newDirectFloatBuffer(MATERIAL_FLOATS);
+	private boolean lightsChanged, materialChanged;
+	private int lightCount; // one more than the highest light turned on
+	private final float[] material = new float[MATERIAL_FLOATS];
+
+	private final MatrixStack modelview = new MatrixStack();
+	private boolean modelviewChanged;
+	private boolean textured;
+	private boolean colored;
+
+	private final float[] instanceMatrix = new float[16];
+	private final float[] product = new float[16];
+	private final double[] point = new double[3];
+	private long stateChanges;
+
+	/**
+	 * Constructs a backend with empty caches.
+	 */
+	public CoreProfileBackend () {}
+
+	/**
+	 * Gets capabilities asking for a GL3 core profile context.
+	 */
+	public GLCapabilities getCapabilities () {
+		return new GLCapabilities(GLProfile.get(GLProfile.GL3));
+	}
+
+	/**
+	 * Gets the cache holding the vertex arrays the backend draws.
+	 *
+	 * @return The vertex array cache.
+	 */
+	public VertexArrayCache getVertexArrayCache () {
+		return vertexArrays;
+	}
+
+	/**
+	 * Compiles the program and creates the uniform buffers, with GL's initial
+	 * material and lights, light 0 on.
+	 *
+	 * @throws IllegalStateException
+	 *           If the program does not compile or link.
+	 */
+	public void setup ( GL gl ) {
+		this.gl = (GL3) gl;
+		program = link();
+		this.gl.glUseProgram(program);
+		projectionLocation = this.gl.glGetUniformLocation(program,"projection");
+		modelviewLocation = this.gl.glGetUniformLocation(program,"modelview");
+		textureMatrixLocation =
+		    this.gl.glGetUniformLocation(program,"textureMatrix");
+		instancedLocation = this.gl.glGetUniformLocation(program,"instanced");
+		lightCountLocation = this.gl.glGetUniformLocation(program,"lightCount");
+		coloredLocation = this.gl.glGetUniformLocation(program,"colored");
+		texturedLocation = this.gl.glGetUniformLocation(program,"textured");
+		this.gl.glUniform1i(this.gl.glGetUniformLocation(program,"sampler"),0);
+		this.gl.glUniformBlockBinding(program,
+		                              this.gl.glGetUniformBlockIndex(program,
+		                                                             "Lights"),
+		                              LIGHTS_BINDING);
+		this.gl.glUniformBlockBinding(program,
+		                              this.gl.glGetUniformBlockIndex(program,
+		                                                             "Material"),
+		                              MATERIAL_BINDING);
+
+		int[] ids = new int[2];
+		this.gl.glGenBuffers(2,ids,0);
+		lightBuffer = ids[0];
+		materialBuffer = ids[1];
+		this.gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,lightBuffer);
+		this.gl.glBufferData(GL2ES3.GL_UNIFORM_BUFFER,
+		                     4L * LIGHT_FLOATS * MAX_LIGHTS,null,
+		                     GL.GL_DYNAMIC_DRAW);
+		this.gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,materialBuffer);
+		this.gl.glBufferData(GL2ES3.GL_UNIFORM_BUFFER,4L * MATERIAL_FLOATS,null,
+		                     GL.GL_DYNAMIC_DRAW);
+		this.gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,0);
+		this.gl.glBindBufferBase(GL2ES3.GL_UNIFORM_BUFFER,LIGHTS_BINDING,
+		                         lightBuffer);
+		this.gl.glBindBufferBase(GL2ES3.GL_UNIFORM_BUFFER,MATERIAL_BINDING,
+		                         materialBuffer);
+
+		// GL's initial state: the default material, light 0 white and shining
+		// down the view direction, the other lights dark and off
+		for ( int i = 0 ; i < MAX_LIGHTS ; i++ ) {
+			float on = i == 0 ? 1 : 0;
+			putLight(i,0,0,0,1,0);
+			putLight(i,4,0,0,0,1);
+			putLight(i,8,on,on,on,1);
+			putLight(i,12,on,on,on,1);
+			putLight(i,16,0,0,-1,-1);
+			putLight(i,20,0,on,0,0);
+		}
+		lightCount = 1;
+		lightsChanged = true;
+		Arrays.fill(material,Float.NaN); // so that the first material is uploaded
+		applyMaterial(new Material(new float[] { 0.2f, 0.2f, 0.2f, 1 },
+		                           new float[] { 0.8f, 0.8f, 0.8f, 1 },
+		                           new float[] { 0, 0, 0, 1 },
+		                           new float[] { 0, 0, 0, 1 },0));
+
+		Mat4.identity(instanceMatrix,0);
+		this.gl.glUniformMatrix4fv(projectionLocation,1,false,instanceMatrix,0);
+		this.gl.glUniformMatrix4fv(textureMatrixLocation,1,false,instanceMatrix,
+		                           0);
+		this.gl.glUniform1i(instancedLocation,0);
+		this.gl.glUniform1i(coloredLocation,0);
+		this.gl.glUniform1i(texturedLocation,0);
+		modelview.clear();
+		modelviewChanged = true;
+		textured = false;
+		colored = false;
+
+		// depth test, for 3D
+		this.gl.glEnable(GL.GL_DEPTH_TEST);
+	}
+
+	private void putLight ( int light, int at, float x, float y, float z,
+	                        float w ) {
+		int i = LIGHT_FLOATS * light + at;
+		lightData.put(i,x).put(i + 1,y).put(i + 2,z).put(i + 3,w);
+	}
+
+	private int link () {
+		int vertex = compile(GL2ES2.GL_VERTEX_SHADER,VERTEX_SHADER);
+		int fragment = compile(GL2ES2.GL_FRAGMENT_SHADER,FRAGMENT_SHADER);
+		int p = gl.glCreateProgram();
+		gl.glAttachShader(p,vertex);
+		gl.glAttachShader(p,fragment);
+		gl.glLinkProgram(p);
+		gl.glDeleteShader(vertex);
+		gl.glDeleteShader(fragment);
+		int[] status = new int[1];
+		gl.glGetProgramiv(p,GL2ES2.GL_LINK_STATUS,status,0);
+		if ( status[0] == 0 ) {
+			String log = log(p,false);
+			gl.glDeleteProgram(p);
+			throw new IllegalStateException("the core profile program did not link: "
+			    + log);
+		}
+		return p;
+	}
+
+	private int compile ( int type, String source ) {
+		int shader = gl.glCreateShader(type);
+		gl.glShaderSource(shader,1,new String[] { source },
+		                  new int[] { source.length() },0);
+		gl.glCompileShader(shader);
+		int[] status = new int[1];
+		gl.glGetShaderiv(shader,GL2ES2.GL_COMPILE_STATUS,status,0);
+		if ( status[0] == 0 ) {
+			String log = log(shader,true);
+			gl.glDeleteShader(shader);
+			throw new IllegalStateException("a core profile shader did not compile: "
+			    + log);
+		}
+		return shader;
+	}
+
+	private String log ( int object, boolean shader ) {
+		int[] length = new int[1];
+		byte[] text = new byte[4096];
+		if ( shader ) {
+			gl.glGetShaderInfoLog(object,text.length,length,0,text,0);
+		} else {
+			gl.glGetProgramInfoLog(object,text.length,length,0,text,0);
+		}
+		return new String(text,0,length[0],StandardCharsets.UTF_8).trim();
+	}
+
+	public void beginFrame ( GL gl ) {
+		this.gl = (GL3) gl;
+		textureCache.nextFrame();
+		vertexArrays.nextFrame();
+	}
+
+	public void endFrame () {
+		gl.glBindVertexArray(0);
+		gl.glFlush();
+	}
+
+	public void dispose ( GL gl ) {
+		this.gl = (GL3) gl;
+		textureCache.dispose(gl);
+		vertexArrays.dispose(this.gl);
+		if ( program != 0 ) {
+			this.gl.glDeleteProgram(program);
+			this.gl.glDeleteBuffers(2,new int[] { lightBuffer, materialBuffer },0);
+			program = 0;
+		}
+	}
+
+	public void clear ( float r, float g, float b, float a ) {
+		gl.glClearColor(r,g,b,a);
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+	}
+
+	public void getViewport ( int[] viewport ) {
+		gl.glGetIntegerv(GL.GL_VIEWPORT,viewport,0);
+	}
+
+	public void setProjection ( float[] m, int offset ) {
+		gl.glUniformMatrix4fv(projectionLocation,1,false,m,offset);
+		stateChanges++;
+	}
+
+	public void loadMatrix ( float[] m, int offset ) {
+		modelview.load(m,offset);
+		modelviewChanged = true;
+	}
+
+	public void loadIdentity () {
+		modelview.loadIdentity();
+		modelviewChanged = true;
+	}
+
+	public void multMatrix ( float[] m, int offset ) {
+		float[] current = modelview.get();
+		Mat4.multiply(current,0,m,offset,product,0);
+		System.arraycopy(product,0,current,0,16);
+		modelviewChanged = true;
+	}
+
+	public void pushMatrix () {
+		modelview.push();
+	}
+
+	public void popMatrix () {
+		modelview.pop();
+		modelviewChanged = true;
+	}
+
+	public void getMatrix ( float[] m, int offset ) {
+		System.arraycopy(modelview.get(),0,m,offset,16);
+	}
+
+	public void loadTextureMatrix ( float[] m, int offset ) {
+		gl.glUniformMatrix4fv(textureMatrixLocation,1,false,m,offset);
+		stateChanges++;
+	}
+
+	public void applyMaterial ( Material m ) {
+		boolean same = true;
+		float[][] colors =
+		    { m.getAmbient(), m.getDiffuse(), m.getSpecular(), m.getEmissive() };
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			for ( int k = 0 ; k < 4 ; k++ ) {
+				float next = k < colors[c].length ? colors[c][k] : k == 3 ? 1 : 0;
+				same &= material[4 * c + k] == next;
+				material[4 * c + k] = next;
+			}
+		}
+		same &= material[16] == m.getShininess();
+		material[16] = m.getShininess();
+		if ( !same ) {
+			materialData.put(material,0,MATERIAL_FLOATS).rewind();
+			materialChanged = true;
+		}
+	}
+
+	public void applyPointLight ( PointLight pLight ) {
+		applyLight(pLight,1,null,180,0);
+	}
+
+	public void applyDirectionalLight ( DirectionalLight dLight ) {
+		applyLight(dLight,0,null,180,0);
+	}
+
+	public void applySpotLight ( SpotLight sLight ) {
+		// as the fixed-function backend does, the light is given as a direction
+		applyLight(sLight,0,sLight.getDirection(),sLight.getCutoff(),
+		           sLight.getExponent());
+	}
+
+	/**
+	 * Turns a light on with its colors and its position (w 1) or direction (w
+	 * 0) moved into eye space. Lights outside GL_LIGHT0..GL_LIGHT0 + MAX_LIGHTS
+	 * - 1 are ignored, as GL ignores them.
+	 */
+	private void applyLight ( Light light, float w, float[] direction,
+	                          float cutoff, float exponent ) {
+		int index = light.getLightId() - GL2.GL_LIGHT0;
+		if ( index < 0 || index >= MAX_LIGHTS ) {
+			return;
+		}
+		float[] m = modelview.get();
+		float[] p = light.getPosition();
+		point[0] = p[0];
+		point[1] = p[1];
+		point[2] = p[2];
+		if ( w == 0 ) {
+			rotate(m,point);
+		} else {
+			Mat4.transformPoint(m,0,point,point);
+		}
+		putLight(index,0,(float) point[0],(float) point[1],(float) point[2],w);
+		putColor(index,4,light.getAmbient());
+		putColor(index,8,light.getDiffuse());
+		putColor(index,12,light.getSpecular());
+		if ( direction != null ) {
+			point[0] = direction[0];
+			point[1] = direction[1];
+			point[2] = direction[2];
+			rotate(m,point);
+		} else {
+			point[0] = point[1] = 0;
+			point[2] = -1;
+		}
+		putLight(index,16,(float) point[0],(float) point[1],(float) point[2],
+		         cutoff == 180 ? -1 : (float) Math.cos(Math.toRadians(cutoff)));
+		putLight(index,20,exponent,1,0,0);
+		lightCount = Math.max(lightCount,index + 1);
+		lightsChanged = true;
+	}
+
+	private void putColor ( int light, int at, float[] color ) {
+		putLight(light,at,color[0],color[1],color[2],
+		         color.length > 3 ? color[3] : 1);
+	}
+
+	/**
+	 * Moves a direction by the upper 3x3 of a matrix, as GL moves light
+	 * directions.
+	 */
+	private static void rotate ( float[] m, double[] v ) {
+		double x = v[0], y = v[1], z = v[2];
+		v[0] = m[0] * x + m[4] * y + m[8] * z;
+		v[1] = m[1] * x + m[5] * y + m[9] * z;
+		v[2] = m[2] * x + m[6] * y + m[10] * z;
+	}
+
+	public void applyTexture ( Tex texture ) {
+		if ( textureCache.bind(gl,texture.getFileName()) && !textured ) {
+			gl.glUniform1i(texturedLocation,1);
+			textured = true;
+		}
+	}
+
+	/**
+	 * Does nothing: lighting is always on, so the current color is never used.
+	 */
+	public void color ( float r, float g, float b ) {}
+
+	public void drawCube ( Cube cube ) {
+		draw(geometry(cube),0);
+	}
+
+	public void drawSphere ( Sphere sphere ) {
+		draw(geometry(sphere),0);
+	}
+
+	public void drawCone ( Cone cone ) {
+		draw(geometry(cone),0);
+	}
+
+	public void drawTorus ( Torus torus ) {
+		draw(geometry(torus),0);
+	}
+
+	public void drawCylinder ( Cylinder cylinder ) {
+		draw(geometry(cylinder),0);
+	}
+
+	public void drawTeapot ( Teapot teapot ) {
+		draw(geometry(teapot),0);
+	}
+
+	public void drawComplexShape ( ComplexShape cShape ) {
+		draw(geometry(cShape),0);
+	}
+
+	/**
+	 * Gets the vertex array a built-in shape is drawn from.
+	 *
+	 * @return The geometry, or null if the shape is not a built-in one or its
+	 *         parameters describe nothing that can be drawn.
+	 */
+	private Geometry geometry ( Shape shape ) {
+		RenderMode mode = shape.getRenderMode();
+		boolean tex = mode == RenderMode.TEXTURE, wire = mode == RenderMode.WIRE;
+		if ( shape instanceof Cube ) {
+			return vertexArrays.primitive(gl,PrimitiveCache.CUBE,
+			                              ((Cube) shape).getSideLength(),0,0,0,0,
+			                              tex,wire);
+		} else if ( shape instanceof Teapot ) {
+			return vertexArrays.primitive(gl,PrimitiveCache.CUBE,
+			                              ((Teapot) shape).getSideLength(),0,0,0,
+			                              0,false,wire);
+		} else if ( shape instanceof Sphere ) {
+			Sphere s = (Sphere) shape;
+			if ( s.getRadius() <= 0 || s.getSlices() < 3 || s.getStacks() < 2 ) {
+				return null;
+			}
+			return vertexArrays.primitive(gl,PrimitiveCache.SPHERE,s.getRadius(),0,
+			                              s.getSlices(),s.getStacks(),0,tex,wire);
+		} else if ( shape instanceof Cone ) {
+			Cone c = (Cone) shape;
+			if ( c.getBase() <= 0 || c.getHeight() <= 0 || c.getSlices() < 3
+			    || c.getStacks() < 2 ) {
+				return null;
+			}
+			return vertexArrays.primitive(gl,PrimitiveCache.CONE,c.getBase(),
+			                              c.getHeight(),c.getSlices(),
+			                              c.getStacks(),
+			                              tex ? c.getSlices() / 2 : 1,tex,wire);
+		} else if ( shape instanceof Cylinder ) {
+			Cylinder c = (Cylinder) shape;
+			if ( c.getRadius() <= 0 || c.getHeight() <= 0 || c.getSlices() < 3
+			    || c.getStacks() < 2 ) {
+				return null;
+			}
+			return vertexArrays.primitive(gl,PrimitiveCache.CYLINDER,
+			                              c.getRadius(),c.getHeight(),
+			                              c.getSlices(),c.getStacks(),
+			                              tex ? c.getSlices() / 2 : 1,tex,wire);
+		} else if ( shape instanceof Torus ) {
+			return torus((Torus) shape,tex,wire);
+		} else if ( shape instanceof ComplexShape ) {
+			return vertexArrays.mesh(gl,(ComplexShape) shape,tex);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets a torus's vertex array. A textured torus is tessellated as the
+	 * fixed-function backend tessellates it; others take the radii and
+	 * subdivisions as GLUT does, the inner radius being the tube's.
+	 */
+	private Geometry torus ( Torus t, boolean tex, boolean wire ) {
+		double a, b;
+		int slices, rings;
+		if ( tex ) {
+			a = t.getInnerRadius();
+			b = t.getOuterRadius();
+			slices = t.getSlices();
+			rings = t.getStacks() / 2;
+		} else {
+			a = t.getOuterRadius() + t.getInnerRadius();
+			b = t.getOuterRadius() - t.getInnerRadius();
+			slices = t.getStacks();
+			rings = t.getSlices();
+		}
+		if ( a == b || Math.min(a,b) < 0 || slices < 3 || rings < 3 ) {
+			return null;
+		}
+		return vertexArrays.primitive(gl,PrimitiveCache.TORUS,a,b,slices,0,rings,
+		                              tex,wire);
+	}
+
+	/**
+	 * Draws a vertex array: its faces, pushed back if lines are drawn over
+	 * them, then its lines.
+	 *
+	 * @param instances
+	 *          The number of instances, or 0 for an ordinary draw.
+	 */
+	private void draw ( Geometry geometry, int instances ) {
+		if ( geometry == null ) {
+			return;
+		}
+		prepare();
+		if ( geometry.offset ) {
+			gl.glPolygonOffset(1,1);
+			gl.glEnable(GL.GL_POLYGON_OFFSET_FILL);
+		}
+		vertexArrays.draw(gl,geometry,GL.GL_TRIANGLES,0,geometry.triangles,
+		                  instances);
+		if ( geometry.offset ) {
+			gl.glDisable(GL.GL_POLYGON_OFFSET_FILL);
+		}
+		if ( geometry.lines > 0 ) {
+			gl.glLineWidth(geometry.lineWidth);
+			vertexArrays.draw(gl,geometry,GL.GL_LINES,geometry.triangles,
+			                  geometry.lines,instances);
+		}
+	}
+
+	/**
+	 * Uploads whatever the program reads that has changed since the last draw.
+	 */
+	private void prepare () {
+		if ( modelviewChanged ) {
+			gl.glUniformMatrix4fv(modelviewLocation,1,false,modelview.get(),0);
+			modelviewChanged = false;
+		}
+		if ( lightsChanged ) {
+			gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,lightBuffer);
+			gl.glBufferSubData(GL2ES3.GL_UNIFORM_BUFFER,0,
+			                   4L * LIGHT_FLOATS * lightCount,lightData);
+			gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,0);
+			gl.glUniform1i(lightCountLocation,lightCount);
+			lightsChanged = false;
+			stateChanges++;
+		}
+		if ( materialChanged ) {
+			gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,materialBuffer);
+			gl.glBufferSubData(GL2ES3.GL_UNIFORM_BUFFER,0,4L * MATERIAL_FLOATS,
+			                   materialData);
+			gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER,0);
+			materialChanged = false;
+			stateChanges++;
+		}
+	}
+
+	/**
+	 * Draws the instances of an instanced shape node. Built-in shapes are
+	 * drawn with one instanced draw call, reading each instance's transform
+	 * and color from a buffer; other shapes are drawn one instance at a time,
+	 * with the instance's color as a constant attribute.
+	 */
+	public void drawInstances ( InstancedShapeNode node, Renderer renderer ) {
+		Shape shape = node.getShape();
+		if ( shape == null ) {
+			return;
+		}
+		if ( shape instanceof Cube || shape instanceof Teapot
+		    || shape instanceof Sphere || shape instanceof Cone
+		    || shape instanceof Cylinder || shape instanceof Torus
+		    || shape instanceof ComplexShape ) {
+			Geometry geometry = geometry(shape);
+			if ( geometry == null ) {
+				return;
+			}
+			int count = vertexArrays.bindInstances(gl,geometry,node);
+			gl.glUniform1i(instancedLocation,1);
+			setColored(node.hasColors());
+			if ( count > 0 ) {
+				draw(geometry,count);
+			}
+			gl.glUniform1i(instancedLocation,0);
+			setColored(false);
+			vertexArrays.unbindInstances(gl,geometry);
+			return;
+		}
+		FloatBuffer transforms = node.getTransforms();
+		FloatBuffer colors = node.getColors();
+		setColored(colors != null);
+		for ( int i = 0 ; i < node.getCount() ; i++ ) {
+			synchronized ( node ) {
+				for ( int k = 0 ; k < 16 ; k++ ) {
+					instanceMatrix[k] = transforms.get(16 * i + k);
+				}
+				if ( colors != null ) {
+					gl.glVertexAttrib4f(VertexArrayCache.COLOR,colors.get(4 * i),
+					                    colors.get(4 * i + 1),colors.get(4 * i + 2),
+					                    colors.get(4 * i + 3));
+				}
+			}
+			pushMatrix();
+			multMatrix(instanceMatrix,0);
+			shape.draw(renderer);
+			popMatrix();
+		}
+		setColored(false);
+	}
+
+	private void setColored ( boolean on ) {
+		if ( colored != on ) {
+			gl.glUniform1i(coloredLocation,on ? 1 : 0);
+			colored = on;
+		}
+	}
+
+	public TextureCache getTextureCache () {
+		return textureCache;
+	}
+
+	public void setPrimitiveCacheCapacity ( int capacity ) {
+		vertexArrays.setCapacity(capacity);
+	}
+
+	public long getDrawCalls () {
+		return vertexArrays.getDrawCalls();
+	}
+
+	public long getVerticesDrawn () {
+		return vertexArrays.getVerticesDrawn();
+	}
+
+	public long getStateChanges () {
+		return stateChanges;
+	}
+}
@@ -152,12 +152,12 @@ public class ExampleProgramXML {
 		 MatrixOperations m = new MatrixOperations();
 		 
 		 //1
-//m.matrix = new float[][] { { 0, 1, 0, 0 }, { 1, 0, 0, 0 }, { 0, 0, 1, 0 },
-//		                           { 0, 0, 0, 1 } };
+//m.set(new float[][] { { 0, 1, 0, 0 }, { 1, 0, 0, 0 }, { 0, 0, 1, 0 },
+//		                           { 0, 0, 0, 1 } });
 		
 //3
 //	  m.setIdentity();
-//	  m.matrix[2][0] = -4;
+//	  m.set(2,0,-4);
 
 		 //2
 		 //m = MatrixOperations.createShearX(1,1);
@@ -165,9 +165,9 @@ public class ExampleProgramXML {
 		// m = MatrixOperations.createShearX(1,1);
 		
 		 //4
-//	 m.matrix = new float[][] { { 1, 0, 0, 0 }, { 0, 1, 0, 0 }, { 0, 0, 0, 0
+//	 m.set(new float[][] { { 1, 0, 0, 0 }, { 0, 1, 0, 0 }, { 0, 0, 0, 0
 //			 },
-//	    { 0, 0, 0, 1 } };
+//	    { 0, 0, 0, 1 } });
 
 		ComplexShape sphere = new ComplexShape(ComplexShape.HOUSE);
 		// ComplexShape sphere = new
@@ -2,20 +2,25 @@ package main;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import lights.*;
-import nodes.*;
-import shapes.*;
-import transformations.*;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.TransformNode;
+import transformations.KeyframeAnimation;
+import transformations.KeyframeTrack;
 
 /**
  * @author Sayf Elhawary
@@ -23,452 +28,219 @@ import transformations.*;
 public class FileManager {
 
 	/**
-	 * Loads a scene from an XML file. This method parses the XML file and
-	 * constructs a scene graph based on its contents. The method traverses
-	 * through the XML nodes, creating corresponding objects in the scene.
+	 * Loads a scene from an XML file. The file is read in a single streaming
+	 * pass, creating nodes as their elements are read, so large scenes load
+	 * without first being held in memory as a document.
+	 * 
+	 * The root element may give the background color as color="r,g,b,a". Each
+	 * element inside it becomes a node, and the elements inside that become the
+	 * node's children. Attributes are read by name: e.g. Translation, Scale
+	 * and AnimatedScale take x, y, z and texture; Rotation and AnimatedRotation
+	 * also take angle; Sphere takes type="UNIT_SPHERE" or status, radius and
+	 * slices and stacks (or longitudeBands and latitudeBands); Material takes
+	 * type (a predefined material) or ambient, diffuse, specular, emission and
+	 * shininess; Camera takes lookAt (nine numbers) and scale. Lists of numbers
+	 * may be separated by commas or spaces, and colors and positions may leave
+	 * out their last component, which is then 1. Elements that are not nodes
+	 * are skipped with their contents.
 	 * 
 	 * @param fileName
 	 *          The path to the XML file.
 	 * @return A Scene object constructed from the XML file.
+	 * @throws UncheckedIOException
+	 *           If the file cannot be read or is not well-formed XML.
+	 * @throws IllegalArgumentException
+	 *           If an element is missing an attribute or has a bad value.
 	 */
 	public static Scene loadXMLScene ( String fileName ) {
+		return loadXMLScene(fileName,null);
+	}
 
-		Scene scene = new Scene(0,0,0,1);
+	/**
+	 * Loads a scene from an XML file, as loadXMLScene(String) does, reporting
+	 * progress as it goes.
+	 * 
+	 * @param fileName
+	 *          The path to the XML file.
+	 * @param progress
+	 *          Receives a report every few thousand nodes and at the end, or
+	 *          null.
+	 * @return A Scene object constructed from the XML file.
+	 * @throws UncheckedIOException
+	 *           If the file cannot be read or is not well-formed XML.
+	 * @throws IllegalArgumentException
+	 *           If an element is missing an attribute or has a bad value.
+	 */
+	public static Scene loadXMLScene ( String fileName, LoadProgress progress ) {
 		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			dbFactory.setIgnoringElementContentWhitespace(true);
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			File xmlFile = new File(fileName);
-			Document doc = dBuilder.parse(xmlFile);
-			PartialScene currentNode = scene.getRootNode();
-
-			NodeList children = doc.getDocumentElement().getChildNodes();
-			for ( int i = 0 ; i < children.getLength() ; i++ ) {
-				traverseNodes(children.item(i),currentNode);
-			}
+			return StreamingSceneLoader.load(Paths.get(fileName),progress);
+		} catch ( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+	}
 
-		} catch ( ParserConfigurationException | SAXException | IOException e ) {
-			e.printStackTrace();
+	/**
+	 * Loads a scene from a binary scene file, as written by saveBinaryScene.
+	 * The file is mapped into memory and read in place, which is much faster
+	 * than parsing XML.
+	 * 
+	 * @param fileName
+	 *          The path to the binary file.
+	 * @return A Scene object constructed from the file.
+	 * @throws UncheckedIOException
+	 *           If the file cannot be read, is not a binary scene or is of a
+	 *           later version of the format.
+	 */
+	public static Scene loadBinaryScene ( String fileName ) {
+		try {
+			return BinarySceneReader.open(Paths.get(fileName)).read();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException(e);
 		}
-		return scene;
 	}
 
 	/**
-	 * Traverses through the nodes in the XML document and constructs the scene
-	 * graph.
+	 * Saves a scene as a binary scene file, replacing the file if it exists.
+	 * Shape and camera parameters are kept in single precision, as in XML
+	 * scenes. Nodes, shapes, lights and transforms must be the engine's own
+	 * classes, not subclasses of them.
 	 * 
-	 * @param node
-	 *          The current XML node being processed.
-	 * @param parent
-	 *          The parent node in the scene graph.
+	 * @param scene
+	 *          The scene.
+	 * @param fileName
+	 *          The path to the binary file.
+	 * @throws UncheckedIOException
+	 *           If the file cannot be written.
+	 * @throws IllegalArgumentException
+	 *           If the scene has something the format cannot hold.
 	 */
-	private static void traverseNodes ( Node node, PartialScene parent ) {
-		PartialScene currentNode = createSceneGraph(node,parent);
+	public static void saveBinaryScene ( Scene scene, String fileName ) {
+		try {
+			BinarySceneWriter.write(scene,Paths.get(fileName));
+		} catch ( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+	}
 
-		NodeList children = node.getChildNodes();
-		for ( int i = 0 ; i < children.getLength() ; i++ ) {
-			traverseNodes(children.item(i),currentNode);
+	/**
+	 * Loads a scene from an XML file by parsing it into a DOM document first.
+	 * It builds the same graph as loadXMLScene, which is faster and needs far
+	 * less memory; it is kept to check the streaming loader against.
+	 * 
+	 * @param fileName
+	 *          The path to the XML file.
+	 * @return A Scene object constructed from the XML file.
+	 * @throws UncheckedIOException
+	 *           If the file cannot be read or is not well-formed XML.
+	 * @throws IllegalArgumentException
+	 *           If an element is missing an attribute or has a bad value.
+	 */
+	public static Scene loadXMLSceneDOM ( String fileName ) {
+		Document doc;
+		try {
+			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+			dbFactory.setIgnoringElementContentWhitespace(true);
+			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+			doc = dBuilder.parse(new File(fileName));
+		} catch ( ParserConfigurationException | SAXException e ) {
+			throw new UncheckedIOException(new IOException(fileName + ": "
+			    + e.getMessage(),e));
+		} catch ( IOException e ) {
+			throw new UncheckedIOException(e);
 		}
+		Element root = doc.getDocumentElement();
+		Scene scene = SceneXML.scene(attributes(root));
+		traverseNodes(root,scene.getRootNode(),new KeyframeAnimation());
+		return scene;
 	}
 
 	/**
-	 * Creates a scene graph based on the provided XML node. This method
-	 * identifies the type of XML node (e.g., light, shape) and creates the
-	 * corresponding object in the scene graph.
+	 * Traverses through the elements in an XML element and adds the nodes they
+	 * describe to the scene graph.
 	 * 
-	 * @param xmlNode
-	 *          The XML node to be processed.
+	 * @param element
+	 *          The XML element whose children are processed.
 	 * @param parent
-	 *          The parent node in the scene graph.
-	 * @return The newly created node in the scene graph.
+	 *          The node in the scene graph they are added to.
+	 * @param animation
+	 *          The animation keyframe transforms in the scene are added to.
 	 */
-	private static PartialScene createSceneGraph ( Node xmlNode,
-	                                               PartialScene parent ) {
-		String nodeName = xmlNode.getNodeName();
-		System.out.println(nodeName);
-		PartialScene currentNode = null;
-
-		if ( nodeName.equals("PointLight") ) {
-			int currValue = Integer.parseInt(xmlNode.getAttributes()
-			    .getNamedItem("number").getNodeValue());
-			String[] currAttribute = xmlNode.getAttributes().getNamedItem("ambient")
-			    .getNodeValue().split(",");
-			float[] ambient = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("diffuse")
-			    .getNodeValue().split(",");
-			float[] diffuse = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("specular")
-			    .getNodeValue().split(",");
-			float[] specular = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("position")
-			    .getNodeValue().split(",");
-			float[] position = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-
-			PointLight pl = new PointLight(currValue,ambient,// ambient
-			                               diffuse,// diffuse
-			                               specular,// specular
-			                               position);// position
-			LightNode lightNode = new LightNode(pl);
-			currentNode = lightNode;
-			parent.addChild(lightNode);
-		} else if ( nodeName.equals("DirectionalLight") ) {
-			int currValue = Integer.parseInt(xmlNode.getAttributes()
-			    .getNamedItem("number").getNodeValue());
-			String[] currAttribute = xmlNode.getAttributes().getNamedItem("ambient")
-			    .getNodeValue().split(",");
-			float[] ambient = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("diffuse")
-			    .getNodeValue().split(",");
-			float[] diffuse = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("specular")
-			    .getNodeValue().split(",");
-			float[] specular = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().getNamedItem("position")
-			    .getNodeValue().split(",");
-			float[] position = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-
-			DirectionalLight dl = new DirectionalLight(currValue,ambient,// ambient
-			                                           diffuse,// diffuse
-			                                           specular,// specular
-			                                           position);// position
-			LightNode lightNode = new LightNode(dl);
-			currentNode = lightNode;
-			parent.addChild(lightNode);
-		} else if ( nodeName.equals("SpotLight") ) {
-			int currValue =
-			    Integer.parseInt(xmlNode.getAttributes().item(0).getNodeValue());
-			String[] currAttribute =
-			    xmlNode.getAttributes().item(1).getNodeValue().split(",");
-			float[] ambient = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().item(2).getNodeValue().split(",");
-			float[] diffuse = new float[] { Float.parseFloat(currAttribute[0]),
-			                                Float.parseFloat(currAttribute[1]),
-			                                Float.parseFloat(currAttribute[2]),
-			                                Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().item(3).getNodeValue().split(",");
-			float[] specular = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().item(4).getNodeValue().split(",");
-			float[] position = new float[] { Float.parseFloat(currAttribute[0]),
-			                                 Float.parseFloat(currAttribute[1]),
-			                                 Float.parseFloat(currAttribute[2]),
-			                                 Float.parseFloat(currAttribute[4]) };
-			currAttribute = xmlNode.getAttributes().item(5).getNodeValue().split(",");
-			float[] direction = new float[] { Float.parseFloat(currAttribute[0]),
-			                                  Float.parseFloat(currAttribute[1]),
-			                                  Float.parseFloat(currAttribute[2]),
-			                                  Float.parseFloat(currAttribute[4]) };
-			int cutoff =
-			    Integer.parseInt(xmlNode.getAttributes().item(6).getNodeValue());
-			int exponent =
-			    Integer.parseInt(xmlNode.getAttributes().item(7).getNodeValue());
-
-			SpotLight sl = new SpotLight(currValue,ambient,// ambient
-			                             diffuse,// diffuse
-			                             specular,// specular
-			                             position,direction,cutoff,exponent);// position
-			LightNode lightNode = new LightNode(sl);
-			currentNode = lightNode;
-			parent.addChild(lightNode);
-		} else if ( nodeName.equals("Torus") ) {
-			Torus shape = new Torus(xmlNode.getAttributes().item(0).getNodeValue(),
-			                        Double.parseDouble(xmlNode.getAttributes().item(1)
-			                            .getNodeValue()),
-			                        Double.parseDouble(xmlNode.getAttributes().item(2)
-			                            .getNodeValue()),
-			                        Integer.parseInt(xmlNode.getAttributes().item(3)
-			                            .getNodeValue()),
-			                        Integer.parseInt(xmlNode.getAttributes().item(4)
-			                            .getNodeValue()));
-			ShapeNode shapeNode = new ShapeNode(shape);
-			currentNode = shapeNode;
-			parent.addChild(shapeNode);
-		} else if ( nodeName.equals("Cylinder") ) {
-			Cylinder shape =
-			    new Cylinder(xmlNode.getAttributes().item(0).getNodeValue(),
-			                 Double.parseDouble(xmlNode.getAttributes().item(1)
-			                     .getNodeValue()),
-			                 Double.parseDouble(xmlNode.getAttributes().item(2)
-			                     .getNodeValue()),
-			                 Integer.parseInt(xmlNode.getAttributes().item(3)
-			                     .getNodeValue()),
-			                 Integer.parseInt(xmlNode.getAttributes().item(4)
-			                     .getNodeValue()));
-			ShapeNode shapeNode = new ShapeNode(shape);
-			currentNode = shapeNode;
-			parent.addChild(shapeNode);
-
-		} else if ( nodeName.equals("Teapot") ) {
-			Teapot shape =
-			    new Teapot(xmlNode.getAttributes().item(0).getNodeValue(),Float
-			        .parseFloat(xmlNode.getAttributes().item(1).getNodeValue()));
-			ShapeNode shapeNode = new ShapeNode(shape);
-			currentNode = shapeNode;
-			parent.addChild(shapeNode);
-
-		} else if ( nodeName.equals("Sphere") ) {
-
-			if ( xmlNode.getAttributes().item(0).getNodeValue().toUpperCase()
-			    .equals("UNIT_SPHERE") ) {
-				Sphere shape = Sphere.UNIT_SPHERE;
-				ShapeNode shapeNode = new ShapeNode(shape);
-				currentNode = shapeNode;
-				parent.addChild(shapeNode);
-			} else {
-
-				Sphere shape =
-				    new Sphere(xmlNode.getAttributes().item(0).getNodeValue(),
-				               Double.parseDouble(xmlNode.getAttributes().item(1)
-				                   .getNodeValue()),
-				               Integer.parseInt(xmlNode.getAttributes().item(2)
-				                   .getNodeValue()),
-				               Integer.parseInt(xmlNode.getAttributes().item(3)
-				                   .getNodeValue()));
-				ShapeNode shapeNode = new ShapeNode(shape);
-				currentNode = shapeNode;
-				parent.addChild(shapeNode);
+	private static void traverseNodes ( Element element, PartialScene parent,
+	                                    KeyframeAnimation animation ) {
+		List<PartialScene> children = new ArrayList<>();
+		for ( Node child = element.getFirstChild() ; child != null ; child =
+		    child.getNextSibling() ) {
+			if ( child.getNodeType() != Node.ELEMENT_NODE ) {
+				continue; // text and comments
 			}
-
-		} else if ( nodeName.equals("ComplexShape") ) {
-
-			// don't know how to do it
-
-		} else if ( nodeName.equals("Cone") ) {
-
-			Cone shape = new Cone(xmlNode.getAttributes().item(0).getNodeValue(),
-			                      Double.parseDouble(xmlNode.getAttributes().item(1)
-			                          .getNodeValue()),
-			                      Double.parseDouble(xmlNode.getAttributes().item(2)
-			                          .getNodeValue()),
-			                      Integer.parseInt(xmlNode.getAttributes().item(3)
-			                          .getNodeValue()),
-			                      Integer.parseInt(xmlNode.getAttributes().item(4)
-			                          .getNodeValue()));
-			ShapeNode shapeNode = new ShapeNode(shape);
-			currentNode = shapeNode;
-			parent.addChild(shapeNode);
-
-		} else if ( nodeName.equals("Cube") ) {
-			Cube shape = new Cube(xmlNode.getAttributes().item(0).getNodeValue(),Float
-			    .parseFloat(xmlNode.getAttributes().item(1).getNodeValue()));
-			ShapeNode shapeNode = new ShapeNode(shape);
-			currentNode = shapeNode;
-			parent.addChild(shapeNode);
-
-		} else if ( nodeName.equals("Rotation") ) {
-
-			boolean tex =
-			    xmlNode.getAttributes().item(4).getNodeValue().equals("true") ? true
-			        : false;
-
-			Rotation transform = new Rotation(
-			                                  Float.parseFloat(xmlNode.getAttributes()
-			                                      .item(0).getNodeValue()),
-			                                  Float.parseFloat(xmlNode.getAttributes()
-			                                      .item(1).getNodeValue()),
-			                                  Float.parseFloat(xmlNode.getAttributes()
-			                                      .item(2).getNodeValue()),
-			                                  Float.parseFloat(xmlNode.getAttributes()
-			                                      .item(3).getNodeValue()),
-			                                  tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("Scale") ) {
-
-			boolean tex =
-			    xmlNode.getAttributes().item(3).getNodeValue().equals("true") ? true
-			        : false;
-
-			Scale transform = new Scale(
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(0).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(1).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(2).getNodeValue()),
-			                            tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("Translation") ) {
-
-			boolean tex =
-			    xmlNode.getAttributes().item(3).getNodeValue().equals("true") ? true
-			        : false;
-
-			AnimatedTranslation transform =
-			    new AnimatedTranslation(Float
-			        .parseFloat(xmlNode.getAttributes().item(0).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(1).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(2).getNodeValue()),
-			                            tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("AnimatedRotation") ) {
-
-			boolean tex =
-			    xmlNode.getAttributes().item(4).getNodeValue().equals("true") ? true
-			        : false;
-
-			AnimatedRotation transform =
-			    new AnimatedRotation(Float
-			        .parseFloat(xmlNode.getAttributes().item(0).getNodeValue()),
-			                         Float.parseFloat(xmlNode.getAttributes().item(1)
-			                             .getNodeValue()),
-			                         Float.parseFloat(xmlNode.getAttributes().item(2)
-			                             .getNodeValue()),
-			                         Float.parseFloat(xmlNode.getAttributes().item(3)
-			                             .getNodeValue()),
-			                         tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("AnimatedScale") ) {
-
-			boolean tex =
-			    xmlNode.getAttributes().item(3).getNodeValue().equals("true") ? true
-			        : false;
-
-			AnimatedScale transform =
-			    new AnimatedScale(Float
-			        .parseFloat(xmlNode.getAttributes().item(0).getNodeValue()),
-			                      Float.parseFloat(xmlNode.getAttributes().item(1)
-			                          .getNodeValue()),
-			                      Float.parseFloat(xmlNode.getAttributes().item(2)
-			                          .getNodeValue()),
-			                      tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("AnimatedTranslation") ) {
-			boolean tex =
-			    xmlNode.getAttributes().item(3).getNodeValue().equals("true") ? true
-			        : false;
-
-			AnimatedTranslation transform =
-			    new AnimatedTranslation(Float
-			        .parseFloat(xmlNode.getAttributes().item(0).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(1).getNodeValue()),
-			                            Float.parseFloat(xmlNode.getAttributes()
-			                                .item(2).getNodeValue()),
-			                            tex);
-			TransformNode tNode = new TransformNode(transform);
-			currentNode = tNode;
-			parent.addChild(tNode);
-
-		} else if ( nodeName.equals("Camera") ) {
-
-			String[] currAttribute =
-			    xmlNode.getAttributes().item(0).getNodeValue().split(",");
-			float[] lookAt = new float[] { Float.parseFloat(currAttribute[0]),
-			                               Float.parseFloat(currAttribute[1]),
-			                               Float.parseFloat(currAttribute[2]),
-			                               Float.parseFloat(currAttribute[4]),
-			                               Float.parseFloat(currAttribute[2]),
-			                               Float.parseFloat(currAttribute[4]) };
-
-			Camera c = new Camera();
-			c.lookAt(lookAt[0],lookAt[1],lookAt[2],lookAt[3],lookAt[4],lookAt[5],
-			         lookAt[6],lookAt[7],lookAt[8]);
-			c.setScale(Float
-			    .parseFloat(xmlNode.getAttributes().item(1).getNodeValue()));
-			CameraNode materialNode = new CameraNode(c);
-			currentNode = materialNode;
-			parent.addChild(materialNode);
-
-		} else if ( nodeName.equals("Material") ) {
-			if ( xmlNode.getAttributes().item(0).getNodeValue().toUpperCase()
-			    .equals("OBSIDEAN") ) {
-				Material m = Material.OBSIDIAN;
-				MaterialNode materialNode = new MaterialNode(m);
-				currentNode = materialNode;
-				parent.addChild(materialNode);
-			} else {
-				float currValue =
-				    Float.parseFloat(xmlNode.getAttributes().item(4).getNodeValue());
-				String[] currAttribute =
-				    xmlNode.getAttributes().item(0).getNodeValue().split(",");
-				float[] ambient = new float[] { Float.parseFloat(currAttribute[0]),
-				                                Float.parseFloat(currAttribute[1]),
-				                                Float.parseFloat(currAttribute[2]),
-				                                Float.parseFloat(currAttribute[4]) };
-				currAttribute =
-				    xmlNode.getAttributes().item(1).getNodeValue().split(",");
-				float[] diffuse = new float[] { Float.parseFloat(currAttribute[0]),
-				                                Float.parseFloat(currAttribute[1]),
-				                                Float.parseFloat(currAttribute[2]),
-				                                Float.parseFloat(currAttribute[4]) };
-				currAttribute =
-				    xmlNode.getAttributes().item(2).getNodeValue().split(",");
-				float[] specular = new float[] { Float.parseFloat(currAttribute[0]),
-				                                 Float.parseFloat(currAttribute[1]),
-				                                 Float.parseFloat(currAttribute[2]),
-				                                 Float.parseFloat(currAttribute[4]) };
-				currAttribute =
-				    xmlNode.getAttributes().item(3).getNodeValue().split(",");
-				float[] emission = new float[] { Float.parseFloat(currAttribute[0]),
-				                                 Float.parseFloat(currAttribute[1]),
-				                                 Float.parseFloat(currAttribute[2]),
-				                                 Float.parseFloat(currAttribute[4]) };
-
-				Material m = new Material(ambient,// ambient
-				                          diffuse,// diffuse
-				                          specular,// specular
-				                          emission,currValue);// position
-				MaterialNode materialNode = new MaterialNode(m);
-				currentNode = materialNode;
-				parent.addChild(materialNode);
+			Element childElement = (Element) child;
+			String name = childElement.getTagName();
+			if ( name.equals("KeyframeTransform") ) {
+				// its children are its tracks
+				children.add(createKeyframeTransform(childElement,animation));
+				continue;
 			}
-		} else if ( nodeName.equals("Texture") ) {
+			PartialScene node = SceneXML.node(name,attributes(childElement));
+			if ( node != null ) {
+				traverseNodes(childElement,node,animation);
+				children.add(node);
+			}
+		}
+		parent.addChildren(children.toArray(new PartialScene[children.size()]));
+	}
 
-			Tex tex = new Tex(xmlNode.getAttributes().item(0).getNodeValue());
-			TextureNode texNode = new TextureNode(tex);
-			currentNode = texNode;
-			parent.addChild(texNode);
+	/**
+	 * Creates the node for a KeyframeTransform element from its Track
+	 * children.
+	 */
+	private static TransformNode createKeyframeTransform ( Element element,
+	                                                       KeyframeAnimation animation ) {
+		KeyframeTrack[] tracks = new KeyframeTrack[3];
+		for ( Node child = element.getFirstChild() ; child != null ; child =
+		    child.getNextSibling() ) {
+			if ( child.getNodeName().equals("Track") ) {
+				KeyframeTrack track = createTrack((Element) child);
+				tracks[track.getTarget().ordinal()] = track;
+			}
+		}
+		return new TransformNode(animation.createTransform(tracks[0],tracks[1],
+		                                                   tracks[2],
+		                                                   SceneXML.texture(attributes(element))));
+	}
 
-		} else {
-			currentNode = new PartialScene();
+	/**
+	 * Creates a keyframe track from a Track element, e.g.
+	 * 
+	 * <pre>
+	 * &lt;Track target="rotation" interpolation="linear" loop="true"&gt;
+	 *   &lt;Key time="0" angle="0" axis="0,1,0" /&gt;
+	 *   &lt;Key time="2" angle="180" axis="0,1,0" /&gt;
+	 * &lt;/Track&gt;
+	 * </pre>
+	 * 
+	 * The target is translation, rotation or scale and the interpolation is
+	 * step, linear, bezier or hermite. Each Key has a time in seconds and either
+	 * a value (x,y,z, or a quaternion x,y,z,w for rotations) or, for rotations,
+	 * an angle in degrees and an axis. Cubic tracks take the in and out control
+	 * points (bezier) or tangents (hermite) from in and out attributes.
+	 * 
+	 * @param element
+	 *          The Track element.
+	 * @return The track.
+	 */
+	private static KeyframeTrack createTrack ( Element element ) {
+		KeyframeTrack track = SceneXML.track(attributes(element));
+		for ( Node key = element.getFirstChild() ; key != null ; key =
+		    key.getNextSibling() ) {
+			if ( key.getNodeName().equals("Key") ) {
+				SceneXML.addKey(track,attributes((Element) key));
+			}
 		}
+		return track;
+	}
 
-		return currentNode;
+	private static SceneXML.Attributes attributes ( Element element ) {
+		return name -> element.hasAttribute(name) ? element.getAttribute(name)
+		    : null;
 	}
 }
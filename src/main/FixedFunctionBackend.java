@@ -0,0 +1,573 @@
+package main;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.util.gl2.GLUT;
+
+import lights.DirectionalLight;
+import lights.Light;
+import lights.PointLight;
+import lights.SpotLight;
+import nodes.InstancedShapeNode;
+import shapes.*;
+
+/**
+ * Draws with the GL2 fixed-function pipeline: the GL matrix stacks,
+ * glMaterial and glLight through a {@link GLStateCache}, GLUT for wire shapes,
+ * buffers kept by the primitive, mesh and instance caches for the rest, and
+ * display lists for recordings. This is how the renderer has always drawn, and
+ * is its default backend. It is limited to the eight lights GL2 has.
+ *
+ * Solid spheres, cones and cylinders come from the primitive cache too, so
+ * they have the tessellation of {@link PrimitiveGeometry}, not GLUT's: the
+ * poles of a sphere and the caps of a cylinder are rings of quads rather than
+ * triangle fans, a sphere's slices start at another longitude, and a cone is
+ * closed by a base, which GLUT leaves open. Lit, they can shade a little
+ * differently from the GLUT shapes drawn before the cache.
+ *
+ * @author Sayf Elhawary
+ */
+public class FixedFunctionBackend implements RecordingBackend {
+
+	private GL2 gl2;
+	private GLUT glut = new GLUT();
+
+	private TextureCache textureCache = new TextureCache();
+	private MeshCache meshCache = new MeshCache();
+	private PrimitiveCache primitiveCache = new PrimitiveCache();
+	private InstanceCache instanceCache =
+	    new InstanceCache(primitiveCache,meshCache);
+
+	private GLStateCache stateCache = new GLStateCache();
+	private final float[] lightPosition = new float[4];
+	private final float[] instanceMatrix = new float[16];
+
+	// the draws made without the caches: GLUT, GLU and glBegin/glEnd
+	private long immediateDrawCalls, immediateVertices;
+
+	/**
+	 * Constructs a backend with empty caches.
+	 */
+	public FixedFunctionBackend () {}
+
+	/**
+	 * Gets the default capabilities, which give a compatibility context.
+	 */
+	public GLCapabilities getCapabilities () {
+		return new GLCapabilities(null);
+	}
+
+	/**
+	 * Gets the shadow copy of GL state used to skip redundant material, light
+	 * and matrix mode calls.
+	 *
+	 * @return The state cache.
+	 */
+	public GLStateCache getStateCache () {
+		return stateCache;
+	}
+
+	/**
+	 * Gets the cache that draws instanced shape nodes.
+	 *
+	 * @return The instance cache.
+	 */
+	public InstanceCache getInstanceCache () {
+		return instanceCache;
+	}
+
+	public void setup ( GL gl ) {
+		gl2 = (GL2) gl;
+		stateCache.reset(); // a new context starts with unknown state
+
+		// depth test, for 3D
+		gl2.glEnable(GL2.GL_DEPTH_TEST);
+
+		// other configuration
+		gl2.glEnable(GL2.GL_NORMALIZE);
+		gl2.glEnable(GL2.GL_LIGHTING);
+		stateCache.enableLight(gl2,GL2.GL_LIGHT0);
+	}
+
+	public void beginFrame ( GL gl ) {
+		gl2 = (GL2) gl;
+		textureCache.nextFrame();
+		primitiveCache.nextFrame();
+	}
+
+	public void endFrame () {
+		gl2.glFlush();
+	}
+
+	public void dispose ( GL gl ) {
+		gl2 = (GL2) gl;
+		textureCache.dispose(gl2);
+		meshCache.dispose(gl2);
+		primitiveCache.dispose(gl2);
+		instanceCache.dispose(gl2);
+	}
+
+	public void clear ( float r, float g, float b, float a ) {
+		gl2.glClearColor(r,g,b,a);
+		gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+	}
+
+	public void getViewport ( int[] viewport ) {
+		gl2.glGetIntegerv(GL2.GL_VIEWPORT,viewport,0);
+	}
+
+	public void setProjection ( float[] m, int offset ) {
+		stateCache.matrixMode(gl2,GL2.GL_PROJECTION);
+		gl2.glLoadMatrixf(m,offset);
+	}
+
+	public void loadMatrix ( float[] m, int offset ) {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glLoadMatrixf(m,offset);
+	}
+
+	public void loadIdentity () {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glLoadIdentity();
+	}
+
+	public void multMatrix ( float[] m, int offset ) {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glMultMatrixf(m,offset);
+	}
+
+	public void pushMatrix () {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glPushMatrix();
+	}
+
+	public void popMatrix () {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glPopMatrix();
+	}
+
+	public void getMatrix ( float[] m, int offset ) {
+		gl2.glGetFloatv(GL2.GL_MODELVIEW_MATRIX,m,offset);
+	}
+
+	public void loadTextureMatrix ( float[] m, int offset ) {
+		// left in texture mode; modelview operations switch back as needed
+		stateCache.matrixMode(gl2,GL2.GL_TEXTURE);
+		gl2.glLoadMatrixf(m,offset);
+	}
+
+	public void applyMaterial ( Material material ) {
+		stateCache.material(gl2,GL2.GL_AMBIENT,material.getAmbient());
+		stateCache.material(gl2,GL2.GL_DIFFUSE,material.getDiffuse());
+		stateCache.material(gl2,GL2.GL_SPECULAR,material.getSpecular());
+		stateCache.material(gl2,GL2.GL_EMISSION,material.getEmissive());
+		stateCache.shininess(gl2,material.getShininess());
+	}
+
+	public void applyPointLight ( PointLight pLight ) {
+		setLightPosition(pLight,1);
+		stateCache.light(gl2,pLight.getLightId(),GL2.GL_AMBIENT,pLight.getAmbient());
+		stateCache.light(gl2,pLight.getLightId(),GL2.GL_DIFFUSE,pLight.getDiffuse());
+		stateCache.light(gl2,pLight.getLightId(),GL2.GL_SPECULAR,pLight.getSpecular());
+		stateCache.light(gl2,pLight.getLightId(),GL2.GL_POSITION,lightPosition);
+
+		stateCache.enableLight(gl2,pLight.getLightId());
+	}
+
+	public void applyDirectionalLight ( DirectionalLight dLight ) {
+		setLightPosition(dLight,0);
+		stateCache.light(gl2,dLight.getLightId(),GL2.GL_AMBIENT,dLight.getAmbient());
+		stateCache.light(gl2,dLight.getLightId(),GL2.GL_DIFFUSE,dLight.getDiffuse());
+		stateCache.light(gl2,dLight.getLightId(),GL2.GL_SPECULAR,dLight.getSpecular());
+		stateCache.light(gl2,dLight.getLightId(),GL2.GL_POSITION,lightPosition);
+
+		stateCache.enableLight(gl2,dLight.getLightId());
+	}
+
+	public void applySpotLight ( SpotLight sLight ) {
+		setLightPosition(sLight,0);
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_AMBIENT,sLight.getAmbient());
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_DIFFUSE,sLight.getDiffuse());
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_SPECULAR,sLight.getSpecular());
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_POSITION,lightPosition);
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_SPOT_DIRECTION,
+		                 sLight.getDirection());
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_SPOT_CUTOFF,
+		                 sLight.getCutoff());
+		stateCache.light(gl2,sLight.getLightId(),GL2.GL_SPOT_EXPONENT,
+		                 sLight.getExponent());
+
+		stateCache.enableLight(gl2,sLight.getLightId());
+	}
+
+	/**
+	 * Fills lightPosition with a light's position and w component (1 for a
+	 * point, 0 for a direction).
+	 */
+	private void setLightPosition ( Light light, float w ) {
+		lightPosition[0] = light.getPosition()[0];
+		lightPosition[1] = light.getPosition()[1];
+		lightPosition[2] = light.getPosition()[2];
+		lightPosition[3] = w;
+	}
+
+	public void applyTexture ( Tex texture ) {
+		textureCache.bind(gl2,texture.getFileName());
+	}
+
+	public void color ( float r, float g, float b ) {
+		gl2.glColor3f(r,g,b);
+	}
+
+	public void drawCube ( Cube cube ) {
+
+		if ( cube.getRenderMode() == RenderMode.TEXTURE ) {
+			primitiveCache.draw(gl2,PrimitiveCache.CUBE,cube.getSideLength(),0,0,0,0,
+			                    true);
+		} else if ( cube.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireCube(cube.getSideLength());
+			countBox();
+		} else {
+			glut.glutSolidCube(cube.getSideLength());
+			countBox();
+		}
+
+	}
+
+	public void drawSphere ( Sphere sphere ) {
+
+		if ( sphere.getRenderMode() == RenderMode.TEXTURE ) {
+			primitiveCache.draw(gl2,PrimitiveCache.SPHERE,sphere.getRadius(),0,
+			                    sphere.getSlices(),sphere.getStacks(),0,true);
+		} else if ( sphere.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireSphere(sphere.getRadius(),sphere.getSlices(),
+			                    sphere.getStacks());
+			// a loop round each inner stack, and a strip down each slice
+			int slices = sphere.getSlices(), stacks = sphere.getStacks();
+			count(stacks - 1 + slices,
+			      (stacks - 1) * slices + slices * (stacks + 1));
+		} else if ( sphere.getRadius() > 0 && sphere.getSlices() >= 3
+		    && sphere.getStacks() >= 2 ) {
+			primitiveCache.draw(gl2,PrimitiveCache.SPHERE,sphere.getRadius(),0,
+			                    sphere.getSlices(),sphere.getStacks(),0,false);
+		} else {
+			glut.glutSolidSphere(sphere.getRadius(),sphere.getSlices(),
+			                     sphere.getStacks());
+			// a fan at each pole, and a strip round each stack between them
+			int slices = sphere.getSlices(), stacks = sphere.getStacks();
+			count(stacks,2 * (slices + 2) + (stacks - 2) * 2 * (slices + 1));
+		}
+
+	}
+
+	public void drawCone ( Cone cone ) {
+
+		if ( cone.getRenderMode() == RenderMode.TEXTURE ) {
+			primitiveCache.draw(gl2,PrimitiveCache.CONE,cone.getBase(),
+			                    cone.getHeight(),cone.getSlices(),cone.getStacks(),
+			                    cone.getSlices() / 2,true);
+		} else if ( cone.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireCone(cone.getBase(),cone.getHeight(),cone.getSlices(),
+			                  cone.getStacks());
+			countWireCylinder(cone.getSlices(),cone.getStacks());
+		} else if ( cone.getBase() > 0 && cone.getHeight() > 0
+		    && cone.getSlices() >= 3 && cone.getStacks() >= 2 ) {
+			primitiveCache.draw(gl2,PrimitiveCache.CONE,cone.getBase(),
+			                    cone.getHeight(),cone.getSlices(),cone.getStacks(),1,
+			                    false);
+		} else {
+			glut.glutSolidCone(cone.getBase(),cone.getHeight(),cone.getSlices(),
+			                   cone.getStacks());
+			countSolidCylinder(cone.getSlices(),cone.getStacks());
+		}
+
+	}
+
+	public void drawTorus ( Torus torus ) {
+
+		if ( torus.getRenderMode() == RenderMode.TEXTURE ) {
+			primitiveCache.draw(gl2,PrimitiveCache.TORUS,torus.getInnerRadius(),
+			                    torus.getOuterRadius(),torus.getSlices(),0,
+			                    torus.getStacks() / 2,true);
+		} else if ( torus.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireTorus(torus.getInnerRadius(),torus.getOuterRadius(),
+			                   torus.getSlices(),torus.getStacks());
+			countTorus(torus.getSlices(),torus.getStacks());
+		} else {
+			glut.glutSolidTorus(torus.getInnerRadius(),torus.getOuterRadius(),
+			                    torus.getSlices(),torus.getStacks());
+			countTorus(torus.getSlices(),torus.getStacks());
+		}
+
+	}
+
+	public void drawCylinder ( Cylinder cylinder ) {
+
+		if ( cylinder.getRenderMode() == RenderMode.TEXTURE ) {
+			primitiveCache.draw(gl2,PrimitiveCache.CYLINDER,cylinder.getRadius(),
+			                    cylinder.getHeight(),cylinder.getSlices(),
+			                    cylinder.getStacks(),
+			                    cylinder.getSlices() / 2,true);
+		} else if ( cylinder.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireCylinder(cylinder.getRadius(),cylinder.getHeight(),
+			                      cylinder.getSlices(),cylinder.getStacks());
+			countWireCylinder(cylinder.getSlices(),cylinder.getStacks());
+		} else if ( cylinder.getRadius() > 0 && cylinder.getHeight() > 0
+		    && cylinder.getSlices() >= 3 && cylinder.getStacks() >= 2 ) {
+			primitiveCache.draw(gl2,PrimitiveCache.CYLINDER,cylinder.getRadius(),
+			                    cylinder.getHeight(),cylinder.getSlices(),
+			                    cylinder.getStacks(),1,false);
+		} else {
+			glut.glutSolidCylinder(cylinder.getRadius(),cylinder.getHeight(),
+			                       cylinder.getSlices(),cylinder.getStacks());
+			// a fan for each cap, then the side
+			count(2,2 * (cylinder.getSlices() + 2));
+			countSolidCylinder(cylinder.getSlices(),cylinder.getStacks());
+		}
+
+	}
+
+	public void drawTeapot ( Teapot teapot ) {
+
+		if ( teapot.getRenderMode() == RenderMode.WIRE ) {
+			glut.glutWireCube(teapot.getSideLength());
+		} else {
+			glut.glutSolidCube(teapot.getSideLength());
+		}
+		countBox();
+
+	}
+
+	/**
+	 * Renders a complex shape as a polyhedron: its faces, each with its face
+	 * normal, and their edges drawn as lines over them.
+	 *
+	 * @param cShape
+	 *          The ComplexShape object to render.
+	 */
+	private void drawPolyhedron ( ComplexShape cShape ) {
+
+		// draw faces
+		gl2.glPolygonOffset(1,1);
+		gl2.glLineWidth(1);
+		gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
+		drawFaces(cShape,GL2.GL_TRIANGLE_FAN);
+
+		// draw edges
+
+		gl2.glLineWidth(3);
+		gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
+		gl2.glColor3f(1,1,1);
+		drawFaces(cShape,GL2.GL_LINE_LOOP);
+
+	}
+
+	/**
+	 * Draws each face of a complex shape from its packed geometry in immediate
+	 * mode, with its face normal.
+	 *
+	 * @param cShape
+	 *          The ComplexShape object to render.
+	 * @param mode
+	 *          The primitive each face is drawn as.
+	 */
+	private void drawFaces ( ComplexShape cShape, int mode ) {
+		PackedGeometry geometry = cShape.getGeometry();
+		FloatBuffer vertices = geometry.getVertexData();
+		FloatBuffer normals = geometry.getFaceNormals();
+		IntBuffer starts = geometry.getFaceStarts();
+		IntBuffer indices = geometry.getFaceIndices();
+		IntBuffer texCoordRows = geometry.getTexCoordRows();
+		FloatBuffer texCoords = geometry.getTexCoords();
+		boolean textured = cShape.getRenderMode() == RenderMode.TEXTURE
+		    && texCoordRows != null;
+		for ( int i = 0 ; i < geometry.getFaceCount() ; i++ ) {
+			gl2.glNormal3f(normals.get(3 * i),normals.get(3 * i + 1),
+			               normals.get(3 * i + 2));
+			gl2.glBegin(mode);
+			int start = starts.get(i), end = starts.get(i + 1);
+			for ( int j = start ; j < end ; j++ ) {
+				if ( textured ) {
+					int t = texCoordRows.get(i) + 2 * (j - start);
+					gl2.glTexCoord2f(texCoords.get(t),texCoords.get(t + 1));
+				}
+				int v = 3 * indices.get(j); // vertex j of face i
+				gl2.glVertex3f(vertices.get(v),vertices.get(v + 1),
+				               vertices.get(v + 2));
+			}
+			gl2.glEnd();
+		}
+		count(geometry.getFaceCount(),indices.limit());
+	}
+
+	/**
+	 * Counts the draws GLUT makes for a cube: a quad for each face.
+	 */
+	private void countBox () {
+		count(6,24);
+	}
+
+	/**
+	 * Counts the draws GLU makes for a filled cylinder or cone side: a quad
+	 * strip round each stack.
+	 */
+	private void countSolidCylinder ( int slices, int stacks ) {
+		count(stacks,stacks * 2 * (slices + 1));
+	}
+
+	/**
+	 * Counts the draws GLU makes for a wire cylinder or cone: a loop round each
+	 * ring and one set of lines along the slices.
+	 */
+	private void countWireCylinder ( int slices, int stacks ) {
+		count(stacks + 2,(stacks + 1) * slices + 2 * slices);
+	}
+
+	/**
+	 * Counts the draws GLUT makes for a torus, wire or solid: a quad strip
+	 * round each ring.
+	 */
+	private void countTorus ( int sides, int rings ) {
+		count(rings,rings * 2 * (sides + 1));
+	}
+
+	/**
+	 * Adds draws made without the caches to the counts.
+	 *
+	 * @param calls
+	 *          The number of glBegin/glEnd pairs.
+	 * @param vertices
+	 *          The vertices between them.
+	 */
+	private void count ( long calls, long vertices ) {
+		immediateDrawCalls += Math.max(calls,0);
+		immediateVertices += Math.max(vertices,0);
+	}
+
+	/**
+	 * Renders a complex shape using polygon mesh. The mesh is kept in GL buffers
+	 * by the mesh cache and drawn with a single call.
+	 *
+	 * @param cShape
+	 *          The ComplexShape object to render.
+	 */
+	private void drawPolyMesh ( ComplexShape cShape ) {
+
+		gl2.glLineWidth(2);
+		gl2.glPolygonOffset(1,1);
+		gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
+
+		meshCache.draw(gl2,cShape,
+		               cShape.getRenderMode() == RenderMode.TEXTURE);
+
+		gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
+
+	}
+
+	public void drawComplexShape ( ComplexShape cShape ) {
+		if ( cShape.getRenderMode() == RenderMode.SMOOTH ) {
+			drawPolyMesh(cShape);
+		} else {
+			drawPolyhedron(cShape);
+		}
+	}
+
+	/**
+	 * Draws the instances of an instanced shape node. Shapes kept in GL buffers
+	 * are drawn by the instance cache, with one draw call where it can; others
+	 * are drawn one instance at a time, with the instance's color as the
+	 * ambient and diffuse color through GL_COLOR_MATERIAL.
+	 */
+	public void drawInstances ( InstancedShapeNode node, Renderer renderer ) {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		if ( node.getShape() == null || instanceCache.draw(gl2,node) ) {
+			return;
+		}
+		Shape shape = node.getShape();
+		FloatBuffer transforms = node.getTransforms();
+		FloatBuffer colors = node.getColors();
+		if ( colors != null ) {
+			gl2.glPushAttrib(GL2.GL_LIGHTING_BIT | GL2.GL_CURRENT_BIT);
+			gl2.glColorMaterial(GL2.GL_FRONT_AND_BACK,GL2.GL_AMBIENT_AND_DIFFUSE);
+			gl2.glEnable(GL2.GL_COLOR_MATERIAL);
+		}
+		for ( int i = 0 ; i < node.getCount() ; i++ ) {
+			synchronized ( node ) {
+				for ( int k = 0 ; k < 16 ; k++ ) {
+					instanceMatrix[k] = transforms.get(16 * i + k);
+				}
+				if ( colors != null ) {
+					gl2.glColor4f(colors.get(4 * i),colors.get(4 * i + 1),
+					              colors.get(4 * i + 2),colors.get(4 * i + 3));
+				}
+			}
+			stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+			gl2.glPushMatrix();
+			gl2.glMultMatrixf(instanceMatrix,0);
+			shape.draw(renderer);
+			stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+			gl2.glPopMatrix();
+		}
+		if ( colors != null ) {
+			gl2.glPopAttrib();
+		}
+	}
+
+	/**
+	 * Recordings are display lists.
+	 */
+	public int newRecording () {
+		return gl2.glGenLists(1);
+	}
+
+	public void deleteRecording ( int recording ) {
+		gl2.glDeleteLists(recording,1);
+	}
+
+	public void beginRecording ( int recording ) {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		stateCache.reset(); // so the list sets all the state it relies on
+		gl2.glNewList(recording,GL2.GL_COMPILE_AND_EXECUTE);
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glPushMatrix();
+	}
+
+	public void endRecording () {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glPopMatrix();
+		gl2.glEndList();
+		stateCache.reset();
+	}
+
+	public void replay ( int recording ) {
+		stateCache.matrixMode(gl2,GL2.GL_MODELVIEW);
+		gl2.glCallList(recording);
+		stateCache.reset(); // the list changed state behind the cache's back
+	}
+
+	public TextureCache getTextureCache () {
+		return textureCache;
+	}
+
+	public void setPrimitiveCacheCapacity ( int capacity ) {
+		primitiveCache.setCapacity(capacity);
+	}
+
+	public long getDrawCalls () {
+		return primitiveCache.getDrawCalls() + meshCache.getDrawCalls()
+		    + instanceCache.getDrawCalls() + immediateDrawCalls;
+	}
+
+	public long getVerticesDrawn () {
+		return primitiveCache.getVerticesDrawn() + meshCache.getVerticesDrawn()
+		    + instanceCache.getVerticesDrawn() + immediateVertices;
+	}
+
+	public long getStateChanges () {
+		return stateCache.getIssued();
+	}
+}
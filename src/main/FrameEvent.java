@@ -0,0 +1,68 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event recorded for each frame drawn while a FrameProfiler is enabled.
+ * The event's duration is the whole frame.
+ *
+ * @author Sayf Elhawary
+ */
+@Name("scenegraph.Frame")
+@Label("Frame")
+@Category({ "Scene Graph", "Rendering" })
+@Description("CPU time of a rendered frame, by phase, and what it submitted")
+@StackTrace(false)
+class FrameEvent extends jdk.jfr.Event {
+
+	@Label("Frame Number")
+	long frame;
+
+	@Label("Animation")
+	@Timespan(Timespan.NANOSECONDS)
+	long animation;
+
+	@Label("Compile")
+	@Timespan(Timespan.NANOSECONDS)
+	long compile;
+
+	@Label("Update")
+	@Timespan(Timespan.NANOSECONDS)
+	long update;
+
+	@Label("Traversal")
+	@Timespan(Timespan.NANOSECONDS)
+	long traversal;
+
+	@Label("GL Submission")
+	@Timespan(Timespan.NANOSECONDS)
+	long submission;
+
+	@Label("Texture Loading")
+	@Timespan(Timespan.NANOSECONDS)
+	long textureLoad;
+
+	@Label("Draw Calls")
+	@Description("Cached and immediate mode draws made by the backend")
+	long drawCalls;
+
+	@Label("Vertices")
+	long vertices;
+
+	@Label("State Changes")
+	long stateChanges;
+
+	@Label("GL Calls")
+	@Description("-1 if GL calls are not being counted")
+	long glCalls;
+
+	@Label("Texture Memory")
+	@DataAmount
+	long textureMemory;
+}
@@ -0,0 +1,470 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jogamp.opengl.GL;
+
+import nodes.PartialScene;
+
+/**
+ * Records where a Renderer's frame time goes. Each frame's CPU time is split
+ * into phases: animation (advancing the clock and evaluating animated
+ * transforms), compiling the scene graph into its command buffer, traversing
+ * the command buffer, submitting GL commands, and loading textures. Phases are
+ * exclusive, so they add up to the frame time. Draw calls, vertices and state
+ * changes are counted too, and optionally every GL call and the time spent in
+ * each subtree of the graph.
+ *
+ * Every frame is emitted as a JFR event (scenegraph.Frame, and
+ * scenegraph.Subtree for subtrees) when a recording has them enabled, and the
+ * profiler can be registered as an MBean that reports percentiles over a
+ * window of recent frames.
+ *
+ * The profiler starts disabled. A disabled profiler costs the renderer one
+ * volatile read per frame and a branch wherever a phase starts; nothing is
+ * timed, counted or allocated. GL call counting goes through a reflective
+ * proxy and subtree timing reads the clock twice per group, so both slow
+ * drawing noticeably and are off even when the profiler is enabled. GLUT
+ * shapes and textures are drawn through GL objects of their own, so their
+ * calls are not counted.
+ *
+ * @author Sayf Elhawary
+ */
+public class FrameProfiler implements FrameProfilerMXBean {
+
+	/**
+	 * The parts a frame's time is split into.
+	 */
+	public enum Phase {
+		ANIMATION, COMPILE, UPDATE, TRAVERSAL, SUBMISSION, TEXTURE_LOAD
+	}
+
+	/**
+	 * The number of recent frames percentiles are taken over by default.
+	 */
+	public static final int DEFAULT_WINDOW = 600;
+
+	private static final int SLOWEST_SUBTREES = 10;
+
+	private volatile boolean enabled;
+	private volatile boolean subtreeTiming;
+	private volatile boolean countingGLCalls;
+
+	// the frame being recorded
+	private long frameStart;
+	private Phase phase;
+	private long phaseStart;
+	private final long[] phaseNanos;
+	private long glCalls;
+	private FrameEvent event;
+	private final List<Subtree> subtrees;
+
+	// the window of recent frames, a ring buffer
+	private final long[] frameTimes;
+	private final long[][] phaseTimes;
+	private int next;
+	private long frameCount;
+
+	// the last frame
+	private long lastDrawCalls, lastVertices, lastStateChanges, lastGLCalls;
+	private List<Subtree> lastSubtrees;
+
+	private ObjectName registeredName;
+
+	private static class Subtree {
+		private final PartialScene node;
+		private final int depth;
+		private final long nanos;
+
+		Subtree ( PartialScene node, int depth, long nanos ) {
+			this.node = node;
+			this.depth = depth;
+			this.nanos = nanos;
+		}
+
+		public String toString () {
+			return describe(node) + " depth " + depth + ": "
+			    + String.format("%.3f ms",nanos / 1e6);
+		}
+	}
+
+	/**
+	 * Constructs a disabled profiler with the default window.
+	 */
+	public FrameProfiler () {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Constructs a disabled profiler.
+	 *
+	 * @param window
+	 *          The number of recent frames percentiles are taken over.
+	 */
+	public FrameProfiler ( int window ) {
+		if ( window <= 0 ) {
+			throw new IllegalArgumentException("window must be positive: " + window);
+		}
+		phaseNanos = new long[Phase.values().length];
+		subtrees = new ArrayList<>();
+		frameTimes = new long[window];
+		phaseTimes = new long[Phase.values().length][window];
+		lastSubtrees = new ArrayList<>();
+		lastGLCalls = -1;
+	}
+
+	public boolean isEnabled () {
+		return enabled;
+	}
+
+	/**
+	 * Turns recording on or off. The change takes effect at the next frame.
+	 */
+	public void setEnabled ( boolean enabled ) {
+		this.enabled = enabled;
+	}
+
+	public boolean isSubtreeTiming () {
+		return subtreeTiming;
+	}
+
+	/**
+	 * Turns timing of each group (PartialScene) of the graph on or off. A
+	 * group's time includes its descendants. In sorted rendering, shapes are
+	 * drawn after the traversal, so their time is not part of any group's.
+	 */
+	public void setSubtreeTiming ( boolean timing ) {
+		subtreeTiming = timing;
+	}
+
+	public boolean isCountingGLCalls () {
+		return countingGLCalls;
+	}
+
+	/**
+	 * Turns counting of GL calls on or off.
+	 */
+	public void setCountingGLCalls ( boolean counting ) {
+		countingGLCalls = counting;
+	}
+
+	/**
+	 * Registers the profiler with the platform MBean server.
+	 *
+	 * @param name
+	 *          The value of the name key of the MBean's object name, which is
+	 *          scenegraph:type=FrameProfiler,name=<name>.
+	 * @throws IllegalStateException
+	 *           if the MBean cannot be registered, e.g. because the name is
+	 *           taken.
+	 */
+	public synchronized void registerMBean ( String name ) {
+		unregisterMBean();
+		try {
+			ObjectName objectName = new ObjectName("scenegraph:type=FrameProfiler,name="
+			    + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,objectName);
+			registeredName = objectName;
+		} catch ( JMException e ) {
+			throw new IllegalStateException("cannot register frame profiler " + name,
+			                                e);
+		}
+	}
+
+	/**
+	 * Unregisters the profiler from the platform MBean server, if it is
+	 * registered.
+	 */
+	public synchronized void unregisterMBean () {
+		if ( registeredName == null ) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if ( server.isRegistered(registeredName) ) {
+				server.unregisterMBean(registeredName);
+			}
+		} catch ( JMException e ) {
+			throw new IllegalStateException("cannot unregister frame profiler",e);
+		} finally {
+			registeredName = null;
+		}
+	}
+
+	/**
+	 * Starts recording a frame, in the SUBMISSION phase.
+	 */
+	void beginFrame () {
+		event = new FrameEvent();
+		event.begin();
+		Arrays.fill(phaseNanos,0);
+		glCalls = 0;
+		subtrees.clear();
+		frameStart = System.nanoTime();
+		phase = Phase.SUBMISSION;
+		phaseStart = frameStart;
+	}
+
+	/**
+	 * Switches to another phase, charging the time since the last switch to the
+	 * phase being left.
+	 *
+	 * @return The phase being left, to switch back to when the new one ends.
+	 */
+	Phase enter ( Phase next ) {
+		long now = System.nanoTime();
+		Phase previous = phase;
+		phaseNanos[previous.ordinal()] += now - phaseStart;
+		phase = next;
+		phaseStart = now;
+		return previous;
+	}
+
+	/**
+	 * Records the time spent in a subtree of the frame being recorded.
+	 */
+	void subtree ( PartialScene node, int depth, long nanos ) {
+		subtrees.add(new Subtree(node,depth,nanos));
+	}
+
+	/**
+	 * Finishes recording a frame.
+	 *
+	 * @param frame
+	 *          The frame's number.
+	 * @param drawCalls
+	 *          The number of draw calls issued.
+	 * @param vertices
+	 *          The number of vertices submitted.
+	 * @param stateChanges
+	 *          The number of GL state changes issued.
+	 * @param textureLoadNanos
+	 *          The time spent loading textures, all of it within SUBMISSION.
+	 * @param textureMemory
+	 *          The texture memory in use, in bytes.
+	 */
+	void endFrame ( long frame, long drawCalls, long vertices, long stateChanges,
+	                long textureLoadNanos, long textureMemory ) {
+		long end = System.nanoTime();
+		phaseNanos[phase.ordinal()] += end - phaseStart;
+		int submission = Phase.SUBMISSION.ordinal();
+		long load = Math.min(textureLoadNanos,phaseNanos[submission]);
+		phaseNanos[submission] -= load;
+		phaseNanos[Phase.TEXTURE_LOAD.ordinal()] += load;
+		long total = end - frameStart;
+		long calls = countingGLCalls ? glCalls : -1;
+
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.frame = frame;
+			event.animation = phaseNanos[Phase.ANIMATION.ordinal()];
+			event.compile = phaseNanos[Phase.COMPILE.ordinal()];
+			event.update = phaseNanos[Phase.UPDATE.ordinal()];
+			event.traversal = phaseNanos[Phase.TRAVERSAL.ordinal()];
+			event.submission = phaseNanos[submission];
+			event.textureLoad = phaseNanos[Phase.TEXTURE_LOAD.ordinal()];
+			event.drawCalls = drawCalls;
+			event.vertices = vertices;
+			event.stateChanges = stateChanges;
+			event.glCalls = calls;
+			event.textureMemory = textureMemory;
+			event.commit();
+		}
+		event = null;
+		for ( Subtree subtree : subtrees ) {
+			SubtreeEvent e = new SubtreeEvent();
+			if ( !e.isEnabled() ) {
+				break;
+			}
+			e.frame = frame;
+			e.node = describe(subtree.node);
+			e.depth = subtree.depth;
+			e.time = subtree.nanos;
+			e.commit();
+		}
+
+		synchronized ( this ) {
+			frameTimes[next] = total;
+			for ( int i = 0 ; i < phaseNanos.length ; i++ ) {
+				phaseTimes[i][next] = phaseNanos[i];
+			}
+			next = (next + 1) % frameTimes.length;
+			frameCount++;
+			lastDrawCalls = drawCalls;
+			lastVertices = vertices;
+			lastStateChanges = stateChanges;
+			lastGLCalls = calls;
+			lastSubtrees = new ArrayList<>(subtrees);
+		}
+	}
+
+	/**
+	 * Wraps a GL object so that every call made through it is counted in the
+	 * current frame. The wrapper implements every interface the GL object does,
+	 * so it can be cast to the profile the renderer's backend draws with.
+	 */
+	GL wrap ( GL gl ) {
+		InvocationHandler handler = ( proxy, method, args ) -> {
+			glCalls++;
+			try {
+				return method.invoke(gl,args);
+			} catch ( InvocationTargetException e ) {
+				throw e.getCause();
+			}
+		};
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		for ( Class<?> c = gl.getClass() ; c != null ; c = c.getSuperclass() ) {
+			interfaces.addAll(Arrays.asList(c.getInterfaces()));
+		}
+		return (GL) Proxy.newProxyInstance(GL.class.getClassLoader(),
+		                                   interfaces.toArray(new Class<?>[0]),
+		                                   handler);
+	}
+
+	public synchronized long getFrameCount () {
+		return frameCount;
+	}
+
+	public double getFrameTimeP50 () {
+		return percentile(0.50);
+	}
+
+	public double getFrameTimeP95 () {
+		return percentile(0.95);
+	}
+
+	public double getFrameTimeP99 () {
+		return percentile(0.99);
+	}
+
+	/**
+	 * Gets a percentile of the frame times in the window, by nearest rank.
+	 *
+	 * @param p
+	 *          The percentile, from 0 to 1.
+	 * @return The frame time in milliseconds, or 0 if no frames were recorded.
+	 */
+	public synchronized double percentile ( double p ) {
+		int n = windowSize();
+		if ( n == 0 ) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(frameTimes,n);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(p * n);
+		return sorted[Math.max(rank,1) - 1] / 1e6;
+	}
+
+	public synchronized double getFrameTimeMean () {
+		return mean(frameTimes);
+	}
+
+	public synchronized Map<String,Double> getPhaseTimes () {
+		Map<String,Double> times = new LinkedHashMap<>();
+		for ( Phase phase : Phase.values() ) {
+			times.put(phase.name(),mean(phaseTimes[phase.ordinal()]));
+		}
+		return times;
+	}
+
+	/**
+	 * Gets the mean time of a phase over the window.
+	 *
+	 * @return The time in milliseconds.
+	 */
+	public synchronized double getPhaseTime ( Phase phase ) {
+		return mean(phaseTimes[phase.ordinal()]);
+	}
+
+	public synchronized long getDrawCalls () {
+		return lastDrawCalls;
+	}
+
+	public synchronized long getVertices () {
+		return lastVertices;
+	}
+
+	public synchronized long getStateChanges () {
+		return lastStateChanges;
+	}
+
+	public synchronized long getGLCalls () {
+		return lastGLCalls;
+	}
+
+	/**
+	 * Gets the time spent in each subtree in the last frame, if subtree timing
+	 * was on. A group drawn more than once (shared by several parents) has its
+	 * times added.
+	 *
+	 * @return The times in nanoseconds, by group.
+	 */
+	public synchronized Map<PartialScene,Long> getSubtreeTimes () {
+		Map<PartialScene,Long> times = new LinkedHashMap<>();
+		for ( Subtree subtree : lastSubtrees ) {
+			times.merge(subtree.node,subtree.nanos,Long::sum);
+		}
+		return times;
+	}
+
+	public synchronized String[] getSlowestSubtrees () {
+		List<Subtree> sorted = new ArrayList<>(lastSubtrees);
+		sorted.sort(( a, b ) -> Long.compare(b.nanos,a.nanos));
+		int n = Math.min(sorted.size(),SLOWEST_SUBTREES);
+		String[] slowest = new String[n];
+		for ( int i = 0 ; i < n ; i++ ) {
+			slowest[i] = sorted.get(i).toString();
+		}
+		return slowest;
+	}
+
+	public synchronized void reset () {
+		Arrays.fill(frameTimes,0);
+		for ( long[] times : phaseTimes ) {
+			Arrays.fill(times,0);
+		}
+		next = 0;
+		frameCount = 0;
+		lastDrawCalls = lastVertices = lastStateChanges = 0;
+		lastGLCalls = -1;
+		lastSubtrees = new ArrayList<>();
+	}
+
+	private int windowSize () {
+		return (int) Math.min(frameCount,frameTimes.length);
+	}
+
+	/**
+	 * Gets the mean of the window's entries in a ring buffer, in milliseconds.
+	 */
+	private double mean ( long[] times ) {
+		int n = windowSize();
+		if ( n == 0 ) {
+			return 0;
+		}
+		long sum = 0;
+		for ( int i = 0 ; i < n ; i++ ) {
+			sum += times[i];
+		}
+		return sum / 1e6 / n;
+	}
+
+	private static String describe ( PartialScene node ) {
+		return node.getClass().getSimpleName() + "@"
+		    + Integer.toHexString(System.identityHashCode(node));
+	}
+}
@@ -0,0 +1,75 @@
+package main;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a FrameProfiler. Times are in milliseconds and, unless
+ * stated otherwise, taken over the profiler's window of recent frames.
+ *
+ * @author Sayf Elhawary
+ */
+public interface FrameProfilerMXBean {
+
+	boolean isEnabled ();
+
+	void setEnabled ( boolean enabled );
+
+	boolean isSubtreeTiming ();
+
+	void setSubtreeTiming ( boolean timing );
+
+	boolean isCountingGLCalls ();
+
+	void setCountingGLCalls ( boolean counting );
+
+	/**
+	 * Gets the number of frames recorded since the last reset.
+	 */
+	long getFrameCount ();
+
+	double getFrameTimeP50 ();
+
+	double getFrameTimeP95 ();
+
+	double getFrameTimeP99 ();
+
+	double getFrameTimeMean ();
+
+	/**
+	 * Gets the mean time of each phase, by phase name.
+	 */
+	Map<String,Double> getPhaseTimes ();
+
+	/**
+	 * Gets the number of draw calls the backend made in the last frame, each
+	 * replayed recording counting as one.
+	 */
+	long getDrawCalls ();
+
+	/**
+	 * Gets the number of vertices submitted in the last frame.
+	 */
+	long getVertices ();
+
+	/**
+	 * Gets the number of GL state changes in the last frame.
+	 */
+	long getStateChanges ();
+
+	/**
+	 * Gets the number of GL calls in the last frame, or -1 if they are not
+	 * being counted.
+	 */
+	long getGLCalls ();
+
+	/**
+	 * Describes the slowest subtrees of the last frame, slowest first, if
+	 * subtree timing is on.
+	 */
+	String[] getSlowestSubtrees ();
+
+	/**
+	 * Forgets all recorded frames.
+	 */
+	void reset ();
+}
@@ -0,0 +1,178 @@
+package main;
+
+import java.awt.EventQueue;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+import nodes.Scene;
+
+/**
+ * Drives a Renderer under RenderPolicy.ON_DEMAND. A daemon thread sleeps until
+ * a frame is requested or the renderer reports that its last frame is out of
+ * date, draws one frame, and then waits out the rest of the frame interval, so
+ * any number of requests made meanwhile become a single frame.
+ *
+ * The scheduler listens to the scene, so an idle scheduler is woken by the
+ * change or submitted batch that makes a frame necessary, and otherwise does
+ * not run at all. While the last frame drew an animation it does not wait.
+ *
+ * If drawing a frame throws, the scheduler stops and the exception goes to the
+ * thread's uncaught exception handler; isRunning() then returns false, and the
+ * renderer's animate() starts a new scheduler.
+ *
+ * @author Sayf Elhawary
+ */
+class FrameScheduler implements Runnable, ChangeListener {
+
+	/**
+	 * The longest stop() waits for a frame being drawn to finish.
+	 */
+	static final long STOP_TIMEOUT_MILLIS = 1000;
+
+	private final GLAutoDrawable drawable;
+	private final Renderer renderer;
+	private final Scene scene;
+	private final long intervalNanos;
+
+	private final Object lock = new Object();
+	private boolean requested;
+	// set while the thread waits for a change, so that changes made while it
+	// is drawing do not take the lock
+	private volatile boolean waiting;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Constructs a stopped scheduler.
+	 *
+	 * @param drawable
+	 *          The drawable whose display() draws a frame.
+	 * @param renderer
+	 *          The renderer asked whether a frame is needed.
+	 * @param scene
+	 *          The scene the renderer draws, listened to for changes.
+	 * @param intervalNanos
+	 *          The least time between the starts of two frames, normally one
+	 *          display refresh.
+	 */
+	FrameScheduler ( GLAutoDrawable drawable, Renderer renderer, Scene scene,
+	                 long intervalNanos ) {
+		this.drawable = drawable;
+		this.renderer = renderer;
+		this.scene = scene;
+		this.intervalNanos = intervalNanos;
+	}
+
+	synchronized void start () {
+		if ( running ) {
+			return;
+		}
+		running = true;
+		requested = true; // draw the first frame right away
+		scene.addChangeListener(this);
+		thread = new Thread(this,"FrameScheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the scheduler. A frame being drawn is finished, but no other is
+	 * started. Unless called from the scheduler's own thread or from the AWT
+	 * event dispatch thread, this waits up to STOP_TIMEOUT_MILLIS for that
+	 * frame to finish.
+	 *
+	 * The event dispatch thread does not wait: a GLJPanel drawn from another
+	 * thread draws on the event dispatch thread, so waiting there for the frame
+	 * would wait forever.
+	 */
+	synchronized void stop () {
+		if ( thread == null ) {
+			return;
+		}
+		running = false;
+		scene.removeChangeListener(this);
+		wake();
+		Thread current = Thread.currentThread();
+		if ( current != thread && !EventQueue.isDispatchThread() ) {
+			try {
+				thread.join(STOP_TIMEOUT_MILLIS);
+			} catch ( InterruptedException e ) {
+				current.interrupt();
+			}
+		}
+		thread = null;
+	}
+
+	boolean isRunning () {
+		return running;
+	}
+
+	/**
+	 * Asks for a frame. Requests made before the frame is drawn are merged.
+	 */
+	void request () {
+		synchronized ( lock ) {
+			requested = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Wakes the thread if it is waiting for a change, so that it asks the
+	 * renderer again whether a frame is needed.
+	 */
+	public void changed ( int level, long stamp ) {
+		wake();
+	}
+
+	private void wake () {
+		// the change is made before this is read, and the thread sets waiting
+		// before it checks for changes, so one of them sees the other
+		if ( waiting ) {
+			synchronized ( lock ) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	public void run () {
+		try {
+			loop();
+		} finally {
+			running = false;
+			scene.removeChangeListener(this);
+		}
+	}
+
+	private void loop () {
+		while ( running ) {
+			synchronized ( lock ) {
+				waiting = true;
+				try {
+					while ( running && !requested && !renderer.needsFrame() ) {
+						lock.wait();
+					}
+				} catch ( InterruptedException e ) {
+					return;
+				} finally {
+					waiting = false;
+				}
+				requested = false;
+			}
+			if ( !running ) {
+				return;
+			}
+			long start = System.nanoTime();
+			drawable.display();
+			// let requests pile up until the next frame is due
+			long remaining = start + intervalNanos - System.nanoTime();
+			if ( remaining > 0 ) {
+				try {
+					Thread.sleep(remaining / 1_000_000,(int) (remaining % 1_000_000));
+				} catch ( InterruptedException e ) {
+					return;
+				}
+			}
+		}
+	}
+}
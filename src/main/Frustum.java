@@ -0,0 +1,116 @@
+package main;
+
+/**
+ * The view volume of a camera, as six planes in eye coordinates. It is set up
+ * by the renderer from the same parameters it passes to glOrtho or
+ * glFrustum, and is used to skip parts of the scene that cannot be seen.
+ *
+ * @author Sayf Elhawary
+ */
+public class Frustum {
+
+	// (a,b,c,d) for each plane; a point is inside if ax + by + cz + d >= 0
+	private final float[] planes;
+	private boolean valid;
+
+	/**
+	 * Constructs a frustum that has not been set up yet.
+	 */
+	public Frustum () {
+		planes = new float[24];
+		valid = false;
+	}
+
+	/**
+	 * Tells whether the frustum has been set up since it was last invalidated.
+	 *
+	 * @return true if the frustum can be used for culling.
+	 */
+	public boolean isValid () {
+		return valid;
+	}
+
+	/**
+	 * Marks the frustum as not set up, e.g. at the start of a frame before a
+	 * camera has been applied.
+	 */
+	public void invalidate () {
+		valid = false;
+	}
+
+	/**
+	 * Sets up an orthographic view volume, with the parameters of glOrtho.
+	 */
+	public void setOrthographic ( double left, double right, double bottom,
+	                              double top, double near, double far ) {
+		setPlane(0,1,0,0,-left);
+		setPlane(1,-1,0,0,right);
+		setPlane(2,0,1,0,-bottom);
+		setPlane(3,0,-1,0,top);
+		setNearFar(near,far);
+		valid = true;
+	}
+
+	/**
+	 * Sets up a perspective view volume, with the parameters of glFrustum.
+	 */
+	public void setPerspective ( double left, double right, double bottom,
+	                             double top, double near, double far ) {
+		// the side planes pass through the eye and the edges of the near plane
+		setPlane(0,near,0,left,0);
+		setPlane(1,-near,0,-right,0);
+		setPlane(2,0,near,bottom,0);
+		setPlane(3,0,-near,-top,0);
+		setNearFar(near,far);
+		valid = true;
+	}
+
+	private void setNearFar ( double near, double far ) {
+		// the camera looks down -z
+		setPlane(4,0,0,-1,-near);
+		setPlane(5,0,0,1,far);
+	}
+
+	private void setPlane ( int i, double a, double b, double c, double d ) {
+		double len = Math.sqrt(a * a + b * b + c * c);
+		planes[4 * i] = (float) (a / len);
+		planes[4 * i + 1] = (float) (b / len);
+		planes[4 * i + 2] = (float) (c / len);
+		planes[4 * i + 3] = (float) (d / len);
+	}
+
+	/**
+	 * Tests whether a sphere may be visible.
+	 *
+	 * @param m
+	 *          The column-major modelview matrix the sphere is drawn with.
+	 * @param x
+	 *          The x coordinate of the sphere's center, before transformation.
+	 * @param y
+	 *          The y coordinate of the center.
+	 * @param z
+	 *          The z coordinate of the center.
+	 * @param radius
+	 *          The radius of the sphere, before transformation.
+	 * @return false if the sphere is entirely outside the frustum, true
+	 *         otherwise.
+	 */
+	public boolean intersectsSphere ( float[] m, float x, float y, float z,
+	                                  float radius ) {
+		float ex = m[0] * x + m[4] * y + m[8] * z + m[12];
+		float ey = m[1] * x + m[5] * y + m[9] * z + m[13];
+		float ez = m[2] * x + m[6] * y + m[10] * z + m[14];
+		// the largest scale along any axis bounds the transformed radius
+		float sx = m[0] * m[0] + m[1] * m[1] + m[2] * m[2];
+		float sy = m[4] * m[4] + m[5] * m[5] + m[6] * m[6];
+		float sz = m[8] * m[8] + m[9] * m[9] + m[10] * m[10];
+		float r = radius * (float) Math.sqrt(Math.max(sx,Math.max(sy,sz)));
+		for ( int i = 0 ; i < 24 ; i += 4 ) {
+			if ( planes[i] * ex + planes[i + 1] * ey + planes[i + 2] * ez
+			    + planes[i + 3] < -r ) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
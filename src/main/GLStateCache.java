@@ -0,0 +1,326 @@
+package main;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Shadows the fixed-function GL state the renderer sets most often (the front
+ * and back material, the color parameters of lights 0-7, which of those lights
+ * are enabled, and the matrix mode) so that calls which would set a value that
+ * is already in effect can be skipped.
+ *
+ * Light positions and spot directions are always issued, since GL transforms
+ * them by the modelview matrix current at the time of the call.
+ *
+ * The shadow copy is only correct if all changes to this state go through
+ * the cache. Code that calls GL directly must call {@link #reset()}
+ * afterwards, as must anything that creates a new GL context.
+ *
+ * @author Sayf Elhawary
+ */
+public class GLStateCache {
+
+	private static final int MAX_LIGHTS = 8;
+
+	// material colors, indexed by materialSlot()
+	private final float[][] material;
+	private final boolean[] materialKnown;
+	private float shininess;
+	private boolean shininessKnown;
+
+	// light colors, indexed by light and lightSlot()
+	private final float[][][] light;
+	private final boolean[][] lightKnown;
+	// spot cutoff and exponent, indexed by light
+	private final float[][] lightScalar;
+	private final boolean[][] lightScalarKnown;
+
+	private int enabledLights; // bit i set if GL_LIGHTi is known to be enabled
+	private int knownLights; // bit i set if GL_LIGHTi's enable state is known
+
+	private int matrixMode;
+
+	private long issued;
+	private long elided;
+
+	/**
+	 * Constructs a state cache in which nothing is known.
+	 */
+	public GLStateCache () {
+		material = new float[4][4];
+		materialKnown = new boolean[4];
+		light = new float[MAX_LIGHTS][3][4];
+		lightKnown = new boolean[MAX_LIGHTS][3];
+		lightScalar = new float[MAX_LIGHTS][2];
+		lightScalarKnown = new boolean[MAX_LIGHTS][2];
+		reset();
+	}
+
+	/**
+	 * Forgets all shadowed state, so that the next call for each value is
+	 * issued.
+	 */
+	public void reset () {
+		for ( int i = 0 ; i < materialKnown.length ; i++ ) {
+			materialKnown[i] = false;
+		}
+		shininessKnown = false;
+		for ( int i = 0 ; i < MAX_LIGHTS ; i++ ) {
+			for ( int j = 0 ; j < lightKnown[i].length ; j++ ) {
+				lightKnown[i][j] = false;
+			}
+			for ( int j = 0 ; j < lightScalarKnown[i].length ; j++ ) {
+				lightScalarKnown[i][j] = false;
+			}
+		}
+		enabledLights = 0;
+		knownLights = 0;
+		matrixMode = -1;
+	}
+
+	/**
+	 * Gets the number of GL calls issued through the cache.
+	 *
+	 * @return The number of calls issued.
+	 */
+	public long getIssued () {
+		return issued;
+	}
+
+	/**
+	 * Gets the number of GL calls skipped because the value was already set.
+	 *
+	 * @return The number of calls elided.
+	 */
+	public long getElided () {
+		return elided;
+	}
+
+	/**
+	 * Sets the issued and elided counts back to zero.
+	 */
+	public void resetCounters () {
+		issued = 0;
+		elided = 0;
+	}
+
+	/**
+	 * Sets the matrix mode, as glMatrixMode does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param mode
+	 *          GL_MODELVIEW, GL_PROJECTION or GL_TEXTURE.
+	 */
+	public void matrixMode ( GL2 gl2, int mode ) {
+		if ( mode == matrixMode ) {
+			elided++;
+			return;
+		}
+		gl2.glMatrixMode(mode);
+		matrixMode = mode;
+		issued++;
+	}
+
+	/**
+	 * Sets a color parameter of the front and back material, as glMaterialfv
+	 * does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param pname
+	 *          GL_AMBIENT, GL_DIFFUSE, GL_SPECULAR or GL_EMISSION.
+	 * @param value
+	 *          The RGBA color.
+	 */
+	public void material ( GL2 gl2, int pname, float[] value ) {
+		int slot = materialSlot(pname);
+		if ( slot < 0 ) {
+			gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,pname,value,0);
+			issued++;
+			return;
+		}
+		if ( materialKnown[slot] && equal(material[slot],value) ) {
+			elided++;
+			return;
+		}
+		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,pname,value,0);
+		copy(value,material[slot]);
+		materialKnown[slot] = true;
+		issued++;
+	}
+
+	/**
+	 * Sets the shininess of the front and back material, as glMaterialf does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param value
+	 *          The shininess.
+	 */
+	public void shininess ( GL2 gl2, float value ) {
+		if ( shininessKnown && shininess == value ) {
+			elided++;
+			return;
+		}
+		gl2.glMaterialf(GL2.GL_FRONT_AND_BACK,GL2.GL_SHININESS,value);
+		shininess = value;
+		shininessKnown = true;
+		issued++;
+	}
+
+	/**
+	 * Sets a vector parameter of a light, as glLightfv does. Colors are shadowed;
+	 * positions and directions are always issued.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param lightId
+	 *          The light, e.g. GL_LIGHT0.
+	 * @param pname
+	 *          The parameter.
+	 * @param value
+	 *          The new value.
+	 */
+	public void light ( GL2 gl2, int lightId, int pname, float[] value ) {
+		int index = lightId - GL2.GL_LIGHT0;
+		int slot = lightSlot(pname);
+		if ( index < 0 || index >= MAX_LIGHTS || slot < 0 ) {
+			gl2.glLightfv(lightId,pname,value,0);
+			issued++;
+			return;
+		}
+		if ( lightKnown[index][slot] && equal(light[index][slot],value) ) {
+			elided++;
+			return;
+		}
+		gl2.glLightfv(lightId,pname,value,0);
+		copy(value,light[index][slot]);
+		lightKnown[index][slot] = true;
+		issued++;
+	}
+
+	/**
+	 * Sets a scalar parameter of a light, as glLightf does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param lightId
+	 *          The light, e.g. GL_LIGHT0.
+	 * @param pname
+	 *          GL_SPOT_CUTOFF or GL_SPOT_EXPONENT.
+	 * @param value
+	 *          The new value.
+	 */
+	public void light ( GL2 gl2, int lightId, int pname, float value ) {
+		int index = lightId - GL2.GL_LIGHT0;
+		int slot = pname == GL2.GL_SPOT_CUTOFF ? 0
+		    : pname == GL2.GL_SPOT_EXPONENT ? 1 : -1;
+		if ( index < 0 || index >= MAX_LIGHTS || slot < 0 ) {
+			gl2.glLightf(lightId,pname,value);
+			issued++;
+			return;
+		}
+		if ( lightScalarKnown[index][slot] && lightScalar[index][slot] == value ) {
+			elided++;
+			return;
+		}
+		gl2.glLightf(lightId,pname,value);
+		lightScalar[index][slot] = value;
+		lightScalarKnown[index][slot] = true;
+		issued++;
+	}
+
+	/**
+	 * Enables a light, as glEnable does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param lightId
+	 *          The light, e.g. GL_LIGHT0.
+	 */
+	public void enableLight ( GL2 gl2, int lightId ) {
+		int index = lightId - GL2.GL_LIGHT0;
+		if ( index < 0 || index >= MAX_LIGHTS ) {
+			gl2.glEnable(lightId);
+			issued++;
+			return;
+		}
+		int bit = 1 << index;
+		if ( (knownLights & enabledLights & bit) != 0 ) {
+			elided++;
+			return;
+		}
+		gl2.glEnable(lightId);
+		knownLights |= bit;
+		enabledLights |= bit;
+		issued++;
+	}
+
+	/**
+	 * Disables a light, as glDisable does.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param lightId
+	 *          The light, e.g. GL_LIGHT0.
+	 */
+	public void disableLight ( GL2 gl2, int lightId ) {
+		int index = lightId - GL2.GL_LIGHT0;
+		if ( index < 0 || index >= MAX_LIGHTS ) {
+			gl2.glDisable(lightId);
+			issued++;
+			return;
+		}
+		int bit = 1 << index;
+		if ( (knownLights & bit) != 0 && (enabledLights & bit) == 0 ) {
+			elided++;
+			return;
+		}
+		gl2.glDisable(lightId);
+		knownLights |= bit;
+		enabledLights &= ~bit;
+		issued++;
+	}
+
+	private static int materialSlot ( int pname ) {
+		switch ( pname ) {
+		case GL2.GL_AMBIENT:
+			return 0;
+		case GL2.GL_DIFFUSE:
+			return 1;
+		case GL2.GL_SPECULAR:
+			return 2;
+		case GL2.GL_EMISSION:
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	private static int lightSlot ( int pname ) {
+		switch ( pname ) {
+		case GL2.GL_AMBIENT:
+			return 0;
+		case GL2.GL_DIFFUSE:
+			return 1;
+		case GL2.GL_SPECULAR:
+			return 2;
+		default:
+			return -1; // positions and directions depend on the modelview matrix
+		}
+	}
+
+	private static boolean equal ( float[] shadow, float[] value ) {
+		int n = Math.min(value.length,4);
+		for ( int i = 0 ; i < n ; i++ ) {
+			if ( shadow[i] != value[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void copy ( float[] value, float[] shadow ) {
+		System.arraycopy(value,0,shadow,0,Math.min(value.length,4));
+	}
+}
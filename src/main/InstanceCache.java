@@ -0,0 +1,853 @@
+package main;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+
+import nodes.InstancedShapeNode;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.PackedGeometry;
+import shapes.RenderMode;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+
+/**
+ * Draws InstancedShapeNodes whose shape the renderer keeps in GL buffers:
+ * library primitives drawn from the PrimitiveCache and smooth ComplexShapes
+ * drawn from the MeshCache. Other shapes (wireframes, polyhedra, solid tori
+ * and custom shapes) are left to the renderer, which draws them one instance
+ * at a time.
+ *
+ * There are three ways of drawing the instances, tried in order:
+ * <ul>
+ * <li>Instanced: the transforms and colors are kept in a buffer object read as
+ * per-instance vertex attributes, and all instances are drawn with one
+ * glDrawElementsInstanced call, by a shader that does the fixed-function
+ * per-vertex lighting. Needs GL 3.3 or the instancing extensions.</li>
+ * <li>Batched: the shape's vertices are transformed on the CPU into one buffer
+ * holding every instance, drawn with one glDrawElements call. Used when the
+ * batch would hold at most BATCH_LIMIT vertices.</li>
+ * <li>Bound: the shape's buffers are bound once and each instance is drawn
+ * with its own matrix and glDrawElements call.</li>
+ * </ul>
+ * In the first two, only the instances written since the last frame are
+ * uploaded again.
+ *
+ * Buffers belonging to nodes that have been garbage collected are deleted on
+ * the next draw.
+ *
+ * @author Sayf Elhawary
+ */
+public class InstanceCache {
+
+	/**
+	 * The largest number of vertices, over all instances, drawn as one batch
+	 * transformed on the CPU.
+	 */
+	public static final int BATCH_LIMIT = 1 << 18;
+
+	// attribute locations of the instance matrix's four columns and of the
+	// instance color, clear of those some drivers alias to the built-in ones
+	private static final int MATRIX_ATTRIBUTE = 10;
+	private static final int COLOR_ATTRIBUTE = 14;
+
+	private static final int COMPLEX = -1; // Source.type for a ComplexShape
+
+	// floats per batched vertex: normal, texture coords and position, as in
+	// PrimitiveGeometry, then the color if there is one
+	private static final int STRIDE = PrimitiveGeometry.STRIDE;
+	private static final int COLORED_STRIDE = STRIDE + 4;
+	// floats transformed and uploaded at a time
+	private static final int CHUNK = 1 << 16;
+
+	private static final String VERTEX_SHADER = "#version 120\n"
+	    + "attribute vec4 instanceColumn0, instanceColumn1, instanceColumn2,\n"
+	    + "               instanceColumn3;\n"
+	    + "attribute vec4 instanceColor;\n"
+	    + "uniform bool colored;\n"
+	    + "uniform bool lighting;\n"
+	    + "uniform bool lights[8];\n"
+	    + "void main () {\n"
+	    + "  mat4 m = mat4(instanceColumn0,instanceColumn1,instanceColumn2,\n"
+	    + "                instanceColumn3);\n"
+	    + "  vec4 eye = gl_ModelViewMatrix * (m * gl_Vertex);\n"
+	    + "  gl_Position = gl_ProjectionMatrix * eye;\n"
+	    + "  gl_TexCoord[0] = gl_TextureMatrix[0] * gl_MultiTexCoord0;\n"
+	    + "  if ( !lighting ) {\n"
+	    + "    gl_FrontColor = colored ? instanceColor : gl_Color;\n"
+	    + "    return;\n"
+	    + "  }\n"
+	    + "  vec4 ambient = colored ? instanceColor : gl_FrontMaterial.ambient;\n"
+	    + "  vec4 diffuse = colored ? instanceColor : gl_FrontMaterial.diffuse;\n"
+	    // normals move by the cofactors of m, the inverse transpose up to scale
+	    + "  vec3 a = m[0].xyz, b = m[1].xyz, c = m[2].xyz;\n"
+	    + "  mat3 cofactors = mat3(cross(b,c),cross(c,a),cross(a,b));\n"
+	    + "  float det = dot(a,cofactors[0]);\n"
+	    + "  vec3 n = normalize(gl_NormalMatrix * (cofactors * gl_Normal)\n"
+	    + "                     * (det < 0.0 ? -1.0 : 1.0));\n"
+	    + "  vec4 color = gl_FrontMaterial.emission\n"
+	    + "      + ambient * gl_LightModel.ambient;\n"
+	    + "  for ( int i = 0 ; i < 8 ; i++ ) {\n"
+	    + "    if ( !lights[i] ) {\n"
+	    + "      continue;\n"
+	    + "    }\n"
+	    + "    vec4 p = gl_LightSource[i].position;\n"
+	    + "    vec3 l = normalize(p.xyz);\n"
+	    + "    float attenuation = 1.0;\n"
+	    + "    if ( p.w != 0.0 ) {\n"
+	    + "      vec3 d = p.xyz / p.w - eye.xyz;\n"
+	    + "      float dist = length(d);\n"
+	    + "      l = d / dist;\n"
+	    + "      attenuation = 1.0 / (gl_LightSource[i].constantAttenuation\n"
+	    + "          + gl_LightSource[i].linearAttenuation * dist\n"
+	    + "          + gl_LightSource[i].quadraticAttenuation * dist * dist);\n"
+	    + "    }\n"
+	    + "    if ( gl_LightSource[i].spotCutoff <= 90.0 ) {\n"
+	    + "      float s = dot(-l,normalize(gl_LightSource[i].spotDirection));\n"
+	    + "      attenuation *= s < gl_LightSource[i].spotCosCutoff ? 0.0\n"
+	    + "          : pow(s,gl_LightSource[i].spotExponent);\n"
+	    + "    }\n"
+	    + "    float diffuseFactor = max(dot(n,l),0.0);\n"
+	    + "    vec4 term = ambient * gl_LightSource[i].ambient\n"
+	    + "        + diffuseFactor * diffuse * gl_LightSource[i].diffuse;\n"
+	    + "    if ( diffuseFactor > 0.0 ) {\n"
+	    + "      vec3 h = normalize(l + vec3(0.0,0.0,1.0));\n"
+	    + "      term += pow(max(dot(n,h),0.0),gl_FrontMaterial.shininess)\n"
+	    + "          * gl_FrontMaterial.specular * gl_LightSource[i].specular;\n"
+	    + "    }\n"
+	    + "    color += attenuation * term;\n"
+	    + "  }\n"
+	    + "  gl_FrontColor = vec4(color.rgb,diffuse.a);\n"
+	    + "}\n";
+
+	private static final String FRAGMENT_SHADER = "#version 120\n"
+	    + "uniform bool textured;\n"
+	    + "uniform sampler2D image;\n"
+	    + "void main () {\n"
+	    + "  gl_FragColor = textured\n"
+	    + "      ? gl_Color * texture2D(image,gl_TexCoord[0].st) : gl_Color;\n"
+	    + "}\n";
+
+	/**
+	 * Where a shape's triangles come from: a primitive, as PrimitiveCache
+	 * parameters, or a ComplexShape's geometry.
+	 */
+	private static class Source {
+		private int type;
+		private double a, b;
+		private int slices, stacks, rings;
+		private boolean texCoords;
+		private PackedGeometry geometry;
+		private int version;
+
+		private boolean matches ( Source s ) {
+			return type == s.type && a == s.a && b == s.b && slices == s.slices
+			    && stacks == s.stacks && rings == s.rings
+			    && texCoords == s.texCoords && geometry == s.geometry
+			    && version == s.version;
+		}
+
+		private void copy ( Source s ) {
+			type = s.type;
+			a = s.a;
+			b = s.b;
+			slices = s.slices;
+			stacks = s.stacks;
+			rings = s.rings;
+			texCoords = s.texCoords;
+			geometry = s.geometry;
+			version = s.version;
+		}
+	}
+
+	private static class Instances extends WeakReference<InstancedShapeNode> {
+		private int vbo, ibo;
+		private boolean batched; // what vbo holds: transforms or vertices
+		private int token = -1; // from the node's takeChanges; -1 to upload all
+		private int capacity; // instances vbo was allocated for, -1 if none
+
+		// when batched: the shape's vertices and indices, and what they are from
+		private final Source source = new Source();
+		private float[] vertices; // STRIDE floats per vertex
+		private int vertexCount;
+		private int[] indices;
+		private int indexCount;
+		private boolean colored;
+
+		private Instances ( InstancedShapeNode node,
+		                    ReferenceQueue<InstancedShapeNode> queue ) {
+			super(node,queue);
+			capacity = -1;
+		}
+	}
+
+	private final PrimitiveCache primitives;
+	private final MeshCache meshes;
+	private final Map<InstancedShapeNode,Instances> entries;
+	// strong references so that entries of collected nodes reach the queue
+	private final Set<Instances> live;
+	private final ReferenceQueue<InstancedShapeNode> collected;
+	// reused for lookups and uploads so that drawing does not allocate
+	private final Source probe = new Source();
+	private final int[] range = new int[2];
+	private final float[] matrix = new float[16];
+	private final float[] normalMatrix = new float[9];
+	private FloatBuffer chunk;
+
+	private boolean hardwareInstancing = true;
+	private int program; // 0 if not linked yet or not supported
+	private boolean unsupported;
+	private String lastError; // why the program failed, or null
+	private int coloredLocation, lightingLocation, lightsLocation,
+	    texturedLocation;
+	private final int[] lightFlags = new int[8];
+
+	private long drawCalls, verticesDrawn;
+
+	/**
+	 * Constructs an empty cache drawing from the given caches' buffers.
+	 *
+	 * @param primitives
+	 *          The cache holding tessellated primitives.
+	 * @param meshes
+	 *          The cache holding ComplexShape meshes.
+	 */
+	public InstanceCache ( PrimitiveCache primitives, MeshCache meshes ) {
+		this.primitives = primitives;
+		this.meshes = meshes;
+		entries = new WeakHashMap<>();
+		live = new HashSet<>();
+		collected = new ReferenceQueue<>();
+	}
+
+	/**
+	 * Sets whether instanced draw calls are used where GL supports them. When
+	 * off, instances are batched or drawn one at a time as on GL without
+	 * instancing.
+	 *
+	 * @param on
+	 *          true to use instanced draw calls (the default).
+	 */
+	public void setHardwareInstancing ( boolean on ) {
+		hardwareInstancing = on;
+	}
+
+	/**
+	 * Tells whether instanced draw calls are used where GL supports them.
+	 *
+	 * @return true if they are.
+	 */
+	public boolean isHardwareInstancing () {
+		return hardwareInstancing;
+	}
+
+	/**
+	 * Gets why the instancing program could not be built in the current
+	 * context: the shader compiler's or linker's log. Instances are then drawn
+	 * without instanced draw calls.
+	 *
+	 * @return The log, or null if the program was built, has not been needed
+	 *         yet, or was not tried because GL lacks instanced draw calls.
+	 */
+	public String getLastError () {
+		return lastError;
+	}
+
+	/**
+	 * Gets the number of nodes whose instances are held in GL buffers.
+	 *
+	 * @return The number of cached nodes.
+	 */
+	public int size () {
+		return live.size();
+	}
+
+	/**
+	 * Gets the number of draw calls issued by draw() since the cache was
+	 * created.
+	 */
+	public long getDrawCalls () {
+		return drawCalls;
+	}
+
+	/**
+	 * Gets the number of vertices (indices) submitted by draw() since the cache
+	 * was created, over all instances.
+	 */
+	public long getVerticesDrawn () {
+		return verticesDrawn;
+	}
+
+	/**
+	 * Draws a node's instances with the current modelview matrix, material and
+	 * texture, if its shape is one the renderer keeps in buffers.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param node
+	 *          The node to draw.
+	 * @return false if nothing was drawn because the caller must draw the shape
+	 *         itself for each instance.
+	 */
+	boolean draw ( GL2 gl2, InstancedShapeNode node ) {
+		purge(gl2);
+		Shape shape = node.getShape();
+		if ( shape == null || !describe(shape,probe) ) {
+			return false;
+		}
+		int count = node.getCount();
+		if ( count == 0 ) {
+			return true;
+		}
+		Instances entry = entries.get(node);
+		if ( entry == null ) {
+			entry = new Instances(node,collected);
+			int[] ids = new int[2];
+			gl2.glGenBuffers(2,ids,0);
+			entry.vbo = ids[0];
+			entry.ibo = ids[1];
+			entries.put(node,entry);
+			live.add(entry);
+		}
+
+		if ( instancing(gl2) ) {
+			drawInstanced(gl2,node,entry,count);
+			return true;
+		}
+		if ( !entry.source.matches(probe) || entry.vertices == null ) {
+			tessellate(entry);
+		}
+		boolean colors = node.hasColors();
+		if ( colors ) {
+			// the colors stand in for the material's ambient and diffuse colors
+			gl2.glPushAttrib(GL2.GL_LIGHTING_BIT | GL2.GL_CURRENT_BIT);
+			gl2.glColorMaterial(GL2.GL_FRONT_AND_BACK,GL2.GL_AMBIENT_AND_DIFFUSE);
+			gl2.glEnable(GL2.GL_COLOR_MATERIAL);
+		}
+		if ( (long) entry.vertexCount * node.getCapacity() <= BATCH_LIMIT ) {
+			drawBatched(gl2,node,entry,count);
+		} else {
+			drawBound(gl2,node,entry,count);
+		}
+		if ( colors ) {
+			gl2.glPopAttrib();
+		}
+		return true;
+	}
+
+	/**
+	 * Works out where a shape's triangles come from, following the renderer's
+	 * drawShape methods.
+	 *
+	 * @return false if the renderer does not draw the shape from buffers.
+	 */
+	private static boolean describe ( Shape shape, Source source ) {
+		Class<?> c = shape.getClass();
+		RenderMode mode = shape.getRenderMode();
+		boolean textured = mode == RenderMode.TEXTURE;
+		source.a = source.b = 0;
+		source.slices = source.stacks = source.rings = 0;
+		source.texCoords = textured;
+		source.geometry = null;
+		source.version = 0;
+		if ( mode == RenderMode.WIRE ) {
+			return false;
+		} else if ( c == Cube.class || c == Teapot.class ) {
+			source.type = PrimitiveCache.CUBE;
+			source.a = c == Cube.class ? ((Cube) shape).getSideLength()
+			    : ((Teapot) shape).getSideLength();
+			return true;
+		} else if ( c == Sphere.class ) {
+			Sphere sphere = (Sphere) shape;
+			source.type = PrimitiveCache.SPHERE;
+			source.a = sphere.getRadius();
+			source.slices = sphere.getSlices();
+			source.stacks = sphere.getStacks();
+			return textured || (source.a > 0 && source.slices >= 3
+			    && source.stacks >= 2);
+		} else if ( c == Cone.class || c == Cylinder.class ) {
+			if ( c == Cone.class ) {
+				Cone cone = (Cone) shape;
+				source.type = PrimitiveCache.CONE;
+				source.a = cone.getBase();
+				source.b = cone.getHeight();
+				source.slices = cone.getSlices();
+				source.stacks = cone.getStacks();
+			} else {
+				Cylinder cylinder = (Cylinder) shape;
+				source.type = PrimitiveCache.CYLINDER;
+				source.a = cylinder.getRadius();
+				source.b = cylinder.getHeight();
+				source.slices = cylinder.getSlices();
+				source.stacks = cylinder.getStacks();
+			}
+			source.rings = textured ? source.slices / 2 : 1;
+			return textured || (source.a > 0 && source.b > 0 && source.slices >= 3
+			    && source.stacks >= 2);
+		} else if ( c == Torus.class && textured ) {
+			// solid tori are drawn by GLUT, with a different tessellation
+			Torus torus = (Torus) shape;
+			source.type = PrimitiveCache.TORUS;
+			source.a = torus.getInnerRadius();
+			source.b = torus.getOuterRadius();
+			source.slices = torus.getSlices();
+			source.rings = torus.getStacks() / 2;
+			return true;
+		} else if ( c == ComplexShape.class && mode == RenderMode.SMOOTH ) {
+			ComplexShape complex = (ComplexShape) shape;
+			source.type = COMPLEX;
+			source.texCoords = false;
+			source.geometry = complex.getGeometry();
+			source.version = complex.getVersion();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Binds a source's buffers from the primitive or mesh cache.
+	 *
+	 * @return The number of indices to draw.
+	 */
+	private int bind ( GL2 gl2, InstancedShapeNode node, Source source ) {
+		if ( source.type == COMPLEX ) {
+			return meshes.bind(gl2,(ComplexShape) node.getShape(),false);
+		}
+		return primitives.bind(gl2,source.type,source.a,source.b,source.slices,
+		                       source.stacks,source.rings,source.texCoords);
+	}
+
+	private void unbind ( GL2 gl2, Source source ) {
+		if ( source.type == COMPLEX ) {
+			meshes.unbind(gl2);
+		} else {
+			primitives.unbind(gl2);
+		}
+	}
+
+	/**
+	 * Draws all instances with one instanced call, the transforms and colors
+	 * read from the node's buffer object as per-instance attributes.
+	 */
+	private void drawInstanced ( GL2 gl2, InstancedShapeNode node,
+	                             Instances entry, int count ) {
+		int capacity = node.getCapacity();
+		boolean colors = node.hasColors();
+		long colorOffset = 64L * capacity;
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,entry.vbo);
+		synchronized ( node ) {
+			if ( entry.batched || entry.capacity != capacity ) {
+				gl2.glBufferData(GL2.GL_ARRAY_BUFFER,
+				                 colorOffset + (colors ? 16L * capacity : 0),null,
+				                 GL2.GL_DYNAMIC_DRAW);
+				entry.batched = false;
+				entry.capacity = capacity;
+				entry.token = -1;
+			}
+			entry.token = node.takeChanges(entry.token,range);
+			if ( range[0] < range[1] ) {
+				FloatBuffer transforms = node.getTransforms().duplicate();
+				transforms.limit(16 * range[1]).position(16 * range[0]);
+				gl2.glBufferSubData(GL2.GL_ARRAY_BUFFER,64L * range[0],
+				                    64L * (range[1] - range[0]),transforms);
+				if ( colors ) {
+					FloatBuffer values = node.getColors().duplicate();
+					values.limit(4 * range[1]).position(4 * range[0]);
+					gl2.glBufferSubData(GL2.GL_ARRAY_BUFFER,
+					                    colorOffset + 16L * range[0],
+					                    16L * (range[1] - range[0]),values);
+				}
+			}
+		}
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			gl2.glVertexAttribPointer(MATRIX_ATTRIBUTE + c,4,GL2.GL_FLOAT,false,64,
+			                          16L * c);
+			gl2.glVertexAttribDivisor(MATRIX_ATTRIBUTE + c,1);
+			gl2.glEnableVertexAttribArray(MATRIX_ATTRIBUTE + c);
+		}
+		if ( colors ) {
+			gl2.glVertexAttribPointer(COLOR_ATTRIBUTE,4,GL2.GL_FLOAT,false,16,
+			                          colorOffset);
+			gl2.glVertexAttribDivisor(COLOR_ATTRIBUTE,1);
+			gl2.glEnableVertexAttribArray(COLOR_ATTRIBUTE);
+		}
+		int indexCount = bind(gl2,node,probe);
+
+		gl2.glUseProgram(program);
+		gl2.glUniform1i(coloredLocation,colors ? 1 : 0);
+		gl2.glUniform1i(lightingLocation,isEnabled(gl2,GL2.GL_LIGHTING));
+		for ( int i = 0 ; i < 8 ; i++ ) {
+			lightFlags[i] = isEnabled(gl2,Renderer.LIGHT_NUMS[i]);
+		}
+		gl2.glUniform1iv(lightsLocation,8,lightFlags,0);
+		gl2.glUniform1i(texturedLocation,isEnabled(gl2,GL2.GL_TEXTURE_2D));
+		gl2.glDrawElementsInstanced(GL2.GL_TRIANGLES,indexCount,
+		                            GL2.GL_UNSIGNED_INT,0L,count);
+		gl2.glUseProgram(0);
+		drawCalls++;
+		verticesDrawn += (long) indexCount * count;
+
+		unbind(gl2,probe);
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			gl2.glDisableVertexAttribArray(MATRIX_ATTRIBUTE + c);
+			gl2.glVertexAttribDivisor(MATRIX_ATTRIBUTE + c,0);
+		}
+		if ( colors ) {
+			gl2.glDisableVertexAttribArray(COLOR_ATTRIBUTE);
+			gl2.glVertexAttribDivisor(COLOR_ATTRIBUTE,0);
+		}
+	}
+
+	private static int isEnabled ( GL2 gl2, int capability ) {
+		return gl2.glIsEnabled(capability) ? 1 : 0;
+	}
+
+	/**
+	 * Draws all instances with one call from a buffer holding every instance's
+	 * vertices, transforming and uploading those of the instances that changed.
+	 */
+	private void drawBatched ( GL2 gl2, InstancedShapeNode node,
+	                           Instances entry, int count ) {
+		int capacity = node.getCapacity();
+		boolean colors = node.hasColors();
+		int stride = colors ? COLORED_STRIDE : STRIDE;
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,entry.vbo);
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,entry.ibo);
+		synchronized ( node ) {
+			if ( !entry.batched || entry.capacity != capacity
+			    || entry.colored != colors ) {
+				gl2.glBufferData(GL2.GL_ARRAY_BUFFER,
+				                 4L * stride * entry.vertexCount * capacity,null,
+				                 GL2.GL_DYNAMIC_DRAW);
+				IntBuffer indices =
+				    Buffers.newDirectIntBuffer(entry.indexCount * capacity);
+				for ( int i = 0 ; i < capacity ; i++ ) {
+					int first = i * entry.vertexCount;
+					for ( int k = 0 ; k < entry.indexCount ; k++ ) {
+						indices.put(first + entry.indices[k]);
+					}
+				}
+				indices.flip();
+				gl2.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER,
+				                 4L * entry.indexCount * capacity,indices,
+				                 GL2.GL_STATIC_DRAW);
+				entry.batched = true;
+				entry.capacity = capacity;
+				entry.colored = colors;
+				entry.token = -1;
+			}
+			entry.token = node.takeChanges(entry.token,range);
+			upload(gl2,node,entry,range[0],range[1],stride);
+		}
+
+		int bytes = stride * Buffers.SIZEOF_FLOAT;
+		gl2.glNormalPointer(GL2.GL_FLOAT,bytes,0L);
+		gl2.glVertexPointer(3,GL2.GL_FLOAT,bytes,
+		                    PrimitiveGeometry.POSITION_OFFSET * Buffers.SIZEOF_FLOAT);
+		gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		if ( entry.source.texCoords ) {
+			gl2.glTexCoordPointer(2,GL2.GL_FLOAT,bytes,
+			                      PrimitiveGeometry.TEXCOORD_OFFSET
+			                          * Buffers.SIZEOF_FLOAT);
+			gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		}
+		if ( colors ) {
+			gl2.glColorPointer(4,GL2.GL_FLOAT,bytes,STRIDE * Buffers.SIZEOF_FLOAT);
+			gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+		}
+		gl2.glDrawElements(GL2.GL_TRIANGLES,entry.indexCount * count,
+		                   GL2.GL_UNSIGNED_INT,0L);
+		drawCalls++;
+		verticesDrawn += (long) entry.indexCount * count;
+
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,0);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
+	}
+
+	/**
+	 * Transforms the vertices of instances from to to into the batch buffer,
+	 * a chunk at a time.
+	 */
+	private void upload ( GL2 gl2, InstancedShapeNode node, Instances entry,
+	                      int from, int to, int stride ) {
+		int perInstance = stride * entry.vertexCount;
+		if ( from >= to || perInstance == 0 ) {
+			return;
+		}
+		if ( chunk == null ) {
+			chunk = Buffers.newDirectFloatBuffer(CHUNK);
+		}
+		int step = Math.max(CHUNK / perInstance,1);
+		if ( step * perInstance > chunk.capacity() ) {
+			chunk = Buffers.newDirectFloatBuffer(perInstance); // one large shape
+		}
+		FloatBuffer transforms = node.getTransforms();
+		FloatBuffer colors = node.getColors();
+		float[] v = entry.vertices;
+		for ( int first = from ; first < to ; first += step ) {
+			int last = Math.min(first + step,to);
+			chunk.clear();
+			for ( int i = first ; i < last ; i++ ) {
+				for ( int k = 0 ; k < 16 ; k++ ) {
+					matrix[k] = transforms.get(16 * i + k);
+				}
+				normalMatrix(matrix,normalMatrix);
+				float[] m = matrix, n = normalMatrix;
+				for ( int j = 0 ; j < entry.vertexCount ; j++ ) {
+					int at = STRIDE * j;
+					float nx = v[at], ny = v[at + 1], nz = v[at + 2];
+					chunk.put(n[0] * nx + n[3] * ny + n[6] * nz);
+					chunk.put(n[1] * nx + n[4] * ny + n[7] * nz);
+					chunk.put(n[2] * nx + n[5] * ny + n[8] * nz);
+					chunk.put(v[at + 3]).put(v[at + 4]);
+					float x = v[at + 5], y = v[at + 6], z = v[at + 7];
+					chunk.put(m[0] * x + m[4] * y + m[8] * z + m[12]);
+					chunk.put(m[1] * x + m[5] * y + m[9] * z + m[13]);
+					chunk.put(m[2] * x + m[6] * y + m[10] * z + m[14]);
+					if ( colors != null ) {
+						chunk.put(colors.get(4 * i)).put(colors.get(4 * i + 1))
+						    .put(colors.get(4 * i + 2)).put(colors.get(4 * i + 3));
+					}
+				}
+			}
+			chunk.flip();
+			gl2.glBufferSubData(GL2.GL_ARRAY_BUFFER,4L * perInstance * first,
+			                    4L * perInstance * (last - first),chunk);
+		}
+	}
+
+	/**
+	 * Computes the matrix that moves normals as a matrix moves points: the
+	 * cofactors of its upper 3x3 part, negated if it mirrors. GL_NORMALIZE
+	 * takes care of the scale.
+	 */
+	static void normalMatrix ( float[] m, float[] n ) {
+		float ax = m[0], ay = m[1], az = m[2];
+		float bx = m[4], by = m[5], bz = m[6];
+		float cx = m[8], cy = m[9], cz = m[10];
+		n[0] = by * cz - bz * cy;
+		n[1] = bz * cx - bx * cz;
+		n[2] = bx * cy - by * cx;
+		n[3] = cy * az - cz * ay;
+		n[4] = cz * ax - cx * az;
+		n[5] = cx * ay - cy * ax;
+		n[6] = ay * bz - az * by;
+		n[7] = az * bx - ax * bz;
+		n[8] = ax * by - ay * bx;
+		if ( ax * n[0] + ay * n[1] + az * n[2] < 0 ) {
+			for ( int i = 0 ; i < 9 ; i++ ) {
+				n[i] = -n[i];
+			}
+		}
+	}
+
+	/**
+	 * Draws the instances one at a time from the shape's own buffers, bound
+	 * once for all of them.
+	 */
+	private void drawBound ( GL2 gl2, InstancedShapeNode node, Instances entry,
+	                         int count ) {
+		if ( entry.capacity >= 0 ) {
+			// nothing is kept for this way of drawing
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,entry.vbo);
+			gl2.glBufferData(GL2.GL_ARRAY_BUFFER,0,null,GL2.GL_DYNAMIC_DRAW);
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+			entry.capacity = -1;
+		}
+		int indexCount = bind(gl2,node,probe);
+		FloatBuffer transforms = node.getTransforms();
+		FloatBuffer colors = node.getColors();
+		synchronized ( node ) {
+			for ( int i = 0 ; i < count ; i++ ) {
+				for ( int k = 0 ; k < 16 ; k++ ) {
+					matrix[k] = transforms.get(16 * i + k);
+				}
+				if ( colors != null ) {
+					gl2.glColor4f(colors.get(4 * i),colors.get(4 * i + 1),
+					              colors.get(4 * i + 2),colors.get(4 * i + 3));
+				}
+				gl2.glPushMatrix();
+				gl2.glMultMatrixf(matrix,0);
+				gl2.glDrawElements(GL2.GL_TRIANGLES,indexCount,GL2.GL_UNSIGNED_INT,
+				                   0L);
+				gl2.glPopMatrix();
+			}
+		}
+		drawCalls += count;
+		verticesDrawn += (long) indexCount * count;
+		unbind(gl2,probe);
+	}
+
+	/**
+	 * Fills an entry's vertex and index arrays from its source, in the
+	 * PrimitiveGeometry layout.
+	 */
+	private void tessellate ( Instances entry ) {
+		entry.source.copy(probe);
+		if ( probe.type == COMPLEX ) {
+			PackedGeometry geometry = probe.geometry;
+			FloatBuffer data = geometry.getVertexData();
+			int count = geometry.getVertexCount();
+			float[] vertices = new float[STRIDE * count];
+			for ( int j = 0 ; j < count ; j++ ) {
+				int at = STRIDE * j;
+				for ( int k = 0 ; k < 3 ; k++ ) {
+					vertices[at + k] = data.get(3 * count + 3 * j + k);
+					vertices[at + PrimitiveGeometry.POSITION_OFFSET + k] =
+					    data.get(3 * j + k);
+				}
+			}
+			int[] indices = new int[geometry.getIndexCount()];
+			geometry.getIndices().get(indices);
+			entry.vertices = vertices;
+			entry.vertexCount = count;
+			entry.indices = indices;
+			entry.indexCount = indices.length;
+		} else {
+			PrimitiveGeometry geometry =
+			    PrimitiveCache.tessellate(probe.type,probe.a,probe.b,probe.slices,
+			                              probe.stacks,probe.rings);
+			entry.vertices = geometry.getData();
+			entry.vertexCount = geometry.getVertexCount();
+			entry.indices = geometry.getIndices();
+			entry.indexCount = geometry.getIndexCount();
+		}
+		entry.capacity = -1; // the batch must be rebuilt
+	}
+
+	/**
+	 * Links the instancing program the first time it is needed, if GL has
+	 * what it takes.
+	 *
+	 * @return Whether instanced draw calls are used.
+	 */
+	private boolean instancing ( GL2 gl2 ) {
+		if ( !hardwareInstancing || unsupported ) {
+			return false;
+		}
+		if ( program == 0 ) {
+			lastError = null;
+			if ( gl2.isFunctionAvailable("glDrawElementsInstanced")
+			    && gl2.isFunctionAvailable("glVertexAttribDivisor")
+			    && gl2.isFunctionAvailable("glCreateProgram") ) {
+				program = link(gl2);
+			}
+			unsupported = program == 0;
+		}
+		return program != 0;
+	}
+
+	private int link ( GL2 gl2 ) {
+		int vertex = compile(gl2,GL2.GL_VERTEX_SHADER,VERTEX_SHADER);
+		int fragment = compile(gl2,GL2.GL_FRAGMENT_SHADER,FRAGMENT_SHADER);
+		if ( vertex == 0 || fragment == 0 ) {
+			gl2.glDeleteShader(vertex);
+			gl2.glDeleteShader(fragment);
+			return 0;
+		}
+		int p = gl2.glCreateProgram();
+		gl2.glAttachShader(p,vertex);
+		gl2.glAttachShader(p,fragment);
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			gl2.glBindAttribLocation(p,MATRIX_ATTRIBUTE + c,"instanceColumn" + c);
+		}
+		gl2.glBindAttribLocation(p,COLOR_ATTRIBUTE,"instanceColor");
+		gl2.glLinkProgram(p);
+		gl2.glDeleteShader(vertex);
+		gl2.glDeleteShader(fragment);
+		int[] status = new int[1];
+		gl2.glGetProgramiv(p,GL2.GL_LINK_STATUS,status,0);
+		if ( status[0] == 0 ) {
+			lastError = "instancing program did not link: " + log(gl2,p,false);
+			gl2.glDeleteProgram(p);
+			return 0;
+		}
+		coloredLocation = gl2.glGetUniformLocation(p,"colored");
+		lightingLocation = gl2.glGetUniformLocation(p,"lighting");
+		lightsLocation = gl2.glGetUniformLocation(p,"lights");
+		texturedLocation = gl2.glGetUniformLocation(p,"textured");
+		return p;
+	}
+
+	private int compile ( GL2 gl2, int type, String source ) {
+		int shader = gl2.glCreateShader(type);
+		gl2.glShaderSource(shader,1,new String[] { source },
+		                   new int[] { source.length() },0);
+		gl2.glCompileShader(shader);
+		int[] status = new int[1];
+		gl2.glGetShaderiv(shader,GL2.GL_COMPILE_STATUS,status,0);
+		if ( status[0] == 0 ) {
+			lastError = "instancing shader did not compile: "
+			    + log(gl2,shader,true);
+			gl2.glDeleteShader(shader);
+			return 0;
+		}
+		return shader;
+	}
+
+	private static String log ( GL2 gl2, int object, boolean shader ) {
+		int[] length = new int[1];
+		byte[] text = new byte[4096];
+		if ( shader ) {
+			gl2.glGetShaderInfoLog(object,text.length,length,0,text,0);
+		} else {
+			gl2.glGetProgramInfoLog(object,text.length,length,0,text,0);
+		}
+		return new String(text,0,length[0],StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Deletes the buffers of nodes that have been garbage collected.
+	 */
+	private void purge ( GL2 gl2 ) {
+		Object ref;
+		while ( (ref = collected.poll()) != null ) {
+			Instances entry = (Instances) ref;
+			if ( live.remove(entry) ) {
+				gl2.glDeleteBuffers(2,new int[] { entry.vbo, entry.ibo },0);
+			}
+		}
+	}
+
+	/**
+	 * Deletes all buffers and the instancing program. Called when the GL
+	 * context is being destroyed.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 */
+	public void dispose ( GL2 gl2 ) {
+		for ( Instances entry : live ) {
+			gl2.glDeleteBuffers(2,new int[] { entry.vbo, entry.ibo },0);
+			entry.clear();
+		}
+		live.clear();
+		entries.clear();
+		while ( collected.poll() != null ) {}
+		if ( program != 0 ) {
+			gl2.glDeleteProgram(program);
+			program = 0;
+		}
+		unsupported = false; // a new context may support it
+		lastError = null;
+	}
+}
@@ -0,0 +1,23 @@
+package main;
+
+/**
+ * Receives reports on the progress of loading a scene.
+ *
+ * @author Sayf Elhawary
+ */
+@FunctionalInterface
+public interface LoadProgress {
+
+	/**
+	 * Called every few thousand nodes while a scene loads, and once when it has
+	 * finished.
+	 *
+	 * @param bytesRead
+	 *          The number of bytes of the file read so far.
+	 * @param totalBytes
+	 *          The size of the file.
+	 * @param nodes
+	 *          The number of nodes created so far.
+	 */
+	void progress ( long bytesRead, long totalBytes, int nodes );
+}
@@ -0,0 +1,437 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * A 4x4 float matrix stored column-major in a flat float[16], the layout
+ * glLoadMatrixf expects, so element (row, col) is at index 4*col + row.
+ *
+ * The static methods work on matrices inside larger arrays (a matrix is given
+ * by an array and the index of its first element) and are what the renderer,
+ * the bounds code and MatrixStack use. None of them allocate. The instance
+ * methods are a convenience over the same operations for a single matrix.
+ *
+ * Temporary matrices can be borrowed from a per-thread pool with
+ * {@link #acquire()} and must be handed back, in reverse order, with
+ * {@link #release(Mat4)}.
+ *
+ * @author Sayf Elhawary
+ */
+public final class Mat4 {
+
+	private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+	private final float[] m;
+
+	/**
+	 * Constructs an identity matrix.
+	 */
+	public Mat4 () {
+		m = new float[16];
+		identity(m,0);
+	}
+
+	/**
+	 * Gets the array holding this matrix, column-major. The array is live; it can
+	 * be passed straight to GL and writing to it changes the matrix.
+	 *
+	 * @return The backing array.
+	 */
+	public float[] array () {
+		return m;
+	}
+
+	public float get ( int row, int col ) {
+		return m[4 * col + row];
+	}
+
+	public Mat4 set ( int row, int col, float value ) {
+		m[4 * col + row] = value;
+		return this;
+	}
+
+	/**
+	 * Replaces this matrix with the identity.
+	 *
+	 * @return This matrix.
+	 */
+	public Mat4 identity () {
+		identity(m,0);
+		return this;
+	}
+
+	/**
+	 * Replaces this matrix with another one.
+	 *
+	 * @return This matrix.
+	 */
+	public Mat4 set ( Mat4 other ) {
+		System.arraycopy(other.m,0,m,0,16);
+		return this;
+	}
+
+	/**
+	 * Replaces this matrix with one held in an array, column-major.
+	 *
+	 * @return This matrix.
+	 */
+	public Mat4 set ( float[] src, int offset ) {
+		System.arraycopy(src,offset,m,0,16);
+		return this;
+	}
+
+	/**
+	 * Computes this * other into dst, which may be this matrix or other.
+	 *
+	 * @return dst.
+	 */
+	public Mat4 multiplyInto ( Mat4 other, Mat4 dst ) {
+		if ( dst == this || dst == other ) {
+			Mat4 product = acquire();
+			multiply(m,0,other.m,0,product.m,0);
+			dst.set(product);
+			release(product);
+		} else {
+			multiply(m,0,other.m,0,dst.m,0);
+		}
+		return dst;
+	}
+
+	/**
+	 * Transforms a vector by this matrix into dst, which may be v.
+	 *
+	 * @return dst.
+	 */
+	public Vec4 transformInto ( Vec4 v, Vec4 dst ) {
+		float x = v.x, y = v.y, z = v.z, w = v.w;
+		dst.x = m[0] * x + m[4] * y + m[8] * z + m[12] * w;
+		dst.y = m[1] * x + m[5] * y + m[9] * z + m[13] * w;
+		dst.z = m[2] * x + m[6] * y + m[10] * z + m[14] * w;
+		dst.w = m[3] * x + m[7] * y + m[11] * z + m[15] * w;
+		return dst;
+	}
+
+	/**
+	 * Transforms points packed as (x,y,z) triples by this matrix, treating w as
+	 * 1. The source and destination may be the same array.
+	 *
+	 * @param count
+	 *          The number of points.
+	 */
+	public void transformInto ( float[] src, int srcOffset, float[] dst,
+	                            int dstOffset, int count ) {
+		transformPoints(m,0,src,srcOffset,dst,dstOffset,count);
+	}
+
+	public Mat4 translate ( float x, float y, float z ) {
+		translate(m,0,x,y,z);
+		return this;
+	}
+
+	public Mat4 scale ( float x, float y, float z ) {
+		scale(m,0,x,y,z);
+		return this;
+	}
+
+	public Mat4 rotate ( float angle, float x, float y, float z ) {
+		rotate(m,0,angle,x,y,z);
+		return this;
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder sb = new StringBuilder();
+		for ( int row = 0 ; row < 4 ; row++ ) {
+			for ( int col = 0 ; col < 4 ; col++ ) {
+				sb.append(m[4 * col + row]).append("\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Borrows a matrix from the calling thread's pool. Its contents are
+	 * undefined.
+	 *
+	 * @return A scratch matrix, which must be passed to release() when done.
+	 */
+	public static Mat4 acquire () {
+		return POOL.get().acquire();
+	}
+
+	/**
+	 * Returns a matrix to the calling thread's pool. Matrices must be released in
+	 * the reverse of the order they were acquired in.
+	 *
+	 * @param scratch
+	 *          The matrix most recently acquired and not yet released.
+	 */
+	public static void release ( Mat4 scratch ) {
+		POOL.get().release(scratch);
+	}
+
+	/**
+	 * Sets a matrix to the identity.
+	 */
+	public static void identity ( float[] m, int offset ) {
+		Arrays.fill(m,offset,offset + 16,0);
+		m[offset] = m[offset + 5] = m[offset + 10] = m[offset + 15] = 1;
+	}
+
+	/**
+	 * Multiplies a matrix, in place, by a translation, as glTranslatef does.
+	 *
+	 * @param m
+	 *          The array holding the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 */
+	public static void translate ( float[] m, int offset, float x, float y,
+	                               float z ) {
+		for ( int i = offset ; i < offset + 4 ; i++ ) {
+			m[12 + i] += m[i] * x + m[4 + i] * y + m[8 + i] * z;
+		}
+	}
+
+	/**
+	 * Multiplies a matrix, in place, by a scale, as glScalef does.
+	 *
+	 * @param m
+	 *          The array holding the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 */
+	public static void scale ( float[] m, int offset, float x, float y,
+	                           float z ) {
+		for ( int i = offset ; i < offset + 4 ; i++ ) {
+			m[i] *= x;
+			m[4 + i] *= y;
+			m[8 + i] *= z;
+		}
+	}
+
+	/**
+	 * Multiplies a matrix, in place, by a rotation of angle degrees around the
+	 * axis (x,y,z), as glRotatef does.
+	 *
+	 * @param m
+	 *          The array holding the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 */
+	public static void rotate ( float[] m, int offset, float angle, float x,
+	                            float y, float z ) {
+		double len = Math.sqrt(x * x + y * y + z * z);
+		if ( len == 0 ) {
+			return;
+		}
+		double ux = x / len, uy = y / len, uz = z / len;
+		double rad = Math.toRadians(angle);
+		double c = Math.cos(rad), s = Math.sin(rad), t = 1 - c;
+		// rotation matrix, column-major
+		float r0 = (float) (t * ux * ux + c), r1 = (float) (t * ux * uy + s * uz),
+		    r2 = (float) (t * ux * uz - s * uy);
+		float r4 = (float) (t * ux * uy - s * uz), r5 = (float) (t * uy * uy + c),
+		    r6 = (float) (t * uy * uz + s * ux);
+		float r8 = (float) (t * ux * uz + s * uy), r9 = (float) (t * uy * uz - s * ux),
+		    r10 = (float) (t * uz * uz + c);
+		// each row of the result depends only on the same row of m
+		for ( int i = offset ; i < offset + 4 ; i++ ) {
+			float a0 = m[i], a1 = m[4 + i], a2 = m[8 + i];
+			m[i] = a0 * r0 + a1 * r1 + a2 * r2;
+			m[4 + i] = a0 * r4 + a1 * r5 + a2 * r6;
+			m[8 + i] = a0 * r8 + a1 * r9 + a2 * r10;
+		}
+	}
+
+	/**
+	 * Computes the product a * b of two matrices.
+	 *
+	 * @param out
+	 *          The array receiving the product; it must not overlap a or b.
+	 */
+	public static void multiply ( float[] a, int aOffset, float[] b, int bOffset,
+	                              float[] out, int outOffset ) {
+		for ( int col = 0 ; col < 4 ; col++ ) {
+			float b0 = b[bOffset + 4 * col], b1 = b[bOffset + 4 * col + 1],
+			    b2 = b[bOffset + 4 * col + 2], b3 = b[bOffset + 4 * col + 3];
+			for ( int row = 0 ; row < 4 ; row++ ) {
+				out[outOffset + 4 * col + row] =
+				    a[aOffset + row] * b0 + a[aOffset + 4 + row] * b1
+				        + a[aOffset + 8 + row] * b2 + a[aOffset + 12 + row] * b3;
+			}
+		}
+	}
+
+	/**
+	 * Sets a matrix to the viewing transformation gluLookAt multiplies by.
+	 *
+	 * @param m
+	 *          The array receiving the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param view
+	 *          The eye, center and up vector, as passed to gluLookAt.
+	 */
+	public static void lookAt ( float[] m, int offset, double[] view ) {
+		double fx = view[3] - view[0], fy = view[4] - view[1],
+		    fz = view[5] - view[2];
+		double len = Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx /= len;
+		fy /= len;
+		fz /= len;
+		// s = f x up, u = s x f
+		double sx = fy * view[8] - fz * view[7], sy = fz * view[6] - fx * view[8],
+		    sz = fx * view[7] - fy * view[6];
+		len = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx /= len;
+		sy /= len;
+		sz /= len;
+		double ux = sy * fz - sz * fy, uy = sz * fx - sx * fz,
+		    uz = sx * fy - sy * fx;
+		m[offset] = (float) sx;
+		m[offset + 1] = (float) ux;
+		m[offset + 2] = (float) -fx;
+		m[offset + 3] = 0;
+		m[offset + 4] = (float) sy;
+		m[offset + 5] = (float) uy;
+		m[offset + 6] = (float) -fy;
+		m[offset + 7] = 0;
+		m[offset + 8] = (float) sz;
+		m[offset + 9] = (float) uz;
+		m[offset + 10] = (float) -fz;
+		m[offset + 11] = 0;
+		m[offset + 12] = (float) -(sx * view[0] + sy * view[1] + sz * view[2]);
+		m[offset + 13] = (float) -(ux * view[0] + uy * view[1] + uz * view[2]);
+		m[offset + 14] = (float) (fx * view[0] + fy * view[1] + fz * view[2]);
+		m[offset + 15] = 1;
+	}
+
+	/**
+	 * Sets a matrix to the parallel projection glOrtho multiplies by.
+	 *
+	 * @param m
+	 *          The array receiving the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param volume
+	 *          Left, right, bottom, top, near and far, as passed to glOrtho.
+	 */
+	public static void ortho ( float[] m, int offset, double[] volume ) {
+		double l = volume[0], r = volume[1], b = volume[2], t = volume[3],
+		    n = volume[4], f = volume[5];
+		Arrays.fill(m,offset,offset + 16,0);
+		m[offset] = (float) (2 / (r - l));
+		m[offset + 5] = (float) (2 / (t - b));
+		m[offset + 10] = (float) (-2 / (f - n));
+		m[offset + 12] = (float) (-(r + l) / (r - l));
+		m[offset + 13] = (float) (-(t + b) / (t - b));
+		m[offset + 14] = (float) (-(f + n) / (f - n));
+		m[offset + 15] = 1;
+	}
+
+	/**
+	 * Sets a matrix to the perspective projection glFrustum multiplies by.
+	 *
+	 * @param m
+	 *          The array receiving the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param volume
+	 *          Left, right, bottom, top, near and far, as passed to glFrustum.
+	 */
+	public static void frustum ( float[] m, int offset, double[] volume ) {
+		double l = volume[0], r = volume[1], b = volume[2], t = volume[3],
+		    n = volume[4], f = volume[5];
+		Arrays.fill(m,offset,offset + 16,0);
+		m[offset] = (float) (2 * n / (r - l));
+		m[offset + 5] = (float) (2 * n / (t - b));
+		m[offset + 8] = (float) ((r + l) / (r - l));
+		m[offset + 9] = (float) ((t + b) / (t - b));
+		m[offset + 10] = (float) (-(f + n) / (f - n));
+		m[offset + 11] = -1;
+		m[offset + 14] = (float) (-2 * f * n / (f - n));
+	}
+
+	/**
+	 * Transforms points packed as (x,y,z) triples, treating w as 1. The source
+	 * and destination may be the same array.
+	 *
+	 * @param m
+	 *          The array holding the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param count
+	 *          The number of points.
+	 */
+	public static void transformPoints ( float[] m, int offset, float[] src,
+	                                     int srcOffset, float[] dst,
+	                                     int dstOffset, int count ) {
+		float m0 = m[offset], m1 = m[offset + 1], m2 = m[offset + 2];
+		float m4 = m[offset + 4], m5 = m[offset + 5], m6 = m[offset + 6];
+		float m8 = m[offset + 8], m9 = m[offset + 9], m10 = m[offset + 10];
+		float m12 = m[offset + 12], m13 = m[offset + 13], m14 = m[offset + 14];
+		for ( int i = 0 ; i < count ; i++ ) {
+			int s = srcOffset + 3 * i, d = dstOffset + 3 * i;
+			float x = src[s], y = src[s + 1], z = src[s + 2];
+			dst[d] = m0 * x + m4 * y + m8 * z + m12;
+			dst[d + 1] = m1 * x + m5 * y + m9 * z + m13;
+			dst[d + 2] = m2 * x + m6 * y + m10 * z + m14;
+		}
+	}
+
+	/**
+	 * Transforms a point (x,y,z), treating w as 1. The source and destination
+	 * may be the same array.
+	 *
+	 * @param m
+	 *          The array holding the matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param src
+	 *          The point, in its first three elements.
+	 * @param dst
+	 *          Receives the transformed point in its first three elements.
+	 */
+	public static void transformPoint ( float[] m, int offset, double[] src,
+	                                    double[] dst ) {
+		// in float, as the GL pipeline would
+		float x = (float) src[0], y = (float) src[1], z = (float) src[2];
+		dst[0] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z
+		    + m[offset + 12];
+		dst[1] = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z
+		    + m[offset + 13];
+		dst[2] = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z
+		    + m[offset + 14];
+	}
+
+	/**
+	 * A stack of scratch matrices for one thread. It grows as needed and never
+	 * shrinks, so after warm-up acquiring and releasing do not allocate.
+	 */
+	private static final class Pool {
+
+		private Mat4[] free = new Mat4[8];
+		private int top;
+
+		Mat4 acquire () {
+			if ( top == free.length ) {
+				free = Arrays.copyOf(free,top * 2);
+			}
+			Mat4 scratch = free[top];
+			if ( scratch == null ) {
+				scratch = free[top] = new Mat4();
+			}
+			top++;
+			return scratch;
+		}
+
+		void release ( Mat4 scratch ) {
+			if ( top == 0 || free[top - 1] != scratch ) {
+				throw new IllegalStateException("scratch matrices must be released in reverse order");
+			}
+			top--;
+		}
+	}
+}
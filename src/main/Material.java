@@ -1,15 +1,21 @@
 package main;
 
 /**
+ * The setters are not synchronized with drawing. To change a material in a scene
+ * that another thread is drawing, make the change in SceneUpdate.run and
+ * pass the batch to Scene.submit.
+ *
  * @author Sayf Elhawary
  */
 public class Material {
-
 	private float[] ambient;
 	private float[] diffuse;
 	private float[] specular;
 	private float[] emissive;
 	private float shininess;
+	private int version; // bumped whenever this material changes
+	// the nodes holding this material
+	private final ChangeListeners listeners = new ChangeListeners();
 
 	/**
 	 * Constructs a Material instance with specified properties.
@@ -49,6 +55,7 @@ public class Material {
 	 */
 	public void setAmbient ( float r, float g, float b, float a ) {
 		ambient = new float[] { r, g, b, a };
+		modified();
 	}
 
 	/**
@@ -65,6 +72,7 @@ public class Material {
 	 */
 	public void setDiffuse ( float r, float g, float b, float a ) {
 		diffuse = new float[] { r, g, b, a };
+		modified();
 	}
 
 	/**
@@ -81,6 +89,7 @@ public class Material {
 	 */
 	public void setSpecular ( float r, float g, float b, float a ) {
 		specular = new float[] { r, g, b, a };
+		modified();
 	}
 
 	/**
@@ -97,6 +106,7 @@ public class Material {
 	 */
 	public void setEmissive ( float r, float g, float b, float a ) {
 		emissive = new float[] { r, g, b, a };
+		modified();
 	}
 
 	/**
@@ -106,6 +116,7 @@ public class Material {
 	 */
 	public void setShininess ( float shininess ) {
 		this.shininess = shininess;
+		modified();
 	}
 
 	/**
@@ -153,6 +164,46 @@ public class Material {
 		return shininess;
 	}
 
+	/**
+	 * Records that this material has changed, and tells the nodes holding it.
+	 */
+	private void modified () {
+		version++;
+		listeners.fire(ChangeListener.APPEARANCE);
+	}
+
+	/**
+	 * Gets a counter that changes whenever one of this material's properties is
+	 * set.
+	 * 
+	 * @return The current version.
+	 */
+	public int getVersion () {
+		return version;
+	}
+
+	/**
+	 * Adds a listener told whenever one of this material's properties is set.
+	 * Nodes holding the material add themselves, so that what is recorded from
+	 * their subtrees is kept until it changes. Listeners are held weakly.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		listeners.remove(listener);
+	}
+
 	/**
 	 * Applies this material's properties to a given renderer.
 	 * 
@@ -1,139 +1,193 @@
 package main;
 
+import java.util.Arrays;
+
 /**
+ * A 4x4 matrix with the operations used to build and apply shears by hand. The
+ * matrix is held in a {@link Mat4}, so it is stored column-major in a flat
+ * float[16]; rows and columns are addressed with get(row,col) and
+ * set(row,col,value).
+ *
+ * The multiply methods return new objects as they always have. The
+ * multiplyInto and transformInto methods write into an existing destination
+ * and do not allocate.
+ *
  * @author Sayf Elhawary
  */
 public class MatrixOperations {
-	public float[][] matrix;
+	// vertex arrays at least this long are transformed with BatchTransform
+	private static final int BATCH_THRESHOLD = 4096;
+
+	private final Mat4 matrix;
 
-	// Constructor for a 4x4 matrix
+	// Constructor for a 4x4 matrix, initially all zero
 	public MatrixOperations () {
-		matrix = new float[4][4];
+		matrix = new Mat4();
+		Arrays.fill(matrix.array(),0);
 	}
 
 	// Method to set this matrix as an identity matrix
 	public void setIdentity () {
+		matrix.identity();
+	}
+
+	public float get ( int row, int col ) {
+		return matrix.get(row,col);
+	}
+
+	public void set ( int row, int col, float value ) {
+		matrix.set(row,col,value);
+	}
+
+	/**
+	 * Replaces the whole matrix.
+	 *
+	 * @param rows
+	 *          The matrix as four rows of four elements.
+	 */
+	public void set ( float[][] rows ) {
 		for ( int i = 0 ; i < 4 ; i++ ) {
 			for ( int j = 0 ; j < 4 ; j++ ) {
-				matrix[i][j] = (i == j) ? 1 : 0;
+				matrix.set(i,j,rows[i][j]);
 			}
 		}
 	}
 
 	// Method for matrix multiplication
 	public MatrixOperations multiply ( MatrixOperations other ) {
-		MatrixOperations result = new MatrixOperations();
-		for ( int i = 0 ; i < 4 ; i++ ) {
-			for ( int j = 0 ; j < 4 ; j++ ) {
-				for ( int k = 0 ; k < 4 ; k++ ) {
-					result.matrix[i][j] += this.matrix[i][k] * other.matrix[k][j];
-				}
-			}
-		}
-		return result;
+		return multiplyInto(other,new MatrixOperations());
+	}
+
+	/**
+	 * Computes this * other into dst, which may be this or other.
+	 *
+	 * @return dst.
+	 */
+	public MatrixOperations multiplyInto ( MatrixOperations other,
+	                                       MatrixOperations dst ) {
+		matrix.multiplyInto(other.matrix,dst.matrix);
+		return dst;
 	}
 
 	public Vector4 multiply ( Vector4 vec ) {
-		float[] result = new float[4];
-		for ( int i = 0 ; i < 4 ; i++ ) {
-			result[i] = this.matrix[i][0] * vec.x + this.matrix[i][1] * vec.y
-			    + this.matrix[i][2] * vec.z + this.matrix[i][3] * vec.w;
-		}
-		return new Vector4(result[0],result[1],result[2],result[3]);
+		Vector4 result = new Vector4(0,0,0,0);
+		matrix.transformInto(vec,result);
+		return result;
+	}
+
+	/**
+	 * Transforms a vector into dst, which may be vec.
+	 *
+	 * @return dst.
+	 */
+	public Vec4 transformInto ( Vec4 vec, Vec4 dst ) {
+		return matrix.transformInto(vec,dst);
 	}
 
 	public float[][] multiply ( float[][] verticesCoords ) {
-		Vector4[] vectorVertices = new Vector4[verticesCoords.length];
-		for ( int i = 0 ; i < verticesCoords.length ; i++ ) {
-			float[] v = verticesCoords[i];
-			vectorVertices[i] = new Vector4(v[0],v[1],v[2],1.0f);
-		}
-		for ( int i = 0 ; i < vectorVertices.length ; i++ ) {
-			vectorVertices[i] = multiply(vectorVertices[i]);
-		}
-		float[][] transformedVertices = new float[vectorVertices.length][3];
-		for ( int i = 0 ; i < vectorVertices.length ; i++ ) {
-			Vector4 v = vectorVertices[i];
-			transformedVertices[i][0] = v.x;
-			transformedVertices[i][1] = v.y;
-			transformedVertices[i][2] = v.z;
-		}
-		return transformedVertices;
+		return transformInto(verticesCoords,new float[verticesCoords.length][3]);
 	}
 
 	public double[][] multiply ( double[][] verticesCoords ) {
-		Vector4[] vectorVertices = new Vector4[verticesCoords.length];
-		for ( int i = 0 ; i < verticesCoords.length ; i++ ) {
-			double[] v = verticesCoords[i];
-			vectorVertices[i] =
-			    new Vector4((float) v[0],(float) v[1],(float) v[2],1.0f);
+		double[][] result = new double[verticesCoords.length][3];
+		if ( verticesCoords.length < BATCH_THRESHOLD ) {
+			return transformInto(verticesCoords,result);
 		}
-		for ( int i = 0 ; i < vectorVertices.length ; i++ ) {
-			vectorVertices[i] = multiply(vectorVertices[i]);
+		// large meshes go through the batch kernels; the results are the same
+		PointBuffer points = PointBuffer.of(verticesCoords);
+		transformInto(points,points);
+		return points.store(result);
+	}
+
+	/**
+	 * Transforms points, treating w as 1, into dst, which may be src. Large
+	 * inputs are split across threads; see BatchTransform.
+	 */
+	public void transformInto ( PointBuffer src, PointBuffer dst ) {
+		BatchTransform.transformParallel(matrix.array(),0,src,dst);
+	}
+
+	/**
+	 * Transforms vertices, treating w as 1, into dst, which may be the source
+	 * array.
+	 *
+	 * @param verticesCoords
+	 *          The vertices, each holding at least x, y and z.
+	 * @param dst
+	 *          Receives the transformed x, y and z of each vertex.
+	 * @return dst.
+	 */
+	public float[][] transformInto ( float[][] verticesCoords, float[][] dst ) {
+		float[] m = matrix.array();
+		for ( int i = 0 ; i < verticesCoords.length ; i++ ) {
+			Mat4.transformPoints(m,0,verticesCoords[i],0,dst[i],0,1);
 		}
-		double[][] transformedVertices = new double[vectorVertices.length][3];
-		for ( int i = 0 ; i < vectorVertices.length ; i++ ) {
-			Vector4 v = vectorVertices[i];
-			transformedVertices[i][0] = v.x;
-			transformedVertices[i][1] = v.y;
-			transformedVertices[i][2] = v.z;
+		return dst;
+	}
+
+	/**
+	 * Transforms vertices, treating w as 1, into dst, which may be the source
+	 * array. The arithmetic is done in float.
+	 *
+	 * @param verticesCoords
+	 *          The vertices, each holding at least x, y and z.
+	 * @param dst
+	 *          Receives the transformed x, y and z of each vertex.
+	 * @return dst.
+	 */
+	public double[][] transformInto ( double[][] verticesCoords,
+	                                  double[][] dst ) {
+		float[] m = matrix.array();
+		for ( int i = 0 ; i < verticesCoords.length ; i++ ) {
+			Mat4.transformPoint(m,0,verticesCoords[i],dst[i]);
 		}
-		return transformedVertices;
+		return dst;
 	}
 
 	public static MatrixOperations createShearX ( float shearY, float shearZ ) {
 		MatrixOperations shearMatrix = new MatrixOperations();
 		shearMatrix.setIdentity();
-		shearMatrix.matrix[1][0] = shearY; // Shearing along Y as a function of X
-		shearMatrix.matrix[2][0] = shearZ; // Shearing along Z as a function of X
+		shearMatrix.set(1,0,shearY); // Shearing along Y as a function of X
+		shearMatrix.set(2,0,shearZ); // Shearing along Z as a function of X
 		return shearMatrix;
 	}
 
 	public static MatrixOperations createShearY ( float shearX, float shearZ ) {
 		MatrixOperations shearMatrix = new MatrixOperations();
 		shearMatrix.setIdentity();
-		shearMatrix.matrix[0][1] = shearX; // Shearing along X as a function of Y
-		shearMatrix.matrix[2][1] = shearZ; // Shearing along Z as a function of Y
+		shearMatrix.set(0,1,shearX); // Shearing along X as a function of Y
+		shearMatrix.set(2,1,shearZ); // Shearing along Z as a function of Y
 		return shearMatrix;
 	}
 
 	public static MatrixOperations createShearZ ( float shearX, float shearY ) {
 		MatrixOperations shearMatrix = new MatrixOperations();
 		shearMatrix.setIdentity();
-		shearMatrix.matrix[0][2] = shearX; // Shearing along X as a function of Z
-		shearMatrix.matrix[1][2] = shearY; // Shearing along Y as a function of Z
+		shearMatrix.set(0,2,shearX); // Shearing along X as a function of Z
+		shearMatrix.set(1,2,shearY); // Shearing along Y as a function of Z
 		return shearMatrix;
 	}
 
-	// Convert to a float array for JOGL
+	/**
+	 * Gets the matrix as a float array for JOGL, column-major as glLoadMatrixf
+	 * and glMultMatrixf expect. The array is the matrix's own storage, not a
+	 * copy, so it must not be modified unless that is the intent.
+	 *
+	 * @return The backing array.
+	 */
 	public float[] toFloatArray () {
-		float[] result = new float[16];
-		for ( int i = 0 ; i < 4 ; i++ ) {
-			System.arraycopy(matrix[i],0,result,i * 4,4);
-		}
-		return result;
+		return matrix.array();
 	}
 
 	// String representation for debugging
 	public String toString () {
-		StringBuilder sb = new StringBuilder();
-		for ( float[] row : matrix ) {
-			for ( float element : row ) {
-				sb.append(element).append("\t");
-			}
-			sb.append("\n");
-		}
-		return sb.toString();
+		return matrix.toString();
 	}
 
-	public class Vector4 {
-		public float x, y, z, w;
+	public class Vector4 extends Vec4 {
 
 		public Vector4 ( float x, float y, float z, float w ) {
-			this.x = x;
-			this.y = y;
-			this.z = z;
-			this.w = w;
+			super(x,y,z,w);
 		}
 	}
 }
@@ -0,0 +1,114 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * A CPU copy of a GL matrix stack. Matrices are 4x4, stored column-major in
+ * float[16] arrays as GL expects (see {@link Mat4}), and the operations
+ * multiply the current matrix on the right exactly as glTranslatef, glRotatef
+ * and glScalef do.
+ *
+ * @author Sayf Elhawary
+ */
+public class MatrixStack {
+
+	private final float[] current;
+	private float[] saved;
+	private int depth;
+
+	/**
+	 * Constructs a stack holding the identity matrix.
+	 */
+	public MatrixStack () {
+		current = new float[16];
+		saved = new float[16 * 16];
+		depth = 0;
+		loadIdentity();
+	}
+
+	/**
+	 * Gets the current matrix. The array is live; it may be written to replace
+	 * the matrix (e.g. with one read back from GL).
+	 *
+	 * @return The current matrix, column-major.
+	 */
+	public float[] get () {
+		return current;
+	}
+
+	/**
+	 * Gets the number of saved matrices.
+	 *
+	 * @return The stack depth.
+	 */
+	public int getDepth () {
+		return depth;
+	}
+
+	/**
+	 * Discards all saved matrices, keeping the current one.
+	 */
+	public void clear () {
+		depth = 0;
+	}
+
+	/**
+	 * Replaces the current matrix with the identity.
+	 */
+	public void loadIdentity () {
+		Mat4.identity(current,0);
+	}
+
+	/**
+	 * Replaces the current matrix.
+	 *
+	 * @param m
+	 *          An array holding a column-major matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 */
+	public void load ( float[] m, int offset ) {
+		System.arraycopy(m,offset,current,0,16);
+	}
+
+	/**
+	 * Saves the current matrix, as glPushMatrix does.
+	 */
+	public void push () {
+		if ( 16 * (depth + 1) > saved.length ) {
+			saved = Arrays.copyOf(saved,saved.length * 2);
+		}
+		System.arraycopy(current,0,saved,16 * depth,16);
+		depth++;
+	}
+
+	/**
+	 * Restores the last saved matrix, as glPopMatrix does.
+	 */
+	public void pop () {
+		depth--;
+		System.arraycopy(saved,16 * depth,current,0,16);
+	}
+
+	/**
+	 * Multiplies the current matrix by a translation, as glTranslatef does.
+	 */
+	public void translate ( float x, float y, float z ) {
+		Mat4.translate(current,0,x,y,z);
+	}
+
+	/**
+	 * Multiplies the current matrix by a scale, as glScalef does.
+	 */
+	public void scale ( float x, float y, float z ) {
+		Mat4.scale(current,0,x,y,z);
+	}
+
+	/**
+	 * Multiplies the current matrix by a rotation of angle degrees around the
+	 * axis (x,y,z), as glRotatef does.
+	 */
+	public void rotate ( float angle, float x, float y, float z ) {
+		Mat4.rotate(current,0,angle,x,y,z);
+	}
+}
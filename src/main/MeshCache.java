@@ -0,0 +1,227 @@
+package main;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+
+import shapes.ComplexShape;
+import shapes.PackedGeometry;
+
+/**
+ * Keeps the geometry of ComplexShapes in GL vertex and index buffer objects so
+ * that it is uploaded once rather than on every frame. The buffers are filled
+ * straight from the shape's PackedGeometry, whose faces are triangulated (as
+ * fans, matching how they were drawn before) into a single index buffer, so a
+ * whole mesh is drawn with one glDrawElements call.
+ *
+ * A mesh is re-uploaded when any of the shape's arrays is replaced or when
+ * {@link ComplexShape#invalidate()} is called after editing an array in place.
+ * Buffers belonging to shapes that have been garbage collected are deleted on
+ * the next draw.
+ *
+ * @author Sayf Elhawary
+ */
+public class MeshCache {
+
+	private static class Mesh extends WeakReference<ComplexShape> {
+		// vertex buffer holds positions, then normals, then texture coordinates
+		private int vbo;
+		private int ibo;
+		private int indexCount;
+		private long normalOffset;
+		private long texCoordOffset; // -1 if there are no usable texture coords
+
+		// what the buffers were built from
+		private PackedGeometry geometry;
+		private int version;
+
+		private Mesh ( ComplexShape shape, ReferenceQueue<ComplexShape> queue ) {
+			super(shape,queue);
+		}
+
+		private boolean isCurrent ( ComplexShape shape ) {
+			return geometry == shape.getGeometry() && version == shape.getVersion();
+		}
+	}
+
+	private final Map<ComplexShape,Mesh> meshes;
+	// strong references so that meshes of collected shapes reach the queue
+	private final Set<Mesh> live;
+	private final ReferenceQueue<ComplexShape> collected;
+	private long drawCalls, verticesDrawn;
+
+	/**
+	 * Constructs an empty mesh cache.
+	 */
+	public MeshCache () {
+		meshes = new WeakHashMap<>();
+		live = new HashSet<>();
+		collected = new ReferenceQueue<>();
+	}
+
+	/**
+	 * Gets the number of meshes currently held in GL buffers.
+	 *
+	 * @return The number of cached meshes.
+	 */
+	public int size () {
+		return live.size();
+	}
+
+	/**
+	 * Gets the number of draw calls issued by draw() since the cache was
+	 * created.
+	 */
+	public long getDrawCalls () {
+		return drawCalls;
+	}
+
+	/**
+	 * Gets the number of vertices (indices) submitted by draw() since the cache
+	 * was created.
+	 */
+	public long getVerticesDrawn () {
+		return verticesDrawn;
+	}
+
+	/**
+	 * Draws a ComplexShape from its cached buffers, uploading them first if
+	 * they are missing or out of date. The caller sets up polygon offset and
+	 * other state as before.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param shape
+	 *          The shape to draw.
+	 * @param textured
+	 *          Whether texture coordinates should be supplied.
+	 */
+	public void draw ( GL2 gl2, ComplexShape shape, boolean textured ) {
+		int indexCount = bind(gl2,shape,textured);
+		gl2.glDrawElements(GL2.GL_TRIANGLES,indexCount,GL2.GL_UNSIGNED_INT,0L);
+		drawCalls++;
+		verticesDrawn += indexCount;
+		unbind(gl2);
+	}
+
+	/**
+	 * Binds a ComplexShape's buffers and sets up the vertex, normal and texture
+	 * coordinate arrays to read from them, uploading them first if they are
+	 * missing or out of date, so that the caller can draw the mesh itself. Call
+	 * unbind() when done.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param shape
+	 *          The shape to bind.
+	 * @param textured
+	 *          Whether texture coordinates should be supplied.
+	 * @return The number of indices to draw, as GL_UNSIGNED_INT triangles.
+	 */
+	int bind ( GL2 gl2, ComplexShape shape, boolean textured ) {
+		purge(gl2);
+		Mesh mesh = meshes.get(shape);
+		if ( mesh == null ) {
+			mesh = new Mesh(shape,collected);
+			int[] ids = new int[2];
+			gl2.glGenBuffers(2,ids,0);
+			mesh.vbo = ids[0];
+			mesh.ibo = ids[1];
+			meshes.put(shape,mesh);
+			live.add(mesh);
+			upload(gl2,mesh,shape);
+		} else if ( !mesh.isCurrent(shape) ) {
+			upload(gl2,mesh,shape);
+		}
+
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,mesh.vbo);
+		gl2.glVertexPointer(3,GL2.GL_FLOAT,0,0L);
+		gl2.glNormalPointer(GL2.GL_FLOAT,0,mesh.normalOffset);
+		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+		if ( textured && mesh.texCoordOffset >= 0 ) {
+			gl2.glTexCoordPointer(2,GL2.GL_FLOAT,0,mesh.texCoordOffset);
+			gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		}
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,mesh.ibo);
+		return mesh.indexCount;
+	}
+
+	/**
+	 * Undoes bind(): unbinds the buffers and disables the arrays.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 */
+	void unbind ( GL2 gl2 ) {
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,0);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+	}
+
+	/**
+	 * Fills a mesh's buffers from the shape's packed geometry, which is already
+	 * laid out as GL reads it.
+	 */
+	private void upload ( GL2 gl2, Mesh mesh, ComplexShape shape ) {
+		PackedGeometry geometry = shape.getGeometry();
+		FloatBuffer data = geometry.getVertexData();
+		IntBuffer indices = geometry.getIndices();
+
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,mesh.vbo);
+		gl2.glBufferData(GL2.GL_ARRAY_BUFFER,
+		                 (long) data.capacity() * Buffers.SIZEOF_FLOAT,data,
+		                 GL2.GL_STATIC_DRAW);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,mesh.ibo);
+		gl2.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER,
+		                 (long) indices.capacity() * Buffers.SIZEOF_INT,indices,
+		                 GL2.GL_STATIC_DRAW);
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,0);
+
+		mesh.indexCount = geometry.getIndexCount();
+		mesh.normalOffset = geometry.getNormalOffset();
+		mesh.texCoordOffset = geometry.getTexCoordOffset();
+		mesh.geometry = geometry;
+		mesh.version = shape.getVersion();
+	}
+
+	/**
+	 * Deletes the buffers of meshes whose shapes have been garbage collected.
+	 */
+	private void purge ( GL2 gl2 ) {
+		Object ref;
+		while ( (ref = collected.poll()) != null ) {
+			Mesh mesh = (Mesh) ref;
+			if ( live.remove(mesh) ) {
+				gl2.glDeleteBuffers(2,new int[] { mesh.vbo, mesh.ibo },0);
+			}
+		}
+	}
+
+	/**
+	 * Deletes all buffers. Called when the GL context is being destroyed.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 */
+	public void dispose ( GL2 gl2 ) {
+		for ( Mesh mesh : live ) {
+			gl2.glDeleteBuffers(2,new int[] { mesh.vbo, mesh.ibo },0);
+			mesh.clear();
+		}
+		live.clear();
+		meshes.clear();
+		while ( collected.poll() != null ) {}
+	}
+}
@@ -0,0 +1,130 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * A list of 3D points stored as a structure of arrays: one float[] each for the
+ * x, y and z coordinates. This is the layout BatchTransform works on, since
+ * consecutive points' coordinates are then next to each other in memory and
+ * can be loaded a vector at a time.
+ *
+ * The arrays may be longer than the number of points; only the first size()
+ * elements of each are used.
+ *
+ * @author Sayf Elhawary
+ */
+public class PointBuffer {
+
+	private float[] x, y, z;
+	private int size;
+
+	/**
+	 * Constructs an empty buffer with room for a number of points.
+	 *
+	 * @param capacity
+	 *          The number of points the arrays can hold before growing.
+	 */
+	public PointBuffer ( int capacity ) {
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Constructs a buffer holding a copy of some points, such as a
+	 * ComplexShape's vertices.
+	 *
+	 * @param points
+	 *          The points, each holding at least x, y and z.
+	 * @return The new buffer.
+	 */
+	public static PointBuffer of ( double[][] points ) {
+		PointBuffer buffer = new PointBuffer(points.length);
+		buffer.load(points);
+		return buffer;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Sets the number of points, growing the arrays if needed. Points added by
+	 * growing have undefined coordinates.
+	 *
+	 * @param size
+	 *          The new number of points.
+	 */
+	public void setSize ( int size ) {
+		if ( size > x.length ) {
+			int n = Math.max(size,x.length * 2);
+			x = Arrays.copyOf(x,n);
+			y = Arrays.copyOf(y,n);
+			z = Arrays.copyOf(z,n);
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Gets the array of x coordinates. The array is live and may be longer than
+	 * size(); it is replaced if the buffer grows.
+	 */
+	public float[] getX () {
+		return x;
+	}
+
+	/**
+	 * Gets the array of y coordinates, as getX() does.
+	 */
+	public float[] getY () {
+		return y;
+	}
+
+	/**
+	 * Gets the array of z coordinates, as getX() does.
+	 */
+	public float[] getZ () {
+		return z;
+	}
+
+	public void set ( int i, float x, float y, float z ) {
+		this.x[i] = x;
+		this.y[i] = y;
+		this.z[i] = z;
+	}
+
+	/**
+	 * Replaces the contents with a copy of some points.
+	 *
+	 * @param points
+	 *          The points, each holding at least x, y and z.
+	 */
+	public void load ( double[][] points ) {
+		setSize(points.length);
+		for ( int i = 0 ; i < points.length ; i++ ) {
+			double[] p = points[i];
+			x[i] = (float) p[0];
+			y[i] = (float) p[1];
+			z[i] = (float) p[2];
+		}
+	}
+
+	/**
+	 * Copies the points out.
+	 *
+	 * @param points
+	 *          Receives the points; it must hold at least size() arrays of at
+	 *          least 3 elements.
+	 * @return points.
+	 */
+	public double[][] store ( double[][] points ) {
+		for ( int i = 0 ; i < size ; i++ ) {
+			double[] p = points[i];
+			p[0] = x[i];
+			p[1] = y[i];
+			p[2] = z[i];
+		}
+		return points;
+	}
+}
@@ -0,0 +1,297 @@
+package main;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+
+/**
+ * Keeps tessellated primitives (spheres, cylinders, cones, tori and cubes) in
+ * GL buffers, keyed by shape type and parameters. The first request for a
+ * parameter set tessellates it with {@link PrimitiveGeometry} and uploads the
+ * result; later requests draw the existing buffers with a single call. When
+ * more than the configured number of parameter sets are cached, the least
+ * recently drawn one is deleted. A primitive drawn in the current frame is
+ * never deleted, as the frame would only upload it again the next time it is
+ * drawn: if one frame draws more parameter sets than the capacity, the cache
+ * holds all of them until a later frame draws fewer.
+ *
+ * @author Sayf Elhawary
+ */
+public class PrimitiveCache {
+
+	/**
+	 * The default number of parameter sets kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	public static final int SPHERE = 0;
+	public static final int CYLINDER = 1;
+	public static final int CONE = 2;
+	public static final int TORUS = 3;
+	public static final int CUBE = 4;
+
+	private static class Key {
+		private int type;
+		private double a, b;
+		private int slices, stacks, rings;
+		private boolean texCoords;
+
+		private Key set ( int type, double a, double b, int slices, int stacks,
+		                  int rings, boolean texCoords ) {
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.slices = slices;
+			this.stacks = stacks;
+			this.rings = rings;
+			this.texCoords = texCoords;
+			return this;
+		}
+
+		public boolean equals ( Object o ) {
+			if ( !(o instanceof Key) ) {
+				return false;
+			}
+			Key k = (Key) o;
+			return type == k.type && a == k.a && b == k.b && slices == k.slices
+			    && stacks == k.stacks && rings == k.rings && texCoords == k.texCoords;
+		}
+
+		public int hashCode () {
+			long h = type;
+			h = 31 * h + Double.doubleToLongBits(a);
+			h = 31 * h + Double.doubleToLongBits(b);
+			h = 31 * h + slices;
+			h = 31 * h + stacks;
+			h = 31 * h + rings;
+			h = 31 * h + (texCoords ? 1 : 0);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	private static class Entry {
+		private int vbo;
+		private int ibo;
+		private int indexCount;
+		private int frame; // the frame it was last drawn in
+	}
+
+	// access-ordered, so iteration runs from least to most recently drawn
+	private final LinkedHashMap<Key,Entry> entries;
+	// reused for lookups so that a cache hit does not allocate
+	private final Key probe;
+	private int capacity;
+	private int frame;
+	private long drawCalls, verticesDrawn;
+
+	/**
+	 * Constructs an empty primitive cache with the default capacity.
+	 */
+	public PrimitiveCache () {
+		entries = new LinkedHashMap<>(16,0.75f,true);
+		probe = new Key();
+		capacity = DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Sets the number of parameter sets kept before the least recently drawn
+	 * ones are deleted.
+	 *
+	 * @param capacity
+	 *          The maximum number of cached primitives.
+	 */
+	public void setCapacity ( int capacity ) {
+		this.capacity = Math.max(capacity,1);
+	}
+
+	/**
+	 * Gets the number of parameter sets kept.
+	 *
+	 * @return The maximum number of cached primitives.
+	 */
+	public int getCapacity () {
+		return capacity;
+	}
+
+	/**
+	 * Starts a frame. Primitives drawn from now on are kept until the next
+	 * call, whatever the capacity. Backends call this at the start of each
+	 * frame.
+	 */
+	public void nextFrame () {
+		frame++;
+	}
+
+	/**
+	 * Gets the number of primitives currently cached.
+	 *
+	 * @return The number of cached primitives.
+	 */
+	public int size () {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of draw calls issued by draw() since the cache was
+	 * created.
+	 */
+	public long getDrawCalls () {
+		return drawCalls;
+	}
+
+	/**
+	 * Gets the number of vertices (indices) submitted by draw() since the cache
+	 * was created.
+	 */
+	public long getVerticesDrawn () {
+		return verticesDrawn;
+	}
+
+	/**
+	 * Draws a primitive, tessellating and uploading it first if it is not
+	 * already cached. The meaning of a, b, slices, stacks and rings depends on
+	 * the type and matches the parameters of the PrimitiveGeometry method of the
+	 * same name; unused parameters should be 0.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 * @param type
+	 *          One of SPHERE, CYLINDER, CONE, TORUS or CUBE.
+	 * @param texCoords
+	 *          Whether texture coordinates should be supplied.
+	 */
+	public void draw ( GL2 gl2, int type, double a, double b, int slices,
+	                   int stacks, int rings, boolean texCoords ) {
+		int indexCount = bind(gl2,type,a,b,slices,stacks,rings,texCoords);
+		gl2.glDrawElements(GL2.GL_TRIANGLES,indexCount,GL2.GL_UNSIGNED_INT,0L);
+		drawCalls++;
+		verticesDrawn += indexCount;
+		unbind(gl2);
+	}
+
+	/**
+	 * Binds a primitive's buffers and sets up the vertex, normal and texture
+	 * coordinate arrays to read from them, tessellating and uploading it first
+	 * if it is not already cached, so that the caller can draw it itself. The
+	 * parameters are those of draw(). Call unbind() when done.
+	 *
+	 * @return The number of indices to draw, as GL_UNSIGNED_INT triangles.
+	 */
+	int bind ( GL2 gl2, int type, double a, double b, int slices, int stacks,
+	           int rings, boolean texCoords ) {
+		Entry entry =
+		    entries.get(probe.set(type,a,b,slices,stacks,rings,texCoords));
+		if ( entry == null ) {
+			entry = upload(gl2,tessellate(type,a,b,slices,stacks,rings));
+			entries.put(new Key().set(type,a,b,slices,stacks,rings,texCoords),
+			            entry);
+		}
+		entry.frame = frame; // so that evicting cannot delete it
+		evict(gl2);
+
+		int stride = PrimitiveGeometry.STRIDE * Buffers.SIZEOF_FLOAT;
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,entry.vbo);
+		gl2.glNormalPointer(GL2.GL_FLOAT,stride,0L);
+		gl2.glVertexPointer(3,GL2.GL_FLOAT,stride,
+		                    PrimitiveGeometry.POSITION_OFFSET * Buffers.SIZEOF_FLOAT);
+		gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		if ( texCoords ) {
+			gl2.glTexCoordPointer(2,GL2.GL_FLOAT,stride,
+			                      PrimitiveGeometry.TEXCOORD_OFFSET
+			                          * Buffers.SIZEOF_FLOAT);
+			gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		}
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,entry.ibo);
+		return entry.indexCount;
+	}
+
+	/**
+	 * Undoes bind(): unbinds the buffers and disables the arrays.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 */
+	void unbind ( GL2 gl2 ) {
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,0);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+	}
+
+	/**
+	 * Tessellates a primitive given by the parameters of draw().
+	 */
+	static PrimitiveGeometry tessellate ( int type, double a, double b,
+	                                     int slices, int stacks, int rings ) {
+		switch ( type ) {
+		case SPHERE:
+			return PrimitiveGeometry.sphere(a,slices,stacks);
+		case CYLINDER:
+			return PrimitiveGeometry.cylinder(a,b,slices,stacks,rings);
+		case CONE:
+			return PrimitiveGeometry.cone(a,b,slices,stacks,rings);
+		case TORUS:
+			return PrimitiveGeometry.torus(a,b,slices,rings);
+		case CUBE:
+			return PrimitiveGeometry.cube(a);
+		default:
+			throw new IllegalArgumentException("Unknown primitive type " + type);
+		}
+	}
+
+	private Entry upload ( GL2 gl2, PrimitiveGeometry geometry ) {
+		Entry entry = new Entry();
+		int[] ids = new int[2];
+		gl2.glGenBuffers(2,ids,0);
+		entry.vbo = ids[0];
+		entry.ibo = ids[1];
+		entry.indexCount = geometry.getIndexCount();
+
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,entry.vbo);
+		gl2.glBufferData(GL2.GL_ARRAY_BUFFER,
+		                 (long) geometry.getData().length * Buffers.SIZEOF_FLOAT,
+		                 Buffers.newDirectFloatBuffer(geometry.getData()),
+		                 GL2.GL_STATIC_DRAW);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,entry.ibo);
+		gl2.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER,
+		                 (long) geometry.getIndices().length * Buffers.SIZEOF_INT,
+		                 Buffers.newDirectIntBuffer(geometry.getIndices()),
+		                 GL2.GL_STATIC_DRAW);
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,0);
+		return entry;
+	}
+
+	/**
+	 * Deletes the least recently drawn primitives until no more than the
+	 * capacity are cached, keeping those drawn in the current frame.
+	 */
+	private void evict ( GL2 gl2 ) {
+		for ( Iterator<Entry> it = entries.values().iterator() ; it.hasNext()
+		    && entries.size() > capacity ; ) {
+			Entry entry = it.next();
+			if ( entry.frame == frame ) {
+				break; // it and everything after it were drawn this frame
+			}
+			gl2.glDeleteBuffers(2,new int[] { entry.vbo, entry.ibo },0);
+			it.remove();
+		}
+	}
+
+	/**
+	 * Deletes all buffers. Called when the GL context is being destroyed.
+	 *
+	 * @param gl2
+	 *          The current GL context.
+	 */
+	public void dispose ( GL2 gl2 ) {
+		for ( Entry entry : entries.values() ) {
+			gl2.glDeleteBuffers(2,new int[] { entry.vbo, entry.ibo },0);
+		}
+		entries.clear();
+	}
+}
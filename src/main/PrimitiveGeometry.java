@@ -0,0 +1,401 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Packed, indexed triangle geometry for the parametric primitives. The
+ * tessellations produce the same vertices, normals and texture coordinates as
+ * the matching methods of {@link TexturedShapes}, but store them in arrays so
+ * they can be uploaded to GL buffers once and drawn many times.
+ *
+ * Each vertex is stored as 8 floats: normal (3), texture coords (2) and
+ * position (3). Indices describe triangles.
+ *
+ * @author Sayf Elhawary
+ */
+public class PrimitiveGeometry {
+
+	/**
+	 * Number of floats per vertex.
+	 */
+	public static final int STRIDE = 8;
+	/**
+	 * Offset of the texture coordinates within a vertex, in floats.
+	 */
+	public static final int TEXCOORD_OFFSET = 3;
+	/**
+	 * Offset of the position within a vertex, in floats.
+	 */
+	public static final int POSITION_OFFSET = 5;
+
+	private float[] data;
+	private int vertexCount;
+	private int[] indices;
+	private int indexCount;
+
+	private int stripStart;
+
+	private PrimitiveGeometry ( int vertexCapacity, int indexCapacity ) {
+		data = new float[vertexCapacity * STRIDE];
+		indices = new int[indexCapacity];
+	}
+
+	/**
+	 * Gets the packed vertex data.
+	 *
+	 * @return The vertex array, STRIDE floats per vertex.
+	 */
+	public float[] getData () {
+		return data;
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 *
+	 * @return The vertex count.
+	 */
+	public int getVertexCount () {
+		return vertexCount;
+	}
+
+	/**
+	 * Gets the triangle indices.
+	 *
+	 * @return The index array.
+	 */
+	public int[] getIndices () {
+		return indices;
+	}
+
+	/**
+	 * Gets the number of indices (three per triangle).
+	 *
+	 * @return The index count.
+	 */
+	public int getIndexCount () {
+		return indexCount;
+	}
+
+	private void vertex ( double nx, double ny, double nz, double s, double t,
+	                      double x, double y, double z ) {
+		if ( (vertexCount + 1) * STRIDE > data.length ) {
+			data = Arrays.copyOf(data,data.length * 2 + STRIDE);
+		}
+		int k = vertexCount * STRIDE;
+		data[k] = (float) nx;
+		data[k + 1] = (float) ny;
+		data[k + 2] = (float) nz;
+		data[k + 3] = (float) s;
+		data[k + 4] = (float) t;
+		data[k + 5] = (float) x;
+		data[k + 6] = (float) y;
+		data[k + 7] = (float) z;
+		vertexCount++;
+	}
+
+	private void triangle ( int a, int b, int c ) {
+		if ( indexCount + 3 > indices.length ) {
+			indices = Arrays.copyOf(indices,indices.length * 2 + 3);
+		}
+		indices[indexCount++] = a;
+		indices[indexCount++] = b;
+		indices[indexCount++] = c;
+	}
+
+	private void beginStrip () {
+		stripStart = vertexCount;
+	}
+
+	/**
+	 * Turns the vertices added since beginStrip() into triangles, in the same
+	 * way GL_QUAD_STRIP would.
+	 */
+	private void endStrip () {
+		for ( int i = stripStart ; i + 3 < vertexCount ; i += 2 ) {
+			triangle(i,i + 1,i + 2);
+			triangle(i + 2,i + 1,i + 3);
+		}
+	}
+
+	/**
+	 * Trims the arrays to their used length.
+	 */
+	private PrimitiveGeometry finish () {
+		data = Arrays.copyOf(data,vertexCount * STRIDE);
+		indices = Arrays.copyOf(indices,indexCount);
+		return this;
+	}
+
+	/**
+	 * Tessellates a sphere, as in
+	 * {@link TexturedShapes#uvSphere(com.jogamp.opengl.GL2, double, int, int, boolean)}.
+	 */
+	public static PrimitiveGeometry sphere ( double radius, int slices,
+	                                         int stacks ) {
+		if ( radius <= 0 )
+		  throw new IllegalArgumentException("Radius must be positive.");
+		if ( slices < 3 )
+		  throw new IllegalArgumentException("Number of slices must be at least 3.");
+		if ( stacks < 2 )
+		  throw new IllegalArgumentException("Number of stacks must be at least 2.");
+		PrimitiveGeometry g =
+		    new PrimitiveGeometry(stacks * (slices + 1) * 2,stacks * slices * 6);
+		for ( int j = 0 ; j < stacks ; j++ ) {
+			double latitude1 = (Math.PI / stacks) * j - Math.PI / 2;
+			double latitude2 = (Math.PI / stacks) * (j + 1) - Math.PI / 2;
+			double sinLat1 = Math.sin(latitude1);
+			double cosLat1 = Math.cos(latitude1);
+			double sinLat2 = Math.sin(latitude2);
+			double cosLat2 = Math.cos(latitude2);
+			g.beginStrip();
+			for ( int i = 0 ; i <= slices ; i++ ) {
+				double longitude = (2 * Math.PI / slices) * i;
+				double sinLong = Math.sin(longitude);
+				double cosLong = Math.cos(longitude);
+				double x1 = cosLong * cosLat1;
+				double y1 = sinLong * cosLat1;
+				double z1 = sinLat1;
+				double x2 = cosLong * cosLat2;
+				double y2 = sinLong * cosLat2;
+				double z2 = sinLat2;
+				g.vertex(x2,y2,z2,1.0 / slices * i,1.0 / stacks * (j + 1),radius * x2,
+				         radius * y2,radius * z2);
+				g.vertex(x1,y1,z1,1.0 / slices * i,1.0 / stacks * j,radius * x1,
+				         radius * y1,radius * z1);
+			}
+			g.endStrip();
+		}
+		return g.finish();
+	}
+
+	/**
+	 * Tessellates a cylinder, as in
+	 * {@link TexturedShapes#uvCylinder(com.jogamp.opengl.GL2, double, double, int, int, int, boolean)}.
+	 */
+	public static PrimitiveGeometry cylinder ( double radius, double height,
+	                                           int slices, int stacks,
+	                                           int rings ) {
+		if ( radius <= 0 )
+		  throw new IllegalArgumentException("Radius must be positive.");
+		if ( height <= 0 )
+		  throw new IllegalArgumentException("Height must be positive.");
+		if ( slices < 3 )
+		  throw new IllegalArgumentException("Number of slices must be at least 3.");
+		if ( stacks < 2 )
+		  throw new IllegalArgumentException("Number of stacks must be at least 2.");
+		int strips = stacks + 2 * Math.max(rings,0);
+		PrimitiveGeometry g =
+		    new PrimitiveGeometry(strips * (slices + 1) * 2,strips * slices * 6);
+		for ( int j = 0 ; j < stacks ; j++ ) {
+			double z1 = (height / stacks) * j;
+			double z2 = (height / stacks) * (j + 1);
+			g.beginStrip();
+			for ( int i = 0 ; i <= slices ; i++ ) {
+				double longitude = (2 * Math.PI / slices) * i;
+				double x = Math.cos(longitude);
+				double y = Math.sin(longitude);
+				g.vertex(x,y,0,1.0 / slices * i,1.0 / stacks * (j + 1),radius * x,
+				         radius * y,z2);
+				g.vertex(x,y,0,1.0 / slices * i,1.0 / stacks * j,radius * x,radius * y,
+				         z1);
+			}
+			g.endStrip();
+		}
+		if ( rings > 0 ) { // top and bottom
+			for ( int j = 0 ; j < rings ; j++ ) {
+				double d1 = (1.0 / rings) * j;
+				double d2 = (1.0 / rings) * (j + 1);
+				g.beginStrip();
+				for ( int i = 0 ; i <= slices ; i++ ) {
+					double angle = (2 * Math.PI / slices) * i;
+					double sin = Math.sin(angle);
+					double cos = Math.cos(angle);
+					g.vertex(0,0,1,0.5 * (1 + cos * d1),0.5 * (1 + sin * d1),
+					         radius * cos * d1,radius * sin * d1,height);
+					g.vertex(0,0,1,0.5 * (1 + cos * d2),0.5 * (1 + sin * d2),
+					         radius * cos * d2,radius * sin * d2,height);
+				}
+				g.endStrip();
+			}
+			for ( int j = 0 ; j < rings ; j++ ) {
+				double d1 = (1.0 / rings) * j;
+				double d2 = (1.0 / rings) * (j + 1);
+				g.beginStrip();
+				for ( int i = 0 ; i <= slices ; i++ ) {
+					double angle = (2 * Math.PI / slices) * i;
+					double sin = Math.sin(angle);
+					double cos = Math.cos(angle);
+					g.vertex(0,0,-1,0.5 * (1 + cos * d2),0.5 * (1 + sin * d2),
+					         radius * cos * d2,radius * sin * d2,0);
+					g.vertex(0,0,-1,0.5 * (1 + cos * d1),0.5 * (1 + sin * d1),
+					         radius * cos * d1,radius * sin * d1,0);
+				}
+				g.endStrip();
+			}
+		}
+		return g.finish();
+	}
+
+	/**
+	 * Tessellates a cone, as in
+	 * {@link TexturedShapes#uvCone(com.jogamp.opengl.GL2, double, double, int, int, int, boolean)}.
+	 */
+	public static PrimitiveGeometry cone ( double radius, double height,
+	                                       int slices, int stacks, int rings ) {
+		if ( radius <= 0 )
+		  throw new IllegalArgumentException("Radius must be positive.");
+		if ( height <= 0 )
+		  throw new IllegalArgumentException("Height must be positive.");
+		if ( slices < 3 )
+		  throw new IllegalArgumentException("Number of slices must be at least 3.");
+		if ( stacks < 2 )
+		  throw new IllegalArgumentException("Number of stacks must be at least 2.");
+		int strips = stacks + Math.max(rings,0);
+		PrimitiveGeometry g =
+		    new PrimitiveGeometry(strips * (slices + 1) * 2,strips * slices * 6);
+		double nz = radius / height;
+		for ( int j = 0 ; j < stacks ; j++ ) {
+			double z1 = (height / stacks) * j;
+			double z2 = (height / stacks) * (j + 1);
+			g.beginStrip();
+			for ( int i = 0 ; i <= slices ; i++ ) {
+				double longitude = (2 * Math.PI / slices) * i;
+				double x = Math.cos(longitude);
+				double y = Math.sin(longitude);
+				double normLength = Math.sqrt(x * x + y * y + nz * nz);
+				double nx = x / normLength, ny = y / normLength,
+				    nzn = nz / normLength;
+				g.vertex(nx,ny,nzn,1.0 / slices * i,1.0 / stacks * (j + 1),
+				         (height - z2) / height * radius * x,
+				         (height - z2) / height * radius * y,z2);
+				g.vertex(nx,ny,nzn,1.0 / slices * i,1.0 / stacks * j,
+				         (height - z1) / height * radius * x,
+				         (height - z1) / height * radius * y,z1);
+			}
+			g.endStrip();
+		}
+		if ( rings > 0 ) {
+			for ( int j = 0 ; j < rings ; j++ ) {
+				double d1 = (1.0 / rings) * j;
+				double d2 = (1.0 / rings) * (j + 1);
+				g.beginStrip();
+				for ( int i = 0 ; i <= slices ; i++ ) {
+					double angle = (2 * Math.PI / slices) * i;
+					double sin = Math.sin(angle);
+					double cos = Math.cos(angle);
+					g.vertex(0,0,-1,0.5 * (1 + cos * d2),0.5 * (1 + sin * d2),
+					         radius * cos * d2,radius * sin * d2,0);
+					g.vertex(0,0,-1,0.5 * (1 + cos * d1),0.5 * (1 + sin * d1),
+					         radius * cos * d1,radius * sin * d1,0);
+				}
+				g.endStrip();
+			}
+		}
+		return g.finish();
+	}
+
+	/**
+	 * Tessellates a torus, as in
+	 * {@link TexturedShapes#uvTorus(com.jogamp.opengl.GL2, double, double, int, int, boolean)}.
+	 */
+	public static PrimitiveGeometry torus ( double outerRadius,
+	                                        double innerRadius, int slices,
+	                                        int rings ) {
+		if ( outerRadius == innerRadius )
+		  throw new IllegalArgumentException("Outer and inner radii can't be the same.");
+		if ( outerRadius < innerRadius ) {
+			double temp = outerRadius;
+			outerRadius = innerRadius;
+			innerRadius = temp;
+		}
+		if ( innerRadius < 0 )
+		  throw new IllegalArgumentException("Radius can't be negative.");
+		if ( slices < 3 )
+		  throw new IllegalArgumentException("Number of slices must be 3 or more.");
+		if ( rings < 3 )
+		  throw new IllegalArgumentException("Number of rings must be 3 or more.");
+		double centerRadius = (innerRadius + outerRadius) / 2;
+		double tubeRadius = outerRadius - centerRadius;
+		PrimitiveGeometry g =
+		    new PrimitiveGeometry(slices * (rings + 1) * 2,slices * rings * 6);
+		for ( int i = 0 ; i < slices ; i++ ) {
+			double s1 = 1.0 / slices * i;
+			double s2 = 1.0 / slices * (i + 1);
+			double centerCos1 = Math.cos(2 * Math.PI * s1);
+			double centerSin1 = Math.sin(2 * Math.PI * s1);
+			double centerCos2 = Math.cos(2 * Math.PI * s2);
+			double centerSin2 = Math.sin(2 * Math.PI * s2);
+			g.beginStrip();
+			for ( int j = 0 ; j <= rings ; j++ ) {
+				double t = 1.0 / rings * j;
+				double cos = Math.cos(2 * Math.PI * t - Math.PI);
+				double sin = Math.sin(2 * Math.PI * t - Math.PI);
+				g.vertex(centerCos1 * cos,centerSin1 * cos,sin,s1,t,
+				         centerCos1 * (centerRadius + tubeRadius * cos),
+				         centerSin1 * (centerRadius + tubeRadius * cos),
+				         sin * tubeRadius);
+				g.vertex(centerCos2 * cos,centerSin2 * cos,sin,s2,t,
+				         centerCos2 * (centerRadius + tubeRadius * cos),
+				         centerSin2 * (centerRadius + tubeRadius * cos),
+				         sin * tubeRadius);
+			}
+			g.endStrip();
+		}
+		return g.finish();
+	}
+
+	/**
+	 * Tessellates a cube, as in
+	 * {@link TexturedShapes#cube(com.jogamp.opengl.GL2, double, boolean)}. Each
+	 * face is the square from TexturedShapes.square() moved into place by the
+	 * same rotations that method applies.
+	 */
+	public static PrimitiveGeometry cube ( double side ) {
+		// rotation (angle, axis) applied to the square for each face, after the
+		// overall rotate(-90,-1,0,0)
+		double[][] faces = { { 0, 1, 0, 0 }, { 90, 0, 1, 0 }, { 180, 0, 1, 0 },
+		                     { 270, 0, 1, 0 }, { 90, -1, 0, 0 },
+		                     { -90, -1, 0, 0 } };
+		double[][] corners = { { -1, -1, 0, 0 }, { 1, -1, 1, 0 }, { 1, 1, 1, 1 },
+		                       { -1, 1, 0, 1 } };
+		double radius = side / 2;
+		PrimitiveGeometry g = new PrimitiveGeometry(24,36);
+		for ( double[] face : faces ) {
+			int first = g.vertexCount;
+			double[] n = rotate(-90,-1,0,0,rotate(face[0],face[1],face[2],face[3],
+			                                      new double[] { 0, 0, 1 }));
+			for ( double[] c : corners ) {
+				double[] p = rotate(-90,-1,0,0,
+				                    rotate(face[0],face[1],face[2],face[3],
+				                           new double[] { c[0] * radius,
+				                                          c[1] * radius, radius }));
+				g.vertex(n[0],n[1],n[2],c[2],c[3],p[0],p[1],p[2]);
+			}
+			g.triangle(first,first + 1,first + 2);
+			g.triangle(first,first + 2,first + 3);
+		}
+		return g.finish();
+	}
+
+	/**
+	 * Rotates a point about an axis through the origin, as glRotate does.
+	 */
+	private static double[] rotate ( double angle, double ax, double ay,
+	                                 double az, double[] p ) {
+		double len = Math.sqrt(ax * ax + ay * ay + az * az);
+		if ( angle == 0 || len == 0 ) {
+			return p;
+		}
+		ax /= len;
+		ay /= len;
+		az /= len;
+		double rad = Math.toRadians(angle);
+		double c = Math.cos(rad), s = Math.sin(rad), t = 1 - c;
+		double dot = ax * p[0] + ay * p[1] + az * p[2];
+		// Rodrigues' rotation formula
+		return new double[] {
+		                      p[0] * c + (ay * p[2] - az * p[1]) * s + ax * dot * t,
+		                      p[1] * c + (az * p[0] - ax * p[2]) * s + ay * dot * t,
+		                      p[2] * c + (ax * p[1] - ay * p[0]) * s + az * dot * t };
+	}
+}
@@ -0,0 +1,44 @@
+package main;
+
+/**
+ * A RenderBackend that can record what it draws and replay it, as display
+ * lists do. The renderer records static groups only with a backend that
+ * implements this; with any other it draws them like any other group.
+ *
+ * Like the rest of the backend, these methods must be called on the GL
+ * thread, between beginFrame and endFrame.
+ *
+ * @author Sayf Elhawary
+ */
+public interface RecordingBackend extends RenderBackend {
+
+	/**
+	 * Creates a recording.
+	 *
+	 * @return The recording's name, or 0 if one could not be created.
+	 */
+	int newRecording ();
+
+	/**
+	 * Deletes a recording made by newRecording.
+	 */
+	void deleteRecording ( int recording );
+
+	/**
+	 * Starts recording what is drawn, which is also drawn as it is recorded.
+	 * The modelview matrix in effect is saved, as by pushMatrix, and the
+	 * recording holds matrices relative to it.
+	 */
+	void beginRecording ( int recording );
+
+	/**
+	 * Ends the recording started by beginRecording, restoring the modelview
+	 * matrix saved when it started.
+	 */
+	void endRecording ();
+
+	/**
+	 * Replays a recording with the current modelview matrix.
+	 */
+	void replay ( int recording );
+}
@@ -0,0 +1,256 @@
+package main;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLCapabilities;
+
+import lights.DirectionalLight;
+import lights.PointLight;
+import lights.SpotLight;
+import nodes.InstancedShapeNode;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+
+/**
+ * The GL work a Renderer does: keeping the matrices, applying materials,
+ * lights and textures, and drawing shapes. The renderer decides what is drawn,
+ * in what order and with which matrix, and a backend decides how, so the same
+ * scene can be drawn with different parts of GL.
+ *
+ * Two backends are provided: {@link FixedFunctionBackend}, which draws with
+ * the GL2 fixed-function pipeline, and {@link CoreProfileBackend}, which draws
+ * with a GL3 core profile context, buffers and shaders. A backend is chosen
+ * when the renderer is constructed, as its drawing surface must be created
+ * with the capabilities the backend asks for.
+ *
+ * A backend that can record and replay what it draws implements
+ * {@link RecordingBackend} as well, as FixedFunctionBackend does.
+ *
+ * Matrices are column-major float[16]s, as in {@link Mat4}. The backend keeps
+ * a modelview matrix, which the draw and apply methods use, a stack of saved
+ * modelview matrices, a projection matrix and a texture matrix.
+ *
+ * All methods must be called on the GL thread, between beginFrame and
+ * endFrame, except getCapabilities, the counters and the texture cache.
+ *
+ * @author Sayf Elhawary
+ */
+public interface RenderBackend {
+
+	/**
+	 * Creates a backend from its name: "fixed" for FixedFunctionBackend or
+	 * "core" for CoreProfileBackend.
+	 *
+	 * @param name
+	 *          The backend's name.
+	 * @return A new backend.
+	 * @throws IllegalArgumentException
+	 *           If there is no backend with that name.
+	 */
+	static RenderBackend forName ( String name ) {
+		switch ( name ) {
+		case "fixed":
+			return new FixedFunctionBackend();
+		case "core":
+			return new CoreProfileBackend();
+		default:
+			throw new IllegalArgumentException("no render backend named \""
+			    + name + "\"; expected fixed or core");
+		}
+	}
+
+	/**
+	 * Gets the capabilities, including the GL profile, the drawing surface must
+	 * be created with.
+	 *
+	 * @return The capabilities.
+	 */
+	GLCapabilities getCapabilities ();
+
+	/**
+	 * Sets up the initial state of a new GL context: depth testing, lighting
+	 * with light 0 on, and whatever programs the backend draws with. Anything
+	 * the backend remembers about an earlier context is forgotten.
+	 *
+	 * @param gl
+	 *          The new context.
+	 */
+	void setup ( GL gl );
+
+	/**
+	 * Starts a frame drawn with a GL context.
+	 *
+	 * @param gl
+	 *          The context, possibly wrapped by the profiler.
+	 */
+	void beginFrame ( GL gl );
+
+	/**
+	 * Ends the frame started by beginFrame, flushing what was drawn.
+	 */
+	void endFrame ();
+
+	/**
+	 * Releases the GL objects the backend holds, including its textures.
+	 * Called when the GL context is being destroyed.
+	 *
+	 * @param gl
+	 *          The context being destroyed.
+	 */
+	void dispose ( GL gl );
+
+	/**
+	 * Clears the color and depth buffers.
+	 */
+	void clear ( float r, float g, float b, float a );
+
+	/**
+	 * Reads the current viewport.
+	 *
+	 * @param viewport
+	 *          Receives x, y, width and height.
+	 */
+	void getViewport ( int[] viewport );
+
+	/**
+	 * Replaces the projection matrix.
+	 */
+	void setProjection ( float[] m, int offset );
+
+	/**
+	 * Replaces the modelview matrix.
+	 */
+	void loadMatrix ( float[] m, int offset );
+
+	/**
+	 * Sets the modelview matrix to the identity.
+	 */
+	void loadIdentity ();
+
+	/**
+	 * Multiplies the modelview matrix on the right by a matrix.
+	 */
+	void multMatrix ( float[] m, int offset );
+
+	/**
+	 * Saves the modelview matrix on the stack.
+	 */
+	void pushMatrix ();
+
+	/**
+	 * Restores the last saved modelview matrix.
+	 */
+	void popMatrix ();
+
+	/**
+	 * Reads the modelview matrix, e.g. after custom code has changed it.
+	 */
+	void getMatrix ( float[] m, int offset );
+
+	/**
+	 * Replaces the texture matrix, which applies to the texture coordinates of
+	 * everything drawn after it.
+	 */
+	void loadTextureMatrix ( float[] m, int offset );
+
+	/**
+	 * Applies a material to the front and back faces of what is drawn next.
+	 */
+	void applyMaterial ( Material material );
+
+	/**
+	 * Sets up and turns on a point light, at its position transformed by the
+	 * current modelview matrix.
+	 */
+	void applyPointLight ( PointLight light );
+
+	/**
+	 * Sets up and turns on a directional light, with its direction transformed
+	 * by the current modelview matrix.
+	 */
+	void applyDirectionalLight ( DirectionalLight light );
+
+	/**
+	 * Sets up and turns on a spot light, with its position and direction
+	 * transformed by the current modelview matrix.
+	 */
+	void applySpotLight ( SpotLight light );
+
+	/**
+	 * Binds a texture, loading it through the texture cache if needed, and
+	 * turns texturing on.
+	 */
+	void applyTexture ( Tex texture );
+
+	/**
+	 * Sets the current color. With lighting on, as it always is, it only
+	 * matters to custom shapes that turn lighting off.
+	 */
+	void color ( float r, float g, float b );
+
+	void drawCube ( Cube cube );
+
+	void drawSphere ( Sphere sphere );
+
+	void drawCone ( Cone cone );
+
+	void drawTorus ( Torus torus );
+
+	void drawCylinder ( Cylinder cylinder );
+
+	void drawTeapot ( Teapot teapot );
+
+	void drawComplexShape ( ComplexShape cShape );
+
+	/**
+	 * Draws the instances of an instanced shape node, each with its own
+	 * transform applied after the current one. Shapes the backend cannot draw
+	 * itself are drawn one instance at a time by their own draw method.
+	 *
+	 * @param node
+	 *          The node whose instances to draw.
+	 * @param renderer
+	 *          The renderer to draw other shapes with.
+	 */
+	void drawInstances ( InstancedShapeNode node, Renderer renderer );
+
+	/**
+	 * Gets the cache holding the textures loaded by this backend.
+	 *
+	 * @return The texture cache.
+	 */
+	TextureCache getTextureCache ();
+
+	/**
+	 * Sets how many tessellated primitive parameter sets are kept in GL
+	 * buffers before the least recently drawn ones are released. Those drawn
+	 * in the current frame are kept even if there are more of them.
+	 *
+	 * @param capacity
+	 *          The maximum number of cached primitives.
+	 */
+	void setPrimitiveCacheCapacity ( int capacity );
+
+	/**
+	 * Gets the number of draw calls made since the backend was created, by
+	 * every draw method, cached or not. Each glBegin/glEnd pair counts as one.
+	 * Draws made by code that calls GL itself are not counted.
+	 */
+	long getDrawCalls ();
+
+	/**
+	 * Gets the number of vertices drawn since the backend was created, by the
+	 * same draws getDrawCalls counts.
+	 */
+	long getVerticesDrawn ();
+
+	/**
+	 * Gets the number of material, light and matrix state changes issued to GL
+	 * since the backend was created.
+	 */
+	long getStateChanges ();
+}
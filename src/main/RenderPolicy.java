@@ -0,0 +1,26 @@
+package main;
+
+/**
+ * When a Renderer started with animate() draws frames.
+ *
+ * @author Sayf Elhawary
+ */
+public enum RenderPolicy {
+	/**
+	 * Draw frames back to back, as fast as the display accepts them.
+	 */
+	CONTINUOUS,
+	/**
+	 * Draw frames continuously, but at most at the renderer's frame rate cap.
+	 * This is the default, with a cap of 60 frames per second.
+	 */
+	CAPPED,
+	/**
+	 * Draw a frame only when something has changed: the scene graph, the camera
+	 * (including through the trackball), an animated transform that was drawn
+	 * in the last frame, or a call to requestRender(). Changes are coalesced
+	 * into at most one frame per display refresh, and nothing is drawn while the
+	 * scene is static.
+	 */
+	ON_DEMAND;
+}
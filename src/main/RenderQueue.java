@@ -0,0 +1,318 @@
+package main;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import nodes.TextureNode;
+
+/**
+ * Collects the shapes of a frame as draw items so they can be submitted in an
+ * order that minimizes material and texture changes. Each item records the
+ * shape, the material and texture in effect when it was reached in the scene
+ * graph, and its modelview matrix.
+ *
+ * Items are ordered by a 64-bit key made of (from most to least significant)
+ * a bit set if the item is textured, then 16 bits each of material id,
+ * texture id and mesh id, and 15 bits of view depth, using a stable radix
+ * sort, so items with equal keys keep their graph order. Untextured items can
+ * only come before the first texture of a frame, and texturing is never
+ * turned off, so sorting them ahead of every textured item draws them without
+ * a texture, as the graph order does.
+ *
+ * Ids are handed out the first time a material, texture file or shape is seen
+ * in a frame, and forgotten when the next frame begins; if more than 65535 of
+ * one kind are in use in a frame they share ids, which only makes the sort
+ * less effective, since state is compared by identity when the items are
+ * drawn.
+ *
+ * @author Sayf Elhawary
+ */
+public class RenderQueue {
+
+	private static final int ID_MASK = 0xFFFF;
+	private static final int DEPTH_MASK = 0x7FFF;
+
+	// the material and texture in effect at this point of the traversal
+	private Material material;
+	private TextureNode texture;
+
+	// the items, in graph order
+	private int[] ops;
+	private Object[] shapes;
+	private Material[] materials;
+	private TextureNode[] textures;
+	private float[] matrices;
+	private long[] keys;
+	private int size;
+
+	// the item indices in sorted order, with scratch space for the sort
+	private int[] order;
+	private int[] orderScratch;
+	private long[] keyScratch;
+	private final int[] counts;
+
+	// ids for the frame being recorded
+	private final Map<Material,Integer> materialIds;
+	private final Map<String,Integer> textureIds;
+	private final Map<Object,Integer> meshIds;
+
+	// state changes the graph-order traversal would have made, and those made
+	private int graphOrderChanges;
+	private int issuedChanges;
+	private int lastGraphOrderChanges;
+	private int lastIssuedChanges;
+
+	/**
+	 * Constructs an empty render queue.
+	 */
+	public RenderQueue () {
+		ops = new int[64];
+		shapes = new Object[64];
+		materials = new Material[64];
+		textures = new TextureNode[64];
+		matrices = new float[64 * 16];
+		keys = new long[64];
+		order = new int[64];
+		orderScratch = new int[64];
+		keyScratch = new long[64];
+		counts = new int[256];
+		materialIds = new IdentityHashMap<>();
+		textureIds = new HashMap<>();
+		meshIds = new IdentityHashMap<>();
+	}
+
+	/**
+	 * Starts recording a frame.
+	 */
+	public void begin () {
+		material = null;
+		texture = null;
+		clear();
+		materialIds.clear();
+		textureIds.clear();
+		meshIds.clear();
+		graphOrderChanges = 0;
+		issuedChanges = 0;
+	}
+
+	/**
+	 * Ends the frame, making its state change counts available.
+	 */
+	public void end () {
+		clear();
+		lastGraphOrderChanges = graphOrderChanges;
+		lastIssuedChanges = issuedChanges;
+	}
+
+	/**
+	 * Removes all items, keeping the current material and texture.
+	 */
+	public void clear () {
+		Arrays.fill(shapes,0,size,null);
+		Arrays.fill(materials,0,size,null);
+		Arrays.fill(textures,0,size,null);
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of items queued.
+	 *
+	 * @return The number of items.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Sets the material applied to the items that follow.
+	 */
+	public void setMaterial ( Material material ) {
+		this.material = material;
+		graphOrderChanges++;
+	}
+
+	/**
+	 * Sets the texture applied to the items that follow.
+	 */
+	public void setTexture ( TextureNode texture ) {
+		this.texture = texture;
+		graphOrderChanges++;
+	}
+
+	/**
+	 * Gets the material applied to the items that follow.
+	 *
+	 * @return The current material, or null if none has been set.
+	 */
+	public Material getCurrentMaterial () {
+		return material;
+	}
+
+	/**
+	 * Gets the texture applied to the items that follow.
+	 *
+	 * @return The current texture, or null if none has been set.
+	 */
+	public TextureNode getCurrentTexture () {
+		return texture;
+	}
+
+	/**
+	 * Queues a shape with the current material and texture.
+	 *
+	 * @param op
+	 *          The CommandBuffer opcode that draws the shape.
+	 * @param shape
+	 *          The shape.
+	 * @param modelview
+	 *          The modelview matrix to draw it with, column-major.
+	 */
+	public void add ( int op, Object shape, float[] modelview ) {
+		if ( size == ops.length ) {
+			int n = size * 2;
+			ops = Arrays.copyOf(ops,n);
+			shapes = Arrays.copyOf(shapes,n);
+			materials = Arrays.copyOf(materials,n);
+			textures = Arrays.copyOf(textures,n);
+			matrices = Arrays.copyOf(matrices,n * 16);
+			keys = Arrays.copyOf(keys,n);
+			order = new int[n];
+			orderScratch = new int[n];
+			keyScratch = new long[n];
+		}
+		ops[size] = op;
+		shapes[size] = shape;
+		materials[size] = material;
+		textures[size] = texture;
+		System.arraycopy(modelview,0,matrices,16 * size,16);
+		keys[size] = key(material,texture,shape,modelview[14]);
+		size++;
+	}
+
+	private long key ( Material material, TextureNode texture, Object shape,
+	                   float z ) {
+		long materialId = material == null ? 0 : id(materialIds,material);
+		long textureId =
+		    texture == null ? 0 : id(textureIds,texture.getTexture().getFileName());
+		long textured = texture == null ? 0 : 1;
+		long meshId = id(meshIds,shape);
+		// view space looks down -z; the bits of a non-negative float sort like
+		// its value (and the sign bit is clear), so the top 15 after the sign
+		// give a coarse front-to-back order
+		long depthBits = Float.floatToIntBits(Math.max(-z,0)) >>> 16;
+		return (textured << 63) | (materialId << 47) | (textureId << 31)
+		    | (meshId << 15) | (depthBits & DEPTH_MASK);
+	}
+
+	private static <K> int id ( Map<K,Integer> ids, K key ) {
+		Integer id = ids.get(key);
+		if ( id == null ) {
+			id = (ids.size() + 1) & ID_MASK;
+			ids.put(key,id);
+		}
+		return id;
+	}
+
+	/**
+	 * Sorts the queued items by key. Items with equal keys stay in graph order.
+	 * The keys are consumed, so items must not be added until the queue has been
+	 * cleared.
+	 */
+	public void sort () {
+		int[] src = order, dst = orderScratch;
+		long[] srcKeys = keys, dstKeys = keyScratch;
+		for ( int i = 0 ; i < size ; i++ ) {
+			src[i] = i;
+		}
+
+		for ( int shift = 0 ; shift < 64 ; shift += 8 ) {
+			Arrays.fill(counts,0);
+			for ( int i = 0 ; i < size ; i++ ) {
+				counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+			}
+			if ( size == 0 || counts[(int) (srcKeys[0] >>> shift) & 0xFF] == size ) {
+				continue; // every key has the same byte here
+			}
+			for ( int b = 0, sum = 0 ; b < 256 ; b++ ) {
+				int c = counts[b];
+				counts[b] = sum;
+				sum += c;
+			}
+			for ( int i = 0 ; i < size ; i++ ) {
+				int slot = counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+				dst[slot] = src[i];
+				dstKeys[slot] = srcKeys[i];
+			}
+			int[] t = src;
+			src = dst;
+			dst = t;
+			long[] tk = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = tk;
+		}
+		if ( src != order ) {
+			System.arraycopy(src,0,order,0,size);
+		}
+	}
+
+	/**
+	 * Gets the index of the item to draw at a position in sorted order. Only
+	 * valid after sort().
+	 */
+	public int getSorted ( int position ) {
+		return order[position];
+	}
+
+	public int getOp ( int item ) {
+		return ops[item];
+	}
+
+	public Object getShape ( int item ) {
+		return shapes[item];
+	}
+
+	public Material getMaterial ( int item ) {
+		return materials[item];
+	}
+
+	public TextureNode getTexture ( int item ) {
+		return textures[item];
+	}
+
+	/**
+	 * Gets the array holding the items' matrices; item i's matrix starts at
+	 * 16*i.
+	 */
+	public float[] getMatrices () {
+		return matrices;
+	}
+
+	/**
+	 * Records that the renderer issued a material or texture change while
+	 * submitting items.
+	 */
+	public void stateChangeIssued () {
+		issuedChanges++;
+	}
+
+	/**
+	 * Gets the number of material and texture changes made in the last frame.
+	 *
+	 * @return The number of state changes issued.
+	 */
+	public int getStateChanges () {
+		return lastIssuedChanges;
+	}
+
+	/**
+	 * Gets how many fewer material and texture changes the last frame made than
+	 * drawing in graph order would have.
+	 *
+	 * @return The number of state changes saved.
+	 */
+	public int getStateChangesSaved () {
+		return lastGraphOrderChanges - lastIssuedChanges;
+	}
+}
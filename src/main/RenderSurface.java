@@ -0,0 +1,48 @@
+package main;
+
+/**
+ * What a Renderer draws on. The renderer is always the Swing component put in
+ * a window, and with PANEL it draws into itself; with the other surfaces it
+ * holds a native GL surface as its only child and draws into that instead.
+ *
+ * @author Sayf Elhawary
+ */
+public enum RenderSurface {
+	/**
+	 * The renderer's own GLJPanel. Frames are drawn offscreen and copied into
+	 * the Swing back buffer, which costs a readback of every pixel per frame,
+	 * but lightweight Swing components can be painted over the scene.
+	 */
+	PANEL,
+	/**
+	 * A heavyweight AWT GLCanvas, which GL draws into directly and which is
+	 * shown by swapping buffers. Swing components cannot overlap it.
+	 */
+	CANVAS,
+	/**
+	 * A NEWT GLWindow embedded with a NewtCanvasAWT. Like CANVAS it is drawn
+	 * into directly, and its input and drawing do not go through AWT's event
+	 * thread.
+	 */
+	NEWT;
+
+	/**
+	 * Gets a surface from its name, ignoring case: "panel", "canvas" or
+	 * "newt".
+	 *
+	 * @param name
+	 *          The surface's name.
+	 * @return The surface.
+	 * @throws IllegalArgumentException
+	 *           If there is no surface with that name.
+	 */
+	public static RenderSurface forName ( String name ) {
+		for ( RenderSurface surface : values() ) {
+			if ( surface.name().equalsIgnoreCase(name) ) {
+				return surface;
+			}
+		}
+		throw new IllegalArgumentException("no render surface named \"" + name
+		    + "\"; expected panel, canvas or newt");
+	}
+}
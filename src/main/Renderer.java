@@ -1,28 +1,37 @@
 package main;
 
+import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.io.File;
+import java.util.Arrays;
 
-import com.jogamp.common.nio.Buffers;
+import com.jogamp.newt.awt.NewtCanvasAWT;
+import com.jogamp.newt.opengl.GLWindow;
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAnimatorControl;
 import com.jogamp.opengl.GLAutoDrawable;
-import com.jogamp.opengl.GLCapabilities;
 import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.awt.GLJPanel;
-import com.jogamp.opengl.glu.GLU;
-import com.jogamp.opengl.glu.GLUquadric;
+import com.jogamp.opengl.util.Animator;
 import com.jogamp.opengl.util.FPSAnimator;
-import com.jogamp.opengl.util.gl2.GLUT;
-import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.TextureIO;
 
 import lights.*;
+import nodes.BoundingVolume;
+import nodes.CommandBuffer;
+import nodes.InstancedShapeNode;
+import nodes.PartialScene;
 import nodes.Scene;
+import nodes.TextureNode;
 import shapes.*;
+import main.FrameProfiler.Phase;
 import transformations.*;
 
 /**
@@ -30,9 +39,29 @@ import transformations.*;
  */
 public class Renderer extends GLJPanel implements GLEventListener {
 
-	private GL2 gl2;
-	private GLUT glut = new GLUT();
-	private GLU glu_ = new GLU();
+	/**
+	 * The system property naming the backend Renderer(Scene) uses: "fixed"
+	 * (the default) or "core". See {@link RenderBackend#forName(String)}.
+	 */
+	public static final String BACKEND_PROPERTY = "scenegraph.backend";
+
+	/**
+	 * The system property naming the surface the renderer draws on when none is
+	 * given to the constructor: "panel" (the default), "canvas" or "newt". See
+	 * {@link RenderSurface#forName(String)}.
+	 */
+	public static final String SURFACE_PROPERTY = "scenegraph.surface";
+
+	private GL gl;
+	private final RenderBackend backend;
+	// the backend, if it can record static groups, or null
+	private final RecordingBackend recorder;
+
+	private final RenderSurface surface;
+	private final GLAutoDrawable drawable; // what frames are drawn on: this
+	                                       // panel, a GLCanvas or a GLWindow
+	private final Component surfaceComponent; // the component showing it
+	private final GLWindow window; // the NEWT window, or null
 
 	private TrackballMouser trackball; // handles the mouse for the simulated
 	                                   // trackball
@@ -43,22 +72,172 @@ public class Renderer extends GLJPanel implements GLEventListener {
 
 	private Camera camera_;
 
+	private RenderQueue renderQueue = new RenderQueue();
+	private boolean sortedRendering = false;
+	// state of the command buffer being executed: the cached matrices, the
+	// view matrices set up by cameras, and the current position in each
+	private float[] world;
+	private int[] worldVersions;
+	private float[] views = new float[16 * 4];
+	private int viewCount;
+	private int curOffset; // index in world of the current matrix
+	private int curView; // index of the current view, -1 if world holds the
+	                     // full modelview matrix
+	private boolean curDirty; // true if matrices cached after this point are
+	                          // out of date
+	private int[] levelOffset = new int[16];
+	private int[] levelView = new int[16];
+	private boolean[] levelDirty = new boolean[16];
+	private int depth;
+	private int loadedOffset, loadedView; // what is loaded in GL
+	private final float[] modelview = new float[16];
+	// scratch space for transforms sent to the backend
+	private final float[] transformMatrix = new float[16];
+
+	// scratch space for applyCamera
+	private final int[] cameraViewport = new int[4];
+	private final double[] cameraLimits = new double[6];
+	private final double[] cameraView = new double[9];
+	private final double[] cameraVolume = new double[6];
+	private final float[] cameraMatrix = new float[16];
+
+	private Frustum frustum = new Frustum();
+	private boolean frustumCulling = true;
+	private int culledGroups;
+
+	// the update phase, and the views and view volumes of the cameras it culls
+	// against
+	private final UpdatePhase updatePhase = new UpdatePhase();
+	private boolean parallelUpdate = true;
+	private boolean updated; // whether the update phase ran this frame
+	private float[] updateViews = new float[16];
+	private Frustum[] updateFrusta = new Frustum[0];
+	// the material and texture file last applied by the render queue
+	private Material submittedMaterial;
+	private String submittedTexture;
+
+	private final StaticGroupCache staticCache = new StaticGroupCache();
+	// frames a group must go unchanged before it is recorded; 0 for never
+	private int autoStatic;
+	// the PUSH and POP of the group being recorded, or -1
+	private int recordStart = -1, recordEnd = -1;
+
+	// set while drawing a frame that contains an animated transform
 	public boolean animationRequired;
+	/**
+	 * The animation clock tick of the frame being drawn, truncated to an int.
+	 *
+	 * @deprecated Animated transforms read the animation clock, so setting this
+	 *             has no effect and reading it from another thread can see a
+	 *             stale value; use getAnimationClock().getTick().
+	 */
+	@Deprecated
 	public int frameNumber;
+	private final AnimationClock clock = new AnimationClock();
+
+	private RenderPolicy renderPolicy = RenderPolicy.CAPPED;
+	private int frameRateCap = 60;
+	private GLAnimatorControl animator; // drives CONTINUOUS and CAPPED
+	private FrameScheduler scheduler; // drives ON_DEMAND
+	// what the last frame was drawn from, so ON_DEMAND can tell it is stale
+	private volatile boolean drawnAnimated;
+	private volatile long drawnVersion;
+	private volatile Camera drawnCamera;
+	private volatile int drawnCameraVersion;
+
+	private final FrameProfiler profiler = new FrameProfiler();
+	// whether the profiler is recording the frame being drawn, and timing its
+	// subtrees; read once per frame
+	private boolean profiling, timingSubtrees;
+	private long[] levelStart = new long[16];
+	private PartialScene[] levelGroup = new PartialScene[16];
+	private long textureBinds;
 
 	public static final int[] LIGHT_NUMS =
 	    new int[] { GL2.GL_LIGHT0, GL2.GL_LIGHT1, GL2.GL_LIGHT2, GL2.GL_LIGHT3,
 	                GL2.GL_LIGHT4, GL2.GL_LIGHT5, GL2.GL_LIGHT6, GL2.GL_LIGHT7 };
 
+	/**
+	 * Constructs a renderer for a scene, drawing with the backend named by the
+	 * system property BACKEND_PROPERTY, or the fixed-function backend if it is
+	 * not set.
+	 *
+	 * @param scene
+	 *          The scene to draw.
+	 * @throws IllegalArgumentException
+	 *           If the property names no backend.
+	 */
 	public Renderer ( Scene scene ) {
+		this(scene,RenderBackend.forName(System.getProperty(BACKEND_PROPERTY,
+		                                                    "fixed")));
+	}
+
+	/**
+	 * Constructs a renderer for a scene, drawing with a backend.
+	 *
+	 * @param scene
+	 *          The scene to draw.
+	 * @param backend
+	 *          The backend to draw with; it must not be shared.
+	 * @throws IllegalArgumentException
+	 *           If SURFACE_PROPERTY names no surface.
+	 */
+	public Renderer ( Scene scene, RenderBackend backend ) {
+		this(scene,backend,
+		     RenderSurface.forName(System.getProperty(SURFACE_PROPERTY,"panel")));
+	}
+
+	/**
+	 * Constructs a renderer for a scene, drawing with a backend on a surface.
+	 * Whatever the surface, the renderer is the component to add to a window.
+	 *
+	 * @param scene
+	 *          The scene to draw.
+	 * @param backend
+	 *          The backend to draw with; it must not be shared.
+	 * @param surface
+	 *          What to draw on.
+	 */
+	public Renderer ( Scene scene, RenderBackend backend,
+	                  RenderSurface surface ) {
 
-		// create the drawing panel, with the default OpenGL capabilities
-		super(new GLCapabilities(null));
+		// create the drawing panel, with the capabilities the backend needs
+		super(backend.getCapabilities());
+		if ( surface == null ) {
+			throw new IllegalArgumentException("render surface must not be null");
+		}
 		setPreferredSize(new Dimension(700,700));
 		this.scene = scene;
+		this.backend = backend;
+		recorder = backend instanceof RecordingBackend
+		    ? (RecordingBackend) backend : null;
+
+		// with a native surface, the panel only holds it
+		this.surface = surface;
+		switch ( surface ) {
+		case CANVAS:
+			GLCanvas canvas = new GLCanvas(backend.getCapabilities());
+			drawable = canvas;
+			surfaceComponent = canvas;
+			window = null;
+			break;
+		case NEWT:
+			window = GLWindow.create(backend.getCapabilities());
+			drawable = window;
+			surfaceComponent = new NewtCanvasAWT(window);
+			break;
+		default:
+			drawable = this;
+			surfaceComponent = this;
+			window = null;
+		}
+		if ( surfaceComponent != this ) {
+			setLayout(new BorderLayout());
+			add(surfaceComponent,BorderLayout.CENTER);
+		}
 
-		// specify handlers for events on the panel
-		addGLEventListener(this); // OpenGL events
+		// specify handlers for events on the surface
+		drawable.addGLEventListener(this); // OpenGL events
 		animationRequired = false;
 		frameNumber = 0;
 	}
@@ -69,7 +248,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 * @param gl2
 	 */
 	public void saveTransform () {
-		gl2.glPushMatrix();
+		backend.pushMatrix();
 	}
 
 	/**
@@ -78,7 +257,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 * @param gl2
 	 */
 	public void restoreTransform () {
-		gl2.glPopMatrix();
+		backend.popMatrix();
 	}
 
 	/**
@@ -89,15 +268,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          wireframe, solid) is determined based on the cube's status.
 	 */
 	public void drawCube ( Cube cube ) {
-
-		if ( cube.getStatus().toUpperCase().equals("TEXTURE") ) {
-			TexturedShapes.cube(gl2,cube.getSideLength(),true);
-		} else if ( cube.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireCube(cube.getSideLength());
-		} else {
-			glut.glutSolidCube(cube.getSideLength());
-		}
-
+		backend.drawCube(cube);
 	}
 
 	/**
@@ -108,20 +279,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          wireframe, solid) is determined based on the sphere's status.
 	 */
 	public void drawSphere ( Sphere sphere ) {
-
-		if ( sphere.getStatus().toUpperCase().equals("TEXTURE") ) {
-			GLUquadric shape = glu_.gluNewQuadric();
-			glu_.gluQuadricTexture(shape,true);
-			glu_.gluSphere(shape,sphere.getRadius(),sphere.getSlices(),
-			               sphere.getStacks());
-		} else if ( sphere.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireSphere(sphere.getRadius(),sphere.getSlices(),
-			                    sphere.getStacks());
-		} else {
-			glut.glutSolidSphere(sphere.getRadius(),sphere.getSlices(),
-			                     sphere.getStacks());
-		}
-
+		backend.drawSphere(sphere);
 	}
 
 	/**
@@ -132,19 +290,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          wireframe, solid) is determined based on the cone's status.
 	 */
 	public void drawCone ( Cone cone ) {
-
-		if ( cone.getStatus().toUpperCase().equals("TEXTURE") ) {
-			TexturedShapes.uvCone(gl2,cone.getBase(),cone.getHeight(),
-			                      cone.getSlices(),cone.getStacks(),
-			                      (int) (cone.getSlices() / 2),true);
-		} else if ( cone.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireCone(cone.getBase(),cone.getHeight(),cone.getSlices(),
-			                  cone.getStacks());
-		} else {
-			glut.glutSolidCone(cone.getBase(),cone.getHeight(),cone.getSlices(),
-			                   cone.getStacks());
-		}
-
+		backend.drawCone(cone);
 	}
 
 	/**
@@ -155,18 +301,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          wireframe, solid) is determined based on the torus's status.
 	 */
 	public void drawTorus ( Torus torus ) {
-
-		if ( torus.getStatus().toUpperCase().equals("TEXTURE") ) {
-			TexturedShapes.uvTorus(gl2,torus.getInnerRadius(),torus.getOuterRadius(),
-			                       torus.getSlices(),torus.getStacks() / 2,true);
-		} else if ( torus.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireTorus(torus.getInnerRadius(),torus.getOuterRadius(),
-			                   torus.getSlices(),torus.getStacks());
-		} else {
-			glut.glutSolidTorus(torus.getInnerRadius(),torus.getOuterRadius(),
-			                    torus.getSlices(),torus.getStacks());
-		}
-
+		backend.drawTorus(torus);
 	}
 
 	/**
@@ -177,19 +312,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          wireframe, solid) is determined based on the cylinder's status.
 	 */
 	public void drawCylinder ( Cylinder cylinder ) {
-
-		if ( cylinder.getStatus().toUpperCase().equals("TEXTURE") ) {
-			TexturedShapes.uvCylinder(gl2,cylinder.getRadius(),cylinder.getHeight(),
-			                          cylinder.getSlices(),cylinder.getStacks(),
-			                          (int) (cylinder.getSlices() / 2),true);
-		} else if ( cylinder.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireCylinder(cylinder.getRadius(),cylinder.getHeight(),
-			                      cylinder.getSlices(),cylinder.getStacks());
-		} else {
-			glut.glutSolidCylinder(cylinder.getRadius(),cylinder.getHeight(),
-			                       cylinder.getSlices(),cylinder.getStacks());
-		}
-
+		backend.drawCylinder(cylinder);
 	}
 
 	/**
@@ -200,114 +323,107 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          solid) is determined based on the teapot's status.
 	 */
 	public void drawTeapot ( Teapot teapot ) {
-
-		if ( teapot.getStatus().toUpperCase().equals("WIRE") ) {
-			glut.glutWireCube(teapot.getSideLength());
-		} else {
-			glut.glutSolidCube(teapot.getSideLength());
-		}
-
+		backend.drawTeapot(teapot);
 	}
 
 	/**
-	 * Renders a complex shape as a polyhedron. This private method is used
-	 * internally for rendering complex shapes with detailed faces and edges.
+	 * Renders a complex shape, as a smooth mesh or as a polyhedron with its
+	 * edges outlined depending on the shape's status.
 	 *
 	 * @param cShape
 	 *          The ComplexShape object to render.
 	 */
-	private void drawPolyhedron ( ComplexShape cShape ) {
-
-		// draw faces
-		gl2.glPolygonOffset(1,1);
-		gl2.glLineWidth(1);
-		gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
-		for ( int i = 0 ; i < cShape.faces.length ; i++ ) {
-			gl2.glNormal3dv(cShape.faceNormals[i],0);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-			for ( int j = 0 ; j < cShape.faces[i].length ; j++ ) {
-				if ( cShape.getStatus().toUpperCase().equals("TEXTURE") ) {
-					gl2.glTexCoord2d(cShape.texCoords[i][2 * j],
-					                 cShape.texCoords[i][2 * j + 1]);
-				}
-				int vertexNum = cShape.faces[i][j];
-				double[] vertexCoords = cShape.vertices[vertexNum];
-				gl2.glVertex3dv(vertexCoords,0);
-			}
-			gl2.glEnd();
-		}
+	public void drawComplexShape ( ComplexShape cShape ) {
+		backend.drawComplexShape(cShape);
+	}
 
-		// draw edges
+	/**
+	 * Renders the instances of an instanced shape node, each with its own
+	 * transform applied after the current one. Shapes the backend keeps in GL
+	 * buffers are drawn with one draw call where it can; others are drawn one
+	 * instance at a time by their own draw method.
+	 *
+	 * @param node
+	 *          The node whose instances to render.
+	 */
+	public void drawInstances ( InstancedShapeNode node ) {
+		backend.drawInstances(node,this);
+	}
 
-		gl2.glLineWidth(3);
-		gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
-		gl2.glColor3f(1,1,1);
-		for ( int i = 0 ; i < cShape.faces.length ; i++ ) {
-			gl2.glNormal3dv(cShape.faceNormals[i],0);
-			gl2.glBegin(GL2.GL_LINE_LOOP);
-			for ( int j = 0 ; j < cShape.faces[i].length ; j++ ) {
-				if ( cShape.getStatus().toUpperCase().equals("TEXTURE") ) {
-					gl2.glTexCoord2d(cShape.texCoords[i][2 * j],
-					                 cShape.texCoords[i][2 * j + 1]);
-				}
-				int vertexNum = cShape.faces[i][j]; // Index for vertex j of face i.
-				double[] vertexCoords = cShape.vertices[vertexNum]; // The vertex
-				                                                    // itself.
-				gl2.glVertex3dv(vertexCoords,0);
-			}
-			gl2.glEnd();
-		}
+	/**
+	 * Gets the cache that draws instanced shape nodes, e.g. to turn instanced
+	 * draw calls off.
+	 *
+	 * @return The instance cache, or null if the backend is not the
+	 *         fixed-function one.
+	 */
+	public InstanceCache getInstanceCache () {
+		return backend instanceof FixedFunctionBackend
+		    ? ((FixedFunctionBackend) backend).getInstanceCache() : null;
+	}
 
+	/**
+	 * Gets the backend this renderer draws with.
+	 *
+	 * @return The backend.
+	 */
+	public RenderBackend getBackend () {
+		return backend;
 	}
 
 	/**
-	 * Renders a complex shape using polygon mesh. This private method is used for
-	 * rendering complex shapes with smooth surfaces by utilizing a polygon mesh.
+	 * Gets the kind of surface the renderer draws on.
 	 *
-	 * @param cShape
-	 *          The ComplexShape object to render.
+	 * @return The surface.
 	 */
-	private void drawPolyMesh ( ComplexShape cShape ) {
+	public RenderSurface getSurface () {
+		return surface;
+	}
 
-		gl2.glNormalPointer(GL2.GL_DOUBLE,0,Buffers
-		    .newDirectDoubleBuffer(flatten(cShape.vertexNormals)));
-		gl2.glVertexPointer(3,GL2.GL_DOUBLE,0,Buffers
-		    .newDirectDoubleBuffer(flatten(cShape.vertices)));
-		gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+	/**
+	 * Gets the drawable frames are drawn on: the renderer itself with
+	 * RenderSurface.PANEL, otherwise the GLCanvas or GLWindow it holds.
+	 *
+	 * @return The drawable.
+	 */
+	public GLAutoDrawable getDrawable () {
+		return drawable;
+	}
 
-		if ( cShape.getStatus().toUpperCase().equals("TEXTURE") ) {
-			gl2.glTexCoordPointer(2,GL2.GL_DOUBLE,0,Buffers
-			    .newDirectDoubleBuffer(flatten(cShape.texCoords)));
-			gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+	/**
+	 * Paints the panel. With a native surface the panel only holds it, so
+	 * nothing is drawn offscreen and read back. The panel's own offscreen
+	 * drawable and GL context are only created when it first paints, so they
+	 * are never created at all.
+	 */
+	protected void paintComponent ( Graphics g ) {
+		if ( drawable == this ) {
+			super.paintComponent(g);
 		}
+	}
 
-		gl2.glLineWidth(2);
-		gl2.glPolygonOffset(1,1);
-		gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
-
-		for ( int i = 0 ; i < cShape.faces.length ; i++ ) {
-			gl2.glDrawElements(GL2.GL_TRIANGLE_FAN,cShape.faces[i].length,
-			                   GL2.GL_UNSIGNED_INT,
-			                   Buffers.newDirectIntBuffer(cShape.faces[i]));
+	/**
+	 * Draws a frame on the surface. With a native surface, this draws on the
+	 * GLCanvas or GLWindow: the panel never has a GL context of its own, so
+	 * the GL methods it inherits from GLJPanel, e.g. getContext or invoke,
+	 * must be called on getDrawable() instead.
+	 */
+	public void display () {
+		if ( drawable == this ) {
+			super.display();
+		} else {
+			drawable.display();
 		}
-		gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
-
 	}
 
 	/**
-	 * Renders a complex shape. This method determines the rendering style (smooth
-	 * mesh or polyhedron) based on the shape's status and delegates to the
-	 * appropriate private method for actual rendering.
-	 *
-	 * @param cShape
-	 *          The ComplexShape object to render.
+	 * Releases the drawing surface as the panel leaves its window. A GLJPanel or
+	 * GLCanvas does so itself, but a NEWT window is only detached.
 	 */
-	public void drawComplexShape ( ComplexShape cShape ) {
-		if ( cShape.getStatus().toUpperCase().equals("SMOOTH") ) {
-			drawPolyMesh(cShape);
-		} else {
-			drawPolyhedron(cShape);
+	public void removeNotify () {
+		super.removeNotify();
+		if ( window != null ) {
+			window.destroy();
 		}
 	}
 
@@ -321,16 +437,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The material object containing properties to be applied.
 	 */
 	public void applyMaterial ( Material material ) {
-		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_AMBIENT,material.getAmbient(),
-		                 0);
-		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_DIFFUSE,material.getDiffuse(),
-		                 0);
-		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_SPECULAR,
-		                 material.getSpecular(),0);
-		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_EMISSION,
-		                 material.getEmissive(),0);
-		gl2.glMaterialf(GL2.GL_FRONT_AND_BACK,GL2.GL_SHININESS,
-		                material.getShininess());
+		backend.applyMaterial(material);
 	}
 
 	/**
@@ -342,14 +449,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The point light object with its configuration.
 	 */
 	public void applyPointLight ( PointLight pLight ) {
-		float[] pos = { pLight.getPosition()[0], pLight.getPosition()[1],
-		                pLight.getPosition()[2], 1 };
-		gl2.glLightfv(pLight.getLightId(),GL2.GL_AMBIENT,pLight.getAmbient(),0);
-		gl2.glLightfv(pLight.getLightId(),GL2.GL_DIFFUSE,pLight.getDiffuse(),0);
-		gl2.glLightfv(pLight.getLightId(),GL2.GL_SPECULAR,pLight.getSpecular(),0);
-		gl2.glLightfv(pLight.getLightId(),GL2.GL_POSITION,pos,0);
-
-		gl2.glEnable(pLight.getLightId());
+		backend.applyPointLight(pLight);
 	}
 
 	/**
@@ -362,14 +462,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The directional light object with its configuration.
 	 */
 	public void applyDirectionalLight ( DirectionalLight dLight ) {
-		float[] pos = { dLight.getPosition()[0], dLight.getPosition()[1],
-		                dLight.getPosition()[2], 0 };
-		gl2.glLightfv(dLight.getLightId(),GL2.GL_AMBIENT,dLight.getAmbient(),0);
-		gl2.glLightfv(dLight.getLightId(),GL2.GL_DIFFUSE,dLight.getDiffuse(),0);
-		gl2.glLightfv(dLight.getLightId(),GL2.GL_SPECULAR,dLight.getSpecular(),0);
-		gl2.glLightfv(dLight.getLightId(),GL2.GL_POSITION,pos,0);
-
-		gl2.glEnable(dLight.getLightId());
+		backend.applyDirectionalLight(dLight);
 	}
 
 	/**
@@ -382,38 +475,66 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The spot light object with its configuration.
 	 */
 	public void applySpotLight ( SpotLight sLight ) {
-		float[] pos = { sLight.getPosition()[0], sLight.getPosition()[1],
-		                sLight.getPosition()[2], 0 };
-		gl2.glLightfv(sLight.getLightId(),GL2.GL_AMBIENT,sLight.getAmbient(),0);
-		gl2.glLightfv(sLight.getLightId(),GL2.GL_DIFFUSE,sLight.getDiffuse(),0);
-		gl2.glLightfv(sLight.getLightId(),GL2.GL_SPECULAR,sLight.getSpecular(),0);
-		gl2.glLightfv(sLight.getLightId(),GL2.GL_POSITION,pos,0);
-		gl2.glLightfv(sLight.getLightId(),GL2.GL_SPOT_DIRECTION,
-		              sLight.getDirection(),0);
-		gl2.glLightf(sLight.getLightId(),GL2.GL_SPOT_CUTOFF,sLight.getCutoff());
-		gl2.glLightf(sLight.getLightId(),GL2.GL_SPOT_EXPONENT,sLight.getExponent());
+		backend.applySpotLight(sLight);
+	}
 
-		gl2.glEnable(sLight.getLightId());
+	/**
+	 * Gets the shadow copy of GL state used to skip redundant material, light
+	 * and matrix mode calls, e.g. to read how many calls were issued and elided.
+	 * Code that changes that state by calling GL directly should call its
+	 * reset() method afterwards.
+	 *
+	 * @return The state cache, or null if the backend is not the
+	 *         fixed-function one.
+	 */
+	public GLStateCache getStateCache () {
+		return backend instanceof FixedFunctionBackend
+		    ? ((FixedFunctionBackend) backend).getStateCache() : null;
 	}
 
 	/**
-	 * Applies a texture to the current rendering context. This method loads a
-	 * texture from a file and binds it to the current context, setting texture
-	 * parameters such as wrap mode.
+	 * Applies a texture to the current rendering context. The texture is loaded
+	 * from its file the first time it is used and is then kept in the
+	 * renderer's texture cache, so later frames only bind it.
 	 *
 	 * @param texture
 	 *          The texture object containing the texture's file name.
 	 */
 	public void applyTexture ( Tex texture ) {
-		try {
-			Texture tex = TextureIO.newTexture(new File(texture.getFileName()),false);
-			tex.setTexParameteri(gl2,GL2.GL_TEXTURE_WRAP_S,GL2.GL_REPEAT);
-			tex.setTexParameteri(gl2,GL2.GL_TEXTURE_WRAP_T,GL2.GL_REPEAT);
-			tex.enable(gl2);
-			tex.bind(gl2);
-		} catch ( Exception e ) {
-			e.printStackTrace();
-		}
+		textureBinds++;
+		backend.applyTexture(texture);
+	}
+
+	/**
+	 * Gets the cache holding the textures loaded by this renderer.
+	 *
+	 * @return The texture cache.
+	 */
+	public TextureCache getTextureCache () {
+		return backend.getTextureCache();
+	}
+
+	/**
+	 * Sets the GPU memory budget for cached textures. When it is exceeded, the
+	 * least recently used textures are released.
+	 *
+	 * @param bytes
+	 *          The budget in bytes.
+	 */
+	public void setTextureMemoryBudget ( long bytes ) {
+		backend.getTextureCache().setBudget(bytes);
+	}
+
+	/**
+	 * Sets how many tessellated primitive parameter sets (for example a sphere
+	 * of a given radius, slices and stacks) are kept in GL buffers before the
+	 * least recently drawn ones are released.
+	 *
+	 * @param capacity
+	 *          The maximum number of cached primitives.
+	 */
+	public void setPrimitiveCacheCapacity ( int capacity ) {
+		backend.setPrimitiveCacheCapacity(capacity);
 	}
 
 	/**
@@ -428,74 +549,81 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	public void applyCamera ( Camera camera ) {
 		camera_ = camera;
 		installTrackball();
-		int[] viewport = new int[4];
-		gl2.glGetIntegerv(GL2.GL_VIEWPORT,viewport,0);
-		camera.xminActual = camera.getLimits()[0];
-		camera.xmaxActual = camera.getLimits()[1];
-		camera.yminActual = camera.getLimits()[2];
-		camera.ymaxActual = camera.getLimits()[3];
+		int[] viewport = cameraViewport;
+		backend.getViewport(viewport);
+		double[] v = cameraVolume;
+		if ( projection(camera,viewport,cameraLimits,v) ) {
+			Mat4.ortho(cameraMatrix,0,v);
+			frustum.setOrthographic(v[0],v[1],v[2],v[3],v[4],v[5]);
+		} else {
+			Mat4.frustum(cameraMatrix,0,v);
+			frustum.setPerspective(v[0],v[1],v[2],v[3],v[4],v[5]);
+		}
+		backend.setProjection(cameraMatrix,0);
+		Mat4.lookAt(cameraMatrix,0,camera.getViewParameters(cameraView));
+		backend.loadMatrix(cameraMatrix,0);
+	}
+
+	/**
+	 * Works out a camera's actual window for a viewport, widening it to preserve
+	 * the aspect ratio if the camera asks for that, and the view volume to pass
+	 * to glOrtho or glFrustum.
+	 * 
+	 * @param limits
+	 *          Scratch space for the camera's limits.
+	 * @param volume
+	 *          Receives left, right, bottom, top, near and far.
+	 * @return true if the projection is orthographic.
+	 */
+	private static boolean projection ( Camera camera, int[] viewport,
+	                                    double[] limits, double[] volume ) {
+		camera.getLimits(limits);
+		camera.xminActual = limits[0];
+		camera.xmaxActual = limits[1];
+		camera.yminActual = limits[2];
+		camera.ymaxActual = limits[3];
 		if ( camera.getPreserveAspect() ) {
 			double viewWidth = viewport[2];
 			double viewHeight = viewport[3];
-			double windowWidth =
-			    camera.getActualXYLimits()[1] - camera.getActualXYLimits()[0];
-			double windowHeight =
-			    camera.getActualXYLimits()[3] - camera.getActualXYLimits()[2];
+			double windowWidth = camera.xmaxActual - camera.xminActual;
+			double windowHeight = camera.ymaxActual - camera.yminActual;
 			double aspect = viewHeight / viewWidth;
 			double desired = windowHeight / windowWidth;
 			if ( desired > aspect ) { // expand width
-				double extra = (desired / aspect - 1.0)
-				    * (camera.getActualXYLimits()[1] - camera.getActualXYLimits()[0])
-				    / 2.0;
+				double extra = (desired / aspect - 1.0) * windowWidth / 2.0;
 				camera.xminActual -= extra;
 				camera.xmaxActual += extra;
 			} else if ( aspect > desired ) {
-				double extra = (aspect / desired - 1.0)
-				    * (camera.getActualXYLimits()[3] - camera.getActualXYLimits()[2])
-				    / 2.0;
+				double extra = (aspect / desired - 1.0) * windowHeight / 2.0;
 				camera.yminActual -= extra;
 				camera.ymaxActual += extra;
 			}
 		}
-		gl2.glMatrixMode(GL2.GL_PROJECTION);
-		gl2.glLoadIdentity();
-		double viewDistance =
-		    camera.norm(new double[] {
-		                               camera.getViewParameters()[3]
-		                                   - camera.getViewParameters()[0],
-		                               camera.getViewParameters()[4]
-		                                   - camera.getViewParameters()[1],
-		                               camera.getViewParameters()[5]
-		                                   - camera.getViewParameters()[2] });
+		double viewDistance = camera.getViewDistance();
 		if ( camera.getOrthographic() ) {
-			gl2.glOrtho(camera.getActualXYLimits()[0],camera.getActualXYLimits()[1],
-			            camera.getActualXYLimits()[2],camera.getActualXYLimits()[3],
-			            viewDistance - camera.getLimits()[5],
-			            viewDistance - camera.getLimits()[4]);
-		} else {
-			double near = viewDistance - camera.getLimits()[5];
-			if ( near < 0.1 ) near = 0.1;
-			double centerx =
-			    (camera.getActualXYLimits()[0] + camera.getActualXYLimits()[1]) / 2;
-			double centery =
-			    (camera.getActualXYLimits()[2] + camera.getActualXYLimits()[3]) / 2;
-			double newwidth = (near / viewDistance)
-			    * (camera.getActualXYLimits()[1] - camera.getActualXYLimits()[0]);
-			double newheight = (near / viewDistance)
-			    * (camera.getActualXYLimits()[3] - camera.getActualXYLimits()[2]);
-			double x1 = centerx - newwidth / 2;
-			double x2 = centerx + newwidth / 2;
-			double y1 = centery - newheight / 2;
-			double y2 = centery + newheight / 2;
-			gl2.glFrustum(x1,x2,y1,y2,near,viewDistance - camera.getLimits()[4]);
-		}
-		gl2.glMatrixMode(GL2.GL_MODELVIEW);
-		gl2.glLoadIdentity();
-		glu_.gluLookAt(camera.getViewParameters()[0],camera.getViewParameters()[1],
-		               camera.getViewParameters()[2],camera.getViewParameters()[3],
-		               camera.getViewParameters()[4],camera.getViewParameters()[5],
-		               camera.getViewParameters()[6],camera.getViewParameters()[7],
-		               camera.getViewParameters()[8]);
+			volume[0] = camera.xminActual;
+			volume[1] = camera.xmaxActual;
+			volume[2] = camera.yminActual;
+			volume[3] = camera.ymaxActual;
+			volume[4] = viewDistance - limits[5];
+			volume[5] = viewDistance - limits[4];
+			return true;
+		}
+		double near = viewDistance - limits[5];
+		if ( near < 0.1 ) near = 0.1;
+		double centerx = (camera.xminActual + camera.xmaxActual) / 2;
+		double centery = (camera.yminActual + camera.ymaxActual) / 2;
+		double newwidth =
+		    (near / viewDistance) * (camera.xmaxActual - camera.xminActual);
+		double newheight =
+		    (near / viewDistance) * (camera.ymaxActual - camera.yminActual);
+		volume[0] = centerx - newwidth / 2;
+		volume[1] = centerx + newwidth / 2;
+		volume[2] = centery - newheight / 2;
+		volume[3] = centery + newheight / 2;
+		volume[4] = near;
+		volume[5] = viewDistance - limits[4];
+		return false;
 	}
 
 	/**
@@ -506,26 +634,21 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 * the viewing and projection transformations. The camera words by modifying
 	 * the camera's viewing parameters.
 	 * 
-	 * @param c
-	 *          The OpenGL drawing surface where the trackball will be installed.
-	 *          This is probably a GLJPanel or GLCanvas. Passing a null as the
-	 *          parameter will remove the trackball from the component (if it has
-	 *          been installed there).
+	 * The trackball is installed on the renderer's drawing surface: the panel
+	 * itself, its GLCanvas, or its NEWT window, whose mouse events do not go
+	 * through AWT.
 	 */
 	public void installTrackball () {
-		if ( trackballComponent != null && trackballComponent != this ) {
-			trackballComponent.removeMouseListener(trackball);
-		}
-		if ( trackballComponent == this ) {
+		if ( trackball != null ) {
 			return;
 		}
-		trackballComponent = this;
-		if ( trackballComponent == null ) {
+		trackball = new TrackballMouser();
+		if ( window != null ) {
+			// NEWT input does not go through AWT
+			window.addMouseListener(trackball);
 			return;
 		}
-		if ( trackball == null ) {
-			trackball = new TrackballMouser();
-		}
+		trackballComponent = surfaceComponent;
 		trackballComponent.addMouseListener(trackball);
 	}
 
@@ -537,16 +660,14 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The Translation object containing the translation parameters.
 	 */
 	public void translate ( Translation t ) {
-		if ( t.getTex() ) {
-			gl2.glMatrixMode(GL2.GL_TEXTURE);
-			gl2.glLoadIdentity();
-			gl2.glTranslatef(t.getX(),t.getY(),t.getZ());
-
-			gl2.glMatrixMode(GL2.GL_MODELVIEW);
-		} else {
-			gl2.glTranslatef(t.getX(),t.getY(),t.getZ());
-		}
+		translate(t.getX(),t.getY(),t.getZ(),t.getTex());
+	}
 
+	private void translate ( float x, float y, float z, boolean tex ) {
+		float[] m = transformMatrix;
+		Mat4.identity(m,0);
+		Mat4.translate(m,0,x,y,z);
+		apply(m,0,tex);
 	}
 
 	/**
@@ -557,16 +678,14 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The Rotation object containing the rotation parameters.
 	 */
 	public void rotate ( Rotation r ) {
-		if ( r.getTex() ) {
-			gl2.glMatrixMode(GL2.GL_TEXTURE);
-			gl2.glLoadIdentity();
-			gl2.glRotatef(r.getAngle(),r.getX(),r.getY(),r.getZ());
-
-			gl2.glMatrixMode(GL2.GL_MODELVIEW);
-		} else {
-			gl2.glRotatef(r.getAngle(),r.getX(),r.getY(),r.getZ());
-		}
+		rotate(r.getAngle(),r.getX(),r.getY(),r.getZ(),r.getTex());
+	}
 
+	private void rotate ( float angle, float x, float y, float z, boolean tex ) {
+		float[] m = transformMatrix;
+		Mat4.identity(m,0);
+		Mat4.rotate(m,0,angle,x,y,z);
+		apply(m,0,tex);
 	}
 
 	/**
@@ -577,129 +696,971 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 *          The Scale object containing the scaling parameters.
 	 */
 	public void scale ( Scale s ) {
-		if ( s.getTex() ) {
-			gl2.glMatrixMode(GL2.GL_TEXTURE);
-			gl2.glLoadIdentity();
-			gl2.glScalef(s.getX(),s.getY(),s.getZ());
-
-			gl2.glMatrixMode(GL2.GL_MODELVIEW);
-		} else {
-			gl2.glScalef(s.getX(),s.getY(),s.getZ());
-		}
+		scale(s.getX(),s.getY(),s.getZ(),s.getTex());
+	}
 
+	private void scale ( float x, float y, float z, boolean tex ) {
+		float[] m = transformMatrix;
+		Mat4.identity(m,0);
+		Mat4.scale(m,0,x,y,z);
+		apply(m,0,tex);
 	}
 
 	/**
-	 * Performs an animated translation over time. This method calculates new
-	 * positions based on the frame number and applies a translation.
+	 * Performs an animated translation, with the offset for the animation
+	 * clock's current tick.
 	 * 
 	 * @param t
 	 *          The AnimatedTranslation object with the translation parameters.
 	 */
 	public void animateTranslate ( AnimatedTranslation t ) {
 		animationRequired = true;
-		float newX = 0;
-		float newY = 0;
-		float newZ = 0;
-		float smallest = Math.min(Math.min(t.getX(),t.getY()),t.getZ());
-		if ( t.getX() > 0 ) {
-			newX = (frameNumber * (t.getX() / smallest)) % t.getX();
-		} else if ( t.getX() < 0 ) {
-			newX = (-frameNumber * (t.getX() / smallest)) % t.getX();
+		long tick = clock.getTick();
+		translate(t.getXAt(tick),t.getYAt(tick),t.getZAt(tick),t.getTex());
+	}
+
+	/**
+	 * Performs an animated rotation, with the angle for the animation clock's
+	 * current tick.
+	 * 
+	 * @param r
+	 *          The AnimatedRotation object with the rotation parameters.
+	 */
+	public void animateRotate ( AnimatedRotation r ) {
+		animationRequired = true;
+		rotate(r.getAngleAt(clock.getTick()),r.getX(),r.getY(),r.getZ(),
+		       r.getTex());
+	}
+
+	/**
+	 * Performs an animated scaling, with the factors for the animation clock's
+	 * current tick.
+	 * 
+	 * @param s
+	 *          The AnimatedScale object with the scaling parameters.
+	 */
+	public void animateScale ( AnimatedScale s ) {
+		animationRequired = true;
+		long tick = clock.getTick();
+		scale(s.getXAt(tick),s.getYAt(tick),s.getZAt(tick),s.getTex());
+	}
+
+	/**
+	 * Performs a keyframe-animated transform, with its matrix for the animation
+	 * clock's current tick. When the transform is drawn from the command buffer
+	 * its animation has already been evaluated for the tick, and this only
+	 * reads the matrix.
+	 * 
+	 * @param t
+	 *          The KeyframeTransform.
+	 */
+	public void animateKeyframes ( KeyframeTransform t ) {
+		animationRequired = true;
+		KeyframeAnimation animation = t.getAnimation();
+		Phase previous = enter(Phase.ANIMATION);
+		animation.evaluateAt(clock.getTick());
+		leave(previous);
+		apply(animation.getMatrices(),16 * t.getIndex(),t.getTex());
+	}
+
+	/**
+	 * Sends a transform's matrix to the backend: multiplied onto the modelview
+	 * matrix, or for a texture transform, replacing the texture matrix.
+	 */
+	private void apply ( float[] m, int offset, boolean tex ) {
+		if ( tex ) {
+			backend.loadTextureMatrix(m,offset);
+		} else {
+			backend.multMatrix(m,offset);
 		}
+	}
+
+	/**
+	 * Sets up the initial state for the renderer. This includes enabling depth
+	 * testing, normalization, lighting, and setting up a light source.
+	 */
+	public void setup () {
+		backend.setup(gl);
+	}
 
-		if ( t.getY() > 0 ) {
-			newY = (frameNumber * (t.getY() / smallest)) % t.getY();
-		} else if ( t.getY() < 0 ) {
-			newY = (frameNumber * (t.getY() / smallest)) % t.getY();
+	/**
+	 * Triggers the rendering process of the scene. This method should be called
+	 * to start the drawing process. The scene is drawn from its compiled command
+	 * buffer, which is only rebuilt when the structure of the graph changes.
+	 */
+	public void draw () {
+		frustum.invalidate(); // until the scene's camera is applied
+		culledGroups = 0;
+		if ( recorder != null ) {
+			staticCache.nextFrame(recorder);
 		}
+		Phase previous = enter(Phase.COMPILE);
+		CommandBuffer commands = scene.getCommands();
+		enter(Phase.ANIMATION);
+		evaluateAnimations(commands);
+		updated = parallelUpdate;
+		if ( updated ) {
+			enter(Phase.UPDATE);
+			update(commands);
+		}
+		enter(Phase.TRAVERSAL);
+		if ( sortedRendering ) {
+			executeSorted(commands);
+		} else {
+			execute(commands);
+		}
+		leave(previous);
+	}
 
-		if ( t.getZ() > 0 ) {
-			newZ = (frameNumber * (t.getZ() / smallest)) % t.getZ();
-		} else if ( t.getZ() < 0 ) {
-			newZ = (frameNumber * (t.getZ() / smallest)) % t.getZ();
+	/**
+	 * Evaluates each keyframe animation of the command buffer at the clock's
+	 * tick, once, so that its transforms only read their matrices, whether on
+	 * update threads or here.
+	 */
+	private void evaluateAnimations ( CommandBuffer commands ) {
+		KeyframeAnimation[] animations = commands.getAnimations();
+		long tick = clock.getTick();
+		for ( int i = 0 ; i < commands.getAnimationCount() ; i++ ) {
+			animations[i].evaluateAt(tick);
 		}
+	}
 
-		translate(new Translation(newX,newY,newZ,t.getTex()));
+	/**
+	 * Turns sorted rendering on or off. When it is on, shapes are queued with
+	 * the material, texture and transformation in effect where they appear in
+	 * the scene graph, and drawn grouped by material and texture to reduce GL
+	 * state changes. Lights, cameras, texture transformations and custom nodes
+	 * or shapes are drawn in graph order, with the queued shapes before them
+	 * drawn first.
+	 * 
+	 * @param sorted
+	 *          true to sort shapes before drawing them.
+	 */
+	public void setSortedRendering ( boolean sorted ) {
+		sortedRendering = sorted;
+	}
 
+	/**
+	 * Tells whether sorted rendering is on.
+	 * 
+	 * @return true if shapes are sorted before being drawn.
+	 */
+	public boolean isSortedRendering () {
+		return sortedRendering;
 	}
 
 	/**
-	 * Performs an animated rotation over time. This method calculates new
-	 * rotation angles based on the frame number and applies a rotation.
+	 * Turns frustum culling on or off. When it is on, subtrees whose bounds lie
+	 * entirely outside the camera's view volume are skipped, except that the
+	 * last material, texture and texture transformation in a skipped subtree
+	 * are still applied, since they remain in effect after it.
 	 * 
-	 * @param r
-	 *          The AnimatedRotation object with the rotation parameters.
+	 * @param culling
+	 *          true to skip subtrees that cannot be seen.
 	 */
-	public void animateRotate ( AnimatedRotation r ) {
-		animationRequired = true;
-		float newAngle = 0;
-		if ( r.getAngle() > 0 ) {
-			newAngle = (frameNumber) % r.getAngle();
-		} else if ( r.getAngle() < 0 ) {
-			newAngle = -(frameNumber) % r.getAngle();
+	public void setFrustumCulling ( boolean culling ) {
+		frustumCulling = culling;
+	}
+
+	/**
+	 * Tells whether frustum culling is on.
+	 * 
+	 * @return true if invisible subtrees are skipped.
+	 */
+	public boolean isFrustumCulling () {
+		return frustumCulling;
+	}
+
+	/**
+	 * Turns the update phase on or off. When it is on, the world matrices,
+	 * bounds and visibility of the scene's groups are worked out before the
+	 * scene is drawn, with large scenes divided among the threads of the common
+	 * fork/join pool, and the GL thread only submits. When it is off, the GL
+	 * thread works them out as it draws. The phase is on by default.
+	 * 
+	 * @param parallel
+	 *          true to run the update phase.
+	 */
+	public void setParallelUpdate ( boolean parallel ) {
+		parallelUpdate = parallel;
+	}
+
+	/**
+	 * Tells whether the update phase is run before drawing.
+	 * 
+	 * @return true if the update phase is on.
+	 */
+	public boolean isParallelUpdate () {
+		return parallelUpdate;
+	}
+
+	/**
+	 * Runs the update phase on a command buffer, after working out the view and
+	 * view volume of each of its cameras, as applyCamera will set them.
+	 */
+	private void update ( CommandBuffer commands ) {
+		float[] views = null;
+		if ( frustumCulling ) {
+			int count = commands.getCameraCount();
+			if ( updateFrusta.length < count ) {
+				updateFrusta = Arrays.copyOf(updateFrusta,count);
+				updateViews = new float[16 * count];
+			}
+			if ( count > 0 ) {
+				backend.getViewport(cameraViewport);
+			}
+			int[] cameras = commands.getCameras();
+			Object[] operands = commands.getOperands();
+			for ( int c = 0 ; c < count ; c++ ) {
+				Camera camera = (Camera) operands[cameras[c]];
+				double[] v = cameraVolume;
+				if ( updateFrusta[c] == null ) {
+					updateFrusta[c] = new Frustum();
+				}
+				if ( projection(camera,cameraViewport,cameraLimits,v) ) {
+					updateFrusta[c].setOrthographic(v[0],v[1],v[2],v[3],v[4],v[5]);
+				} else {
+					updateFrusta[c].setPerspective(v[0],v[1],v[2],v[3],v[4],v[5]);
+				}
+				Mat4.lookAt(updateViews,16 * c,camera.getViewParameters(cameraView));
+			}
+			views = updateViews;
 		}
+		updatePhase.update(commands,clock.getTick(),views,updateFrusta);
+	}
 
-		rotate(new Rotation(newAngle,r.getX(),r.getY(),r.getZ(),r.getTex()));
+	/**
+	 * Gets the clock animated transforms are evaluated against. It is advanced
+	 * by real time at the start of each frame unless it is paused; pause it
+	 * and seek() to draw a particular moment of the animation.
+	 *
+	 * @return The animation clock.
+	 */
+	public AnimationClock getAnimationClock () {
+		return clock;
+	}
+
+	/**
+	 * Gets the profiler that records where this renderer's frame time goes. It
+	 * is disabled until setEnabled(true) is called on it.
+	 *
+	 * @return The frame profiler.
+	 */
+	public FrameProfiler getProfiler () {
+		return profiler;
+	}
 
+	/**
+	 * Switches the profiler to a phase if the frame is being profiled.
+	 *
+	 * @return The phase left, for leave(), or null if not profiling.
+	 */
+	private Phase enter ( Phase phase ) {
+		return profiling ? profiler.enter(phase) : null;
 	}
 
 	/**
-	 * Performs an animated scaling over time. This method calculates new scaling
-	 * factors based on the frame number and applies a scaling.
+	 * Switches the profiler back to the phase enter() left.
+	 */
+	private void leave ( Phase previous ) {
+		if ( profiling ) {
+			profiler.enter(previous);
+		}
+	}
+
+	/**
+	 * Gets the number of subtrees skipped by frustum culling in the last frame.
 	 * 
-	 * @param s
-	 *          The AnimatedScale object with the scaling parameters.
+	 * @return The number of culled subtrees.
 	 */
-	public void animateScale ( AnimatedScale s ) {
-		animationRequired = true;
-		float newX = 1;
-		float newY = 1;
-		float newZ = 1;
-		float smallest = Math.min(Math.min(s.getX(),s.getY()),s.getZ());
-		if ( s.getX() != 0 ) {
-			newX = (frameNumber * (s.getX() / smallest)) % s.getX() + 1;
-		} else if ( s.getX() < 0 ) {
-			newX = (frameNumber * (s.getX() / smallest)) % s.getX() + 1;
+	public int getCulledGroups () {
+		return culledGroups;
+	}
+
+	/**
+	 * Gets the render queue used for sorted rendering, e.g. to read how many
+	 * state changes the last frame saved.
+	 * 
+	 * @return The render queue.
+	 */
+	public RenderQueue getRenderQueue () {
+		return renderQueue;
+	}
+
+	/**
+	 * Sets how many frames a group must go unchanged before it is drawn as if
+	 * it were marked static: recorded into a display list once and replayed
+	 * after that. Only groups that could be marked static are promoted; see
+	 * PartialScene.setStatic.
+	 * 
+	 * @param frames
+	 *          The number of frames, or 0 to only record groups marked static.
+	 */
+	public void setAutoStatic ( int frames ) {
+		if ( frames < 0 ) {
+			throw new IllegalArgumentException("frames must not be negative: "
+			    + frames);
 		}
+		autoStatic = frames;
+	}
+
+	/**
+	 * Gets how many frames a group must go unchanged before it is recorded.
+	 * 
+	 * @return The number of frames, or 0 if groups are only recorded when they
+	 *         are marked static.
+	 */
+	public int getAutoStatic () {
+		return autoStatic;
+	}
 
-		if ( s.getY() != 0 ) {
-			newY = (frameNumber * (s.getY() / smallest)) % s.getY() + 1;
-		} else if ( s.getY() < 0 ) {
-			newY = (frameNumber * (s.getY() / smallest)) % s.getY() + 1;
+	/**
+	 * Gets the cache of static group recordings, e.g. to read how often they
+	 * were replayed.
+	 * 
+	 * @return The static group cache.
+	 */
+	public StaticGroupCache getStaticGroupCache () {
+		return staticCache;
+	}
+
+	/**
+	 * Executes a compiled command buffer. This does the same work as drawing the
+	 * scene graph node by node, but in a single loop over flat arrays.
+	 * 
+	 * Transforms are not sent to GL. Instead, the matrix after each one is
+	 * computed on the CPU and kept with the command buffer, and shapes and
+	 * lights are drawn after loading their matrix into the backend. A cached
+	 * matrix is only recomputed when its transform has changed, when it is
+	 * animated and the animation clock has ticked, or when a transform before
+	 * it has been recomputed, so static parts of the
+	 * scene cost no matrix work, and nesting is not limited by the depth of the
+	 * GL matrix stack.
+	 * 
+	 * Groups marked static, and with auto-static on groups that have gone
+	 * unchanged long enough, are recorded the first time they are drawn (into a
+	 * display list by the fixed-function backend) and replayed with one call
+	 * after that. Backends that cannot record draw them as usual.
+	 * 
+	 * @param commands
+	 *          The commands to execute.
+	 */
+	public void execute ( CommandBuffer commands ) {
+		run(commands,false);
+	}
+
+	/**
+	 * Executes a compiled command buffer in sorted rendering mode. Shapes are
+	 * queued with their matrices and the queue is sorted and drawn whenever a
+	 * command that must run in graph order is reached, and at the end.
+	 * Material or texture changes made by custom nodes or shapes are not seen
+	 * by the queue.
+	 * 
+	 * @param commands
+	 *          The commands to execute.
+	 */
+	public void executeSorted ( CommandBuffer commands ) {
+		run(commands,true);
+	}
+
+	private void run ( CommandBuffer commands, boolean sorted ) {
+		int[] ops = commands.getOps();
+		Object[] operands = commands.getOperands();
+		int[] args = commands.getArgs();
+		int size = commands.size();
+		int[] versions = commands.getWorldVersions();
+		long[] ticks = commands.getWorldTicks();
+		byte[] visibility = commands.getVisibility();
+		world = commands.getWorldMatrices();
+		worldVersions = versions;
+
+		// the matrix in effect before the scene is the first view
+		viewCount = 0;
+		addView();
+		curOffset = 16 * size; // the identity
+		curView = 0;
+		curDirty = false;
+		depth = 0;
+		loadedOffset = -1;
+		if ( sorted ) {
+			renderQueue.begin();
+			submittedMaterial = null;
+			submittedTexture = null;
+		}
+		// whether shapes are queued; not while a group is being recorded
+		boolean queue = sorted;
+
+		for ( int i = 0 ; i < size ; i++ ) {
+			int op = ops[i];
+			Object operand = operands[i];
+			switch ( op ) {
+			case CommandBuffer.PUSH:
+				// a recording must hold the whole group, whatever is in view
+				int list = 0;
+				if ( recordEnd < 0 && frustumCulling && (updated
+				    && visibility[i] != CommandBuffer.UNDETERMINED
+				        ? visibility[i] == CommandBuffer.CULLED
+				        : isCulled((PartialScene) operand)) ) {
+					skipGroup(ops,operands,i,args[i],sorted);
+					i = args[i];
+				} else if ( recordEnd < 0 && (list = staticList(commands,i)) > 0 ) {
+					replay(commands,i,list,sorted);
+					i = args[i];
+				} else {
+					pushLevel();
+					if ( timingSubtrees ) {
+						levelGroup[depth - 1] = (PartialScene) operand;
+						levelStart[depth - 1] = System.nanoTime();
+					}
+					if ( list < 0 ) {
+						startRecording(commands,i,-list,sorted);
+						queue = false;
+					}
+				}
+				break;
+			case CommandBuffer.POP:
+				depth--;
+				if ( timingSubtrees ) {
+					profiler.subtree(levelGroup[depth],depth,
+					                 System.nanoTime() - levelStart[depth]);
+					levelGroup[depth] = null;
+				}
+				curOffset = levelOffset[depth];
+				curView = levelView[depth];
+				curDirty = levelDirty[depth];
+				if ( i == recordEnd ) {
+					finishRecording(commands,sorted);
+					queue = sorted;
+				}
+				break;
+			case CommandBuffer.TRANSLATE:
+			case CommandBuffer.ROTATE:
+			case CommandBuffer.SCALE:
+				transform(i,(Transform) operand,versions,null,queue);
+				break;
+			case CommandBuffer.ANIMATED_TRANSLATE:
+			case CommandBuffer.ANIMATED_ROTATE:
+			case CommandBuffer.ANIMATED_SCALE:
+			case CommandBuffer.KEYFRAME:
+				transform(i,(Transform) operand,versions,ticks,queue);
+				break;
+			case CommandBuffer.MATERIAL:
+				if ( queue ) {
+					renderQueue.setMaterial((Material) operand);
+				} else {
+					executeOp(op,operand);
+				}
+				break;
+			case CommandBuffer.TEXTURE:
+				if ( queue ) {
+					renderQueue.setTexture((TextureNode) operand);
+				} else {
+					executeOp(op,operand);
+				}
+				break;
+			case CommandBuffer.CUBE:
+			case CommandBuffer.SPHERE:
+			case CommandBuffer.CONE:
+			case CommandBuffer.TORUS:
+			case CommandBuffer.CYLINDER:
+			case CommandBuffer.TEAPOT:
+			case CommandBuffer.COMPLEX_SHAPE:
+			case CommandBuffer.INSTANCES:
+				if ( queue ) {
+					renderQueue.add(op,operand,modelview());
+				} else {
+					loadModelview();
+					executeOp(op,operand);
+				}
+				break;
+			case CommandBuffer.CAMERA:
+				if ( sorted ) {
+					flushQueue();
+				}
+				executeOp(op,operand); // loads the view matrix
+				addView();
+				curView = viewCount - 1;
+				curOffset = 16 * size;
+				curDirty = false; // later matrices are relative to the identity again
+				loadedOffset = curOffset;
+				loadedView = curView;
+				break;
+			case CommandBuffer.TRANSFORM:
+			case CommandBuffer.NODE:
+				// custom code may change the matrix in ways only GL knows, so its
+				// result is read back and used as a complete modelview matrix
+				if ( sorted ) {
+					flushQueue();
+					submittedMaterial = null;
+					submittedTexture = null;
+				}
+				loadModelview();
+				executeOp(op,operand);
+				backend.getMatrix(world,16 * i);
+				curOffset = 16 * i;
+				curView = -1;
+				curDirty = true;
+				loadedOffset = curOffset;
+				loadedView = curView;
+				break;
+			default:
+				// lights and custom shapes run in graph order
+				if ( sorted ) {
+					flushQueue();
+					if ( op == CommandBuffer.SHAPE ) {
+						submittedMaterial = null;
+						submittedTexture = null;
+					}
+				}
+				loadModelview();
+				executeOp(op,operand);
+				break;
+			}
 		}
 
-		if ( s.getZ() != 0 ) {
-			newZ = (frameNumber * (s.getZ() / smallest)) % s.getZ() + 1;
-		} else if ( s.getZ() < 0 ) {
-			newZ = (frameNumber * (s.getZ() / smallest)) % s.getZ() + 1;
+		if ( sorted ) {
+			flushQueue();
+			renderQueue.end();
 		}
+		// leave GL with the matrix it had before the scene
+		backend.loadMatrix(views,0);
+	}
 
-		scale(new Scale(newX,newY,newZ,s.getTex()));
+	/**
+	 * Handles a transform command. Texture transforms go straight to GL; others
+	 * update the cached matrix for command i if it is out of date.
+	 */
+	private void transform ( int i, Transform t, int[] versions, long[] ticks,
+	                         boolean sorted ) {
+		if ( t.getTex() ) {
+			if ( sorted ) {
+				flushQueue(); // the texture matrix applies to everything after it
+			}
+			t.apply(this);
+			return;
+		}
+		int slot = 16 * i;
+		// animated transforms pass the cache ticks and also depend on the clock
+		long tick = clock.getTick();
+		if ( ticks != null ) {
+			animationRequired = true;
+		}
+		if ( curDirty || versions[i] != t.getVersion()
+		    || (ticks != null && ticks[i] != tick) ) {
+			if ( ticks != null ) {
+				Phase previous = enter(Phase.ANIMATION);
+				UpdatePhase.apply(t,world,slot,curOffset,true,tick);
+				leave(previous);
+				ticks[i] = tick;
+			} else {
+				UpdatePhase.apply(t,world,slot,curOffset,false,tick);
+			}
+			versions[i] = t.getVersion();
+			curDirty = true; // everything after this in the group must follow
+		}
+		curOffset = slot;
 	}
 
 	/**
-	 * Sets up the initial state for the renderer. This includes enabling depth
-	 * testing, normalization, lighting, and setting up a light source.
+	 * Decides how to draw the group opened by a PUSH command.
+	 * 
+	 * @return The display list to replay, the negated display list to record
+	 *         the group into, or 0 to draw the group's commands as usual.
 	 */
-	public void setup () {
+	private int staticList ( CommandBuffer commands, int push ) {
+		PartialScene group = (PartialScene) commands.getOperands()[push];
+		boolean[] recorded = commands.getRecorded();
+		int list = 0;
+		if ( commands.getRecordable()[push] && recorder != null
+		    && (group.isStatic() || autoStatic > 0) ) {
+			list = staticCache.find(recorder,commands,push,
+			                        backend.getTextureCache().getUnloads());
+			if ( list == 0 && (group.isStatic()
+			    || staticCache.getUnchangedFrames(group) >= autoStatic) ) {
+				list = -staticCache.record(recorder,group);
+			}
+		}
+		if ( list == 0 && recorded[push] ) {
+			// the update phase left the group alone while it was recorded
+			Arrays.fill(commands.getVisibility(),push + 1,
+			            commands.getArgs()[push],CommandBuffer.UNDETERMINED);
+		}
+		recorded[push] = list != 0;
+		return list;
+	}
 
-		// depth test, for 3D
-		gl2.glEnable(GL2.GL_DEPTH_TEST);
+	/**
+	 * Draws a recorded group by replaying its display list.
+	 */
+	private void replay ( CommandBuffer commands, int push, int list,
+	                      boolean sorted ) {
+		if ( sorted ) {
+			enterGraphOrder();
+		}
+		loadModelview();
+		Phase previous = enter(Phase.SUBMISSION);
+		recorder.replay(list);
+		leave(previous);
+		if ( sorted ) {
+			leaveGraphOrder(commands,push);
+		}
+	}
 
-		// other configuration
-		gl2.glEnable(GL2.GL_NORMALIZE);
-		gl2.glEnable(GL2.GL_LIGHTING);
-		gl2.glEnable(GL2.GL_LIGHT0);
+	/**
+	 * Starts recording the group opened by a PUSH command, after its level has
+	 * been pushed. The group's commands are drawn as they are recorded, with
+	 * their matrices computed relative to the group's, so that the list can be
+	 * replayed wherever the group ends up.
+	 */
+	private void startRecording ( CommandBuffer commands, int push, int list,
+	                              boolean sorted ) {
+		int[] ops = commands.getOps();
+		Object[] operands = commands.getOperands();
+		int pop = commands.getArgs()[push];
+		if ( sorted ) {
+			enterGraphOrder();
+		}
+		// texture uploads must not end up in the list
+		for ( int i = push + 1 ; i < pop ; i++ ) {
+			if ( ops[i] == CommandBuffer.TEXTURE ) {
+				backend.getTextureCache()
+				    .preload(gl,((TextureNode) operands[i]).getTexture()
+				        .getFileName());
+			}
+		}
+		loadModelview();
+		recorder.beginRecording(list);
+		recordStart = push;
+		recordEnd = pop;
+		curOffset = 16 * commands.size(); // the identity
+		curView = -1;
+		curDirty = true;
+		loadedOffset = curOffset;
+		loadedView = curView;
+	}
 
+	/**
+	 * Finishes the recording started by startRecording, after the group's level
+	 * has been popped.
+	 */
+	private void finishRecording ( CommandBuffer commands, boolean sorted ) {
+		recorder.endRecording();
+		// the group's matrices were computed relative to the group, not the
+		// scene
+		Arrays.fill(worldVersions,recordStart,recordEnd,-1);
+		loadedOffset = curOffset; // the matrix loaded when recording started
+		loadedView = curView;
+		if ( sorted ) {
+			leaveGraphOrder(commands,recordStart);
+		}
+		recordStart = -1;
+		recordEnd = -1;
 	}
 
 	/**
-	 * Triggers the rendering process of the scene. This method should be called
-	 * to start the drawing process.
+	 * In sorted rendering mode, draws the queued shapes and applies the
+	 * material and texture in effect, before a group is drawn in graph order.
 	 */
-	public void draw () {
-		scene.draw(this);
+	private void enterGraphOrder () {
+		flushQueue();
+		Material material = renderQueue.getCurrentMaterial();
+		if ( material != null && material != submittedMaterial ) {
+			applyMaterial(material);
+		}
+		TextureNode texture = renderQueue.getCurrentTexture();
+		if ( texture != null && (submittedTexture == null
+		    || !submittedTexture.equals(texture.getTexture().getFileName())) ) {
+			texture.draw(this);
+		}
+		submittedMaterial = null;
+		submittedTexture = null;
+	}
+
+	/**
+	 * In sorted rendering mode, after a group has been drawn in graph order,
+	 * makes the last material and texture in it the queue's current ones.
+	 */
+	private void leaveGraphOrder ( CommandBuffer commands, int push ) {
+		int[] ops = commands.getOps();
+		Object[] operands = commands.getOperands();
+		for ( int i = push + 1, pop = commands.getArgs()[push] ; i < pop ; i++ ) {
+			if ( ops[i] == CommandBuffer.MATERIAL ) {
+				renderQueue.setMaterial((Material) operands[i]);
+			} else if ( ops[i] == CommandBuffer.TEXTURE ) {
+				renderQueue.setTexture((TextureNode) operands[i]);
+			}
+		}
+	}
+
+	private void pushLevel () {
+		if ( depth == levelOffset.length ) {
+			levelOffset = Arrays.copyOf(levelOffset,depth * 2);
+			levelView = Arrays.copyOf(levelView,depth * 2);
+			levelDirty = Arrays.copyOf(levelDirty,depth * 2);
+			levelStart = Arrays.copyOf(levelStart,depth * 2);
+			levelGroup = Arrays.copyOf(levelGroup,depth * 2);
+		}
+		levelOffset[depth] = curOffset;
+		levelView[depth] = curView;
+		levelDirty[depth] = curDirty;
+		depth++;
+	}
+
+	/**
+	 * Reads the current GL modelview matrix into the list of views.
+	 */
+	private void addView () {
+		if ( 16 * (viewCount + 1) > views.length ) {
+			views = Arrays.copyOf(views,views.length * 2);
+		}
+		backend.getMatrix(views,16 * viewCount);
+		viewCount++;
+	}
+
+	/**
+	 * Computes the current modelview matrix: the current view times the current
+	 * cached matrix.
+	 * 
+	 * @return A scratch array holding the matrix.
+	 */
+	private float[] modelview () {
+		if ( curView < 0 ) {
+			System.arraycopy(world,curOffset,modelview,0,16);
+		} else {
+			Mat4.multiply(views,16 * curView,world,curOffset,modelview,0);
+		}
+		return modelview;
+	}
+
+	/**
+	 * Loads the current modelview matrix into GL, unless it is already loaded.
+	 */
+	private void loadModelview () {
+		if ( loadedOffset == curOffset && loadedView == curView ) {
+			return;
+		}
+		if ( recordEnd >= 0 ) {
+			// the list must not hold the absolute matrix, so the group's matrix
+			// is kept on the stack and the relative one multiplied onto it
+			backend.popMatrix();
+			backend.pushMatrix();
+			backend.multMatrix(world,curOffset);
+		} else {
+			backend.loadMatrix(modelview(),0);
+		}
+		loadedOffset = curOffset;
+		loadedView = curView;
+	}
+
+	/**
+	 * Tells whether a node can be skipped because its bounds, drawn with the
+	 * current modelview matrix, lie outside the view volume.
+	 */
+	private boolean isCulled ( PartialScene node ) {
+		if ( !frustum.isValid() ) {
+			return false;
+		}
+		BoundingVolume bounds = node.getBounds();
+		if ( bounds.isUnbounded() ) {
+			return false;
+		}
+		return bounds.isEmpty()
+		    || !frustum.intersectsSphere(modelview(),bounds.getCenterX(),
+		                                 bounds.getCenterY(),bounds.getCenterZ(),
+		                                 bounds.getRadius());
+	}
+
+	/**
+	 * Skips the commands from a PUSH to its POP, applying only the state that
+	 * outlasts them: the last material, the last texture and the last texture
+	 * transformation.
+	 */
+	private void skipGroup ( int[] ops, Object[] operands, int push, int pop,
+	                         boolean sorted ) {
+		culledGroups++;
+		if ( curDirty ) {
+			// the skipped matrices were not brought up to date
+			Arrays.fill(worldVersions,push,pop,-1);
+		}
+		int material = -1, texture = -1, texTransform = -1;
+		for ( int i = push + 1 ; i < pop ; i++ ) {
+			switch ( ops[i] ) {
+			case CommandBuffer.MATERIAL:
+				material = i;
+				break;
+			case CommandBuffer.TEXTURE:
+				texture = i;
+				break;
+			case CommandBuffer.TRANSLATE:
+			case CommandBuffer.ROTATE:
+			case CommandBuffer.SCALE:
+			case CommandBuffer.ANIMATED_TRANSLATE:
+			case CommandBuffer.ANIMATED_ROTATE:
+			case CommandBuffer.ANIMATED_SCALE:
+			case CommandBuffer.KEYFRAME:
+				if ( ((Transform) operands[i]).getTex() ) {
+					texTransform = i;
+				}
+				break;
+			}
+		}
+		if ( sorted ) {
+			if ( material >= 0 ) {
+				renderQueue.setMaterial((Material) operands[material]);
+			}
+			if ( texture >= 0 ) {
+				renderQueue.setTexture((TextureNode) operands[texture]);
+			}
+			if ( texTransform >= 0 ) {
+				flushQueue();
+			}
+		} else {
+			if ( material >= 0 ) {
+				executeOp(ops[material],operands[material]);
+			}
+			if ( texture >= 0 ) {
+				executeOp(ops[texture],operands[texture]);
+			}
+		}
+		if ( texTransform >= 0 ) {
+			executeOp(ops[texTransform],operands[texTransform]);
+		}
+	}
+
+	/**
+	 * Executes a single command, as GL submission.
+	 */
+	private void executeOp ( int op, Object operand ) {
+		if ( profiling ) {
+			Phase previous = profiler.enter(Phase.SUBMISSION);
+			dispatch(op,operand);
+			profiler.enter(previous);
+		} else {
+			dispatch(op,operand);
+		}
+	}
+
+	private void dispatch ( int op, Object operand ) {
+		switch ( op ) {
+		case CommandBuffer.PUSH:
+			saveTransform();
+			break;
+		case CommandBuffer.POP:
+			restoreTransform();
+			break;
+		case CommandBuffer.CAMERA:
+			applyCamera((Camera) operand);
+			break;
+		case CommandBuffer.POINT_LIGHT:
+			applyPointLight((PointLight) operand);
+			break;
+		case CommandBuffer.DIRECTIONAL_LIGHT:
+			applyDirectionalLight((DirectionalLight) operand);
+			break;
+		case CommandBuffer.SPOT_LIGHT:
+			applySpotLight((SpotLight) operand);
+			break;
+		case CommandBuffer.LIGHT:
+			((Light) operand).apply(this);
+			break;
+		case CommandBuffer.MATERIAL:
+			applyMaterial((Material) operand);
+			break;
+		case CommandBuffer.TEXTURE:
+			((TextureNode) operand).draw(this);
+			break;
+		case CommandBuffer.TRANSLATE:
+			translate((Translation) operand);
+			break;
+		case CommandBuffer.ROTATE:
+			rotate((Rotation) operand);
+			break;
+		case CommandBuffer.SCALE:
+			scale((Scale) operand);
+			break;
+		case CommandBuffer.ANIMATED_TRANSLATE:
+			animateTranslate((AnimatedTranslation) operand);
+			break;
+		case CommandBuffer.ANIMATED_ROTATE:
+			animateRotate((AnimatedRotation) operand);
+			break;
+		case CommandBuffer.ANIMATED_SCALE:
+			animateScale((AnimatedScale) operand);
+			break;
+		case CommandBuffer.KEYFRAME:
+			animateKeyframes((KeyframeTransform) operand);
+			break;
+		case CommandBuffer.TRANSFORM:
+			((Transform) operand).apply(this);
+			break;
+		case CommandBuffer.CUBE:
+			drawCube((Cube) operand);
+			break;
+		case CommandBuffer.SPHERE:
+			drawSphere((Sphere) operand);
+			break;
+		case CommandBuffer.CONE:
+			drawCone((Cone) operand);
+			break;
+		case CommandBuffer.TORUS:
+			drawTorus((Torus) operand);
+			break;
+		case CommandBuffer.CYLINDER:
+			drawCylinder((Cylinder) operand);
+			break;
+		case CommandBuffer.TEAPOT:
+			drawTeapot((Teapot) operand);
+			break;
+		case CommandBuffer.COMPLEX_SHAPE:
+			drawComplexShape((ComplexShape) operand);
+			break;
+		case CommandBuffer.INSTANCES:
+			drawInstances((InstancedShapeNode) operand);
+			break;
+		case CommandBuffer.SHAPE:
+			((Shape) operand).draw(this);
+			break;
+		case CommandBuffer.NODE:
+			((PartialScene) operand).draw(this);
+			break;
+		}
+	}
+
+	/**
+	 * Sorts and draws the queued shapes, applying each material and texture
+	 * only when it differs from the one last applied.
+	 */
+	private void flushQueue () {
+		int size = renderQueue.size();
+		if ( size == 0 ) {
+			return;
+		}
+		Phase previous = enter(Phase.SUBMISSION);
+		renderQueue.sort();
+		float[] matrices = renderQueue.getMatrices();
+		for ( int i = 0 ; i < size ; i++ ) {
+			int item = renderQueue.getSorted(i);
+			Material material = renderQueue.getMaterial(item);
+			if ( material != null && material != submittedMaterial ) {
+				applyMaterial(material);
+				submittedMaterial = material;
+				renderQueue.stateChangeIssued();
+			}
+			// untextured items sort ahead of textured ones, so texturing never
+			// has to be turned off
+			TextureNode texture = renderQueue.getTexture(item);
+			if ( texture != null && (submittedTexture == null
+			    || !submittedTexture.equals(texture.getTexture().getFileName())) ) {
+				texture.draw(this);
+				submittedTexture = texture.getTexture().getFileName();
+				renderQueue.stateChangeIssued();
+			}
+			backend.loadMatrix(matrices,16 * item);
+			executeOp(renderQueue.getOp(item),renderQueue.getShape(item));
+		}
+		renderQueue.clear();
+		loadedOffset = -1;
+		leave(previous);
 	}
 
 	/**
@@ -707,15 +1668,14 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	 * resets the color buffer and the depth buffer.
 	 */
 	public void clearDisplay () {
-		gl2.glClearColor(scene.getBGColors()[0],scene.getBGColors()[1],
-		                 scene.getBGColors()[2],scene.getBGColors()[3]);
-		gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+		float[] background = scene.getBGColors();
+		backend.clear(background[0],background[1],background[2],background[3]);
 	}
 
 	/**
 	 * Return a 2D array as a 1D array containing the elements in row-major order.
 	 */
-	public double[] flatten ( double[][] array2d ) {
+	public static double[] flatten ( double[][] array2d ) {
 		int n = 0;
 		for ( int i = 0 ; i < array2d.length ; i++ ) {
 			n += array2d[i].length;
@@ -775,43 +1735,210 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	/**
 	 * Set the current color (r,g,b). Color values are between 0 and 1.
 	 * 
-	 * @param gl2
 	 * @param r
 	 * @param g
 	 * @param b
 	 */
 	public void color ( float r, float g, float b ) {
-		gl2.glColor3f(r,g,b);
+		backend.color(r,g,b);
 	}
 
 	/**
-	 * Initializes and starts the animation process for the scene. This method
-	 * sets up an FPSAnimator to handle the animation at a specified frames per
-	 * second rate.
+	 * Starts drawing frames according to the render policy, which is CAPPED at
+	 * 60 frames per second unless it has been changed.
 	 */
 	public void animate () {
-		FPSAnimator animator = new FPSAnimator(this,60,true);
-		animator.start();
+		stopAnimation();
+		if ( renderPolicy == RenderPolicy.ON_DEMAND ) {
+			scheduler =
+			    new FrameScheduler(drawable,this,scene,refreshInterval());
+			scheduler.start();
+		} else {
+			animator =
+			    renderPolicy == RenderPolicy.CONTINUOUS ? new Animator(drawable)
+			        : new FPSAnimator(drawable,frameRateCap,true);
+			animator.start();
+		}
+	}
+
+	/**
+	 * Sets the render policy and starts drawing frames with it.
+	 *
+	 * @param policy
+	 *          The render policy.
+	 */
+	public void animate ( RenderPolicy policy ) {
+		setRenderPolicy(policy);
+		animate();
+	}
+
+	/**
+	 * Stops drawing frames started by animate(). The surface is still redrawn by
+	 * Swing when needed, e.g. when it is resized.
+	 */
+	public void stopAnimation () {
+		if ( animator != null ) {
+			animator.stop();
+			animator = null;
+		}
+		if ( scheduler != null ) {
+			scheduler.stop();
+			scheduler = null;
+		}
+	}
+
+	public RenderPolicy getRenderPolicy () {
+		return renderPolicy;
+	}
+
+	/**
+	 * Sets when frames are drawn. If animate() has been called, drawing
+	 * switches to the new policy at once.
+	 *
+	 * @param policy
+	 *          The render policy.
+	 */
+	public void setRenderPolicy ( RenderPolicy policy ) {
+		if ( policy == null ) {
+			throw new IllegalArgumentException("render policy must not be null");
+		}
+		boolean running = animator != null || scheduler != null;
+		renderPolicy = policy;
+		if ( running ) {
+			animate();
+		}
+	}
+
+	public int getFrameRateCap () {
+		return frameRateCap;
+	}
+
+	/**
+	 * Sets the most frames per second drawn under RenderPolicy.CAPPED.
+	 *
+	 * @param fps
+	 *          The cap; must be positive.
+	 */
+	public void setFrameRateCap ( int fps ) {
+		if ( fps <= 0 ) {
+			throw new IllegalArgumentException("frame rate cap must be positive: "
+			    + fps);
+		}
+		frameRateCap = fps;
+		if ( renderPolicy == RenderPolicy.CAPPED && animator != null ) {
+			animate();
+		}
+	}
+
+	/**
+	 * Asks for a frame to be drawn soon. Under RenderPolicy.ON_DEMAND this is
+	 * how changes the renderer cannot see, such as a new texture image, get
+	 * drawn; requests made before the next frame are merged into it. Otherwise
+	 * the surface is repainted if no animator is running.
+	 */
+	public void requestRender () {
+		FrameScheduler scheduler = this.scheduler;
+		if ( scheduler != null && scheduler.isRunning() ) {
+			scheduler.request();
+		} else if ( animator == null ) {
+			surfaceComponent.repaint();
+		}
+	}
+
+	/**
+	 * Tells whether the last frame is out of date: it drew an animated
+	 * transform, or the scene graph or its camera has changed since.
+	 */
+	boolean needsFrame () {
+		Camera camera = drawnCamera;
+		return drawnAnimated || scene.hasPendingUpdates()
+		    || drawnVersion != scene.getRootNode().getVersion()
+		    || (camera != null && drawnCameraVersion != camera.getVersion());
+	}
+
+	/**
+	 * Gets the display's refresh interval, assuming 60 Hz if it is unknown.
+	 */
+	private long refreshInterval () {
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		int rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+		if ( config != null ) {
+			rate = config.getDevice().getDisplayMode().getRefreshRate();
+		}
+		return 1_000_000_000L / (rate > 0 ? rate : 60);
 	}
 
 	public void display ( GLAutoDrawable drawable ) {
-		gl2 = drawable.getGL().getGL2();
+		profiling = profiler.isEnabled();
+		long drawCalls = 0, vertices = 0, stateChanges = 0, textureLoad = 0;
+		if ( profiling ) {
+			timingSubtrees = profiler.isSubtreeTiming();
+			profiler.beginFrame();
+			drawCalls = backend.getDrawCalls() + staticCache.getReplays();
+			vertices = backend.getVerticesDrawn();
+			stateChanges = backend.getStateChanges() + textureBinds;
+			textureLoad = backend.getTextureCache().getLoadNanos();
+		} else {
+			timingSubtrees = false;
+		}
+		gl = drawable.getGL();
+		if ( profiling && profiler.isCountingGLCalls() ) {
+			gl = profiler.wrap(gl);
+		}
+		backend.beginFrame(gl);
 		clearDisplay();
 
-		gl2.glMatrixMode(GL2.GL_MODELVIEW);
-		gl2.glLoadIdentity();
+		backend.loadIdentity();
+
+		// changes submitted from other threads are made here, at the frame
+		// boundary, so they are part of what is recorded as drawn
+		scene.publish();
 
+		// note what is drawn before drawing, so changes made meanwhile are not
+		// missed
+		drawnVersion = scene.getRootNode().getVersion();
+		Camera camera = camera_;
+		drawnCamera = camera;
+		drawnCameraVersion = camera == null ? 0 : camera.getVersion();
+		animationRequired = false;
+
+		Phase previous = enter(Phase.ANIMATION);
+		clock.update(System.nanoTime());
+		frameNumber = (int) clock.getTick();
+		leave(previous);
 		draw();
-		if ( animationRequired ) {
-			frameNumber++;
+		backend.endFrame();
+
+		if ( camera_ != camera ) { // the scene's camera was first applied
+			drawnCameraVersion = camera_.getVersion();
+			drawnCamera = camera_;
+		}
+		drawnAnimated = animationRequired;
+
+		if ( profiling ) {
+			TextureCache textureCache = backend.getTextureCache();
+			profiler.endFrame(clock.getTick(),
+			                  backend.getDrawCalls() + staticCache.getReplays()
+			                      - drawCalls,
+			                  backend.getVerticesDrawn() - vertices,
+			                  backend.getStateChanges() + textureBinds
+			                      - stateChanges,
+			                  textureCache.getLoadNanos() - textureLoad,
+			                  textureCache.getMemoryUsed());
 		}
-		gl2.glFlush();
 	}
 
-	public void dispose ( GLAutoDrawable drawable ) {}
+	public void dispose ( GLAutoDrawable drawable ) {
+		gl = drawable.getGL();
+		backend.beginFrame(gl);
+		if ( recorder != null ) {
+			staticCache.dispose(recorder);
+		}
+		backend.dispose(gl);
+	}
 
 	public void init ( GLAutoDrawable drawable ) {
-		gl2 = drawable.getGL().getGL2();
+		gl = drawable.getGL();
 		setup();
 
 	}
@@ -819,10 +1946,12 @@ public class Renderer extends GLJPanel implements GLEventListener {
 	public void reshape ( GLAutoDrawable drawable, int x, int y, int width,
 	                      int height ) {}
 
-	private class TrackballMouser implements MouseListener, MouseMotionListener {
+	private class TrackballMouser implements MouseListener, MouseMotionListener,
+	    com.jogamp.newt.event.MouseListener {
 
 		private boolean dragging;
-		private double[] prevRay;
+		private double[] prevRay = new double[3];
+		private double[] thisRay = new double[3];
 
 		/**
 		 * Called when the mouse button is pressed. Starts the dragging process and
@@ -834,7 +1963,7 @@ public class Renderer extends GLJPanel implements GLEventListener {
 		public void mousePressed ( MouseEvent e ) {
 			if ( dragging ) return;
 			dragging = true;
-			prevRay = mousePointToRay(e.getX(),e.getY());
+			mousePointToRay(e.getX(),e.getY(),prevRay);
 			trackballComponent.addMouseMotionListener(this);
 		}
 
@@ -859,11 +1988,41 @@ public class Renderer extends GLJPanel implements GLEventListener {
 		 *          The MouseEvent object containing details about the mouse event.
 		 */
 		public void mouseDragged ( MouseEvent e ) {
+			drag(e.getX(),e.getY());
+		}
+
+		/**
+		 * Called when a mouse button is pressed on a NEWT window. NEWT reports
+		 * drags to every mouse listener, so no motion listener is added.
+		 *
+		 * @param e
+		 *          The MouseEvent object containing details about the mouse event.
+		 */
+		public void mousePressed ( com.jogamp.newt.event.MouseEvent e ) {
+			if ( dragging ) return;
+			dragging = true;
+			mousePointToRay(e.getX(),e.getY(),prevRay);
+		}
+
+		public void mouseReleased ( com.jogamp.newt.event.MouseEvent e ) {
+			dragging = false;
+		}
+
+		public void mouseDragged ( com.jogamp.newt.event.MouseEvent e ) {
+			drag(e.getX(),e.getY());
+		}
+
+		/**
+		 * Rotates the camera by the drag from the last mouse point to (x,y).
+		 */
+		private void drag ( int x, int y ) {
 			if ( !dragging ) return;
-			double[] thisRay = mousePointToRay(e.getX(),e.getY());
+			mousePointToRay(x,y,thisRay);
 			camera_.applyTransvection(prevRay,thisRay);
+			double[] ray = prevRay; // reuse the old ray's array next time
 			prevRay = thisRay;
-			trackballComponent.repaint();
+			thisRay = ray;
+			requestRender();
 		}
 
 		/**
@@ -873,12 +2032,17 @@ public class Renderer extends GLJPanel implements GLEventListener {
 		 *          The x-coordinate of the mouse point.
 		 * @param y
 		 *          The y-coordinate of the mouse point.
-		 * @return A normalized 3D vector representing the ray from the mouse point.
+		 * @param ray
+		 *          Receives the normalized 3D vector representing the ray from the
+		 *          mouse point.
 		 */
-		private double[] mousePointToRay ( int x, int y ) {
+		private void mousePointToRay ( int x, int y, double[] ray ) {
 			double dx, dy, dz, norm;
-			int centerX = trackballComponent.getWidth() / 2;
-			int centerY = trackballComponent.getHeight() / 2;
+			// NEWT mouse points are in window units, as is the window's size
+			int centerX = (window != null ? window.getWidth()
+			    : trackballComponent.getWidth()) / 2;
+			int centerY = (window != null ? window.getHeight()
+			    : trackballComponent.getHeight()) / 2;
 			double scale = 0.8 * Math.min(centerX,centerY);
 			dx = (x - centerX);
 			dy = (centerY - y);
@@ -886,7 +2050,9 @@ public class Renderer extends GLJPanel implements GLEventListener {
 			if ( norm >= scale ) dz = 0;
 			else dz = Math.sqrt(scale * scale - dx * dx - dy * dy);
 			double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
-			return new double[] { dx / length, dy / length, dz / length };
+			ray[0] = dx / length;
+			ray[1] = dy / length;
+			ray[2] = dz / length;
 		}
 
 		public void mouseClicked ( MouseEvent e ) {}
@@ -897,6 +2063,16 @@ public class Renderer extends GLJPanel implements GLEventListener {
 
 		public void mouseMoved ( MouseEvent e ) {}
 
+		public void mouseClicked ( com.jogamp.newt.event.MouseEvent e ) {}
+
+		public void mouseEntered ( com.jogamp.newt.event.MouseEvent e ) {}
+
+		public void mouseExited ( com.jogamp.newt.event.MouseEvent e ) {}
+
+		public void mouseMoved ( com.jogamp.newt.event.MouseEvent e ) {}
+
+		public void mouseWheelMoved ( com.jogamp.newt.event.MouseEvent e ) {}
+
 	}
 
 }
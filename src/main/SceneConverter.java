@@ -0,0 +1,127 @@
+package main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import nodes.Scene;
+
+/**
+ * Converts XML scenes to binary scenes.
+ *
+ * <pre>
+ * java main.SceneConverter scene.xml scene.sgb
+ * java main.SceneConverter --batch scene.xml scene.sgb
+ * java main.SceneConverter --check scene.xml
+ * </pre>
+ *
+ * With --batch, the shapes of static groups are merged by StaticBatcher
+ * before the scene is written, so that it loads ready to draw with few draw
+ * calls. The merged meshes are written as they are; which shapes they were
+ * made from is not kept.
+ *
+ * With --check, the XML scene is written as a binary file, read back, and
+ * written again; the two encodings must be identical, which shows that the
+ * scene read from the binary file is the one read from the XML file.
+ *
+ * @author Sayf Elhawary
+ */
+public final class SceneConverter {
+
+	private SceneConverter () {}
+
+	public static void main ( String[] args ) {
+		try {
+			if ( args.length == 2 && args[0].equals("--check") ) {
+				int nodes = check(Paths.get(args[1]));
+				System.out.println(args[1] + ": " + nodes
+				    + " nodes read back unchanged");
+			} else if ( args.length == 2 ) {
+				convert(Paths.get(args[0]),Paths.get(args[1]),false);
+			} else if ( args.length == 3 && args[0].equals("--batch") ) {
+				convert(Paths.get(args[1]),Paths.get(args[2]),true);
+			} else {
+				System.err.println("usage: SceneConverter scene.xml scene.sgb\n"
+				    + "       SceneConverter --batch scene.xml scene.sgb\n"
+				    + "       SceneConverter --check scene.xml");
+				System.exit(2);
+			}
+		} catch ( IOException | UncheckedIOException | IllegalArgumentException e ) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Converts an XML scene to a binary scene.
+	 *
+	 * @param xml
+	 *          The XML file.
+	 * @param binary
+	 *          The binary file to write.
+	 * @throws IOException
+	 *           If either file cannot be read or written.
+	 * @throws IllegalArgumentException
+	 *           If the XML scene has a bad element.
+	 */
+	public static void convert ( Path xml, Path binary ) throws IOException {
+		convert(xml,binary,false);
+	}
+
+	/**
+	 * Converts an XML scene to a binary scene, merging the shapes of its static
+	 * groups first if asked to.
+	 *
+	 * @param xml
+	 *          The XML file.
+	 * @param binary
+	 *          The binary file to write.
+	 * @param batch
+	 *          true to batch the scene with StaticBatcher.
+	 * @throws IOException
+	 *           If either file cannot be read or written.
+	 * @throws IllegalArgumentException
+	 *           If the XML scene has a bad element.
+	 */
+	public static void convert ( Path xml, Path binary, boolean batch )
+	    throws IOException {
+		Scene scene = StreamingSceneLoader.load(xml,null);
+		if ( batch ) {
+			StaticBatcher.batch(scene.getRootNode());
+		}
+		BinarySceneWriter.write(scene,binary);
+	}
+
+	/**
+	 * Checks that an XML scene survives being written to and read from a
+	 * binary file.
+	 *
+	 * @param xml
+	 *          The XML file.
+	 * @return The number of nodes in the binary file.
+	 * @throws IOException
+	 *           If the files cannot be read or written, or the scene read back
+	 *           differs.
+	 */
+	public static int check ( Path xml ) throws IOException {
+		ByteBuffer written =
+		    BinarySceneWriter.encode(StreamingSceneLoader.load(xml,null));
+		Path binary = Files.createTempFile("scene-",".sgb");
+		try {
+			Files.write(binary,written.array());
+			BinarySceneReader reader = BinarySceneReader.open(binary);
+			Scene scene = reader.read();
+			ByteBuffer rewritten = BinarySceneWriter.encode(scene);
+			if ( !rewritten.equals(written) ) {
+				throw new IOException(xml + ": the scene read back differs at byte "
+				    + rewritten.mismatch(written));
+			}
+			return written.order(BinaryScene.ORDER).getInt(BinaryScene.H_NODES);
+		} finally {
+			Files.deleteIfExists(binary);
+		}
+	}
+}
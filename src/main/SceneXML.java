@@ -0,0 +1,472 @@
+package main;
+
+import lights.DirectionalLight;
+import lights.PointLight;
+import lights.SpotLight;
+import nodes.CameraNode;
+import nodes.LightNode;
+import nodes.MaterialNode;
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.ShapeNode;
+import nodes.TextureNode;
+import nodes.TransformNode;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.AnimatedRotation;
+import transformations.AnimatedScale;
+import transformations.AnimatedTranslation;
+import transformations.Interpolation;
+import transformations.KeyframeTrack;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Translation;
+
+/**
+ * What the elements of an XML scene mean, shared by the DOM and streaming
+ * loaders so that both build the same graph. Attributes are looked up by name
+ * through an Attributes view of whichever element the loader is on, and lists
+ * of numbers are parsed without splitting them into strings.
+ *
+ * Colors and positions may leave out their last component, which is then 1.
+ *
+ * @author Sayf Elhawary
+ */
+final class SceneXML {
+
+	/**
+	 * An element's attributes, by name.
+	 */
+	interface Attributes {
+
+		/**
+		 * Gets an attribute's value.
+		 *
+		 * @return The value, or null if the element does not have the attribute.
+		 */
+		String get ( String name );
+	}
+
+	// powers of ten that are exact as floats
+	private static final float[] POWERS_OF_TEN =
+	    { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	private SceneXML () {}
+
+	/**
+	 * Creates the scene a root element describes, with the background color in
+	 * its color attribute.
+	 */
+	static Scene scene ( Attributes attributes ) {
+		String color = attributes.get("color");
+		if ( color == null ) {
+			return new Scene(0,0,0,1);
+		}
+		float[] c = vector(color,4);
+		return new Scene(c[0],c[1],c[2],c[3]);
+	}
+
+	/**
+	 * Creates the node an element describes. The loaders collect the nodes of
+	 * an element's children and add them to its node with one addChildren
+	 * call, so the graph records one structural change per element.
+	 * KeyframeTransform, Track and Key elements are not handled here; the
+	 * loaders build them from their children with track and addKey.
+	 *
+	 * @param name
+	 *          The element's name.
+	 * @param attributes
+	 *          The element's attributes.
+	 * @return The node, or null if the element is not one this knows, in which
+	 *         case it and everything in it are to be skipped.
+	 */
+	static PartialScene node ( String name, Attributes attributes ) {
+		PartialScene node;
+		switch ( name ) {
+		case "PartialScene":
+			node = new PartialScene();
+			break;
+		case "PointLight":
+			node = new LightNode(new PointLight(integer(attributes,"number"),
+			                                    vector(attributes,"ambient"),
+			                                    vector(attributes,"diffuse"),
+			                                    vector(attributes,"specular"),
+			                                    vector(attributes,"position")));
+			break;
+		case "DirectionalLight":
+			node =
+			    new LightNode(new DirectionalLight(integer(attributes,"number"),
+			                                       vector(attributes,"ambient"),
+			                                       vector(attributes,"diffuse"),
+			                                       vector(attributes,"specular"),
+			                                       vector(attributes,"position")));
+			break;
+		case "SpotLight":
+			node = new LightNode(new SpotLight(integer(attributes,"number"),
+			                                   vector(attributes,"ambient"),
+			                                   vector(attributes,"diffuse"),
+			                                   vector(attributes,"specular"),
+			                                   vector(attributes,"position"),
+			                                   vector(attributes,"direction"),
+			                                   number(attributes,"cutoff"),
+			                                   number(attributes,"exponent")));
+			break;
+		case "Torus":
+			node = new ShapeNode(new Torus(attributes.get("status"),
+			                               number(attributes,"innerRadius"),
+			                               number(attributes,"outerRadius"),
+			                               integer(attributes,"slices"),
+			                               integer(attributes,"stacks")));
+			break;
+		case "Cylinder":
+			node = new ShapeNode(new Cylinder(attributes.get("status"),
+			                                  number(attributes,"radius"),
+			                                  number(attributes,"height"),
+			                                  integer(attributes,"slices"),
+			                                  integer(attributes,"stacks")));
+			break;
+		case "Cone":
+			node = new ShapeNode(new Cone(attributes.get("status"),
+			                              number(attributes,"base"),
+			                              number(attributes,"height"),
+			                              integer(attributes,"slices"),
+			                              integer(attributes,"stacks")));
+			break;
+		case "Teapot":
+			node = new ShapeNode(new Teapot(attributes.get("status"),
+			                                number(attributes,"sideLength")));
+			break;
+		case "Cube":
+			node = new ShapeNode(new Cube(attributes.get("status"),
+			                              number(attributes,"sideLength")));
+			break;
+		case "Sphere":
+			if ( "UNIT_SPHERE".equalsIgnoreCase(attributes.get("type")) ) {
+				node = new ShapeNode(Sphere.UNIT_SPHERE);
+			} else {
+				// slices and stacks are also called longitude and latitude bands
+				String slices = attributes.get("slices"),
+				    stacks = attributes.get("stacks");
+				node = new ShapeNode(new Sphere(attributes.get("status"),
+				                                number(attributes,"radius"),
+				                                slices != null ? parseInt(slices)
+				                                    : integer(attributes,
+				                                              "longitudeBands"),
+				                                stacks != null ? parseInt(stacks)
+				                                    : integer(attributes,
+				                                              "latitudeBands")));
+			}
+			break;
+		case "Rotation":
+			node = new TransformNode(new Rotation(number(attributes,"angle"),
+			                                      number(attributes,"x"),
+			                                      number(attributes,"y"),
+			                                      number(attributes,"z"),
+			                                      texture(attributes)));
+			break;
+		case "Scale":
+			node = new TransformNode(new Scale(number(attributes,"x"),
+			                                   number(attributes,"y"),
+			                                   number(attributes,"z"),
+			                                   texture(attributes)));
+			break;
+		case "Translation":
+			node = new TransformNode(new Translation(number(attributes,"x"),
+			                                         number(attributes,"y"),
+			                                         number(attributes,"z"),
+			                                         texture(attributes)));
+			break;
+		case "AnimatedRotation":
+			node = new TransformNode(new AnimatedRotation(number(attributes,"angle"),
+			                                              number(attributes,"x"),
+			                                              number(attributes,"y"),
+			                                              number(attributes,"z"),
+			                                              texture(attributes)));
+			break;
+		case "AnimatedScale":
+			node = new TransformNode(new AnimatedScale(number(attributes,"x"),
+			                                           number(attributes,"y"),
+			                                           number(attributes,"z"),
+			                                           texture(attributes)));
+			break;
+		case "AnimatedTranslation":
+			node =
+			    new TransformNode(new AnimatedTranslation(number(attributes,"x"),
+			                                              number(attributes,"y"),
+			                                              number(attributes,"z"),
+			                                              texture(attributes)));
+			break;
+		case "Camera":
+			float[] view = parseFloats(required(attributes,"lookAt"));
+			if ( view.length != 9 ) {
+				throw new IllegalArgumentException("Camera lookAt needs 9 values, not "
+				    + view.length);
+			}
+			Camera camera = new Camera();
+			camera.lookAt(view[0],view[1],view[2],view[3],view[4],view[5],view[6],
+			              view[7],view[8]);
+			String scale = attributes.get("scale");
+			if ( scale != null ) {
+				camera.setScale(parseFloat(scale));
+			}
+			node = new CameraNode(camera);
+			break;
+		case "Material":
+			String type = attributes.get("type");
+			if ( type != null ) {
+				node = new MaterialNode(material(type));
+			} else {
+				node = new MaterialNode(new Material(vector(attributes,"ambient"),
+				                                     vector(attributes,"diffuse"),
+				                                     vector(attributes,"specular"),
+				                                     vector(attributes,"emission"),
+				                                     number(attributes,"shininess")));
+			}
+			break;
+		case "Texture":
+			node = new TextureNode(new Tex(required(attributes,"file")));
+			break;
+		default:
+			return null;
+		}
+		return node;
+	}
+
+	/**
+	 * Creates a keyframe track from a Track element's attributes, without its
+	 * keys; see FileManager.createTrack.
+	 */
+	static KeyframeTrack track ( Attributes attributes ) {
+		KeyframeTrack.Target target = KeyframeTrack.Target
+		    .valueOf(get(attributes,"target","translation").toUpperCase());
+		KeyframeTrack track =
+		    new KeyframeTrack(target,
+		                      Interpolation.of(get(attributes,"interpolation",
+		                                           "linear")));
+		track.setLoop(get(attributes,"loop","false").equals("true"));
+		return track;
+	}
+
+	/**
+	 * Adds the key a Key element describes to a track.
+	 */
+	static void addKey ( KeyframeTrack track, Attributes attributes ) {
+		float time = parseFloat(get(attributes,"time","0"));
+		float[] value;
+		String angle = attributes.get("angle");
+		if ( track.getTarget() == KeyframeTrack.Target.ROTATION && angle != null ) {
+			float[] axis = parseFloats(get(attributes,"axis","0,0,1"));
+			value = KeyframeTrack.axisAngle(parseFloat(angle),axis[0],axis[1],
+			                                axis[2]);
+		} else {
+			value = parseFloats(required(attributes,"value"));
+		}
+		String in = attributes.get("in"), out = attributes.get("out");
+		if ( in == null && out == null ) {
+			track.addKey(time,value);
+		} else {
+			track.addKey(time,value,in == null ? null : parseFloats(in),
+			             out == null ? null : parseFloats(out));
+		}
+	}
+
+	/**
+	 * Tells whether a transform element applies to texture coordinates.
+	 */
+	static boolean texture ( Attributes attributes ) {
+		return "true".equals(attributes.get("texture"));
+	}
+
+	/**
+	 * Finds a predefined material by name. OBSIDEAN is accepted for OBSIDIAN,
+	 * as older scenes spell it.
+	 */
+	private static Material material ( String type ) {
+		switch ( type.toUpperCase() ) {
+		case "CYAN_RUBBER":
+			return Material.CYAN_RUBBER;
+		case "EMERALD":
+			return Material.EMERALD;
+		case "RED_PLASTIC":
+			return Material.RED_PLASTIC;
+		case "CHROME":
+			return Material.CHROME;
+		case "GOLD":
+			return Material.GOLD;
+		case "OBSIDIAN":
+		case "OBSIDEAN":
+			return Material.OBSIDIAN;
+		case "PEARL":
+			return Material.PEARL;
+		case "RUBY":
+			return Material.RUBY;
+		case "WHITE_RUBBER":
+			return Material.WHITE_RUBBER;
+		default:
+			throw new IllegalArgumentException("unknown material: " + type);
+		}
+	}
+
+	private static String get ( Attributes attributes, String name,
+	                            String defaultValue ) {
+		String value = attributes.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private static String required ( Attributes attributes, String name ) {
+		String value = attributes.get(name);
+		if ( value == null ) {
+			throw new IllegalArgumentException("missing attribute: " + name);
+		}
+		return value;
+	}
+
+	private static float number ( Attributes attributes, String name ) {
+		return parseFloat(required(attributes,name));
+	}
+
+	private static int integer ( Attributes attributes, String name ) {
+		return parseInt(required(attributes,name));
+	}
+
+	private static float[] vector ( Attributes attributes, String name ) {
+		return vector(required(attributes,name),4);
+	}
+
+	/**
+	 * Parses a list of up to n numbers, filling a missing last one with 1.
+	 */
+	private static float[] vector ( String list, int n ) {
+		float[] values = parseFloats(list);
+		if ( values.length == n ) {
+			return values;
+		}
+		if ( values.length != n - 1 ) {
+			throw new IllegalArgumentException("expected " + n + " values: " + list);
+		}
+		float[] padded = new float[n];
+		System.arraycopy(values,0,padded,0,n - 1);
+		padded[n - 1] = 1;
+		return padded;
+	}
+
+	private static int parseInt ( String value ) {
+		return Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Parses a number, as Float.parseFloat does.
+	 */
+	static float parseFloat ( String value ) {
+		float[] one = new float[1];
+		if ( parseFloats(value,0,value.length(),one,0) != 1 ) {
+			throw new NumberFormatException("not a number: " + value);
+		}
+		return one[0];
+	}
+
+	/**
+	 * Parses a list of numbers separated by commas and/or whitespace, giving the
+	 * same values as Float.parseFloat on each.
+	 */
+	static float[] parseFloats ( String list ) {
+		int count = 0;
+		boolean inNumber = false;
+		for ( int i = 0 ; i < list.length() ; i++ ) {
+			boolean separator = isSeparator(list.charAt(i));
+			if ( !separator && !inNumber ) {
+				count++;
+			}
+			inNumber = !separator;
+		}
+		float[] values = new float[count];
+		parseFloats(list,0,list.length(),values,0);
+		return values;
+	}
+
+	/**
+	 * Parses the numbers in part of a string into an array.
+	 *
+	 * @return The number of values parsed.
+	 */
+	private static int parseFloats ( String s, int start, int end, float[] out,
+	                                 int offset ) {
+		int n = 0;
+		int i = start;
+		while ( true ) {
+			while ( i < end && isSeparator(s.charAt(i)) ) {
+				i++;
+			}
+			if ( i == end ) {
+				return n;
+			}
+			int begin = i;
+			while ( i < end && !isSeparator(s.charAt(i)) ) {
+				i++;
+			}
+			out[offset + n++] = parseNumber(s,begin,i);
+		}
+	}
+
+	private static boolean isSeparator ( char c ) {
+		return c == ',' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Parses one number. Numbers of up to 7 significant digits and powers of
+	 * ten up to 10 are exact as floats, so a single float multiply or divide
+	 * rounds them correctly; anything else goes to Float.parseFloat.
+	 */
+	private static float parseNumber ( String s, int start, int end ) {
+		int i = start;
+		boolean negative = false;
+		if ( i < end && (s.charAt(i) == '-' || s.charAt(i) == '+') ) {
+			negative = s.charAt(i) == '-';
+			i++;
+		}
+		int mantissa = 0, digits = 0, exponent = 0;
+		boolean any = false;
+		for ( ; i < end ; i++ ) {
+			char c = s.charAt(i);
+			if ( c < '0' || c > '9' ) {
+				break;
+			}
+			any = true;
+			if ( digits > 0 || c != '0' ) {
+				if ( ++digits > 7 ) {
+					return Float.parseFloat(s.substring(start,end));
+				}
+				mantissa = 10 * mantissa + (c - '0');
+			}
+		}
+		if ( i < end && s.charAt(i) == '.' ) {
+			for ( i++ ; i < end ; i++ ) {
+				char c = s.charAt(i);
+				if ( c < '0' || c > '9' ) {
+					break;
+				}
+				any = true;
+				if ( digits > 0 || c != '0' ) {
+					if ( ++digits > 7 ) {
+						return Float.parseFloat(s.substring(start,end));
+					}
+					mantissa = 10 * mantissa + (c - '0');
+				}
+				exponent--;
+			}
+		}
+		if ( i != end || !any || exponent < -10 ) {
+			// an exponent, a suffix, or not a number: let the JDK decide
+			return Float.parseFloat(s.substring(start,end));
+		}
+		float value = (float) mantissa;
+		if ( exponent < 0 ) {
+			value /= POWERS_OF_TEN[-exponent];
+		}
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,197 @@
+package main;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nodes.PartialScene;
+import nodes.ShapeNode;
+
+/**
+ * A group whose shapes StaticBatcher has merged, and the way back from the
+ * merged meshes to the shapes they were made from.
+ *
+ * Each merged mesh is a ShapeNode holding a packed ComplexShape. Its faces are
+ * those of its sources, one source after another, moved by the matrix each
+ * source was drawn with relative to the group. A face index, e.g. from
+ * picking, leads back to its source with getSource.
+ *
+ * The meshes are copies: changes to the source shapes and transforms are not
+ * seen until the group is restored and batched again.
+ *
+ * @author Sayf Elhawary
+ */
+public class StaticBatch {
+
+	private final PartialScene group;
+	private final PartialScene[] original; // the group's children before
+	private final List<ShapeNode> meshes;
+	// for each mesh: its sources, the first face of each followed by the
+	// mesh's face count, and their matrices, 16 floats each
+	private final ShapeNode[][] sources;
+	private final int[][] firstFaces;
+	private final float[][] matrices;
+	private boolean restored;
+
+	StaticBatch ( PartialScene group, PartialScene[] original, ShapeNode[] meshes,
+	              ShapeNode[][] sources, int[][] firstFaces,
+	              float[][] matrices ) {
+		this.group = group;
+		this.original = original;
+		this.meshes = Collections.unmodifiableList(Arrays.asList(meshes));
+		this.sources = sources;
+		this.firstFaces = firstFaces;
+		this.matrices = matrices;
+	}
+
+	/**
+	 * Gets the group whose children were replaced.
+	 *
+	 * @return The group.
+	 */
+	public PartialScene getGroup () {
+		return group;
+	}
+
+	/**
+	 * Gets the merged meshes, in the order they are drawn.
+	 *
+	 * @return The shape nodes holding the merged meshes.
+	 */
+	public List<ShapeNode> getMeshes () {
+		return meshes;
+	}
+
+	/**
+	 * Gets the shape a face of a merged mesh comes from.
+	 *
+	 * @param mesh
+	 *          One of the merged meshes.
+	 * @param face
+	 *          The index of the face in the mesh.
+	 * @return The shape node the face was made from.
+	 * @throws IllegalArgumentException
+	 *           If mesh is not one of the merged meshes, or it has no such face.
+	 */
+	public ShapeNode getSource ( ShapeNode mesh, int face ) {
+		int m = indexOf(mesh);
+		int[] starts = firstFaces[m];
+		if ( face < 0 || face >= starts[starts.length - 1] ) {
+			throw new IllegalArgumentException("the mesh has no face " + face);
+		}
+		int s = Arrays.binarySearch(starts,face);
+		if ( s < 0 ) {
+			s = -s - 2; // the last source starting before the face
+		} else {
+			// sources without faces start where the next one does
+			while ( s + 1 < starts.length - 1 && starts[s + 1] == face ) {
+				s++;
+			}
+		}
+		return sources[m][s];
+	}
+
+	/**
+	 * Gets the merged mesh a shape was merged into. A shape that appears more
+	 * than once in the group is looked up where it first appears.
+	 *
+	 * @param source
+	 *          A shape node that was in the group.
+	 * @return The mesh, or null if the shape was not merged.
+	 */
+	public ShapeNode getMesh ( ShapeNode source ) {
+		for ( int m = 0 ; m < sources.length ; m++ ) {
+			if ( find(m,source) >= 0 ) {
+				return meshes.get(m);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the index of the first face a merged shape takes up in its mesh.
+	 *
+	 * @param source
+	 *          A shape node that was merged.
+	 * @return The index of its first face in getMesh(source).
+	 * @throws IllegalArgumentException
+	 *           If the shape was not merged.
+	 */
+	public int getFirstFace ( ShapeNode source ) {
+		int m = meshOf(source);
+		return firstFaces[m][find(m,source)];
+	}
+
+	/**
+	 * Gets the number of faces a merged shape takes up in its mesh.
+	 *
+	 * @param source
+	 *          A shape node that was merged.
+	 * @return The number of its faces.
+	 * @throws IllegalArgumentException
+	 *           If the shape was not merged.
+	 */
+	public int getFaceCount ( ShapeNode source ) {
+		int m = meshOf(source);
+		int s = find(m,source);
+		return firstFaces[m][s + 1] - firstFaces[m][s];
+	}
+
+	/**
+	 * Gets the matrix a merged shape's faces were moved by: the one it was
+	 * drawn with, relative to the group's.
+	 *
+	 * @param source
+	 *          A shape node that was merged.
+	 * @return A copy of the matrix, in column-major order.
+	 * @throws IllegalArgumentException
+	 *           If the shape was not merged.
+	 */
+	public float[] getMatrix ( ShapeNode source ) {
+		int m = meshOf(source);
+		int s = find(m,source);
+		return Arrays.copyOfRange(matrices[m],16 * s,16 * s + 16);
+	}
+
+	/**
+	 * Puts the group's own children back in place of the merged meshes, e.g. to
+	 * edit them. Batch the group again afterwards to merge them again.
+	 *
+	 * @throws IllegalStateException
+	 *           If the group has already been restored.
+	 */
+	public void restore () {
+		if ( restored ) {
+			throw new IllegalStateException("the group has already been restored");
+		}
+		group.replaceChildren(original);
+		restored = true;
+	}
+
+	private int indexOf ( ShapeNode mesh ) {
+		for ( int m = 0 ; m < meshes.size() ; m++ ) {
+			if ( meshes.get(m) == mesh ) {
+				return m;
+			}
+		}
+		throw new IllegalArgumentException("not a merged mesh of this group");
+	}
+
+	private int meshOf ( ShapeNode source ) {
+		for ( int m = 0 ; m < sources.length ; m++ ) {
+			if ( find(m,source) >= 0 ) {
+				return m;
+			}
+		}
+		throw new IllegalArgumentException("the shape was not merged");
+	}
+
+	private int find ( int m, ShapeNode source ) {
+		for ( int s = 0 ; s < sources[m].length ; s++ ) {
+			if ( sources[m][s] == source ) {
+				return s;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,642 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodes.MaterialNode;
+import nodes.PartialScene;
+import nodes.ShapeNode;
+import nodes.TextureNode;
+import nodes.TransformNode;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.PackedGeometry;
+import shapes.RenderMode;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Transform;
+import transformations.Translation;
+
+/**
+ * Merges the shapes of static groups into one mesh for each material and
+ * texture, so that drawing a group costs a draw call for each material it
+ * uses rather than a traversal step, a matrix and a draw call for each shape.
+ *
+ * A group can be batched when it holds nothing but groups, materials,
+ * textures, shapes and fixed transforms that do not apply to textures; these
+ * draw the same every frame and depend on no state but the material and
+ * texture in effect. Each shape's geometry is moved by the transforms before
+ * it and added to the mesh of the material, texture and rendering style it is
+ * drawn with, and the group's children are replaced by the meshes, each after
+ * the material and texture it needs. Complex shapes, and cubes, spheres, cones
+ * and cylinders drawn solid or smooth, are merged; other shapes are kept, with
+ * copies of the transforms they were drawn with.
+ *
+ * Shapes may be drawn in a different order than before, as in sorted
+ * rendering. The group leaves the same material and texture in effect as
+ * before.
+ *
+ * @author Sayf Elhawary
+ */
+public final class StaticBatcher {
+
+	private StaticBatcher () {}
+
+	/**
+	 * What a group draws with one material, texture and rendering style: a
+	 * merged mesh, or a shape that is kept as it is.
+	 */
+	private static class Batch {
+		private final Material material; // null for the one the group inherits
+		private final TextureNode texture; // null for the inherited one
+		private final RenderMode mode;
+		private final boolean texCoords;
+		private final List<Source> sources = new ArrayList<>();
+		private PartialScene kept; // set for a shape that is not merged
+
+		private Batch ( Material material, TextureNode texture, RenderMode mode,
+		                boolean texCoords ) {
+			this.material = material;
+			this.texture = texture;
+			this.mode = mode;
+			this.texCoords = texCoords;
+		}
+	}
+
+	/**
+	 * Identifies a batch by the material's values, the texture's file name and
+	 * the rendering style.
+	 */
+	private static class Key {
+		private final Material material;
+		private final String texture;
+		private final RenderMode mode;
+		private final boolean texCoords;
+
+		private Key ( Batch batch ) {
+			material = batch.material;
+			texture = batch.texture == null ? null
+			    : batch.texture.getTexture().getFileName();
+			mode = batch.mode;
+			texCoords = batch.texCoords;
+		}
+
+		public boolean equals ( Object o ) {
+			if ( !(o instanceof Key) ) {
+				return false;
+			}
+			Key k = (Key) o;
+			return sameMaterial(material,k.material)
+			    && (texture == null ? k.texture == null : texture.equals(k.texture))
+			    && mode == k.mode && texCoords == k.texCoords;
+		}
+
+		public int hashCode () {
+			int h = material == null ? 0
+			    : Arrays.hashCode(material.getDiffuse()) * 31
+			        + Arrays.hashCode(material.getEmissive());
+			h = 31 * h + (texture == null ? 0 : texture.hashCode());
+			h = 31 * h + mode.hashCode();
+			return 31 * h + (texCoords ? 1 : 0);
+		}
+	}
+
+	/**
+	 * A shape to merge, with the matrix it is drawn with.
+	 */
+	private static class Source {
+		private final ShapeNode node;
+		private final float[] matrix;
+		private final PackedGeometry packed; // for a complex shape
+		private final PrimitiveGeometry primitive; // for any other
+		private int vertices, corners, faces, texValues;
+
+		private Source ( ShapeNode node, float[] matrix, PackedGeometry packed,
+		                 PrimitiveGeometry primitive ) {
+			this.node = node;
+			this.matrix = matrix;
+			this.packed = packed;
+			this.primitive = primitive;
+		}
+	}
+
+	/**
+	 * What has been found in a group so far, in drawing order.
+	 */
+	private static class Walk {
+		private final List<Batch> batches = new ArrayList<>();
+		private final Map<Key,Batch> merged = new HashMap<>();
+		private final List<Transform> path = new ArrayList<>();
+		private final List<TextureNode> textures = new ArrayList<>();
+		private final float[] scratch = new float[32];
+		private Material material;
+		private TextureNode texture;
+	}
+
+	/**
+	 * Batches every group under a node, the node included, that can be batched
+	 * and has shapes to merge. Groups inside a batched group are batched with
+	 * it; groups inside others are looked at in turn.
+	 *
+	 * @param root
+	 *          The node to start from, e.g. a scene's root node.
+	 * @return The groups that were batched.
+	 */
+	public static List<StaticBatch> batch ( PartialScene root ) {
+		List<StaticBatch> batches = new ArrayList<>();
+		batch(root,batches);
+		return batches;
+	}
+
+	private static void batch ( PartialScene node, List<StaticBatch> batches ) {
+		if ( node.getClass() != PartialScene.class ) {
+			return;
+		}
+		if ( isBatchable(node) ) {
+			StaticBatch batch = merge(node);
+			if ( batch != null ) {
+				batches.add(batch);
+			}
+			return;
+		}
+		for ( PartialScene child : node.getChildren() ) {
+			batch(child,batches);
+		}
+	}
+
+	/**
+	 * Tells whether a node draws the same every frame, given the material and
+	 * texture it starts with.
+	 */
+	private static boolean isBatchable ( PartialScene node ) {
+		Class<?> c = node.getClass();
+		if ( c == PartialScene.class ) {
+			for ( PartialScene child : node.getChildren() ) {
+				if ( !isBatchable(child) ) {
+					return false;
+				}
+			}
+			return true;
+		} else if ( c == ShapeNode.class ) {
+			// custom shapes may draw anything
+			Class<?> shape = ((ShapeNode) node).getShape().getClass();
+			return shape == Cube.class || shape == Sphere.class
+			    || shape == Cone.class || shape == Torus.class
+			    || shape == Cylinder.class || shape == Teapot.class
+			    || shape == ComplexShape.class;
+		} else if ( c == TransformNode.class ) {
+			Transform t = ((TransformNode) node).getTransform();
+			Class<?> transform = t.getClass();
+			return (transform == Translation.class || transform == Rotation.class
+			    || transform == Scale.class) && !t.getTex();
+		} else {
+			return c == MaterialNode.class || c == TextureNode.class;
+		}
+	}
+
+	/**
+	 * Replaces a group's children by merged meshes.
+	 *
+	 * @return The batched group, or null if no two shapes could be merged.
+	 */
+	private static StaticBatch merge ( PartialScene group ) {
+		Walk walk = new Walk();
+		float[] identity = new float[16];
+		Mat4.identity(identity,0);
+		collect(group,identity,walk);
+		int meshes = 0;
+		boolean worthwhile = false;
+		for ( Batch batch : walk.batches ) {
+			if ( batch.kept == null ) {
+				meshes++;
+				worthwhile |= batch.sources.size() > 1;
+			}
+		}
+		if ( !worthwhile ) {
+			return null;
+		}
+
+		List<PartialScene> children = new ArrayList<>();
+		ShapeNode[] nodes = new ShapeNode[meshes];
+		ShapeNode[][] sources = new ShapeNode[meshes][];
+		int[][] firstFaces = new int[meshes][];
+		float[][] matrices = new float[meshes][];
+		Material material = null;
+		String texture = null;
+		int m = 0;
+		for ( Batch batch : walk.batches ) {
+			if ( batch.material != null
+			    && (material == null || !sameMaterial(material,batch.material)) ) {
+				children.add(new MaterialNode(batch.material));
+				material = batch.material;
+			}
+			if ( batch.texture != null && !batch.texture.getTexture().getFileName()
+			    .equals(texture) ) {
+				children.add(new TextureNode(batch.texture.getTexture()));
+				texture = batch.texture.getTexture().getFileName();
+			}
+			if ( batch.kept != null ) {
+				children.add(batch.kept);
+				continue;
+			}
+			int count = batch.sources.size();
+			sources[m] = new ShapeNode[count];
+			firstFaces[m] = new int[count + 1];
+			matrices[m] = new float[16 * count];
+			for ( int s = 0 ; s < count ; s++ ) {
+				Source source = batch.sources.get(s);
+				sources[m][s] = source.node;
+				System.arraycopy(source.matrix,0,matrices[m],16 * s,16);
+			}
+			nodes[m] = new ShapeNode(mesh(batch,firstFaces[m]));
+			children.add(nodes[m]);
+			m++;
+		}
+		// leave the material and texture the group left before
+		if ( walk.material != null
+		    && (material == null || !sameMaterial(material,walk.material)) ) {
+			children.add(new MaterialNode(walk.material));
+		}
+		if ( walk.texture != null && !walk.texture.getTexture().getFileName()
+		    .equals(texture) ) {
+			children.add(new TextureNode(walk.texture.getTexture()));
+		}
+
+		PartialScene[] original = group.getChildren().toArray(new PartialScene[0]);
+		group.replaceChildren(children.toArray(new PartialScene[0]));
+		for ( TextureNode node : walk.textures ) {
+			node.release(); // they are no longer drawn
+		}
+		return new StaticBatch(group,original,nodes,sources,firstFaces,matrices);
+	}
+
+	/**
+	 * Adds the shapes of a group, drawn with a matrix, to the batches.
+	 */
+	private static void collect ( PartialScene group, float[] matrix,
+	                              Walk walk ) {
+		int depth = walk.path.size();
+		for ( PartialScene child : group.getChildren() ) {
+			Class<?> c = child.getClass();
+			if ( c == PartialScene.class ) {
+				collect(child,matrix,walk);
+			} else if ( c == TransformNode.class ) {
+				Transform t = ((TransformNode) child).getTransform();
+				System.arraycopy(matrix,0,walk.scratch,0,16);
+				UpdatePhase.apply(t,walk.scratch,16,0,false,0);
+				matrix = Arrays.copyOfRange(walk.scratch,16,32);
+				walk.path.add(t);
+			} else if ( c == MaterialNode.class ) {
+				walk.material = ((MaterialNode) child).getMaterial();
+			} else if ( c == TextureNode.class ) {
+				walk.texture = (TextureNode) child;
+				walk.textures.add(walk.texture);
+			} else {
+				add((ShapeNode) child,matrix,walk);
+			}
+		}
+		walk.path.subList(depth,walk.path.size()).clear();
+	}
+
+	/**
+	 * Adds a shape to the batch for its material, texture and style, or as a
+	 * batch of its own if it cannot be merged.
+	 */
+	private static void add ( ShapeNode node, float[] matrix, Walk walk ) {
+		Shape shape = node.getShape();
+		RenderMode mode = shape.getRenderMode();
+		PackedGeometry packed = null;
+		PrimitiveGeometry primitive = null;
+		if ( shape.getClass() == ComplexShape.class ) {
+			packed = ((ComplexShape) shape).getGeometry();
+		} else if ( mode == RenderMode.SOLID || mode == RenderMode.SMOOTH ) {
+			primitive = tessellate(shape);
+			mode = RenderMode.SMOOTH; // drawn from vertex normals, as it was
+		}
+		if ( packed == null && primitive == null ) {
+			Batch batch = new Batch(walk.material,walk.texture,mode,false);
+			if ( walk.path.isEmpty() ) {
+				batch.kept = node;
+			} else {
+				batch.kept = new PartialScene();
+				PartialScene[] kept = new PartialScene[walk.path.size() + 1];
+				for ( int i = 0 ; i < walk.path.size() ; i++ ) {
+					kept[i] = new TransformNode(walk.path.get(i));
+				}
+				kept[walk.path.size()] = node;
+				batch.kept.addChildren(kept);
+			}
+			walk.batches.add(batch);
+			return;
+		}
+		// only drawn polygon by polygon are a complex shape's texture coords used
+		boolean texCoords = mode == RenderMode.TEXTURE && packed != null
+		    && packed.getTexCoordRows() != null;
+		Batch batch = new Batch(walk.material,walk.texture,mode,texCoords);
+		Key key = new Key(batch);
+		Batch found = walk.merged.get(key);
+		if ( found == null ) {
+			walk.merged.put(key,batch);
+			walk.batches.add(batch);
+			found = batch;
+		}
+		found.sources.add(count(new Source(node,matrix,packed,primitive),
+		                        texCoords));
+	}
+
+	/**
+	 * Tessellates a library shape as the renderer draws it solid, or returns
+	 * null if it is not drawn from a tessellation the renderer shares.
+	 */
+	private static PrimitiveGeometry tessellate ( Shape shape ) {
+		Class<?> c = shape.getClass();
+		if ( c == Cube.class ) {
+			return PrimitiveGeometry.cube(((Cube) shape).getSideLength());
+		} else if ( c == Sphere.class ) {
+			Sphere sphere = (Sphere) shape;
+			if ( sphere.getRadius() > 0 && sphere.getSlices() >= 3
+			    && sphere.getStacks() >= 2 ) {
+				return PrimitiveGeometry.sphere(sphere.getRadius(),sphere.getSlices(),
+				                                sphere.getStacks());
+			}
+		} else if ( c == Cone.class ) {
+			Cone cone = (Cone) shape;
+			if ( cone.getBase() > 0 && cone.getHeight() > 0
+			    && cone.getSlices() >= 3 && cone.getStacks() >= 2 ) {
+				return PrimitiveGeometry.cone(cone.getBase(),cone.getHeight(),
+				                              cone.getSlices(),cone.getStacks(),1);
+			}
+		} else if ( c == Cylinder.class ) {
+			Cylinder cylinder = (Cylinder) shape;
+			if ( cylinder.getRadius() > 0 && cylinder.getHeight() > 0
+			    && cylinder.getSlices() >= 3 && cylinder.getStacks() >= 2 ) {
+				return PrimitiveGeometry.cylinder(cylinder.getRadius(),
+				                                  cylinder.getHeight(),
+				                                  cylinder.getSlices(),
+				                                  cylinder.getStacks(),1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Counts what a source adds to its mesh.
+	 */
+	private static Source count ( Source source, boolean texCoords ) {
+		if ( source.packed != null ) {
+			PackedGeometry g = source.packed;
+			source.vertices = g.getVertexCount();
+			source.faces = g.getFaceCount();
+			source.corners = g.getFaceStarts().get(source.faces);
+			source.texValues =
+			    texCoords ? g.getTexCoordRows().get(g.getTexCoordRows().limit() - 1)
+			        : 0;
+		} else {
+			PrimitiveGeometry g = source.primitive;
+			source.vertices = g.getVertexCount();
+			int[] indices = g.getIndices();
+			for ( int i = 0 ; i < g.getIndexCount() ; i += 3 ) {
+				if ( !isDegenerate(g,indices[i],indices[i + 1],indices[i + 2]) ) {
+					source.faces++;
+				}
+			}
+			source.corners = 3 * source.faces;
+		}
+		return source;
+	}
+
+	/**
+	 * Tells whether a triangle has no area, as at the poles of a sphere; such
+	 * triangles draw nothing and have no normal once they are moved.
+	 */
+	private static boolean isDegenerate ( PrimitiveGeometry g, int a, int b,
+	                                      int c ) {
+		float[] data = g.getData();
+		int p = a * PrimitiveGeometry.STRIDE + PrimitiveGeometry.POSITION_OFFSET,
+		    q = b * PrimitiveGeometry.STRIDE + PrimitiveGeometry.POSITION_OFFSET,
+		    r = c * PrimitiveGeometry.STRIDE + PrimitiveGeometry.POSITION_OFFSET;
+		double ux = data[q] - data[p], uy = data[q + 1] - data[p + 1],
+		    uz = data[q + 2] - data[p + 2];
+		double vx = data[r] - data[p], vy = data[r + 1] - data[p + 1],
+		    vz = data[r + 2] - data[p + 2];
+		double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz,
+		    nz = ux * vy - uy * vx;
+		// against the longer side, since rounding can leave a sliver of area
+		double side = Math.max(ux * ux + uy * uy + uz * uz,
+		                       vx * vx + vy * vy + vz * vz);
+		return Math.sqrt(nx * nx + ny * ny + nz * nz) <= 1e-6 * side;
+	}
+
+	/**
+	 * Builds the merged mesh of a batch.
+	 *
+	 * @param firstFaces
+	 *          Filled with the first face of each source, followed by the
+	 *          mesh's face count.
+	 */
+	private static ComplexShape mesh ( Batch batch, int[] firstFaces ) {
+		int vertices = 0, corners = 0, faces = 0, texValues = 0;
+		for ( Source source : batch.sources ) {
+			vertices += source.vertices;
+			corners += source.corners;
+			faces += source.faces;
+			texValues += source.texValues;
+		}
+		FloatBuffer positions = floats(3 * vertices);
+		FloatBuffer normals = floats(3 * vertices);
+		IntBuffer faceStarts = ints(faces + 1);
+		IntBuffer faceIndices = ints(corners);
+		IntBuffer texCoordRows = batch.texCoords ? ints(faces + 1) : null;
+		FloatBuffer texCoords = batch.texCoords ? floats(texValues) : null;
+		float[] normalMatrix = new float[9];
+		int vertex = 0, face = 0;
+		for ( int s = 0 ; s < batch.sources.size() ; s++ ) {
+			Source source = batch.sources.get(s);
+			firstFaces[s] = face;
+			// a mirroring matrix turns faces inside out; their corners are
+			// reversed so that the face normals still point out
+			boolean mirrored = normalMatrix(source.matrix,normalMatrix) < 0;
+			if ( source.packed != null ) {
+				addComplex(source.packed,source.matrix,normalMatrix,mirrored,vertex,
+				           positions,normals,faceStarts,faceIndices,texCoordRows,
+				           texCoords);
+			} else {
+				addPrimitive(source.primitive,source.matrix,normalMatrix,mirrored,
+				             vertex,positions,normals,faceStarts,faceIndices);
+			}
+			vertex += source.vertices;
+			face += source.faces;
+		}
+		firstFaces[batch.sources.size()] = face;
+		faceStarts.put(corners);
+		if ( texCoordRows != null ) {
+			texCoordRows.put(texValues);
+		}
+		PackedGeometry geometry =
+		    PackedGeometry.of(positions.flip(),normals.flip(),faceStarts.flip(),
+		                      faceIndices.flip(),
+		                      texCoordRows == null ? null : texCoordRows.flip(),
+		                      texCoords == null ? null : texCoords.flip());
+		return new ComplexShape(batch.mode.name().toLowerCase(),geometry);
+	}
+
+	private static void addComplex ( PackedGeometry g, float[] matrix,
+	                                 float[] normalMatrix, boolean mirrored,
+	                                 int first, FloatBuffer positions,
+	                                 FloatBuffer normals, IntBuffer faceStarts,
+	                                 IntBuffer faceIndices, IntBuffer texCoordRows,
+	                                 FloatBuffer texCoords ) {
+		int n = g.getVertexCount();
+		FloatBuffer data = g.getVertexData();
+		for ( int v = 0 ; v < n ; v++ ) {
+			putPoint(matrix,data,3 * v,positions);
+			putNormal(normalMatrix,data,3 * n + 3 * v,normals);
+		}
+		IntBuffer starts = g.getFaceStarts(), indices = g.getFaceIndices();
+		IntBuffer rows = g.getTexCoordRows();
+		FloatBuffer coords = g.getTexCoords();
+		for ( int f = 0 ; f < g.getFaceCount() ; f++ ) {
+			faceStarts.put(faceIndices.position());
+			int start = starts.get(f), end = starts.get(f + 1);
+			for ( int k = start ; k < end ; k++ ) {
+				faceIndices.put(first + indices.get(mirrored ? start + end - 1 - k : k));
+			}
+			if ( texCoordRows != null ) {
+				texCoordRows.put(texCoords.position());
+				int row = rows.get(f), rowEnd = rows.get(f + 1);
+				if ( mirrored && rowEnd - row == 2 * (end - start) ) {
+					// the corners' coordinates, in the corners' new order
+					for ( int k = rowEnd - 2 ; k >= row ; k -= 2 ) {
+						texCoords.put(coords.get(k)).put(coords.get(k + 1));
+					}
+				} else {
+					for ( int k = row ; k < rowEnd ; k++ ) {
+						texCoords.put(coords.get(k));
+					}
+				}
+			}
+		}
+	}
+
+	private static void addPrimitive ( PrimitiveGeometry g, float[] matrix,
+	                                   float[] normalMatrix, boolean mirrored,
+	                                   int first, FloatBuffer positions,
+	                                   FloatBuffer normals, IntBuffer faceStarts,
+	                                   IntBuffer faceIndices ) {
+		FloatBuffer data = FloatBuffer.wrap(g.getData());
+		for ( int v = 0 ; v < g.getVertexCount() ; v++ ) {
+			int at = v * PrimitiveGeometry.STRIDE;
+			putPoint(matrix,data,at + PrimitiveGeometry.POSITION_OFFSET,positions);
+			putNormal(normalMatrix,data,at,normals);
+		}
+		int[] indices = g.getIndices();
+		for ( int i = 0 ; i < g.getIndexCount() ; i += 3 ) {
+			int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+			if ( isDegenerate(g,a,b,c) ) {
+				continue;
+			}
+			faceStarts.put(faceIndices.position());
+			if ( mirrored ) {
+				faceIndices.put(first + c).put(first + b).put(first + a);
+			} else {
+				faceIndices.put(first + a).put(first + b).put(first + c);
+			}
+		}
+	}
+
+	/**
+	 * Computes the matrix that moves normals as a matrix moves points: the
+	 * inverse transpose of its upper 3x3 part, up to scale.
+	 *
+	 * @param normalMatrix
+	 *          Receives the matrix, in column-major order.
+	 * @return The determinant of the upper 3x3 part.
+	 */
+	private static float normalMatrix ( float[] m, float[] normalMatrix ) {
+		// the columns of the cofactor matrix are the cross products of the
+		// columns of m
+		float ax = m[0], ay = m[1], az = m[2];
+		float bx = m[4], by = m[5], bz = m[6];
+		float cx = m[8], cy = m[9], cz = m[10];
+		normalMatrix[0] = by * cz - bz * cy;
+		normalMatrix[1] = bz * cx - bx * cz;
+		normalMatrix[2] = bx * cy - by * cx;
+		normalMatrix[3] = cy * az - cz * ay;
+		normalMatrix[4] = cz * ax - cx * az;
+		normalMatrix[5] = cx * ay - cy * ax;
+		normalMatrix[6] = ay * bz - az * by;
+		normalMatrix[7] = az * bx - ax * bz;
+		normalMatrix[8] = ax * by - ay * bx;
+		float det = ax * normalMatrix[0] + ay * normalMatrix[1]
+		    + az * normalMatrix[2];
+		if ( det < 0 ) {
+			for ( int i = 0 ; i < 9 ; i++ ) {
+				normalMatrix[i] = -normalMatrix[i];
+			}
+		}
+		return det;
+	}
+
+	private static void putPoint ( float[] m, FloatBuffer from, int at,
+	                               FloatBuffer to ) {
+		float x = from.get(at), y = from.get(at + 1), z = from.get(at + 2);
+		to.put(m[0] * x + m[4] * y + m[8] * z + m[12])
+		    .put(m[1] * x + m[5] * y + m[9] * z + m[13])
+		    .put(m[2] * x + m[6] * y + m[10] * z + m[14]);
+	}
+
+	private static void putNormal ( float[] n, FloatBuffer from, int at,
+	                                FloatBuffer to ) {
+		float x = from.get(at), y = from.get(at + 1), z = from.get(at + 2);
+		float nx = n[0] * x + n[3] * y + n[6] * z,
+		    ny = n[1] * x + n[4] * y + n[7] * z,
+		    nz = n[2] * x + n[5] * y + n[8] * z;
+		float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if ( length > 0 ) {
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+		to.put(nx).put(ny).put(nz);
+	}
+
+	/**
+	 * Tells whether two materials look the same.
+	 */
+	private static boolean sameMaterial ( Material a, Material b ) {
+		if ( a == b ) {
+			return true;
+		}
+		if ( a == null || b == null ) {
+			return false;
+		}
+		return Arrays.equals(a.getAmbient(),b.getAmbient())
+		    && Arrays.equals(a.getDiffuse(),b.getDiffuse())
+		    && Arrays.equals(a.getSpecular(),b.getSpecular())
+		    && Arrays.equals(a.getEmissive(),b.getEmissive())
+		    && a.getShininess() == b.getShininess();
+	}
+
+	private static FloatBuffer floats ( int count ) {
+		return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder())
+		    .asFloatBuffer();
+	}
+
+	private static IntBuffer ints ( int count ) {
+		return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder())
+		    .asIntBuffer();
+	}
+}
@@ -0,0 +1,254 @@
+package main;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import nodes.CommandBuffer;
+import nodes.PartialScene;
+
+/**
+ * Keeps recordings of static groups, made by the renderer's RecordingBackend
+ * (display lists with the fixed-function backend), so that a group that does not change
+ * is drawn with one glCallList instead of a call for each of its shapes,
+ * materials and matrices.
+ *
+ * For each group it has seen, the cache keeps the group's version (see
+ * PartialScene.getVersion) as of its recording, and replays the recording only
+ * while the version is unchanged, so checking a group costs the same however
+ * large it is and however much the rest of the scene changes. The version also
+ * tells how many frames a group has gone unchanged, which the renderer uses to
+ * decide when to record groups that are not marked static.
+ *
+ * Lists of groups that have not been reached for EXPIRY frames, and of groups
+ * that have been garbage collected, are deleted.
+ *
+ * @author Sayf Elhawary
+ */
+public class StaticGroupCache {
+
+	/**
+	 * The number of frames after which an unused recording is deleted.
+	 */
+	public static final int EXPIRY = 300;
+
+	private static class Entry extends WeakReference<PartialScene> {
+		private int list; // 0 if the group has no current recording
+
+		// the group's version when last checked, whether it binds a texture,
+		// and the texture cache's unload count then
+		private long version;
+		private boolean textured;
+		private int unloads;
+
+		private int unchangedSince; // the frame it was last seen to change
+		private int lastFrame; // the frame it was last reached
+
+		private Entry ( PartialScene group, ReferenceQueue<PartialScene> queue ) {
+			super(group,queue);
+		}
+	}
+
+	private final Map<PartialScene,Entry> entries;
+	// strong references so that entries of collected groups reach the queue
+	private final Set<Entry> live;
+	private final ReferenceQueue<PartialScene> collected;
+	private int frame;
+	private long recordings, replays;
+
+	/**
+	 * Constructs an empty cache.
+	 */
+	public StaticGroupCache () {
+		entries = new WeakHashMap<>();
+		live = new HashSet<>();
+		collected = new ReferenceQueue<>();
+	}
+
+	/**
+	 * Gets the number of groups held as recordings.
+	 *
+	 * @return The number of display lists.
+	 */
+	public int size () {
+		int lists = 0;
+		for ( Entry entry : live ) {
+			if ( entry.list != 0 ) {
+				lists++;
+			}
+		}
+		return lists;
+	}
+
+	/**
+	 * Gets the number of times a group has been recorded since the cache was
+	 * created.
+	 */
+	public long getRecordings () {
+		return recordings;
+	}
+
+	/**
+	 * Gets the number of times a recording has been replayed since the cache
+	 * was created.
+	 */
+	public long getReplays () {
+		return replays;
+	}
+
+	/**
+	 * Starts a frame, deleting the lists of groups that have been collected
+	 * or have not been reached for EXPIRY frames.
+	 *
+	 * @param backend
+	 *          The backend that makes the recordings.
+	 */
+	void nextFrame ( RecordingBackend backend ) {
+		frame++;
+		Object ref;
+		while ( (ref = collected.poll()) != null ) {
+			Entry entry = (Entry) ref;
+			if ( live.remove(entry) ) {
+				delete(backend,entry);
+			}
+		}
+		if ( frame % 64 == 0 ) {
+			for ( Iterator<Entry> it = live.iterator() ; it.hasNext() ; ) {
+				Entry entry = it.next();
+				if ( frame - entry.lastFrame > EXPIRY ) {
+					delete(backend,entry);
+					PartialScene group = entry.get();
+					if ( group != null ) {
+						entries.remove(group);
+					}
+					entry.clear();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the recording of the group opened by a PUSH command, checking it
+	 * against the group's commands. If the group has changed, its recording is
+	 * deleted.
+	 *
+	 * @param backend
+	 *          The backend that makes the recordings.
+	 * @param commands
+	 *          The command buffer being executed.
+	 * @param push
+	 *          The index of the group's PUSH command.
+	 * @param unloads
+	 *          The texture cache's unload count.
+	 * @return The display list to replay, or 0 if there is no current one.
+	 */
+	int find ( RecordingBackend backend, CommandBuffer commands, int push,
+	           int unloads ) {
+		PartialScene group = (PartialScene) commands.getOperands()[push];
+		Entry entry = entries.get(group);
+		if ( entry == null ) {
+			entry = new Entry(group,collected);
+			entries.put(group,entry);
+			live.add(entry);
+			snapshot(entry,commands,push,unloads);
+		} else if ( !matches(entry,group,unloads) ) {
+			delete(backend,entry);
+			snapshot(entry,commands,push,unloads);
+		}
+		entry.lastFrame = frame;
+		if ( entry.list != 0 ) {
+			replays++;
+		}
+		return entry.list;
+	}
+
+	/**
+	 * Gets the number of frames the group opened by a PUSH command has gone
+	 * unchanged, as of the last find().
+	 */
+	int getUnchangedFrames ( PartialScene group ) {
+		Entry entry = entries.get(group);
+		return entry == null ? 0 : frame - entry.unchangedSince;
+	}
+
+	/**
+	 * Gets a display list to record a group into, after find() has found no
+	 * current recording of it.
+	 *
+	 * @param backend
+	 *          The backend that makes the recordings.
+	 * @param group
+	 *          The group.
+	 * @return The display list, or 0 if one could not be created.
+	 */
+	int record ( RecordingBackend backend, PartialScene group ) {
+		Entry entry = entries.get(group);
+		if ( entry == null ) {
+			return 0;
+		}
+		if ( entry.list == 0 ) {
+			entry.list = backend.newRecording();
+		}
+		if ( entry.list != 0 ) {
+			recordings++;
+		}
+		return entry.list;
+	}
+
+	/**
+	 * Tells whether a group is unchanged since it was last checked.
+	 */
+	private static boolean matches ( Entry entry, PartialScene group,
+	                                 int unloads ) {
+		if ( entry.textured && entry.unloads != unloads ) {
+			return false; // a texture it binds may have been destroyed
+		}
+		entry.unloads = unloads;
+		return entry.version == group.getVersion();
+	}
+
+	/**
+	 * Records the group's version now, and whether it binds a texture.
+	 */
+	private void snapshot ( Entry entry, CommandBuffer commands, int push,
+	                        int unloads ) {
+		PartialScene group = (PartialScene) commands.getOperands()[push];
+		entry.version = group.getVersion();
+		entry.unloads = unloads;
+		int[] ops = commands.getOps();
+		int pop = commands.getArgs()[push];
+		entry.textured = false;
+		for ( int i = push + 1 ; i < pop && !entry.textured ; i++ ) {
+			entry.textured = ops[i] == CommandBuffer.TEXTURE;
+		}
+		entry.unchangedSince = frame;
+	}
+
+	private static void delete ( RecordingBackend backend, Entry entry ) {
+		if ( entry.list != 0 ) {
+			backend.deleteRecording(entry.list);
+			entry.list = 0;
+		}
+	}
+
+	/**
+	 * Deletes all display lists. Called when the GL context is being destroyed.
+	 *
+	 * @param backend
+	 *          The backend that makes the recordings.
+	 */
+	public void dispose ( RecordingBackend backend ) {
+		for ( Entry entry : live ) {
+			delete(backend,entry);
+			entry.clear();
+		}
+		live.clear();
+		entries.clear();
+		while ( collected.poll() != null ) {}
+	}
+}
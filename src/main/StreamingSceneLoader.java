@@ -0,0 +1,208 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import nodes.PartialScene;
+import nodes.Scene;
+import nodes.TransformNode;
+import transformations.KeyframeAnimation;
+import transformations.KeyframeTrack;
+
+/**
+ * Loads an XML scene in a single pass over a StAX stream, creating each node as
+ * its start tag is read. Only the open elements are held besides the graph
+ * being built, so memory does not grow with the size of the file the way a
+ * DOM does. The children of each open element are collected and added to its
+ * node with one addChildren call when the element ends, so the graph records
+ * one structural change per element rather than one per child.
+ *
+ * @author Sayf Elhawary
+ */
+final class StreamingSceneLoader {
+
+	// the number of nodes between progress reports
+	static final int PROGRESS_INTERVAL = 4096;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private StreamingSceneLoader () {}
+
+	/**
+	 * Loads a scene.
+	 *
+	 * @param file
+	 *          The XML file.
+	 * @param progress
+	 *          Receives progress reports, or null.
+	 * @return The scene.
+	 * @throws IOException
+	 *           If the file cannot be read or is not well-formed XML.
+	 */
+	static Scene load ( Path file, LoadProgress progress ) throws IOException {
+		long total = Files.size(file);
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD,false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING,false);
+		try ( CountingStream in =
+		    new CountingStream(new BufferedInputStream(Files.newInputStream(file),
+		                                               BUFFER_SIZE)) ) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				return read(reader,in,total,progress);
+			} finally {
+				reader.close();
+			}
+		} catch ( XMLStreamException e ) {
+			throw new IOException(file + ": " + e.getMessage(),e);
+		}
+	}
+
+	private static Scene read ( XMLStreamReader reader, CountingStream in,
+	                            long total, LoadProgress progress )
+	    throws XMLStreamException {
+		SceneXML.Attributes attributes =
+		    name -> reader.getAttributeValue(null,name);
+		reader.nextTag(); // the root element
+		Scene scene = SceneXML.scene(attributes);
+		KeyframeAnimation animation = new KeyframeAnimation();
+
+		PartialScene[] open = new PartialScene[16]; // the nodes being filled
+		open[0] = scene.getRootNode();
+		// the children of each open node, reused from element to element
+		List<List<PartialScene>> children = new ArrayList<>();
+		children.add(new ArrayList<>());
+		int depth = 0;
+		int skipped = 0; // depth within an element that is not a node
+		// while in a KeyframeTransform: its tracks, its depth and the open track
+		KeyframeTrack[] tracks = null;
+		boolean texture = false;
+		int keyframeDepth = 0;
+		KeyframeTrack track = null;
+		int nodes = 0;
+
+		while ( reader.hasNext() ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				if ( skipped > 0 ) {
+					skipped++;
+					continue;
+				}
+				String name = reader.getLocalName();
+				if ( tracks != null ) {
+					keyframeDepth++;
+					if ( keyframeDepth == 2 && name.equals("Track") ) {
+						track = SceneXML.track(attributes);
+						tracks[track.getTarget().ordinal()] = track;
+					} else if ( keyframeDepth == 3 && track != null
+					    && name.equals("Key") ) {
+						SceneXML.addKey(track,attributes);
+					}
+					continue;
+				}
+				if ( name.equals("KeyframeTransform") ) {
+					tracks = new KeyframeTrack[3];
+					texture = SceneXML.texture(attributes);
+					keyframeDepth = 1;
+					continue;
+				}
+				PartialScene node = SceneXML.node(name,attributes);
+				if ( node == null ) {
+					skipped = 1;
+					continue;
+				}
+				children.get(depth).add(node);
+				if ( ++depth == children.size() ) {
+					children.add(new ArrayList<>());
+				}
+				if ( depth == open.length ) {
+					PartialScene[] grown = new PartialScene[2 * depth];
+					System.arraycopy(open,0,grown,0,depth);
+					open = grown;
+				}
+				open[depth] = node;
+				if ( ++nodes % PROGRESS_INTERVAL == 0 && progress != null ) {
+					progress.progress(in.count,total,nodes);
+				}
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				if ( skipped > 0 ) {
+					skipped--;
+				} else if ( tracks != null ) {
+					if ( keyframeDepth == 2 ) {
+						track = null;
+					}
+					if ( --keyframeDepth == 0 ) {
+						children.get(depth).add(new TransformNode(animation
+						    .createTransform(tracks[0],tracks[1],tracks[2],texture)));
+						tracks = null;
+						if ( ++nodes % PROGRESS_INTERVAL == 0 && progress != null ) {
+							progress.progress(in.count,total,nodes);
+						}
+					}
+				} else {
+					List<PartialScene> filled = children.get(depth);
+					PartialScene[] added = new PartialScene[filled.size()];
+					open[depth].addChildren(filled.toArray(added));
+					filled.clear();
+					if ( depth == 0 ) {
+						break; // the end of the root element
+					}
+					open[depth--] = null;
+				}
+			}
+		}
+		if ( progress != null ) {
+			progress.progress(in.count,total,nodes);
+		}
+		return scene;
+	}
+
+	/**
+	 * Counts the bytes the parser has taken from the file.
+	 */
+	private static final class CountingStream extends FilterInputStream {
+
+		private long count;
+
+		CountingStream ( InputStream in ) {
+			super(in);
+		}
+
+		@Override
+		public int read () throws IOException {
+			int b = super.read();
+			if ( b >= 0 ) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read ( byte[] b, int off, int len ) throws IOException {
+			int n = super.read(b,off,len);
+			if ( n > 0 ) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip ( long n ) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
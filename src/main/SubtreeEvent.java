@@ -0,0 +1,35 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event recorded for each subtree drawn while a FrameProfiler is timing
+ * subtrees.
+ *
+ * @author Sayf Elhawary
+ */
+@Name("scenegraph.Subtree")
+@Label("Subtree")
+@Category({ "Scene Graph", "Rendering" })
+@Description("CPU time spent drawing one group of the scene graph")
+@StackTrace(false)
+class SubtreeEvent extends jdk.jfr.Event {
+
+	@Label("Frame Number")
+	long frame;
+
+	@Label("Node")
+	String node;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long time;
+}
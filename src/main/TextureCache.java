@@ -0,0 +1,333 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureIO;
+
+/**
+ * Keeps the GL textures loaded by a renderer so that each image file is read
+ * and uploaded only once. Entries are keyed by {@link Tex#getFileName()} and
+ * reference counted by the TextureNodes that use them. When the estimated GPU
+ * memory of the loaded textures exceeds the budget, unreferenced textures are
+ * evicted first, followed by the least recently bound ones. A texture bound in
+ * the current frame is never evicted, as it would only be loaded again by the
+ * next frame: if the textures one frame binds do not fit, the cache goes over
+ * its budget and counts it (see getOverBudgetLoads) instead.
+ *
+ * All methods taking a GL must be called on the GL thread. acquire() and
+ * release() only update the reference counts and may be called from anywhere
+ * the scene graph is modified.
+ *
+ * @author Sayf Elhawary
+ */
+public class TextureCache {
+
+	/**
+	 * The default GPU memory budget, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+	private static class Entry {
+		private Texture texture;
+		private long size;
+		private int refCount;
+		private int frame; // the frame it was last bound in
+	}
+
+	// access-ordered, so iteration runs from least to most recently bound
+	private final LinkedHashMap<String,Entry> entries;
+	// files that could not be loaded; not retried until cleared
+	private final Set<String> failed;
+
+	private long budget;
+	private long memoryUsed;
+	private long loadNanos; // time spent loading texture files
+	private int unloads; // GL textures destroyed by eviction
+	private int frame;
+	private int overBudgetLoads;
+
+	/**
+	 * Constructs an empty texture cache with the default memory budget.
+	 */
+	public TextureCache () {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Constructs an empty texture cache.
+	 *
+	 * @param budget
+	 *          The GPU memory budget in bytes.
+	 */
+	public TextureCache ( long budget ) {
+		entries = new LinkedHashMap<>(16,0.75f,true);
+		failed = new HashSet<>();
+		this.budget = budget;
+		memoryUsed = 0;
+	}
+
+	/**
+	 * Gets the GPU memory budget.
+	 *
+	 * @return The budget in bytes.
+	 */
+	public synchronized long getBudget () {
+		return budget;
+	}
+
+	/**
+	 * Sets the GPU memory budget. The new budget is enforced the next time a
+	 * texture is bound.
+	 *
+	 * @param budget
+	 *          The budget in bytes.
+	 */
+	public synchronized void setBudget ( long budget ) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the estimated GPU memory used by the loaded textures.
+	 *
+	 * @return The memory used in bytes.
+	 */
+	public synchronized long getMemoryUsed () {
+		return memoryUsed;
+	}
+
+	/**
+	 * Gets the number of textures currently loaded.
+	 *
+	 * @return The number of loaded textures.
+	 */
+	public synchronized int size () {
+		int count = 0;
+		for ( Entry entry : entries.values() ) {
+			if ( entry.texture != null ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the total time spent loading texture files, including failed loads,
+	 * since the cache was created.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public synchronized long getLoadNanos () {
+		return loadNanos;
+	}
+
+	/**
+	 * Gets the number of times loading a texture left the cache over its
+	 * budget, because the textures bound in the same frame took up all of it.
+	 * A count that keeps growing means the budget is too small for the scene.
+	 *
+	 * @return The number of loads over budget.
+	 */
+	public synchronized int getOverBudgetLoads () {
+		return overBudgetLoads;
+	}
+
+	/**
+	 * Starts a frame. Textures bound from now on are kept until the next call,
+	 * whatever the budget. Backends call this at the start of each frame.
+	 */
+	public synchronized void nextFrame () {
+		frame++;
+	}
+
+	/**
+	 * Adds a reference to the texture with the given file name. The texture
+	 * itself is loaded lazily the first time it is bound.
+	 *
+	 * @param fileName
+	 *          The name (or path) of the texture file.
+	 */
+	public synchronized void acquire ( String fileName ) {
+		Entry entry = entries.get(fileName);
+		if ( entry == null ) {
+			entry = new Entry();
+			entries.put(fileName,entry);
+		}
+		entry.refCount++;
+	}
+
+	/**
+	 * Removes a reference to the texture with the given file name. A texture
+	 * with no references stays loaded until it is evicted or the cache is
+	 * disposed.
+	 *
+	 * @param fileName
+	 *          The name (or path) of the texture file.
+	 */
+	public synchronized void release ( String fileName ) {
+		Entry entry = entries.get(fileName);
+		if ( entry != null && entry.refCount > 0 ) {
+			entry.refCount--;
+		}
+	}
+
+	/**
+	 * Enables and binds the texture with the given file name, loading it from
+	 * disk if it is not already loaded.
+	 *
+	 * @param gl
+	 *          The current GL context.
+	 * @param fileName
+	 *          The name (or path) of the texture file.
+	 * @return true if the texture was bound, false if it could not be loaded.
+	 */
+	public synchronized boolean bind ( GL gl, String fileName ) {
+		Entry entry = load(gl,fileName);
+		if ( entry == null ) {
+			return false;
+		}
+		entry.texture.enable(gl);
+		entry.texture.bind(gl);
+		return true;
+	}
+
+	/**
+	 * Loads the texture with the given file name if it is not already loaded,
+	 * without enabling it. The renderer does this before recording drawing
+	 * that binds the texture, so that the upload is not recorded with it.
+	 *
+	 * @param gl
+	 *          The current GL context.
+	 * @param fileName
+	 *          The name (or path) of the texture file.
+	 * @return true if the texture is loaded, false if it could not be.
+	 */
+	public synchronized boolean preload ( GL gl, String fileName ) {
+		return load(gl,fileName) != null;
+	}
+
+	private Entry load ( GL gl, String fileName ) {
+		Entry entry = entries.get(fileName);
+		if ( entry == null ) {
+			entry = new Entry();
+			entries.put(fileName,entry);
+		}
+		entry.frame = frame; // so that loading it cannot evict it
+		if ( entry.texture == null ) {
+			if ( failed.contains(fileName) ) {
+				return null;
+			}
+			long start = System.nanoTime();
+			try {
+				Texture tex = TextureIO.newTexture(new File(fileName),false);
+				tex.setTexParameteri(gl,GL.GL_TEXTURE_WRAP_S,GL.GL_REPEAT);
+				tex.setTexParameteri(gl,GL.GL_TEXTURE_WRAP_T,GL.GL_REPEAT);
+				entry.texture = tex;
+				entry.size = tex.getEstimatedMemorySize();
+				memoryUsed += entry.size;
+			} catch ( Exception e ) {
+				failed.add(fileName);
+				e.printStackTrace();
+				return null;
+			} finally {
+				loadNanos += System.nanoTime() - start;
+			}
+			evict(gl);
+		}
+		return entry;
+	}
+
+	/**
+	 * Gets the number of textures that have been destroyed to stay within the
+	 * budget. Drawing recorded with a texture bound is out of date once the
+	 * texture has been destroyed, so recorders compare this count.
+	 *
+	 * @return The number of textures unloaded.
+	 */
+	public synchronized int getUnloads () {
+		return unloads;
+	}
+
+	/**
+	 * Evicts textures until the memory used is within the budget. Unreferenced
+	 * textures go first, then referenced ones in least-recently-bound order.
+	 * Textures bound in the current frame, including the one being loaded, are
+	 * kept even if that leaves the cache over budget.
+	 *
+	 * @param gl
+	 *          The current GL context.
+	 */
+	private void evict ( GL gl ) {
+		if ( memoryUsed <= budget ) {
+			return;
+		}
+		List<Entry> referenced = new ArrayList<>();
+		for ( Iterator<Entry> it = entries.values().iterator() ; it.hasNext()
+		    && memoryUsed > budget ; ) {
+			Entry entry = it.next();
+			if ( entry.frame == frame || entry.texture == null ) {
+				continue;
+			}
+			if ( entry.refCount > 0 ) {
+				referenced.add(entry);
+			} else {
+				unload(gl,entry);
+				it.remove();
+			}
+		}
+		for ( int i = 0 ; i < referenced.size() && memoryUsed > budget ; i++ ) {
+			unload(gl,referenced.get(i));
+		}
+		if ( memoryUsed > budget ) {
+			overBudgetLoads++;
+		}
+	}
+
+	/**
+	 * Destroys the GL texture held by an entry, keeping its reference count.
+	 */
+	private void unload ( GL gl, Entry entry ) {
+		entry.texture.destroy(gl);
+		entry.texture = null;
+		unloads++;
+		memoryUsed -= entry.size;
+		entry.size = 0;
+	}
+
+	/**
+	 * Forgets previous load failures so that those files are tried again the
+	 * next time they are bound.
+	 */
+	public synchronized void clearFailures () {
+		failed.clear();
+	}
+
+	/**
+	 * Destroys every loaded texture. Called when the GL context is being
+	 * destroyed. Reference counts are kept so that textures still in use are
+	 * reloaded if the context is recreated.
+	 *
+	 * @param gl
+	 *          The current GL context.
+	 */
+	public synchronized void dispose ( GL gl ) {
+		for ( Iterator<Entry> it = entries.values().iterator() ; it.hasNext() ; ) {
+			Entry entry = it.next();
+			if ( entry.texture != null ) {
+				unload(gl,entry);
+			}
+			if ( entry.refCount == 0 ) {
+				it.remove();
+			}
+		}
+		failed.clear();
+		memoryUsed = 0;
+	}
+}
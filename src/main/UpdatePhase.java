@@ -0,0 +1,342 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import nodes.BoundingVolume;
+import nodes.CommandBuffer;
+import nodes.PartialScene;
+import transformations.Animated;
+import transformations.Rotation;
+import transformations.Transform;
+import transformations.Translation;
+
+/**
+ * The work of a frame that needs no GL: bringing the world matrices of a
+ * command buffer up to date (evaluating animations on the way), refitting the
+ * bounds of its groups and deciding which groups are outside the view. It runs
+ * before the renderer executes the buffer, with groups updated in parallel on
+ * a fork/join pool, and leaves its results in the buffer's arrays for the
+ * renderer to use.
+ *
+ * Groups are split off as tasks by size: a group of at least SPLIT commands
+ * gets a task of its own, and smaller sibling groups are gathered into tasks
+ * of about SPLIT commands, so deep and wide graphs both divide evenly. When
+ * the pool already has work queued, the thread that reaches a group updates
+ * it itself. Scenes smaller than SPLIT commands are updated on the calling
+ * thread.
+ *
+ * Custom nodes and transforms change the matrix in ways only GL knows, so the
+ * rest of a group after one is left to the renderer. Groups the renderer
+ * replays from a recording only have their own bounds refitted.
+ *
+ * @author Sayf Elhawary
+ */
+class UpdatePhase {
+
+	// groups of fewer commands than this are not worth a task of their own
+	static final int SPLIT = 256;
+
+	private final ForkJoinPool pool;
+
+	// the frame being updated; written before the tasks are started
+	private int[] ops;
+	private Object[] operands;
+	private int[] args;
+	private float[] world;
+	private int[] versions;
+	private long[] ticks;
+	private byte[] visibility;
+	private boolean[] recorded;
+	private float[] bounds;
+	private int identity;
+	private long tick;
+	private int[] cameras;
+	private int cameraCount;
+	private float[] views;
+	private Frustum[] frusta;
+
+	/**
+	 * Constructs an update phase that runs on the common pool.
+	 */
+	UpdatePhase () {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs an update phase that runs on a given pool.
+	 */
+	UpdatePhase ( ForkJoinPool pool ) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Updates a command buffer for a tick of the animation clock. The
+	 * buffer's keyframe animations must have been evaluated at the tick (see
+	 * CommandBuffer.getAnimations), as their transforms only read them.
+	 *
+	 * @param commands
+	 *          The buffer.
+	 * @param tick
+	 *          The animation clock's tick.
+	 * @param views
+	 *          The view matrix of each of the buffer's cameras, 16 floats each,
+	 *          or null if groups are not to be culled.
+	 * @param frusta
+	 *          The view volume of each of the buffer's cameras.
+	 */
+	void update ( CommandBuffer commands, long tick, float[] views,
+	              Frustum[] frusta ) {
+		int size = commands.size();
+		if ( size == 0 || commands.getOps()[0] != CommandBuffer.PUSH ) {
+			return; // a custom root; the renderer does it all
+		}
+		ops = commands.getOps();
+		operands = commands.getOperands();
+		args = commands.getArgs();
+		world = commands.getWorldMatrices();
+		versions = commands.getWorldVersions();
+		ticks = commands.getWorldTicks();
+		visibility = commands.getVisibility();
+		recorded = commands.getRecorded();
+		bounds = commands.getWorldBounds();
+		identity = 16 * size;
+		this.tick = tick;
+		cameras = commands.getCameras();
+		cameraCount = commands.getCameraCount();
+		this.views = views;
+		this.frusta = frusta;
+		try {
+			Groups root = new Groups();
+			root.add(0,identity,false,-1);
+			if ( size < SPLIT ) {
+				root.compute();
+			} else {
+				pool.invoke(root);
+			}
+		} finally {
+			operands = null; // don't keep the scene reachable
+		}
+	}
+
+	/**
+	 * Brings the world matrix of a transform command up to date, as the
+	 * renderer does when it executes one.
+	 *
+	 * @param t
+	 *          The transform.
+	 * @param world
+	 *          The world matrices.
+	 * @param slot
+	 *          The index of the command's matrix.
+	 * @param parent
+	 *          The index of the matrix it follows.
+	 * @param animated
+	 *          Whether the transform is animated.
+	 * @param tick
+	 *          The animation clock's tick.
+	 */
+	static void apply ( Transform t, float[] world, int slot, int parent,
+	                    boolean animated, long tick ) {
+		System.arraycopy(world,parent,world,slot,16);
+		if ( animated ) {
+			((Animated) t).applyTo(world,slot,tick);
+		} else if ( t instanceof Translation ) {
+			Mat4.translate(world,slot,t.getX(),t.getY(),t.getZ());
+		} else if ( t instanceof Rotation ) {
+			Mat4.rotate(world,slot,((Rotation) t).getAngle(),t.getX(),t.getY(),
+			            t.getZ());
+		} else {
+			Mat4.scale(world,slot,t.getX(),t.getY(),t.getZ());
+		}
+	}
+
+	/**
+	 * Updates the group opened by the PUSH at push, drawn with the matrix at
+	 * offset in effect.
+	 *
+	 * @param dirty
+	 *          Whether that matrix was recomputed, so that the group's must be
+	 *          too.
+	 * @param camera
+	 *          The number of the camera in effect, or -1 before any.
+	 */
+	private void update ( int push, int offset, boolean dirty, int camera ) {
+		int pop = args[push];
+		byte visible = refit(push,offset,camera);
+		visibility[push] = visible;
+		// a culled group is not drawn, and a recorded one is drawn as recorded
+		if ( visible == CommandBuffer.CULLED || recorded[push] ) {
+			if ( dirty ) {
+				// the skipped matrices were not brought up to date
+				Arrays.fill(versions,push,pop,-1);
+			}
+			return;
+		}
+		Groups pending = null;
+		List<Groups> forked = null;
+		for ( int i = push + 1 ; i < pop ; i++ ) {
+			switch ( ops[i] ) {
+			case CommandBuffer.PUSH:
+				int end = args[i];
+				if ( end - i >= SPLIT || pending == null
+				    || pending.commands + end - i > SPLIT ) {
+					if ( pending != null && pending.count > 0 ) {
+						forked = fork(pending,forked);
+					}
+					pending = new Groups();
+				}
+				pending.add(i,offset,dirty,camera);
+				pending.commands += end - i;
+				i = end;
+				break;
+			case CommandBuffer.TRANSLATE:
+			case CommandBuffer.ROTATE:
+			case CommandBuffer.SCALE:
+			case CommandBuffer.ANIMATED_TRANSLATE:
+			case CommandBuffer.ANIMATED_ROTATE:
+			case CommandBuffer.ANIMATED_SCALE:
+			case CommandBuffer.KEYFRAME:
+				Transform t = (Transform) operands[i];
+				if ( t.getTex() ) {
+					break; // a texture matrix; the renderer sends it to GL
+				}
+				boolean animated = ops[i] >= CommandBuffer.ANIMATED_TRANSLATE;
+				if ( dirty || versions[i] != t.getVersion()
+				    || (animated && ticks[i] != tick) ) {
+					apply(t,world,16 * i,offset,animated,tick);
+					if ( animated ) {
+						ticks[i] = tick;
+					}
+					versions[i] = t.getVersion();
+					dirty = true; // everything after this in the group must follow
+				}
+				offset = 16 * i;
+				break;
+			case CommandBuffer.CAMERA:
+				camera = Arrays.binarySearch(cameras,0,cameraCount,i);
+				offset = identity;
+				dirty = false;
+				break;
+			case CommandBuffer.TRANSFORM:
+			case CommandBuffer.NODE:
+				// the rest of the group depends on what this does to GL's matrix
+				Arrays.fill(visibility,i + 1,pop,CommandBuffer.UNDETERMINED);
+				i = pop;
+				break;
+			}
+		}
+		if ( pending != null && pending.count > 0 ) {
+			pending.compute(); // the last batch is this thread's own
+		}
+		if ( forked != null ) {
+			for ( Groups task : forked ) {
+				task.join();
+			}
+		}
+	}
+
+	/**
+	 * Starts a batch of groups on the pool, unless enough work is already
+	 * queued, in which case it is done right away.
+	 */
+	private List<Groups> fork ( Groups groups, List<Groups> forked ) {
+		if ( !ForkJoinTask.inForkJoinPool()
+		    || ForkJoinTask.getSurplusQueuedTaskCount() > 3 ) {
+			groups.compute();
+			return forked;
+		}
+		groups.fork();
+		if ( forked == null ) {
+			forked = new ArrayList<>();
+		}
+		forked.add(groups);
+		return forked;
+	}
+
+	/**
+	 * Computes the world bounds of the group at push and whether it can be
+	 * seen.
+	 */
+	private byte refit ( int push, int offset, int camera ) {
+		BoundingVolume volume = ((PartialScene) operands[push]).getBounds();
+		int b = 4 * push;
+		if ( volume.isUnbounded() ) {
+			bounds[b + 3] = Float.POSITIVE_INFINITY;
+			return CommandBuffer.VISIBLE;
+		}
+		if ( volume.isEmpty() ) {
+			bounds[b + 3] = -1;
+			return views == null || camera < 0 ? CommandBuffer.VISIBLE
+			    : CommandBuffer.CULLED;
+		}
+		float x = volume.getCenterX(), y = volume.getCenterY(),
+		    z = volume.getCenterZ(), r = volume.getRadius();
+		float[] m = world;
+		bounds[b] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z
+		    + m[offset + 12];
+		bounds[b + 1] = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z
+		    + m[offset + 13];
+		bounds[b + 2] = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z
+		    + m[offset + 14];
+		float sx = m[offset] * m[offset] + m[offset + 1] * m[offset + 1]
+		    + m[offset + 2] * m[offset + 2];
+		float sy = m[offset + 4] * m[offset + 4] + m[offset + 5] * m[offset + 5]
+		    + m[offset + 6] * m[offset + 6];
+		float sz = m[offset + 8] * m[offset + 8] + m[offset + 9] * m[offset + 9]
+		    + m[offset + 10] * m[offset + 10];
+		bounds[b + 3] = r * (float) Math.sqrt(Math.max(sx,Math.max(sy,sz)));
+		if ( views == null || camera < 0 ) {
+			return CommandBuffer.VISIBLE;
+		}
+		Mat4 modelview = Mat4.acquire();
+		try {
+			Mat4.multiply(views,16 * camera,world,offset,modelview.array(),0);
+			return frusta[camera].intersectsSphere(modelview.array(),x,y,z,r)
+			    ? CommandBuffer.VISIBLE : CommandBuffer.CULLED;
+		} finally {
+			Mat4.release(modelview);
+		}
+	}
+
+	/**
+	 * Sibling groups updated one after another by one task, each with the
+	 * matrix, dirtiness and camera in effect where it appears.
+	 */
+	private final class Groups extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int[] pushes = new int[4];
+		private int[] offsets = new int[4];
+		private boolean[] dirty = new boolean[4];
+		private int[] cameraOf = new int[4];
+		private int count;
+		private int commands;
+
+		private void add ( int push, int offset, boolean dirty, int camera ) {
+			if ( count == pushes.length ) {
+				pushes = Arrays.copyOf(pushes,count * 2);
+				offsets = Arrays.copyOf(offsets,count * 2);
+				this.dirty = Arrays.copyOf(this.dirty,count * 2);
+				cameraOf = Arrays.copyOf(cameraOf,count * 2);
+			}
+			pushes[count] = push;
+			offsets[count] = offset;
+			this.dirty[count] = dirty;
+			cameraOf[count] = camera;
+			count++;
+		}
+
+		@Override
+		protected void compute () {
+			for ( int i = 0 ; i < count ; i++ ) {
+				update(pushes[i],offsets[i],dirty[i],cameraOf[i]);
+			}
+		}
+	}
+}
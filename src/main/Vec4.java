@@ -0,0 +1,31 @@
+package main;
+
+/**
+ * A homogeneous 4-component float vector. Vectors are mutable so that results
+ * can be written into existing ones, e.g. with
+ * {@link Mat4#transformInto(Vec4, Vec4)}.
+ *
+ * @author Sayf Elhawary
+ */
+public class Vec4 {
+	public float x, y, z, w;
+
+	public Vec4 () {}
+
+	public Vec4 ( float x, float y, float z, float w ) {
+		set(x,y,z,w);
+	}
+
+	public Vec4 set ( float x, float y, float z, float w ) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+		return this;
+	}
+
+	@Override
+	public String toString () {
+		return "(" + x + ", " + y + ", " + z + ", " + w + ")";
+	}
+}
@@ -0,0 +1,52 @@
+package main;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Java Vector API implementation of BatchTransform's point transform. It
+ * needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector);
+ * BatchTransform only loads this class if that module is present.
+ *
+ * Each lane computes exactly the expression the scalar kernel does, in the same
+ * order and without fused multiply-adds, so the results are the same bits.
+ *
+ * @author Sayf Elhawary
+ */
+final class VectorTransformKernel {
+
+	private static final VectorSpecies<Float> SPECIES =
+	    FloatVector.SPECIES_PREFERRED;
+
+	private VectorTransformKernel () {}
+
+	/**
+	 * Gets the number of floats processed per vector operation.
+	 */
+	static int lanes () {
+		return SPECIES.length();
+	}
+
+	/**
+	 * Transforms points from to to-1, as BatchTransform.transformScalar does.
+	 */
+	static void transform ( float[] m, int offset, float[] sx, float[] sy,
+	                        float[] sz, float[] dx, float[] dy, float[] dz,
+	                        int from, int to ) {
+		float m0 = m[offset], m1 = m[offset + 1], m2 = m[offset + 2];
+		float m4 = m[offset + 4], m5 = m[offset + 5], m6 = m[offset + 6];
+		float m8 = m[offset + 8], m9 = m[offset + 9], m10 = m[offset + 10];
+		float m12 = m[offset + 12], m13 = m[offset + 13], m14 = m[offset + 14];
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for ( ; i < bound ; i += SPECIES.length() ) {
+			FloatVector x = FloatVector.fromArray(SPECIES,sx,i);
+			FloatVector y = FloatVector.fromArray(SPECIES,sy,i);
+			FloatVector z = FloatVector.fromArray(SPECIES,sz,i);
+			x.mul(m0).add(y.mul(m4)).add(z.mul(m8)).add(m12).intoArray(dx,i);
+			x.mul(m1).add(y.mul(m5)).add(z.mul(m9)).add(m13).intoArray(dy,i);
+			x.mul(m2).add(y.mul(m6)).add(z.mul(m10)).add(m14).intoArray(dz,i);
+		}
+		BatchTransform.transformScalar(m,offset,sx,sy,sz,dx,dy,dz,i,to);
+	}
+}
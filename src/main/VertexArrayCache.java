@@ -0,0 +1,625 @@
+package main;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+import nodes.InstancedShapeNode;
+import shapes.ComplexShape;
+import shapes.PackedGeometry;
+import shapes.RenderMode;
+
+/**
+ * Keeps geometry in vertex array objects for {@link CoreProfileBackend}:
+ * tessellated primitives, keyed by type and parameters and deleted least
+ * recently drawn first, but never in the frame they are drawn in, as
+ * PrimitiveCache does; ComplexShapes, uploaded again
+ * when they change as MeshCache does; and the transforms and colors of
+ * instanced shape nodes, of which only the instances written since the last
+ * upload are uploaded.
+ *
+ * Each vertex array reads positions from attribute POSITION, normals from
+ * NORMAL and, if it has them, texture coordinates from TEX_COORD. Its index
+ * buffer holds triangles followed by lines: wire primitives are the edges of
+ * the quads they are tessellated into, as GLUT draws them, and polyhedra are
+ * their faces followed by the outlines of the faces.
+ *
+ * @author Sayf Elhawary
+ */
+public class VertexArrayCache {
+
+	static final int POSITION = 0;
+	static final int NORMAL = 1;
+	static final int TEX_COORD = 2;
+	static final int COLOR = 3;
+	static final int MATRIX = 4; // four attributes, one per column
+
+	/**
+	 * A vertex array with its buffers.
+	 */
+	static class Geometry {
+		private int vao, vbo, ibo;
+		int triangles; // number of triangle indices
+		int lines; // number of line indices, after the triangles
+		boolean offset; // whether the faces are pushed back behind lines
+		float lineWidth = 1;
+		private int frame; // the frame a primitive was last drawn in
+	}
+
+	private static class Key {
+		private int type;
+		private double a, b;
+		private int slices, stacks, rings;
+		private boolean texCoords, wire;
+
+		private Key set ( int type, double a, double b, int slices, int stacks,
+		                  int rings, boolean texCoords, boolean wire ) {
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.slices = slices;
+			this.stacks = stacks;
+			this.rings = rings;
+			this.texCoords = texCoords;
+			this.wire = wire;
+			return this;
+		}
+
+		public boolean equals ( Object o ) {
+			if ( !(o instanceof Key) ) {
+				return false;
+			}
+			Key k = (Key) o;
+			return type == k.type && a == k.a && b == k.b && slices == k.slices
+			    && stacks == k.stacks && rings == k.rings && texCoords == k.texCoords
+			    && wire == k.wire;
+		}
+
+		public int hashCode () {
+			long h = type;
+			h = 31 * h + Double.doubleToLongBits(a);
+			h = 31 * h + Double.doubleToLongBits(b);
+			h = 31 * h + slices;
+			h = 31 * h + stacks;
+			h = 31 * h + rings;
+			h = 31 * h + (texCoords ? 1 : 0);
+			h = 31 * h + (wire ? 1 : 0);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	private static class Mesh extends WeakReference<ComplexShape> {
+		private Geometry geometry;
+
+		// what the buffers were built from
+		private PackedGeometry packed;
+		private int version;
+		private RenderMode mode;
+
+		private Mesh ( ComplexShape shape, ReferenceQueue<ComplexShape> queue ) {
+			super(shape,queue);
+		}
+
+		private boolean isCurrent ( ComplexShape shape ) {
+			return packed == shape.getGeometry() && version == shape.getVersion()
+			    && mode == shape.getRenderMode();
+		}
+	}
+
+	private static class Instances
+	    extends WeakReference<InstancedShapeNode> {
+		private int vbo;
+		private int capacity = -1; // what the buffer is sized for
+		private boolean colored;
+		private int token = -1; // from the node's takeChanges
+
+		private Instances ( InstancedShapeNode node,
+		                    ReferenceQueue<InstancedShapeNode> queue ) {
+			super(node,queue);
+		}
+	}
+
+	// access-ordered, so iteration runs from least to most recently drawn
+	private final LinkedHashMap<Key,Geometry> primitives;
+	// reused for lookups so that a cache hit does not allocate
+	private final Key probe;
+	private int capacity;
+	private int frame;
+
+	private final Map<ComplexShape,Mesh> meshes;
+	// strong references so that meshes of collected shapes reach the queue
+	private final Set<Mesh> liveMeshes;
+	private final ReferenceQueue<ComplexShape> collectedMeshes;
+
+	private final Map<InstancedShapeNode,Instances> instances;
+	private final Set<Instances> liveInstances;
+	private final ReferenceQueue<InstancedShapeNode> collectedInstances;
+	private final int[] range = new int[2];
+
+	private long drawCalls, verticesDrawn;
+
+	/**
+	 * Constructs an empty cache, keeping PrimitiveCache.DEFAULT_CAPACITY
+	 * primitives.
+	 */
+	public VertexArrayCache () {
+		primitives = new LinkedHashMap<>(16,0.75f,true);
+		probe = new Key();
+		capacity = PrimitiveCache.DEFAULT_CAPACITY;
+		meshes = new WeakHashMap<>();
+		liveMeshes = new HashSet<>();
+		collectedMeshes = new ReferenceQueue<>();
+		instances = new WeakHashMap<>();
+		liveInstances = new HashSet<>();
+		collectedInstances = new ReferenceQueue<>();
+	}
+
+	/**
+	 * Sets the number of primitive parameter sets kept before the least
+	 * recently drawn ones are deleted.
+	 *
+	 * @param capacity
+	 *          The maximum number of cached primitives.
+	 */
+	public void setCapacity ( int capacity ) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Starts a frame. Primitives drawn from now on are kept until the next
+	 * call, whatever the capacity.
+	 */
+	public void nextFrame () {
+		frame++;
+	}
+
+	/**
+	 * Gets the number of vertex arrays held for primitives and shapes.
+	 *
+	 * @return The number of cached vertex arrays.
+	 */
+	public int size () {
+		return primitives.size() + liveMeshes.size();
+	}
+
+	/**
+	 * Gets the number of draw calls made since the cache was created.
+	 */
+	public long getDrawCalls () {
+		return drawCalls;
+	}
+
+	/**
+	 * Gets the number of indices drawn since the cache was created, counting
+	 * each instance.
+	 */
+	public long getVerticesDrawn () {
+		return verticesDrawn;
+	}
+
+	/**
+	 * Gets the vertex array of a primitive, tessellating and uploading it if it
+	 * is not already cached. The parameters are those of PrimitiveCache.draw.
+	 *
+	 * @param wire
+	 *          Whether to keep the edges of the primitive's quads rather than
+	 *          its triangles.
+	 */
+	Geometry primitive ( GL3 gl, int type, double a, double b, int slices,
+	                     int stacks, int rings, boolean texCoords,
+	                     boolean wire ) {
+		Geometry geometry = primitives.get(probe.set(type,a,b,slices,stacks,rings,
+		                                             texCoords,wire));
+		if ( geometry == null ) {
+			PrimitiveGeometry tessellated =
+			    PrimitiveCache.tessellate(type,a,b,slices,stacks,rings);
+			int stride = PrimitiveGeometry.STRIDE * Buffers.SIZEOF_FLOAT;
+			geometry = create(gl);
+			int[] indices = wire ? quadEdges(tessellated) : tessellated.getIndices();
+			upload(gl,geometry,Buffers.newDirectFloatBuffer(tessellated.getData()),
+			       Buffers.newDirectIntBuffer(indices));
+			attribute(gl,POSITION,3,stride,
+			          PrimitiveGeometry.POSITION_OFFSET * Buffers.SIZEOF_FLOAT);
+			attribute(gl,NORMAL,3,stride,0);
+			if ( texCoords ) {
+				attribute(gl,TEX_COORD,2,stride,
+				          PrimitiveGeometry.TEXCOORD_OFFSET * Buffers.SIZEOF_FLOAT);
+			}
+			gl.glBindVertexArray(0);
+			if ( wire ) {
+				geometry.lines = indices.length;
+			} else {
+				geometry.triangles = indices.length;
+			}
+			primitives.put(new Key().set(type,a,b,slices,stacks,rings,texCoords,
+			                             wire),
+			               geometry);
+		}
+		geometry.frame = frame; // so that evicting cannot delete it
+		evict(gl);
+		return geometry;
+	}
+
+	/**
+	 * Lists the edges of the quads a primitive was tessellated into. Its
+	 * triangles come in pairs that make up a quad and share a diagonal, which
+	 * is left out.
+	 *
+	 * @return Pairs of indices, for GL_LINES.
+	 */
+	private static int[] quadEdges ( PrimitiveGeometry tessellated ) {
+		int[] triangles = tessellated.getIndices();
+		int[] lines = new int[triangles.length / 6 * 8];
+		int n = 0;
+		for ( int q = 0 ; q + 6 <= triangles.length ; q += 6 ) {
+			for ( int t = q ; t < q + 6 ; t += 3 ) {
+				for ( int e = 0 ; e < 3 ; e++ ) {
+					int from = triangles[t + e], to = triangles[t + (e + 1) % 3];
+					if ( !hasEdge(triangles,t == q ? q + 3 : q,from,to) ) {
+						lines[n++] = from;
+						lines[n++] = to;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(lines,n);
+	}
+
+	/**
+	 * Tells whether the triangle at index t has an edge between two vertices.
+	 */
+	private static boolean hasEdge ( int[] triangles, int t, int from, int to ) {
+		for ( int e = 0 ; e < 3 ; e++ ) {
+			int a = triangles[t + e], b = triangles[t + (e + 1) % 3];
+			if ( (a == from && b == to) || (a == to && b == from) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the vertex array of a complex shape, uploading it if it is new or
+	 * has changed: as a smooth mesh if its render mode is SMOOTH, and otherwise
+	 * as a polyhedron with outlined faces.
+	 *
+	 * @param textured
+	 *          Whether to supply the shape's texture coordinates, if it has
+	 *          any.
+	 */
+	Geometry mesh ( GL3 gl, ComplexShape shape, boolean textured ) {
+		purge(gl);
+		Mesh mesh = meshes.get(shape);
+		if ( mesh == null ) {
+			mesh = new Mesh(shape,collectedMeshes);
+			meshes.put(shape,mesh);
+			liveMeshes.add(mesh);
+		}
+		if ( mesh.geometry == null || !mesh.isCurrent(shape) ) {
+			if ( mesh.geometry != null ) {
+				delete(gl,mesh.geometry);
+			}
+			mesh.geometry = shape.getRenderMode() == RenderMode.SMOOTH
+			    ? smooth(gl,shape.getGeometry(),textured)
+			    : polyhedron(gl,shape.getGeometry(),textured);
+			mesh.packed = shape.getGeometry();
+			mesh.version = shape.getVersion();
+			mesh.mode = shape.getRenderMode();
+		}
+		return mesh.geometry;
+	}
+
+	/**
+	 * Uploads a shape's packed geometry as it is, with its vertex normals.
+	 */
+	private Geometry smooth ( GL3 gl, PackedGeometry packed, boolean textured ) {
+		Geometry geometry = create(gl);
+		upload(gl,geometry,packed.getVertexData(),packed.getIndices());
+		attribute(gl,POSITION,3,0,0);
+		attribute(gl,NORMAL,3,0,packed.getNormalOffset());
+		if ( textured && packed.hasVertexTexCoords() ) {
+			attribute(gl,TEX_COORD,2,0,packed.getTexCoordOffset());
+		}
+		gl.glBindVertexArray(0);
+		geometry.triangles = packed.getIndexCount();
+		geometry.offset = true;
+		geometry.lineWidth = 2;
+		return geometry;
+	}
+
+	/**
+	 * Uploads a shape's faces with their face normals, each corner a vertex of
+	 * its own, followed by the edges of each face.
+	 */
+	private Geometry polyhedron ( GL3 gl, PackedGeometry packed,
+	                              boolean textured ) {
+		FloatBuffer positions = packed.getVertexData();
+		FloatBuffer normals = packed.getFaceNormals();
+		IntBuffer starts = packed.getFaceStarts();
+		IntBuffer corners = packed.getFaceIndices();
+		IntBuffer texCoordRows = packed.getTexCoordRows();
+		FloatBuffer texCoords = packed.getTexCoords();
+		textured = textured && texCoordRows != null;
+		int faces = packed.getFaceCount();
+		int cornerCount = starts.get(faces);
+		int triangleCount = 0;
+		for ( int i = 0 ; i < faces ; i++ ) {
+			triangleCount += Math.max(starts.get(i + 1) - starts.get(i) - 2,0);
+		}
+
+		// position, normal and texture coordinates for each corner
+		FloatBuffer data = Buffers.newDirectFloatBuffer(8 * cornerCount);
+		IntBuffer indices =
+		    Buffers.newDirectIntBuffer(3 * triangleCount + 2 * cornerCount);
+		for ( int i = 0 ; i < faces ; i++ ) {
+			int start = starts.get(i), end = starts.get(i + 1);
+			for ( int j = start ; j < end ; j++ ) {
+				int v = 3 * corners.get(j);
+				data.put(positions.get(v)).put(positions.get(v + 1))
+				    .put(positions.get(v + 2));
+				data.put(normals.get(3 * i)).put(normals.get(3 * i + 1))
+				    .put(normals.get(3 * i + 2));
+				if ( textured ) {
+					int t = texCoordRows.get(i) + 2 * (j - start);
+					data.put(texCoords.get(t)).put(texCoords.get(t + 1));
+				} else {
+					data.put(0).put(0);
+				}
+				if ( j >= start + 2 ) { // a fan, as the face was drawn
+					indices.put(start).put(j - 1).put(j);
+				}
+			}
+		}
+		for ( int i = 0 ; i < faces ; i++ ) {
+			int start = starts.get(i), end = starts.get(i + 1);
+			for ( int j = start ; j < end ; j++ ) {
+				indices.put(j).put(j + 1 < end ? j + 1 : start);
+			}
+		}
+		data.flip();
+		indices.flip();
+
+		Geometry geometry = create(gl);
+		int stride = 8 * Buffers.SIZEOF_FLOAT;
+		upload(gl,geometry,data,indices);
+		attribute(gl,POSITION,3,stride,0);
+		attribute(gl,NORMAL,3,stride,3 * Buffers.SIZEOF_FLOAT);
+		if ( textured ) {
+			attribute(gl,TEX_COORD,2,stride,6 * Buffers.SIZEOF_FLOAT);
+		}
+		gl.glBindVertexArray(0);
+		geometry.triangles = 3 * triangleCount;
+		geometry.lines = 2 * cornerCount;
+		geometry.offset = true;
+		geometry.lineWidth = 3;
+		return geometry;
+	}
+
+	/**
+	 * Draws part of a vertex array's indices.
+	 *
+	 * @param mode
+	 *          GL_TRIANGLES or GL_LINES.
+	 * @param first
+	 *          The first index to draw.
+	 * @param count
+	 *          The number of indices.
+	 * @param instanceCount
+	 *          The number of instances to draw, or 0 for an ordinary draw.
+	 */
+	void draw ( GL3 gl, Geometry geometry, int mode, int first, int count,
+	            int instanceCount ) {
+		if ( count == 0 ) {
+			return;
+		}
+		gl.glBindVertexArray(geometry.vao);
+		long offset = (long) first * Buffers.SIZEOF_INT;
+		if ( instanceCount > 0 ) {
+			gl.glDrawElementsInstanced(mode,count,GL.GL_UNSIGNED_INT,offset,
+			                           instanceCount);
+			verticesDrawn += (long) count * instanceCount;
+		} else {
+			gl.glDrawElements(mode,count,GL.GL_UNSIGNED_INT,offset);
+			verticesDrawn += count;
+		}
+		drawCalls++;
+	}
+
+	/**
+	 * Sets up a vertex array to read an instanced node's transforms, and colors
+	 * if it has them, one per instance, uploading the instances written since
+	 * they were last uploaded. Call unbindInstances when done.
+	 *
+	 * @return The number of instances to draw.
+	 */
+	int bindInstances ( GL3 gl, Geometry geometry, InstancedShapeNode node ) {
+		purge(gl);
+		Instances entry = instances.get(node);
+		if ( entry == null ) {
+			entry = new Instances(node,collectedInstances);
+			int[] ids = new int[1];
+			gl.glGenBuffers(1,ids,0);
+			entry.vbo = ids[0];
+			instances.put(node,entry);
+			liveInstances.add(entry);
+		}
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,entry.vbo);
+		int count;
+		synchronized ( node ) {
+			int capacity = node.getCapacity();
+			boolean colored = node.hasColors();
+			if ( entry.capacity != capacity || entry.colored != colored ) {
+				gl.glBufferData(GL.GL_ARRAY_BUFFER,
+				                (colored ? 20L : 16L) * Buffers.SIZEOF_FLOAT * capacity,
+				                null,GL.GL_DYNAMIC_DRAW);
+				entry.capacity = capacity;
+				entry.colored = colored;
+				entry.token = -1; // everything must be uploaded
+			}
+			entry.token = node.takeChanges(entry.token,range);
+			if ( range[1] > range[0] ) {
+				upload(gl,node.getTransforms(),16,0,range[0],range[1]);
+				if ( colored ) {
+					upload(gl,node.getColors(),4,64L * capacity,range[0],range[1]);
+				}
+			}
+			count = node.getCount();
+		}
+
+		gl.glBindVertexArray(geometry.vao);
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			gl.glVertexAttribPointer(MATRIX + c,4,GL.GL_FLOAT,false,
+			                         16 * Buffers.SIZEOF_FLOAT,
+			                         4L * c * Buffers.SIZEOF_FLOAT);
+			gl.glVertexAttribDivisor(MATRIX + c,1);
+			gl.glEnableVertexAttribArray(MATRIX + c);
+		}
+		if ( entry.colored ) {
+			gl.glVertexAttribPointer(COLOR,4,GL.GL_FLOAT,false,0,
+			                         64L * entry.capacity);
+			gl.glVertexAttribDivisor(COLOR,1);
+			gl.glEnableVertexAttribArray(COLOR);
+		}
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,0);
+		return count;
+	}
+
+	/**
+	 * Uploads instances from..to of a buffer holding floats floats for each.
+	 */
+	private static void upload ( GL3 gl, FloatBuffer buffer, int floats,
+	                             long base, int from, int to ) {
+		FloatBuffer part = buffer.duplicate();
+		part.limit(floats * to);
+		part.position(floats * from);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER,
+		                   base + 4L * floats * from,
+		                   4L * floats * (to - from),part);
+	}
+
+	/**
+	 * Undoes bindInstances(), so the vertex array draws single shapes again.
+	 */
+	void unbindInstances ( GL3 gl, Geometry geometry ) {
+		gl.glBindVertexArray(geometry.vao);
+		for ( int c = 0 ; c < 4 ; c++ ) {
+			gl.glDisableVertexAttribArray(MATRIX + c);
+		}
+		gl.glDisableVertexAttribArray(COLOR);
+	}
+
+	/**
+	 * Creates a vertex array and its buffers, leaving the vertex array bound.
+	 */
+	private static Geometry create ( GL3 gl ) {
+		Geometry geometry = new Geometry();
+		int[] ids = new int[2];
+		gl.glGenVertexArrays(1,ids,0);
+		geometry.vao = ids[0];
+		gl.glGenBuffers(2,ids,0);
+		geometry.vbo = ids[0];
+		geometry.ibo = ids[1];
+		gl.glBindVertexArray(geometry.vao);
+		return geometry;
+	}
+
+	/**
+	 * Fills a vertex array's buffers, with the vertex buffer left bound for
+	 * attribute() and the index buffer recorded in the vertex array.
+	 */
+	private static void upload ( GL3 gl, Geometry geometry, FloatBuffer data,
+	                             IntBuffer indices ) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,geometry.vbo);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER,
+		                (long) data.remaining() * Buffers.SIZEOF_FLOAT,data,
+		                GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER,geometry.ibo);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+		                (long) indices.remaining() * Buffers.SIZEOF_INT,indices,
+		                GL.GL_STATIC_DRAW);
+	}
+
+	private static void attribute ( GL3 gl, int index, int size, int stride,
+	                                long offset ) {
+		gl.glVertexAttribPointer(index,size,GL.GL_FLOAT,false,stride,offset);
+		gl.glEnableVertexAttribArray(index);
+	}
+
+	private static void delete ( GL3 gl, Geometry geometry ) {
+		gl.glDeleteVertexArrays(1,new int[] { geometry.vao },0);
+		gl.glDeleteBuffers(2,new int[] { geometry.vbo, geometry.ibo },0);
+	}
+
+	private void evict ( GL3 gl ) {
+		for ( Iterator<Geometry> it = primitives.values().iterator() ; it
+		    .hasNext() && primitives.size() > capacity ; ) {
+			Geometry geometry = it.next();
+			if ( geometry.frame == frame ) {
+				break; // it and everything after it were drawn this frame
+			}
+			delete(gl,geometry);
+			it.remove();
+		}
+	}
+
+	/**
+	 * Deletes the buffers of shapes and nodes that have been garbage collected.
+	 */
+	private void purge ( GL3 gl ) {
+		Object ref;
+		while ( (ref = collectedMeshes.poll()) != null ) {
+			Mesh mesh = (Mesh) ref;
+			if ( liveMeshes.remove(mesh) && mesh.geometry != null ) {
+				delete(gl,mesh.geometry);
+			}
+		}
+		while ( (ref = collectedInstances.poll()) != null ) {
+			Instances entry = (Instances) ref;
+			if ( liveInstances.remove(entry) ) {
+				gl.glDeleteBuffers(1,new int[] { entry.vbo },0);
+			}
+		}
+	}
+
+	/**
+	 * Deletes all vertex arrays and buffers. Called when the GL context is
+	 * being destroyed.
+	 *
+	 * @param gl
+	 *          The current GL context.
+	 */
+	public void dispose ( GL3 gl ) {
+		for ( Geometry geometry : primitives.values() ) {
+			delete(gl,geometry);
+		}
+		primitives.clear();
+		for ( Mesh mesh : liveMeshes ) {
+			if ( mesh.geometry != null ) {
+				delete(gl,mesh.geometry);
+			}
+			mesh.clear();
+		}
+		liveMeshes.clear();
+		meshes.clear();
+		while ( collectedMeshes.poll() != null ) {}
+		for ( Instances entry : liveInstances ) {
+			gl.glDeleteBuffers(1,new int[] { entry.vbo },0);
+			entry.clear();
+		}
+		liveInstances.clear();
+		instances.clear();
+		while ( collectedInstances.poll() != null ) {}
+	}
+}
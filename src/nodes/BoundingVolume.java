@@ -0,0 +1,244 @@
+package nodes;
+
+import java.nio.FloatBuffer;
+
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.PackedGeometry;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+
+/**
+ * An axis-aligned bounding box, which may also be empty (nothing to draw) or
+ * unbounded (the extent is unknown, e.g. because it changes every frame).
+ * The bounding sphere used for culling is the sphere around the box.
+ *
+ * @author Sayf Elhawary
+ */
+public class BoundingVolume {
+
+	private boolean empty;
+	private boolean unbounded;
+	private float minX, minY, minZ;
+	private float maxX, maxY, maxZ;
+
+	/**
+	 * Constructs an empty bounding volume.
+	 */
+	public BoundingVolume () {
+		setEmpty();
+	}
+
+	/**
+	 * Makes this volume empty.
+	 */
+	public void setEmpty () {
+		empty = true;
+		unbounded = false;
+	}
+
+	/**
+	 * Makes this volume unbounded.
+	 */
+	public void setUnbounded () {
+		empty = false;
+		unbounded = true;
+	}
+
+	/**
+	 * Sets this volume to a box.
+	 */
+	public void set ( float minX, float minY, float minZ, float maxX, float maxY,
+	                  float maxZ ) {
+		empty = false;
+		unbounded = false;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	public boolean isEmpty () {
+		return empty;
+	}
+
+	public boolean isUnbounded () {
+		return unbounded;
+	}
+
+	public float getMinX () {
+		return minX;
+	}
+
+	public float getMinY () {
+		return minY;
+	}
+
+	public float getMinZ () {
+		return minZ;
+	}
+
+	public float getMaxX () {
+		return maxX;
+	}
+
+	public float getMaxY () {
+		return maxY;
+	}
+
+	public float getMaxZ () {
+		return maxZ;
+	}
+
+	public float getCenterX () {
+		return (minX + maxX) / 2;
+	}
+
+	public float getCenterY () {
+		return (minY + maxY) / 2;
+	}
+
+	public float getCenterZ () {
+		return (minZ + maxZ) / 2;
+	}
+
+	/**
+	 * Gets the radius of the sphere around the box.
+	 *
+	 * @return Half the length of the box's diagonal.
+	 */
+	public float getRadius () {
+		float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+	}
+
+	/**
+	 * Grows this volume to contain another one, after transforming it by a
+	 * matrix.
+	 *
+	 * @param other
+	 *          The volume to include.
+	 * @param m
+	 *          A column-major 4x4 affine matrix, or null for the identity.
+	 */
+	public void include ( BoundingVolume other, float[] m ) {
+		if ( unbounded || other.empty ) {
+			return;
+		}
+		if ( other.unbounded ) {
+			setUnbounded();
+			return;
+		}
+		float x0 = other.minX, y0 = other.minY, z0 = other.minZ;
+		float x1 = other.maxX, y1 = other.maxY, z1 = other.maxZ;
+		if ( m != null ) {
+			// transform the center and take the extent along each new axis
+			float cx = (x0 + x1) / 2, cy = (y0 + y1) / 2, cz = (z0 + z1) / 2;
+			float ex = (x1 - x0) / 2, ey = (y1 - y0) / 2, ez = (z1 - z0) / 2;
+			float tx = m[0] * cx + m[4] * cy + m[8] * cz + m[12];
+			float ty = m[1] * cx + m[5] * cy + m[9] * cz + m[13];
+			float tz = m[2] * cx + m[6] * cy + m[10] * cz + m[14];
+			float rx = Math.abs(m[0]) * ex + Math.abs(m[4]) * ey + Math.abs(m[8]) * ez;
+			float ry = Math.abs(m[1]) * ex + Math.abs(m[5]) * ey + Math.abs(m[9]) * ez;
+			float rz =
+			    Math.abs(m[2]) * ex + Math.abs(m[6]) * ey + Math.abs(m[10]) * ez;
+			x0 = tx - rx;
+			x1 = tx + rx;
+			y0 = ty - ry;
+			y1 = ty + ry;
+			z0 = tz - rz;
+			z1 = tz + rz;
+		}
+		if ( empty ) {
+			set(x0,y0,z0,x1,y1,z1);
+		} else {
+			set(Math.min(minX,x0),Math.min(minY,y0),Math.min(minZ,z0),
+			    Math.max(maxX,x1),Math.max(maxY,y1),Math.max(maxZ,z1));
+		}
+	}
+
+	/**
+	 * Sets this volume to the extent of a shape as the renderer draws it. Shapes
+	 * of classes outside this library are unbounded.
+	 *
+	 * @param shape
+	 *          The shape.
+	 */
+	public void setShape ( Shape shape ) {
+		Class<?> c = shape.getClass();
+		if ( c == Cube.class ) {
+			setCube(((Cube) shape).getSideLength());
+		} else if ( c == Teapot.class ) {
+			setCube(((Teapot) shape).getSideLength()); // drawn as a cube
+		} else if ( c == Sphere.class ) {
+			float r = (float) Math.abs(((Sphere) shape).getRadius());
+			set(-r,-r,-r,r,r,r);
+		} else if ( c == Cone.class ) {
+			Cone cone = (Cone) shape;
+			setColumn((float) Math.abs(cone.getBase()),(float) cone.getHeight());
+		} else if ( c == Cylinder.class ) {
+			Cylinder cylinder = (Cylinder) shape;
+			setColumn((float) Math.abs(cylinder.getRadius()),
+			          (float) cylinder.getHeight());
+		} else if ( c == Torus.class ) {
+			// the inner radius is the tube's, the outer radius the ring's
+			Torus torus = (Torus) shape;
+			float tube = (float) Math.abs(torus.getInnerRadius());
+			float r = tube + (float) Math.abs(torus.getOuterRadius());
+			set(-r,-r,-tube,r,r,tube);
+		} else if ( c == ComplexShape.class ) {
+			ComplexShape complex = (ComplexShape) shape;
+			if ( complex.isPacked() ) {
+				PackedGeometry geometry = complex.getGeometry();
+				setVertices(geometry.getVertexData(),geometry.getVertexCount());
+			} else {
+				setVertices(complex.vertices);
+			}
+		} else {
+			setUnbounded();
+		}
+	}
+
+	private void setCube ( float side ) {
+		float h = Math.abs(side) / 2;
+		set(-h,-h,-h,h,h,h);
+	}
+
+	// cones and cylinders stand on the xy plane and extend along z
+	private void setColumn ( float radius, float height ) {
+		set(-radius,-radius,Math.min(0,height),radius,radius,Math.max(0,height));
+	}
+
+	private void setVertices ( double[][] vertices ) {
+		setEmpty();
+		for ( double[] v : vertices ) {
+			float x = (float) v[0], y = (float) v[1], z = (float) v[2];
+			if ( empty ) {
+				set(x,y,z,x,y,z);
+			} else {
+				set(Math.min(minX,x),Math.min(minY,y),Math.min(minZ,z),
+				    Math.max(maxX,x),Math.max(maxY,y),Math.max(maxZ,z));
+			}
+		}
+	}
+
+	// the first count vertices of packed vertex data, 3 floats each
+	private void setVertices ( FloatBuffer data, int count ) {
+		setEmpty();
+		for ( int i = 0 ; i < count ; i++ ) {
+			float x = data.get(3 * i), y = data.get(3 * i + 1), z = data.get(3 * i + 2);
+			if ( empty ) {
+				set(x,y,z,x,y,z);
+			} else {
+				set(Math.min(minX,x),Math.min(minY,y),Math.min(minZ,z),
+				    Math.max(maxX,x),Math.max(maxY,y),Math.max(maxZ,z));
+			}
+		}
+	}
+}
@@ -8,7 +8,7 @@ import main.Renderer;
  */
 public class CameraNode extends PartialScene {
 
-	private Camera camera;
+	private volatile Camera camera;
 
 	/**
 	 * Constructs a CameraNode with the specified camera.
@@ -19,6 +19,7 @@ public class CameraNode extends PartialScene {
 	public CameraNode ( Camera camera ) {
 		super();
 		this.camera = camera;
+		camera.addChangeListener(this);
 	}
 
 	/**
@@ -37,7 +38,10 @@ public class CameraNode extends PartialScene {
 	 *          The new camera to be associated with this node.
 	 */
 	public void setCamera ( Camera camera ) {
+		this.camera.removeChangeListener(this);
+		camera.addChangeListener(this);
 		this.camera = camera;
+		structureChanged();
 	}
 
 	/**
@@ -51,4 +55,15 @@ public class CameraNode extends PartialScene {
 	public void draw ( Renderer renderer ) {
 		camera.apply(renderer);
 	}
+
+	/**
+	 * The camera sets up the view used for culling, so a subtree containing
+	 * it is never culled.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setUnbounded();
+	}
 }
@@ -0,0 +1,478 @@
+package nodes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import lights.DirectionalLight;
+import lights.Light;
+import lights.PointLight;
+import lights.SpotLight;
+import shapes.ComplexShape;
+import shapes.Cone;
+import shapes.Cube;
+import shapes.Cylinder;
+import shapes.Shape;
+import shapes.Sphere;
+import shapes.Teapot;
+import shapes.Torus;
+import transformations.AnimatedRotation;
+import transformations.AnimatedScale;
+import transformations.AnimatedTranslation;
+import transformations.KeyframeAnimation;
+import transformations.KeyframeTransform;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Transform;
+import transformations.Translation;
+
+/**
+ * A scene graph flattened into a linear stream of commands. Each command is
+ * an opcode plus one operand (the camera, light, material, texture node,
+ * transform or shape it applies to) and an integer argument. A PUSH command's
+ * operand is the PartialScene it opens and its argument is the index of the
+ * matching POP, so that a culled subtree can be skipped. The stream is executed by
+ * {@link main.Renderer#execute(CommandBuffer)} in a single loop instead of a
+ * recursive walk over the nodes.
+ *
+ * Operands are referenced rather than copied, so changing a transform's or
+ * material's values does not require recompiling. Replacing a node's
+ * contents or adding or removing children does; {@link #isCurrent()} reports
+ * when that has happened.
+ *
+ * Nodes, shapes, lights and transforms of classes outside this library are
+ * compiled to generic commands that call their own draw or apply method, so
+ * custom subclasses keep working.
+ *
+ * Groups made only of groups, materials, textures, library shapes and fixed
+ * transforms are marked as recordable: what they draw depends on nothing but
+ * their contents and the state they are entered with, so the renderer can
+ * record it once and replay it (see {@link PartialScene#setStatic(boolean)}).
+ *
+ * @author Sayf Elhawary
+ */
+public class CommandBuffer {
+
+	public static final int PUSH = 0;
+	public static final int POP = 1;
+	public static final int CAMERA = 2;
+	public static final int POINT_LIGHT = 3;
+	public static final int DIRECTIONAL_LIGHT = 4;
+	public static final int SPOT_LIGHT = 5;
+	public static final int LIGHT = 6; // any other Light subclass
+	public static final int MATERIAL = 7;
+	public static final int TEXTURE = 8;
+	public static final int TRANSLATE = 9;
+	public static final int ROTATE = 10;
+	public static final int SCALE = 11;
+	public static final int ANIMATED_TRANSLATE = 12;
+	public static final int ANIMATED_ROTATE = 13;
+	public static final int ANIMATED_SCALE = 14;
+	public static final int TRANSFORM = 15; // any other Transform subclass
+	public static final int CUBE = 16;
+	public static final int SPHERE = 17;
+	public static final int CONE = 18;
+	public static final int TORUS = 19;
+	public static final int CYLINDER = 20;
+	public static final int TEAPOT = 21;
+	public static final int COMPLEX_SHAPE = 22;
+	public static final int SHAPE = 23; // any other Shape subclass
+	public static final int NODE = 24; // any other PartialScene subclass
+	public static final int KEYFRAME = 25;
+	public static final int INSTANCES = 26; // an InstancedShapeNode
+
+	// what the update phase found out about each group, at its PUSH
+	public static final byte UNDETERMINED = 0;
+	public static final byte VISIBLE = 1;
+	public static final byte CULLED = 2;
+
+	private int[] ops;
+	private Object[] operands;
+	private int[] args;
+	private int size;
+	// matrices cached by the renderer: one per command, then the identity
+	private float[] worldMatrices;
+	private int[] worldVersions;
+	private long[] worldTicks;
+	// written by the update phase: visibility and bounds for each PUSH
+	private byte[] visibility;
+	private float[] worldBounds;
+	// for each PUSH: whether its group can be recorded, and whether the
+	// renderer drew it from a recording in the last frame
+	private boolean[] recordable;
+	private boolean[] recorded;
+	private int[] cameras; // indices of the CAMERA commands
+	private int cameraCount;
+	// the animations of the KEYFRAME commands, each once
+	private KeyframeAnimation[] animations;
+	private int animationCount;
+	private final Set<KeyframeAnimation> animationSet;
+	// the root compiled from, and its structure version then
+	private PartialScene root;
+	private long version;
+	private boolean compiled;
+
+	/**
+	 * Constructs an empty command buffer.
+	 */
+	public CommandBuffer () {
+		ops = new int[64];
+		operands = new Object[64];
+		args = new int[64];
+		size = 0;
+		worldMatrices = new float[16];
+		worldVersions = new int[0];
+		worldTicks = new long[0];
+		visibility = new byte[0];
+		worldBounds = new float[0];
+		recordable = new boolean[64];
+		recorded = new boolean[0];
+		cameras = new int[4];
+		animations = new KeyframeAnimation[4];
+		animationSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		compiled = false;
+	}
+
+	/**
+	 * Rebuilds the command stream from a scene graph.
+	 *
+	 * @param root
+	 *          The root node of the graph.
+	 */
+	public void compile ( PartialScene root ) {
+		// read first, so that a change made while compiling is not missed
+		version = root.getStructureVersion();
+		this.root = root;
+		Arrays.fill(operands,0,size,null);
+		size = 0;
+		cameraCount = 0;
+		Arrays.fill(animations,0,animationCount,null);
+		animationCount = 0;
+		compileNode(root);
+		animationSet.clear();
+		if ( worldMatrices.length < 16 * (size + 1) ) {
+			worldMatrices = new float[16 * (size + 1)];
+			worldVersions = new int[size];
+			worldTicks = new long[size];
+			visibility = new byte[size];
+			worldBounds = new float[4 * size];
+			recorded = new boolean[size];
+		}
+		Arrays.fill(worldMatrices,16 * size,16 * (size + 1),0);
+		for ( int i = 16 * size ; i < 16 * (size + 1) ; i += 5 ) {
+			worldMatrices[i] = 1;
+		}
+		Arrays.fill(worldVersions,0,size,-1);
+		Arrays.fill(worldTicks,0,size,-1);
+		Arrays.fill(visibility,0,size,UNDETERMINED);
+		Arrays.fill(recorded,0,size,false);
+		compiled = true;
+	}
+
+	/**
+	 * Tells whether the stream still matches the scene graph it was compiled
+	 * from, i.e. no structural change has been made to that graph since.
+	 * Changes to other scenes do not matter.
+	 *
+	 * @return true if the buffer has been compiled and is up to date.
+	 */
+	public boolean isCurrent () {
+		return compiled && version == root.getStructureVersion();
+	}
+
+	/**
+	 * Gets the number of commands in the stream.
+	 *
+	 * @return The number of commands.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Gets the opcodes. Only the first size() entries are valid.
+	 *
+	 * @return The opcode array.
+	 */
+	public int[] getOps () {
+		return ops;
+	}
+
+	/**
+	 * Gets the operands, parallel to the opcodes. Only the first size() entries
+	 * are valid.
+	 *
+	 * @return The operand array.
+	 */
+	public Object[] getOperands () {
+		return operands;
+	}
+
+	/**
+	 * Gets the integer arguments, parallel to the opcodes. Only the first size()
+	 * entries are valid.
+	 *
+	 * @return The argument array.
+	 */
+	public int[] getArgs () {
+		return args;
+	}
+
+	/**
+	 * Gets the renderer's matrix cache for this buffer: 16 floats (a
+	 * column-major matrix) for each command, followed by the identity. The
+	 * renderer stores the matrix in effect after each transform in that
+	 * transform's slot. Recompiling discards the cache.
+	 *
+	 * @return The cached matrices.
+	 */
+	public float[] getWorldMatrices () {
+		return worldMatrices;
+	}
+
+	/**
+	 * Gets the version of each command's transform when its cached matrix was
+	 * computed, or -1 if it has not been computed.
+	 *
+	 * @return The cache versions, parallel to the opcodes.
+	 */
+	public int[] getWorldVersions () {
+		return worldVersions;
+	}
+
+	/**
+	 * Gets the animation clock tick each animated transform's cached matrix was
+	 * computed for, or -1 if it has not been computed.
+	 *
+	 * @return The cache ticks, parallel to the opcodes.
+	 */
+	public long[] getWorldTicks () {
+		return worldTicks;
+	}
+
+	/**
+	 * Gets what the update phase last found out about each group: VISIBLE,
+	 * CULLED or UNDETERMINED, at the group's PUSH command. Groups the update
+	 * phase could not work out (after a custom node or transform) are
+	 * UNDETERMINED, and the renderer tests them itself.
+	 *
+	 * @return The visibility of each group, parallel to the opcodes.
+	 */
+	public byte[] getVisibility () {
+		return visibility;
+	}
+
+	/**
+	 * Gets the bounds the update phase last computed for each group, at its PUSH
+	 * command: the center (x,y,z) and radius of a bounding sphere, in the
+	 * coordinates of the world matrices. The radius is infinite for unbounded
+	 * groups and negative for empty ones.
+	 *
+	 * @return Four floats for each command.
+	 */
+	public float[] getWorldBounds () {
+		return worldBounds;
+	}
+
+	/**
+	 * Tells, at each PUSH command, whether the group can be recorded and
+	 * replayed: whether it holds nothing but groups, materials, textures,
+	 * library shapes and non-animated transforms.
+	 *
+	 * @return Whether each group is recordable, parallel to the opcodes.
+	 */
+	public boolean[] getRecordable () {
+		return recordable;
+	}
+
+	/**
+	 * Gets whether the renderer drew each group from a recording in the last
+	 * frame, at the group's PUSH command. The update phase leaves such groups
+	 * alone, as it does culled ones; the renderer clears the flag when it draws
+	 * the group by executing its commands again.
+	 *
+	 * @return Whether each group was replayed, parallel to the opcodes.
+	 */
+	public boolean[] getRecorded () {
+		return recorded;
+	}
+
+	/**
+	 * Gets the indices of the CAMERA commands, in order. Only the first
+	 * getCameraCount() entries are valid.
+	 *
+	 * @return The command indices.
+	 */
+	public int[] getCameras () {
+		return cameras;
+	}
+
+	/**
+	 * Gets the number of CAMERA commands.
+	 *
+	 * @return The number of cameras.
+	 */
+	public int getCameraCount () {
+		return cameraCount;
+	}
+
+	/**
+	 * Gets the animations the KEYFRAME commands' transforms belong to, each
+	 * once, so that they can be evaluated once per tick before the commands
+	 * are. Only the first getAnimationCount() entries are valid.
+	 *
+	 * @return The animations.
+	 */
+	public KeyframeAnimation[] getAnimations () {
+		return animations;
+	}
+
+	/**
+	 * Gets the number of distinct animations of the KEYFRAME commands.
+	 *
+	 * @return The number of animations.
+	 */
+	public int getAnimationCount () {
+		return animationCount;
+	}
+
+	private int emit ( int op, Object operand ) {
+		if ( size == ops.length ) {
+			ops = Arrays.copyOf(ops,size * 2);
+			operands = Arrays.copyOf(operands,size * 2);
+			args = Arrays.copyOf(args,size * 2);
+			recordable = Arrays.copyOf(recordable,size * 2);
+		}
+		ops[size] = op;
+		operands[size] = operand;
+		args[size] = 0;
+		recordable[size] = false;
+		return size++;
+	}
+
+	/**
+	 * Emits the commands equivalent to node.draw(renderer).
+	 *
+	 * @return Whether the commands can be recorded.
+	 */
+	private boolean compileNode ( PartialScene node ) {
+		Class<?> c = node.getClass();
+		if ( c == PartialScene.class ) {
+			int push = emit(PUSH,node);
+			boolean fixed = true;
+			List<PartialScene> children = node.getChildren();
+			for ( int i = 0 ; i < children.size() ; i++ ) {
+				fixed &= compileNode(children.get(i));
+			}
+			args[push] = emit(POP,null);
+			recordable[push] = fixed;
+			return fixed;
+		} else if ( c == ShapeNode.class ) {
+			return compileShape(((ShapeNode) node).getShape()) != SHAPE;
+		} else if ( c == TransformNode.class ) {
+			int op = compileTransform(((TransformNode) node).getTransform());
+			return op == TRANSLATE || op == ROTATE || op == SCALE;
+		} else if ( c == MaterialNode.class ) {
+			emit(MATERIAL,((MaterialNode) node).getMaterial());
+			return true;
+		} else if ( c == TextureNode.class ) {
+			emit(TEXTURE,node);
+			return true;
+		} else if ( c == InstancedShapeNode.class ) {
+			emit(INSTANCES,node);
+			return false;
+		} else if ( c == LightNode.class ) {
+			compileLight(((LightNode) node).getLight());
+			return false;
+		} else if ( c == CameraNode.class ) {
+			if ( cameraCount == cameras.length ) {
+				cameras = Arrays.copyOf(cameras,cameraCount * 2);
+			}
+			cameras[cameraCount++] = emit(CAMERA,((CameraNode) node).getCamera());
+			return false;
+		} else {
+			emit(NODE,node);
+			return false;
+		}
+	}
+
+	/**
+	 * Emits the command that draws a shape.
+	 *
+	 * @return The opcode emitted.
+	 */
+	private int compileShape ( Shape shape ) {
+		Class<?> c = shape.getClass();
+		int op;
+		if ( c == Cube.class ) {
+			op = CUBE;
+		} else if ( c == Sphere.class ) {
+			op = SPHERE;
+		} else if ( c == Cone.class ) {
+			op = CONE;
+		} else if ( c == Torus.class ) {
+			op = TORUS;
+		} else if ( c == Cylinder.class ) {
+			op = CYLINDER;
+		} else if ( c == Teapot.class ) {
+			op = TEAPOT;
+		} else if ( c == ComplexShape.class ) {
+			op = COMPLEX_SHAPE;
+		} else {
+			op = SHAPE;
+		}
+		emit(op,shape);
+		return op;
+	}
+
+	/**
+	 * Emits the command that applies a transform.
+	 *
+	 * @return The opcode emitted.
+	 */
+	private int compileTransform ( Transform t ) {
+		Class<?> c = t.getClass();
+		int op;
+		if ( c == Translation.class ) {
+			op = TRANSLATE;
+		} else if ( c == Rotation.class ) {
+			op = ROTATE;
+		} else if ( c == Scale.class ) {
+			op = SCALE;
+		} else if ( c == AnimatedTranslation.class ) {
+			op = ANIMATED_TRANSLATE;
+		} else if ( c == AnimatedRotation.class ) {
+			op = ANIMATED_ROTATE;
+		} else if ( c == AnimatedScale.class ) {
+			op = ANIMATED_SCALE;
+		} else if ( c == KeyframeTransform.class ) {
+			op = KEYFRAME;
+			KeyframeAnimation animation = ((KeyframeTransform) t).getAnimation();
+			if ( animationSet.add(animation) ) {
+				if ( animationCount == animations.length ) {
+					animations = Arrays.copyOf(animations,animationCount * 2);
+				}
+				animations[animationCount++] = animation;
+			}
+		} else {
+			op = TRANSFORM;
+		}
+		emit(op,t);
+		return op;
+	}
+
+	private void compileLight ( Light light ) {
+		Class<?> c = light.getClass();
+		if ( c == PointLight.class ) {
+			emit(POINT_LIGHT,light);
+		} else if ( c == DirectionalLight.class ) {
+			emit(DIRECTIONAL_LIGHT,light);
+		} else if ( c == SpotLight.class ) {
+			emit(SPOT_LIGHT,light);
+		} else {
+			emit(LIGHT,light);
+		}
+	}
+}
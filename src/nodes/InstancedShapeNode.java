@@ -0,0 +1,371 @@
+package nodes;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+import main.ChangeListener;
+import main.Renderer;
+import shapes.Shape;
+
+/**
+ * Draws many copies of one shape, each with its own transform and, optionally,
+ * its own color. The instances are held in packed buffers rather than as nodes:
+ * 16 floats per instance for the transform (a column-major matrix, applied
+ * after the transforms in effect where the node is drawn) and 4 floats (r, g,
+ * b, a) per instance for the colors. A color replaces the ambient and diffuse
+ * colors of the current material for its instance.
+ *
+ * The renderer draws the instances with one instanced draw call where GL
+ * supports it, and otherwise as one pre-transformed batch or with the shape's
+ * buffers bound once for all of them (see {@link main.InstanceCache}). It
+ * remembers which instances were written since it last uploaded them, so
+ * changing a few instances only uploads those.
+ *
+ * Instances are written with setTransform and setColor, or in bulk through the
+ * buffers from getTransforms and getColors followed by a call to changed.
+ * Writes may be made from any thread; they are seen by the next frame.
+ *
+ * The node has no bounds, as its instances may move every frame, so it is
+ * never culled.
+ *
+ * @author Sayf Elhawary
+ */
+public class InstancedShapeNode extends PartialScene {
+
+	private volatile Shape shape;
+	private final FloatBuffer transforms;
+	private final FloatBuffer colors; // null if the instances have no colors
+	private final int capacity;
+	private volatile int count;
+
+	// the instances written since the last takeChanges, and a token that
+	// changes with each takeChanges
+	private int dirtyFrom, dirtyTo;
+	private int token;
+
+	/**
+	 * Constructs a node with room for a number of instances, all of them drawn.
+	 * Each instance starts with the identity transform and, if there are
+	 * colors, white.
+	 *
+	 * @param shape
+	 *          The shape drawn for each instance.
+	 * @param capacity
+	 *          The number of instances.
+	 * @param colored
+	 *          Whether the instances have their own colors.
+	 * @throws IllegalArgumentException
+	 *           If capacity is negative.
+	 */
+	public InstancedShapeNode ( Shape shape, int capacity, boolean colored ) {
+		this(shape,identities(capacity),
+		     colored ? white(capacity) : null);
+	}
+
+	/**
+	 * Constructs a node drawing the instances held in the given buffers, all
+	 * of them. The buffers are used, not copied; write to them through the node
+	 * afterwards, or call changed after writing to them directly.
+	 *
+	 * @param shape
+	 *          The shape drawn for each instance.
+	 * @param transforms
+	 *          A direct buffer holding 16 floats for each instance, from index
+	 *          0 to its capacity.
+	 * @param colors
+	 *          A direct buffer holding 4 floats for each instance, or null if
+	 *          the instances have no colors.
+	 * @throws IllegalArgumentException
+	 *           If a buffer is not direct, or the buffers' capacities do not
+	 *           hold a whole number of instances or do not match.
+	 */
+	public InstancedShapeNode ( Shape shape, FloatBuffer transforms,
+	                            FloatBuffer colors ) {
+		super();
+		if ( !transforms.isDirect() || (colors != null && !colors.isDirect()) ) {
+			throw new IllegalArgumentException("instance buffers must be direct");
+		}
+		if ( transforms.capacity() % 16 != 0 ) {
+			throw new IllegalArgumentException("transforms must hold 16 floats per instance");
+		}
+		capacity = transforms.capacity() / 16;
+		if ( colors != null && colors.capacity() != 4 * capacity ) {
+			throw new IllegalArgumentException("colors must hold 4 floats per instance, for "
+			    + capacity + " instances");
+		}
+		this.shape = shape;
+		shape.addChangeListener(this);
+		this.transforms = transforms;
+		this.colors = colors;
+		count = capacity;
+	}
+
+	private static FloatBuffer identities ( int capacity ) {
+		if ( capacity < 0 ) {
+			throw new IllegalArgumentException("negative capacity " + capacity);
+		}
+		FloatBuffer buffer = Buffers.newDirectFloatBuffer(16 * capacity);
+		for ( int i = 0 ; i < capacity ; i++ ) {
+			for ( int k = 0 ; k < 16 ; k += 5 ) {
+				buffer.put(16 * i + k,1);
+			}
+		}
+		return buffer;
+	}
+
+	private static FloatBuffer white ( int capacity ) {
+		FloatBuffer buffer = Buffers.newDirectFloatBuffer(4 * capacity);
+		for ( int i = 0 ; i < 4 * capacity ; i++ ) {
+			buffer.put(i,1);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Retrieves the shape drawn for each instance.
+	 *
+	 * @return The shape.
+	 */
+	public Shape getShape () {
+		return shape;
+	}
+
+	/**
+	 * Sets the shape drawn for each instance.
+	 *
+	 * @param shape
+	 *          The new shape.
+	 */
+	public void setShape ( Shape shape ) {
+		this.shape.removeChangeListener(this);
+		shape.addChangeListener(this);
+		this.shape = shape;
+		structureChanged();
+	}
+
+	/**
+	 * Gets the number of instances the buffers hold.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity () {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of instances drawn: the first count in the buffers.
+	 *
+	 * @return The number of instances drawn.
+	 */
+	public int getCount () {
+		return count;
+	}
+
+	/**
+	 * Sets the number of instances drawn, e.g. to hide the last ones without
+	 * uploading anything.
+	 *
+	 * @param count
+	 *          The number of instances to draw, from the first.
+	 * @throws IllegalArgumentException
+	 *           If count is negative or more than the capacity.
+	 */
+	public void setCount ( int count ) {
+		if ( count < 0 || count > capacity ) {
+			throw new IllegalArgumentException("count " + count
+			    + " is outside 0.." + capacity);
+		}
+		this.count = count;
+		contentsChanged(ChangeListener.GEOMETRY);
+	}
+
+	/**
+	 * Tells whether the instances have their own colors.
+	 *
+	 * @return true if there is a color buffer.
+	 */
+	public boolean hasColors () {
+		return colors != null;
+	}
+
+	/**
+	 * Gets the transform buffer, 16 floats per instance, for writing many
+	 * instances at once. Use absolute puts, and call changed afterwards with
+	 * the instances written.
+	 *
+	 * @return The buffer itself, not a copy.
+	 */
+	public FloatBuffer getTransforms () {
+		return transforms;
+	}
+
+	/**
+	 * Gets the color buffer, 4 floats per instance, for writing many instances
+	 * at once. Use absolute puts, and call changed afterwards with the
+	 * instances written.
+	 *
+	 * @return The buffer itself, or null if the instances have no colors.
+	 */
+	public FloatBuffer getColors () {
+		return colors;
+	}
+
+	/**
+	 * Sets an instance's transform.
+	 *
+	 * @param instance
+	 *          The index of the instance.
+	 * @param matrix
+	 *          An array holding a column-major matrix.
+	 * @param offset
+	 *          The index of the matrix's first element in the array.
+	 */
+	public synchronized void setTransform ( int instance, float[] matrix,
+	                                        int offset ) {
+		check(instance);
+		int at = 16 * instance;
+		for ( int k = 0 ; k < 16 ; k++ ) {
+			transforms.put(at + k,matrix[offset + k]);
+		}
+		changed(instance,instance + 1);
+	}
+
+	/**
+	 * Sets an instance's transform to a translation, the common case of copies
+	 * that only differ in where they are.
+	 *
+	 * @param instance
+	 *          The index of the instance.
+	 */
+	public synchronized void setTranslation ( int instance, float x, float y,
+	                                          float z ) {
+		check(instance);
+		int at = 16 * instance;
+		for ( int k = 0 ; k < 12 ; k++ ) {
+			transforms.put(at + k,k % 5 == 0 ? 1 : 0);
+		}
+		transforms.put(at + 12,x);
+		transforms.put(at + 13,y);
+		transforms.put(at + 14,z);
+		transforms.put(at + 15,1);
+		changed(instance,instance + 1);
+	}
+
+	/**
+	 * Copies an instance's transform into an array.
+	 *
+	 * @param instance
+	 *          The index of the instance.
+	 * @param matrix
+	 *          The array to receive the column-major matrix.
+	 * @param offset
+	 *          The index in the array of the matrix's first element.
+	 */
+	public synchronized void getTransform ( int instance, float[] matrix,
+	                                        int offset ) {
+		check(instance);
+		for ( int k = 0 ; k < 16 ; k++ ) {
+			matrix[offset + k] = transforms.get(16 * instance + k);
+		}
+	}
+
+	/**
+	 * Sets an instance's color.
+	 *
+	 * @param instance
+	 *          The index of the instance.
+	 * @throws IllegalStateException
+	 *           If the instances have no colors.
+	 */
+	public synchronized void setColor ( int instance, float r, float g, float b,
+	                                    float a ) {
+		if ( colors == null ) {
+			throw new IllegalStateException("the instances have no colors");
+		}
+		check(instance);
+		int at = 4 * instance;
+		colors.put(at,r);
+		colors.put(at + 1,g);
+		colors.put(at + 2,b);
+		colors.put(at + 3,a);
+		changed(instance,instance + 1);
+	}
+
+	/**
+	 * Tells the node that instances have been written directly to its
+	 * buffers, so that they are uploaded again.
+	 *
+	 * @param from
+	 *          The first instance written.
+	 * @param to
+	 *          One past the last instance written.
+	 * @throws IllegalArgumentException
+	 *           If the range is not within the capacity.
+	 */
+	public void changed ( int from, int to ) {
+		if ( from < 0 || to > capacity || from > to ) {
+			throw new IllegalArgumentException("instances " + from + ".." + to
+			    + " are outside 0.." + capacity);
+		}
+		if ( from == to ) {
+			return;
+		}
+		synchronized ( this ) {
+			if ( dirtyFrom == dirtyTo ) {
+				dirtyFrom = from;
+				dirtyTo = to;
+			} else {
+				dirtyFrom = Math.min(dirtyFrom,from);
+				dirtyTo = Math.max(dirtyTo,to);
+			}
+		}
+		contentsChanged(ChangeListener.GEOMETRY);
+	}
+
+	/**
+	 * Collects the instances written since the caller last collected them, and
+	 * starts collecting anew. A caller that was not the last to collect gets all
+	 * instances, since it has missed changes.
+	 *
+	 * Intended for the renderer, which calls it with the node locked while it
+	 * reads the buffers.
+	 *
+	 * @param since
+	 *          The token this method returned to the caller last time, or -1
+	 *          the first time.
+	 * @param range
+	 *          Receives the first instance to upload and one past the last; they
+	 *          are equal if nothing has changed.
+	 * @return The token to pass next time.
+	 */
+	public synchronized int takeChanges ( int since, int[] range ) {
+		if ( since == token ) {
+			range[0] = dirtyFrom;
+			range[1] = dirtyTo;
+		} else {
+			range[0] = 0;
+			range[1] = capacity;
+		}
+		dirtyFrom = dirtyTo = 0;
+		token = (token + 1) & Integer.MAX_VALUE; // never -1
+		return token;
+	}
+
+	private void check ( int instance ) {
+		if ( instance < 0 || instance >= capacity ) {
+			throw new IllegalArgumentException("no instance " + instance + " in 0.."
+			    + capacity);
+		}
+	}
+
+	/**
+	 * Draws the instances using the provided renderer.
+	 *
+	 * @param renderer
+	 *          The renderer used to draw the instances.
+	 */
+	public void draw ( Renderer renderer ) {
+		renderer.drawInstances(this);
+	}
+}
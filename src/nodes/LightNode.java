@@ -8,7 +8,7 @@ import main.Renderer;
  */
 public class LightNode extends PartialScene {
 
-	private Light light;
+	private volatile Light light;
 
 	/**
 	 * Constructs a LightNode with the specified light.
@@ -38,6 +38,7 @@ public class LightNode extends PartialScene {
 	 */
 	public void setLight ( Light light ) {
 		this.light = light;
+		structureChanged();
 	}
 
 	/**
@@ -51,4 +52,15 @@ public class LightNode extends PartialScene {
 	public void draw ( Renderer renderer ) {
 		light.apply(renderer);
 	}
+
+	/**
+	 * A light affects everything drawn after it, so a subtree containing one
+	 * is never culled.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setUnbounded();
+	}
 }
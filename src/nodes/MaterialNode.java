@@ -8,7 +8,7 @@ import main.Renderer;
  */
 public class MaterialNode extends PartialScene {
 
-	private Material material;
+	private volatile Material material;
 
 	/**
 	 * Constructs a MaterialNode with the specified material.
@@ -19,6 +19,7 @@ public class MaterialNode extends PartialScene {
 	public MaterialNode ( Material material ) {
 		super();
 		this.material = material;
+		material.addChangeListener(this);
 	}
 
 	/**
@@ -37,7 +38,10 @@ public class MaterialNode extends PartialScene {
 	 *          The new material to be associated with this node.
 	 */
 	public void setMaterial ( Material material ) {
+		this.material.removeChangeListener(this);
+		material.addChangeListener(this);
 		this.material = material;
+		structureChanged();
 	}
 
 	/**
@@ -51,4 +55,15 @@ public class MaterialNode extends PartialScene {
 	public void draw ( Renderer renderer ) {
 		material.apply(renderer);
 	}
+
+	/**
+	 * A material draws nothing; when a culled subtree is skipped, its last
+	 * material is still applied.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setEmpty();
+	}
 }
@@ -1,44 +1,417 @@
 package nodes;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
 
+import main.ChangeListener;
+import main.ChangeListeners;
+import main.Mat4;
 import main.Renderer;
+import transformations.Rotation;
+import transformations.Scale;
+import transformations.Transform;
+import transformations.Translation;
 
 /**
+ * A node of a scene graph, drawing its children in order.
+ *
+ * Each node keeps three versions of its subtree, which change whenever
+ * anything in it changes, whenever anything that may move or resize what it
+ * draws changes, and whenever its structure changes. A node passes each
+ * change to its parents, so what is cached for a subtree (its bounds, a
+ * recording of it, the compiled commands of a scene) is only recomputed when
+ * that subtree has changed, however often other parts of the scene, or other
+ * scenes, change.
+ *
  * @author Sayf Elhawary
  */
-public class PartialScene {
-	private List<PartialScene> children;
+public class PartialScene implements ChangeListener {
+	private static final Children NO_CHILDREN =
+	    new Children(new PartialScene[0],0);
+
+	// an immutable view of the children: a reader (the renderer, a compile)
+	// always sees a consistent set of children even while other threads add or
+	// remove them. Additions are written past the end of the view's array and
+	// published as a new view of the same array, so they do not copy it unless
+	// it is full; removals copy it.
+	private volatile Children children;
+
+	// whether the renderer may record this subtree and replay the recording
+	private volatile boolean isStatic;
+
+	// the nodes this is a child of, and other listeners, told when this
+	// subtree changes
+	private final ChangeListeners parents = new ChangeListeners();
+	// the stamps of the last change in this subtree, and of the last ones at
+	// GEOMETRY and STRUCTURE level or above
+	private volatile long version, geometryVersion, structureVersion;
+
+	// cached bounds, and the geometry version they were computed at
+	private BoundingVolume bounds;
+	private long boundsVersion;
 
 	/**
 	 * Constructs a new PartialScene node with an empty list of children.
 	 */
 	public PartialScene () {
-		children = new ArrayList<>();
+		children = NO_CHILDREN;
 	}
 
 	/**
 	 * Adds a child node to this PartialScene. This method allows for building a
 	 * hierarchical structure in the scene graph by adding child nodes to the
-	 * current node.
+	 * current node. It may be called from any thread, and takes amortized
+	 * constant time.
 	 * 
 	 * @param child
 	 *          The PartialScene node to be added as a child.
 	 */
 	public void addChild ( PartialScene child ) {
-		children.add(child);
+		insert(-1,new PartialScene[] { child });
+	}
+
+	/**
+	 * Adds several child nodes to this PartialScene at once, after its current
+	 * children and in the order given, so that no frame sees only some of
+	 * them. It may be called from any thread.
+	 *
+	 * @param added
+	 *          The nodes to be added as children.
+	 */
+	public void addChildren ( PartialScene... added ) {
+		if ( added.length == 0 ) {
+			return;
+		}
+		insert(-1,added);
+	}
+
+	/**
+	 * Inserts a child before the child at an index, or after the last child if
+	 * the index is the number of children.
+	 */
+	void insertChild ( int index, PartialScene child ) {
+		if ( index < 0 ) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		insert(index,new PartialScene[] { child });
+	}
+
+	/**
+	 * Inserts children at an index, or after the last child if the index is
+	 * negative.
+	 */
+	private void insert ( int index, PartialScene[] added ) {
+		synchronized ( this ) {
+			Children current = children;
+			if ( index < 0 ) {
+				index = current.size;
+			} else if ( index > current.size ) {
+				throw new IndexOutOfBoundsException(index);
+			}
+			int size = current.size + added.length;
+			PartialScene[] nodes = current.nodes;
+			if ( index < current.size || size > nodes.length ) {
+				nodes = new PartialScene[index == current.size
+				    ? Math.max(size,2 * current.size) : size];
+				System.arraycopy(current.nodes,0,nodes,0,index);
+				System.arraycopy(current.nodes,index,nodes,index + added.length,
+				                 current.size - index);
+			}
+			// past the end of every view of the array, so no reader sees it
+			System.arraycopy(added,0,nodes,index,added.length);
+			children = new Children(nodes,size);
+		}
+		for ( PartialScene child : added ) {
+			child.parents.add(this);
+		}
+		structureChanged();
 	}
 
 	/**
 	 * Removes a child node from this PartialScene. If the specified node is not a
-	 * child, this method has no effect.
+	 * child, this method has no effect. It may be called from any thread.
 	 * 
 	 * @param child
 	 *          The PartialScene node to be removed.
 	 */
 	public void removeChild ( PartialScene child ) {
-		children.remove(child);
+		removeChild(child,false);
+	}
+
+	/**
+	 * Removes the first or last occurrence of a child.
+	 *
+	 * @return The index it was removed from, or -1 if it is not a child.
+	 */
+	int removeChild ( PartialScene child, boolean last ) {
+		int index;
+		synchronized ( this ) {
+			index = last ? children.lastIndexOf(child) : children.indexOf(child);
+			if ( index < 0 ) {
+				return -1;
+			}
+			remove(index);
+		}
+		child.parents.remove(this);
+		structureChanged();
+		return index;
+	}
+
+	private void remove ( int index ) {
+		Children current = children;
+		if ( current.size == 1 ) {
+			children = NO_CHILDREN;
+			return;
+		}
+		PartialScene[] nodes = new PartialScene[current.size - 1];
+		System.arraycopy(current.nodes,0,nodes,0,index);
+		System.arraycopy(current.nodes,index + 1,nodes,index,
+		                 nodes.length - index);
+		children = new Children(nodes,nodes.length);
+	}
+
+	/**
+	 * Replaces all the children of this node at once, so that no frame sees
+	 * some of the old children and some of the new. It may be called from any
+	 * thread.
+	 *
+	 * @param replacement
+	 *          The new children, in drawing order.
+	 */
+	public void replaceChildren ( PartialScene... replacement ) {
+		Children old;
+		synchronized ( this ) {
+			old = children;
+			children = replacement.length == 0 ? NO_CHILDREN
+			    : new Children(replacement.clone(),replacement.length);
+		}
+		for ( PartialScene child : old ) {
+			child.parents.remove(this);
+		}
+		for ( PartialScene child : replacement ) {
+			child.parents.add(this);
+		}
+		structureChanged();
+	}
+
+	/**
+	 * Retrieves the children of this node, in drawing order.
+	 * 
+	 * @return An unmodifiable snapshot of the child nodes, which later additions
+	 *         and removals do not affect.
+	 */
+	public List<PartialScene> getChildren () {
+		return children;
+	}
+
+	/**
+	 * Marks this subtree as static or not. The renderer records what a static
+	 * subtree draws the first time it draws it, and after that replays the
+	 * recording with a single call instead of traversing the subtree, until
+	 * something in it changes: a child is added or removed, a node's contents
+	 * are replaced, or one of its transforms, shapes or materials is modified.
+	 * Then the subtree is recorded again.
+	 * 
+	 * Only subtrees made of groups, materials, textures, shapes and fixed
+	 * transforms can be recorded. A static subtree with lights, cameras,
+	 * animated transforms or custom nodes, shapes or transforms in it is drawn
+	 * as usual.
+	 * 
+	 * @param isStatic
+	 *          true if the subtree is not expected to change.
+	 */
+	public void setStatic ( boolean isStatic ) {
+		this.isStatic = isStatic;
+	}
+
+	/**
+	 * Tells whether this subtree is marked as static.
+	 * 
+	 * @return true if the renderer may record this subtree.
+	 */
+	public boolean isStatic () {
+		return isStatic;
+	}
+
+	/**
+	 * Records that the structure of this node has changed: a child was added or
+	 * removed, or its shape, transform, material, texture, light or camera was
+	 * replaced.
+	 */
+	protected void structureChanged () {
+		changed(STRUCTURE,ChangeListeners.nextStamp());
+	}
+
+	/**
+	 * Records that something this node draws has changed without its structure
+	 * changing.
+	 * 
+	 * @param level
+	 *          ChangeListener.APPEARANCE or GEOMETRY.
+	 */
+	protected void contentsChanged ( int level ) {
+		changed(level,ChangeListeners.nextStamp());
+	}
+
+	/**
+	 * Records a change in this subtree, reported by what the node holds or by a
+	 * child, and passes it on to the node's parents.
+	 * 
+	 * @param level
+	 *          APPEARANCE, GEOMETRY or STRUCTURE.
+	 * @param stamp
+	 *          The change's stamp.
+	 */
+	public void changed ( int level, long stamp ) {
+		if ( version == stamp ) {
+			return; // reached along another path already
+		}
+		version = stamp;
+		if ( level >= GEOMETRY ) {
+			geometryVersion = stamp;
+		}
+		if ( level >= STRUCTURE ) {
+			structureVersion = stamp;
+		}
+		parents.fire(level,stamp);
+	}
+
+	/**
+	 * Adds a listener told whenever anything in this subtree changes, e.g. a
+	 * renderer that draws only when its scene has changed. Listeners are held
+	 * weakly, and are called on the thread that made the change.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		parents.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		parents.remove(listener);
+	}
+
+	/**
+	 * Gets a version that changes whenever anything in this subtree changes:
+	 * its structure, or the values of its transforms, shapes or materials. The
+	 * value only matters when compared with an earlier one.
+	 * 
+	 * @return The version of this subtree.
+	 */
+	public long getVersion () {
+		return version;
+	}
+
+	/**
+	 * Gets a version that changes whenever something that may move or resize
+	 * what this subtree draws changes: its structure, or the values of its
+	 * transforms or shapes.
+	 * 
+	 * @return The geometry version of this subtree.
+	 */
+	public long getGeometryVersion () {
+		return geometryVersion;
+	}
+
+	/**
+	 * Gets a version that changes whenever the structure of this subtree
+	 * changes: a child is added or removed anywhere in it, or a node's contents
+	 * are replaced. Compiled command buffers compare it to decide whether they
+	 * are still valid.
+	 * 
+	 * @return The structure version of this subtree.
+	 */
+	public long getStructureVersion () {
+		return structureVersion;
+	}
+
+	/**
+	 * Gets the bounds of what this node draws, in the coordinate system it is
+	 * drawn in. The bounds are computed when first asked for and kept until the
+	 * geometry version of this subtree changes. Nodes may be shared between
+	 * subtrees the update phase refits in parallel, so this is synchronized.
+	 * 
+	 * @return The bounding volume of this node.
+	 */
+	public synchronized BoundingVolume getBounds () {
+		// read first, so that a change made while computing is not missed
+		long geometry = geometryVersion;
+		if ( bounds == null || boundsVersion != geometry ) {
+			if ( bounds == null ) {
+				bounds = new BoundingVolume();
+			}
+			boundsVersion = geometry;
+			computeBounds(bounds);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Computes the bounds of what this node draws. Each child's bounds are
+	 * transformed by the transforms that precede it. Subtrees whose extent
+	 * cannot be determined (animated or custom transforms, custom nodes or
+	 * shapes, cameras and lights) make the whole node unbounded, so it is never
+	 * culled.
+	 * 
+	 * Subclasses that draw something other than their children should override
+	 * this; otherwise they are treated as unbounded.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		if ( getClass() != PartialScene.class ) {
+			bounds.setUnbounded();
+			return;
+		}
+		bounds.setEmpty();
+		Mat4 matrix = null; // borrowed on the first transform
+		try {
+			for ( PartialScene child : children ) {
+				if ( child instanceof TransformNode ) {
+					if ( child.getClass() != TransformNode.class ) {
+						bounds.setUnbounded();
+						return;
+					}
+					Transform t = ((TransformNode) child).getTransform();
+					if ( t.getTex() ) {
+						continue; // only affects texture coordinates
+					}
+					if ( matrix == null ) {
+						matrix = Mat4.acquire().identity();
+					}
+					if ( t.getClass() == Translation.class ) {
+						matrix.translate(t.getX(),t.getY(),t.getZ());
+					} else if ( t.getClass() == Rotation.class ) {
+						matrix.rotate(((Rotation) t).getAngle(),t.getX(),t.getY(),t.getZ());
+					} else if ( t.getClass() == Scale.class ) {
+						matrix.scale(t.getX(),t.getY(),t.getZ());
+					} else {
+						bounds.setUnbounded();
+						return;
+					}
+				} else {
+					bounds.include(child.getBounds(),matrix == null ? null
+					    : matrix.array());
+					if ( bounds.isUnbounded() ) {
+						return;
+					}
+				}
+			}
+		} finally {
+			if ( matrix != null ) {
+				Mat4.release(matrix);
+			}
+		}
 	}
 
 	/**
@@ -57,4 +430,27 @@ public class PartialScene {
 		}
 		renderer.restoreTransform();
 	}
+
+	/**
+	 * The first size nodes of an array, which are never changed.
+	 */
+	private static final class Children extends AbstractList<PartialScene>
+	    implements RandomAccess {
+
+		private final PartialScene[] nodes;
+		private final int size;
+
+		private Children ( PartialScene[] nodes, int size ) {
+			this.nodes = nodes;
+			this.size = size;
+		}
+
+		public PartialScene get ( int index ) {
+			return nodes[Objects.checkIndex(index,size)];
+		}
+
+		public int size () {
+			return size;
+		}
+	}
 }
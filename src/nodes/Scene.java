@@ -1,5 +1,11 @@
 package nodes;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.ChangeListener;
+import main.ChangeListeners;
 import main.Renderer;
 
 /**
@@ -11,6 +17,16 @@ public class Scene {
 
 	private float[] bgColors;
 
+	private CommandBuffer commands;
+
+	// batches submitted by any thread, applied together at the next frame
+	private final Queue<SceneUpdate> pending;
+	private final AtomicInteger pendingCount; // counted after they are queued
+	private volatile RuntimeException updateFailure; // the last batch's to fail
+	// told when a batch is submitted; changes to the graph reach them through
+	// the root
+	private final ChangeListeners submitted;
+
 	/**
 	 * Constructs a Scene with a specified background color.
 	 * 
@@ -26,6 +42,10 @@ public class Scene {
 	public Scene ( float r, float g, float b, float a ) {
 		rootNode = new PartialScene();
 		bgColors = new float[] { r, g, b, a };
+		commands = new CommandBuffer();
+		pending = new ConcurrentLinkedQueue<>();
+		pendingCount = new AtomicInteger();
+		submitted = new ChangeListeners();
 	}
 
 	/**
@@ -78,4 +98,149 @@ public class Scene {
 	public void draw ( Renderer renderer ) {
 		rootNode.draw(renderer);
 	}
+
+	/**
+	 * Queues a batch of changes to be applied at the start of the next frame.
+	 * This may be called from any thread and does not wait for the renderer;
+	 * batches are applied in the order they were submitted.
+	 * 
+	 * @param update
+	 *          The changes to make.
+	 */
+	public void submit ( SceneUpdate update ) {
+		if ( update == null ) {
+			throw new IllegalArgumentException("update must not be null");
+		}
+		pending.add(update);
+		pendingCount.incrementAndGet();
+		submitted.fire(ChangeListener.APPEARANCE);
+	}
+
+	/**
+	 * Adds a listener told whenever anything in the scene graph changes, and
+	 * whenever a batch of changes is submitted, e.g. a renderer that only draws
+	 * when there is something new to draw. Listeners are held weakly, and are
+	 * called on the thread that made the change or submitted the batch.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		rootNode.addChangeListener(listener);
+		submitted.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		rootNode.removeChangeListener(listener);
+		submitted.remove(listener);
+	}
+
+	/**
+	 * Determines whether there are submitted batches that have not yet been
+	 * applied.
+	 * 
+	 * @return true if publish() has changes to make.
+	 */
+	public boolean hasPendingUpdates () {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Gets the number of submitted batches that have not yet been applied.
+	 * Producers can use it to hold back when the renderer falls behind.
+	 * 
+	 * @return The number of pending batches.
+	 */
+	public int getPendingUpdates () {
+		return pendingCount.get();
+	}
+
+	/**
+	 * Applies every batch submitted before the call. The renderer calls this at
+	 * the start of each frame, before the graph is compiled, so each frame draws
+	 * a graph with every submitted batch either fully applied or not at all.
+	 * Batches submitted while publishing wait for the next frame, so producers
+	 * that never stop cannot hold up the renderer.
+	 * 
+	 * A batch with a change that throws is rolled back and dropped, so the frame
+	 * draws none of it. The exception is kept for getUpdateFailure() and passed
+	 * to the calling thread's uncaught exception handler, and the following
+	 * batches are still applied, so one bad batch cannot stop the scene from
+	 * being drawn. A batch that cannot be rolled back (see SceneUpdate) is not
+	 * drawn either: publish throws, and the batches after it stay queued.
+	 * 
+	 * @return The number of batches applied, including any rolled back.
+	 * @throws IllegalStateException
+	 *           If a batch failed and left part of its changes in the graph.
+	 */
+	public int publish () {
+		int count = pendingCount.get();
+		int applied = 0;
+		for ( ; applied < count ; applied++ ) {
+			SceneUpdate update = pending.poll();
+			if ( update == null ) {
+				break;
+			}
+			pendingCount.decrementAndGet();
+			RuntimeException failure;
+			try {
+				failure = update.apply();
+			} catch ( IllegalStateException e ) {
+				updateFailure = e;
+				throw e;
+			}
+			if ( failure != null ) {
+				updateFailure = failure;
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread,failure);
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * Gets the exception thrown by the last batch whose changes could not all be
+	 * made.
+	 * 
+	 * @return The exception, or null if every batch has been applied in full.
+	 */
+	public RuntimeException getUpdateFailure () {
+		return updateFailure;
+	}
+
+	/**
+	 * Flattens the scene graph into its command buffer. This is done
+	 * automatically by getCommands() when the graph's structure has changed, but
+	 * can be called ahead of time (e.g. after loading) to keep the work out of
+	 * the first frame.
+	 * 
+	 * @return The compiled command buffer.
+	 */
+	public CommandBuffer compile () {
+		commands.compile(rootNode);
+		return commands;
+	}
+
+	/**
+	 * Gets the compiled form of the scene graph, publishing submitted batches and
+	 * recompiling first if nodes have been added, removed or given new contents
+	 * since the last compile. The buffer is not changed by later mutations of
+	 * the graph until getCommands is called again, so it is a consistent
+	 * snapshot to draw a frame from.
+	 * 
+	 * @return The command buffer for the current scene graph.
+	 */
+	public CommandBuffer getCommands () {
+		publish();
+		if ( !commands.isCurrent() ) {
+			commands.compile(rootNode);
+		}
+		return commands;
+	}
 }
@@ -0,0 +1,183 @@
+package nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of changes to a scene graph that are made together. A batch is built
+ * by one thread and handed to Scene.submit, which may be called from any
+ * thread; the scene applies it at the start of the next frame, so the
+ * renderer never draws a graph with only some of a batch's changes made. A
+ * batch must not be changed after it has been submitted.
+ *
+ * If a change throws, the changes made before it are undone, in reverse order,
+ * and the batch is dropped: a batch is applied in full or not at all. Adding
+ * and removing children can always be undone. Other changes are added with
+ * run, and can be undone only if they are given an undo; if a change throws
+ * after one that cannot be undone, the batch is left partly applied and Scene
+ * publish throws rather than let it be drawn.
+ *
+ * This is the only safe way to change a scene that is being drawn from any
+ * other thread than the renderer's. The setters of transforms, shapes,
+ * materials and cameras are not synchronized with drawing: called directly
+ * from another thread, they can be seen half done by a frame, e.g. a
+ * translation with only its x changed.
+ *
+ * @author Sayf Elhawary
+ */
+public class SceneUpdate {
+
+	/**
+	 * One change, which makes itself and returns how to undo it.
+	 */
+	private interface Change {
+		/**
+		 * @return What undoes the change, or null if it cannot be undone.
+		 */
+		Runnable make ();
+	}
+
+	private final List<Change> changes;
+
+	/**
+	 * Constructs an empty batch.
+	 */
+	public SceneUpdate () {
+		changes = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a child to a node when the batch is applied.
+	 *
+	 * @param parent
+	 *          The node to add to.
+	 * @param child
+	 *          The node to be added.
+	 * @return This batch.
+	 */
+	public SceneUpdate addChild ( PartialScene parent, PartialScene child ) {
+		if ( parent == null || child == null ) {
+			throw new IllegalArgumentException("parent and child must not be null");
+		}
+		changes.add(() -> {
+			parent.addChild(child);
+			return () -> parent.removeChild(child,true);
+		});
+		return this;
+	}
+
+	/**
+	 * Removes a child from a node when the batch is applied.
+	 *
+	 * @param parent
+	 *          The node to remove from.
+	 * @param child
+	 *          The node to be removed.
+	 * @return This batch.
+	 */
+	public SceneUpdate removeChild ( PartialScene parent, PartialScene child ) {
+		if ( parent == null || child == null ) {
+			throw new IllegalArgumentException("parent and child must not be null");
+		}
+		changes.add(() -> {
+			int index = parent.removeChild(child,false);
+			return () -> {
+				if ( index >= 0 ) {
+					parent.insertChild(index,child);
+				}
+			};
+		});
+		return this;
+	}
+
+	/**
+	 * Makes any other change when the batch is applied, e.g. moving a
+	 * transform or replacing a node's shape. The change runs on the rendering
+	 * thread. It cannot be undone, so if a later change in the batch throws,
+	 * the batch cannot be rolled back; give it an undo with run(Runnable,
+	 * Runnable) unless it is the batch's only or last change.
+	 *
+	 * @param change
+	 *          The change to make.
+	 * @return This batch.
+	 */
+	public SceneUpdate run ( Runnable change ) {
+		if ( change == null ) {
+			throw new IllegalArgumentException("change must not be null");
+		}
+		changes.add(() -> {
+			change.run();
+			return null;
+		});
+		return this;
+	}
+
+	/**
+	 * Makes any other change when the batch is applied, with a way to undo it
+	 * if a later change in the batch throws. Both run on the rendering thread.
+	 *
+	 * @param change
+	 *          The change to make.
+	 * @param undo
+	 *          What restores what the change changed.
+	 * @return This batch.
+	 */
+	public SceneUpdate run ( Runnable change, Runnable undo ) {
+		if ( change == null || undo == null ) {
+			throw new IllegalArgumentException("change and undo must not be null");
+		}
+		changes.add(() -> {
+			change.run();
+			return undo;
+		});
+		return this;
+	}
+
+	/**
+	 * Gets the number of changes in the batch.
+	 *
+	 * @return The number of changes.
+	 */
+	public int size () {
+		return changes.size();
+	}
+
+	/**
+	 * Makes the changes, in the order they were added, or none of them.
+	 *
+	 * @return null if every change was made, or the exception a change threw,
+	 *         after the changes before it have been undone.
+	 * @throws IllegalStateException
+	 *           If a change threw and the changes before it could not all be
+	 *           undone, so the graph holds part of the batch.
+	 */
+	RuntimeException apply () {
+		Runnable[] undos = new Runnable[changes.size()];
+		int made = 0;
+		try {
+			for ( ; made < undos.length ; made++ ) {
+				undos[made] = changes.get(made).make();
+			}
+			return null;
+		} catch ( RuntimeException e ) {
+			for ( int i = 0 ; i < made ; i++ ) {
+				if ( undos[i] == null ) {
+					throw new IllegalStateException("change " + made
+					    + " of a batch threw, and change " + i
+					    + " cannot be undone; the batch is partly applied",e);
+				}
+			}
+			try {
+				for ( int i = made - 1 ; i >= 0 ; i-- ) {
+					undos[i].run();
+				}
+			} catch ( RuntimeException undoFailure ) {
+				undoFailure.addSuppressed(e);
+				throw new IllegalStateException("undoing a batch whose change "
+				    + made + " threw failed; the batch is partly applied",
+				                                undoFailure);
+			}
+			return e;
+		}
+	}
+}
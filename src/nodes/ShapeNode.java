@@ -8,7 +8,7 @@ import shapes.Shape;
  */
 public class ShapeNode extends PartialScene {
 
-	private Shape shape;
+	private volatile Shape shape;
 
 	/**
 	 * Constructs a ShapeNode with a given shape.
@@ -19,6 +19,7 @@ public class ShapeNode extends PartialScene {
 	public ShapeNode ( Shape shape ) {
 		super();
 		this.shape = shape;
+		shape.addChangeListener(this);
 	}
 
 	/**
@@ -37,7 +38,10 @@ public class ShapeNode extends PartialScene {
 	 *          The new shape to be rendered by this node.
 	 */
 	public void setShape ( Shape shape ) {
+		this.shape.removeChangeListener(this);
+		shape.addChangeListener(this);
 		this.shape = shape;
+		structureChanged();
 	}
 
 	/**
@@ -51,4 +55,14 @@ public class ShapeNode extends PartialScene {
 	public void draw ( Renderer renderer ) {
 		shape.draw(renderer);
 	}
+
+	/**
+	 * Sets the bounds to the extent of the shape.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setShape(shape);
+	}
 }
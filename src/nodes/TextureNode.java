@@ -2,13 +2,18 @@ package nodes;
 
 import main.Renderer;
 import main.Tex;
+import main.TextureCache;
 
 /**
  * @author Sayf Elhawary
  */
 public class TextureNode extends PartialScene {
 
-	private Tex tex;
+	private volatile Tex tex;
+
+	// the cache and file name this node currently holds a reference on
+	private TextureCache heldCache;
+	private String heldFileName;
 
 	/**
 	 * Constructs a TextureNode with a specific texture.
@@ -37,7 +42,23 @@ public class TextureNode extends PartialScene {
 	 *          The new texture to be associated with this node.
 	 */
 	public void setTexture ( Tex tex ) {
+		release();
 		this.tex = tex;
+		structureChanged();
+	}
+
+	/**
+	 * Releases this node's reference on its texture in the renderer's texture
+	 * cache, allowing the texture to be evicted. Call this when the node is
+	 * removed from the scene for good. The reference is taken again if the node
+	 * is drawn afterwards.
+	 */
+	public void release () {
+		if ( heldCache != null ) {
+			heldCache.release(heldFileName);
+			heldCache = null;
+			heldFileName = null;
+		}
 	}
 
 	/**
@@ -49,6 +70,24 @@ public class TextureNode extends PartialScene {
 	 *          The renderer to which the texture is applied.
 	 */
 	public void draw ( Renderer renderer ) {
+		TextureCache cache = renderer.getTextureCache();
+		if ( cache != heldCache || !tex.getFileName().equals(heldFileName) ) {
+			release();
+			cache.acquire(tex.getFileName());
+			heldCache = cache;
+			heldFileName = tex.getFileName();
+		}
 		tex.apply(renderer);
 	}
+
+	/**
+	 * A texture draws nothing; when a culled subtree is skipped, its last
+	 * texture is still applied.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setEmpty();
+	}
 }
@@ -8,7 +8,7 @@ import transformations.Transform;
  */
 public class TransformNode extends PartialScene {
 
-	private Transform t;
+	private volatile Transform t;
 
 	/**
 	 * Constructs a TransformNode with a specified transformation.
@@ -19,6 +19,7 @@ public class TransformNode extends PartialScene {
 	public TransformNode ( Transform t ) {
 		super();
 		this.t = t;
+		t.addChangeListener(this);
 	}
 
 	/**
@@ -37,7 +38,10 @@ public class TransformNode extends PartialScene {
 	 *          The new transformation to be applied by this node.
 	 */
 	public void setTransform ( Transform t ) {
+		this.t.removeChangeListener(this);
+		t.addChangeListener(this);
 		this.t = t;
+		structureChanged();
 	}
 
 	/**
@@ -51,4 +55,15 @@ public class TransformNode extends PartialScene {
 	public void draw ( Renderer renderer ) {
 		t.apply(renderer);
 	}
+
+	/**
+	 * A transform draws nothing itself; the enclosing node accounts for its
+	 * effect on the nodes after it.
+	 * 
+	 * @param bounds
+	 *          The volume to set.
+	 */
+	protected void computeBounds ( BoundingVolume bounds ) {
+		bounds.setEmpty();
+	}
 }
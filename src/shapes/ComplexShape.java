@@ -1,8 +1,20 @@
 package shapes;
 
+import java.nio.FloatBuffer;
+
 import main.Renderer;
 
 /**
+ * A polyhedron given as an indexed face set.
+ *
+ * A shape created from arrays keeps them in its public fields, which may be
+ * edited or replaced; the renderer draws it from a PackedGeometry made from
+ * them when first needed, and again after they change, so until pack() is
+ * called such a shape holds its geometry twice. A shape created from a
+ * PackedGeometry, or packed with pack(), keeps only that, off the heap, and
+ * its array fields are null; the get methods return arrays copied from the
+ * packed geometry for either kind of shape.
+ *
  * @author Sayf Elhawary
  */
 public class ComplexShape extends Shape {
@@ -16,6 +28,15 @@ public class ComplexShape extends Shape {
 	public double radius; // distance of the farthest vertex from the centroid
 	                      // of the polyhedron
 
+	// the geometry GL draws, and for shapes made from arrays what it was packed
+	// from; a packed shape has no arrays
+	private PackedGeometry geometry;
+	private volatile boolean packed;
+	private double[][] packedVertices, packedVertexNormals, packedFaceNormals,
+	    packedTexCoords;
+	private int[][] packedFaces;
+	private int packedVersion;
+
 	/**
 	 * Compute the outward pointing surface normal for a polygon. Requires
 	 * poly.length >= 3
@@ -99,6 +120,7 @@ public class ComplexShape extends Shape {
 	public ComplexShape ( String status, double[][] vertices, int[][] faces,
 	                      double[][] texCoords ) {
 		super(status);
+		this.packed = false;
 		this.vertices = vertices;
 		this.faces = faces;
 		this.texCoords = texCoords;
@@ -127,8 +149,50 @@ public class ComplexShape extends Shape {
 		this.vertexNormals = computeVertexNormals();
 	}
 
+	/**
+	 * Creates a ComplexShape whose geometry is held only in packed form, off
+	 * the heap.
+	 * 
+	 * @param status
+	 *          The status of the shape (e.g. "SMOOTH").
+	 * @param geometry
+	 *          The geometry.
+	 */
+	public ComplexShape ( String status, PackedGeometry geometry ) {
+		super(status);
+		this.packed = true;
+		this.geometry = geometry;
+		FloatBuffer data = geometry.getVertexData();
+		int n = geometry.getVertexCount();
+		this.centroid = new double[] { 0, 0, 0 };
+		for ( int i = 0 ; i < n ; i++ ) {
+			for ( int j = 0 ; j < 3 ; j++ ) {
+				this.centroid[j] += data.get(3 * i + j) / (double) n;
+			}
+		}
+		double max = 0;
+		for ( int i = 0 ; i < n ; i++ ) {
+			double dx = data.get(3 * i) - centroid[0],
+			    dy = data.get(3 * i + 1) - centroid[1],
+			    dz = data.get(3 * i + 2) - centroid[2];
+			max = Math.max(max,dx * dx + dy * dy + dz * dz);
+		}
+		this.radius = Math.sqrt(max);
+	}
+
+	/**
+	 * Creates a copy of a ComplexShape. A packed shape's copy shares its packed
+	 * geometry.
+	 */
 	public ComplexShape ( ComplexShape other ) {
 		super(other.status);
+		this.packed = other.packed;
+		if ( packed ) {
+			this.geometry = other.geometry;
+			this.centroid = other.centroid.clone();
+			this.radius = other.radius;
+			return;
+		}
 		this.vertices = other.vertices;
 		this.faces = other.faces;
 		this.texCoords = other.texCoords;
@@ -188,6 +252,134 @@ public class ComplexShape extends Shape {
 		return unit;
 	}
 
+	/**
+	 * Creates a copy of this shape whose geometry is held only in packed form,
+	 * off the heap.
+	 * 
+	 * @return The packed copy.
+	 */
+	public ComplexShape toPacked () {
+		return new ComplexShape(status,getGeometry());
+	}
+
+	/**
+	 * Packs this shape's geometry and drops its arrays, so that from then on it
+	 * is held only in packed form, off the heap, as if it had been created from
+	 * a PackedGeometry: its array fields are set to null and are no longer
+	 * read, and the get methods return copies made from the packed geometry.
+	 * Call it once a mesh built from arrays will not be edited again. Does
+	 * nothing if the shape is already packed.
+	 */
+	public synchronized void pack () {
+		if ( packed ) {
+			return;
+		}
+		getGeometry();
+		packed = true;
+		vertices = null;
+		faces = null;
+		texCoords = null;
+		faceNormals = null;
+		vertexNormals = null;
+		packedVertices = null;
+		packedFaces = null;
+		packedTexCoords = null;
+		packedVertexNormals = null;
+		packedFaceNormals = null;
+	}
+
+	/**
+	 * Tells whether this shape's geometry is held only in packed form.
+	 */
+	public boolean isPacked () {
+		return packed;
+	}
+
+	/**
+	 * Gets the shape's geometry packed for GL. For a shape made from arrays it
+	 * is packed when first asked for, and again after the arrays are replaced
+	 * or invalidate() is called.
+	 * 
+	 * @return The packed geometry.
+	 */
+	public synchronized PackedGeometry getGeometry () {
+		if ( packed ) {
+			return geometry;
+		}
+		if ( geometry == null || packedVersion != getVersion()
+		    || packedVertices != vertices || packedFaces != faces
+		    || packedTexCoords != texCoords
+		    || packedVertexNormals != vertexNormals
+		    || packedFaceNormals != faceNormals ) {
+			geometry = PackedGeometry.pack(vertices,vertexNormals,faceNormals,faces,
+			                               texCoords);
+			packedVertices = vertices;
+			packedFaces = faces;
+			packedTexCoords = texCoords;
+			packedVertexNormals = vertexNormals;
+			packedFaceNormals = faceNormals;
+			packedVersion = getVersion();
+		}
+		return geometry;
+	}
+
+	/**
+	 * Gets the vertices, as arrays of 3 numbers.
+	 * 
+	 * @return The vertices array, or for a packed shape a copy of its vertices.
+	 */
+	public double[][] getVertices () {
+		return packed ? geometry.toVertexArray() : vertices;
+	}
+
+	/**
+	 * Gets the faces, as arrays of indices into the vertices.
+	 * 
+	 * @return The faces array, or for a packed shape a copy of its faces.
+	 */
+	public int[][] getFaces () {
+		return packed ? geometry.toFaceArray() : faces;
+	}
+
+	/**
+	 * Gets the texture coordinates, one array for each face.
+	 * 
+	 * @return The texture coordinates array, or for a packed shape a copy of its
+	 *         texture coordinates; null if it has none.
+	 */
+	public double[][] getTexCoords () {
+		return packed ? geometry.toTexCoordArray() : texCoords;
+	}
+
+	/**
+	 * Gets the face normals, as arrays of 3 numbers.
+	 * 
+	 * @return The face normals array, or for a packed shape a copy of its face
+	 *         normals.
+	 */
+	public double[][] getFaceNormals () {
+		return packed ? geometry.toFaceNormalArray() : faceNormals;
+	}
+
+	/**
+	 * Gets the vertex normals, as arrays of 3 numbers.
+	 * 
+	 * @return The vertex normals array, or for a packed shape a copy of its
+	 *         vertex normals.
+	 */
+	public double[][] getVertexNormals () {
+		return packed ? geometry.toVertexNormalArray() : vertexNormals;
+	}
+
+	/**
+	 * Marks the shape's geometry as changed. Replacing one of the arrays is
+	 * noticed automatically; call this after modifying an array in place so
+	 * that cached GL buffers are rebuilt.
+	 */
+	public void invalidate () {
+		modified();
+	}
+
 	public void draw ( Renderer renderer ) {
 		renderer.drawComplexShape(this);
 	}
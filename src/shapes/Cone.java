@@ -63,6 +63,7 @@ public class Cone extends Shape {
 	 */
 	public void setBase ( double base ) {
 		this.base = base;
+		modified();
 	}
 
 	/**
@@ -82,6 +83,7 @@ public class Cone extends Shape {
 	 */
 	public void setHeight ( double height ) {
 		this.height = height;
+		modified();
 	}
 
 	/**
@@ -102,6 +104,7 @@ public class Cone extends Shape {
 	 */
 	public void setSlices ( int slices ) {
 		this.slices = slices;
+		modified();
 	}
 
 	/**
@@ -122,6 +125,7 @@ public class Cone extends Shape {
 	 */
 	public void setStacks ( int stacks ) {
 		this.stacks = stacks;
+		modified();
 	}
 
 	public static final Cone UNIT_CONE = new Cone("SOLID",1,1,32,64);
@@ -49,6 +49,7 @@ public class Cube extends Shape {
 	 */
 	public void setSideLength ( float sideLength ) {
 		this.sideLength = sideLength;
+		modified();
 	}
 
 	public static final Cube UNIT_CUBE = new Cube("SOLID",1);
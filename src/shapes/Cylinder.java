@@ -64,6 +64,7 @@ public class Cylinder extends Shape {
 	 */
 	public void setRadius ( double radius ) {
 		this.radius = radius;
+		modified();
 	}
 
 	/**
@@ -83,6 +84,7 @@ public class Cylinder extends Shape {
 	 */
 	public void setHeight ( double height ) {
 		this.height = height;
+		modified();
 	}
 
 	/**
@@ -102,6 +104,7 @@ public class Cylinder extends Shape {
 	 */
 	public void setSlices ( int slices ) {
 		this.slices = slices;
+		modified();
 	}
 
 	/**
@@ -121,6 +124,7 @@ public class Cylinder extends Shape {
 	 */
 	public void setStacks ( int stacks ) {
 		this.stacks = stacks;
+		modified();
 	}
 
 	public static final Cylinder UNIT_CYLINDER = new Cylinder("SOLID",1,1,32,64);
@@ -0,0 +1,507 @@
+package shapes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The geometry of a ComplexShape packed into direct (off-heap) buffers in the
+ * layout GL draws from, so that it can be uploaded as it is:
+ *
+ * <ul>
+ * <li>vertex data: the positions (3 floats per vertex), then the vertex
+ * normals (3 floats per vertex), then, if the shape has a texture coordinate
+ * for every vertex, those (2 floats per vertex);</li>
+ * <li>indices: the faces triangulated as fans, 3 per triangle.</li>
+ * </ul>
+ *
+ * The faces themselves, their normals and the texture coordinates as given
+ * (one row per face, 2 floats per corner) are kept as well, for drawing
+ * polygons one at a time and for saving the shape.
+ *
+ * The buffers are in the platform's byte order. The getters return views that
+ * share the store; their contents are not to be changed, other than by
+ * editing a shape's geometry in place and calling ComplexShape.invalidate.
+ *
+ * @author Sayf Elhawary
+ */
+public final class PackedGeometry {
+
+	private final int vertexCount;
+	private final int faceCount;
+	private final boolean vertexTexCoords;
+
+	private final FloatBuffer vertexData; // positions, normals, texture coords
+	private final IntBuffer indices; // triangles
+	private final IntBuffer faceStarts; // one more than there are faces
+	private final IntBuffer faceIndices;
+	private final FloatBuffer faceNormals;
+	private final IntBuffer texCoordRows; // null if there are no texture coords
+	private final FloatBuffer texCoords;
+
+	private PackedGeometry ( int vertices, int faces, int corners, int triangles,
+	                         int texRows, int texValues ) {
+		vertexCount = vertices;
+		faceCount = faces;
+		vertexTexCoords = texRows >= 0 && texValues >= 2 * vertices;
+		vertexData = floats((vertexTexCoords ? 8 : 6) * vertices);
+		indices = ints(3 * triangles);
+		faceStarts = ints(faces + 1);
+		faceIndices = ints(corners);
+		faceNormals = floats(3 * faces);
+		texCoordRows = texRows < 0 ? null : ints(texRows + 1);
+		texCoords = texRows < 0 ? null : floats(texValues);
+	}
+
+	/**
+	 * Packs the geometry of an indexed face set, computing its normals as
+	 * ComplexShape does.
+	 *
+	 * @param vertices
+	 *          The vertices, 3 numbers each.
+	 * @param faces
+	 *          The faces, as indices into the vertices in counterclockwise
+	 *          order as seen from the outside.
+	 * @param texCoords
+	 *          For each face, 2 texture coordinates for each of its corners, or
+	 *          null.
+	 * @return The packed geometry.
+	 * @throws IllegalArgumentException
+	 *           If a face refers to a vertex that does not exist.
+	 */
+	public static PackedGeometry of ( double[][] vertices, int[][] faces,
+	                                  double[][] texCoords ) {
+		return pack(vertices,null,null,faces,texCoords);
+	}
+
+	/**
+	 * Packs the geometry of an indexed face set given in buffers, e.g. views of
+	 * a mapped file, computing its normals as ComplexShape does. Each buffer is
+	 * read from index 0 to its limit.
+	 *
+	 * @param positions
+	 *          The vertices, 3 floats each.
+	 * @param faceStarts
+	 *          Where each face starts in faceIndices, followed by the number of
+	 *          face indices.
+	 * @param faceIndices
+	 *          The vertices of each face, one face after another.
+	 * @param texCoordRows
+	 *          Where each face's texture coordinates start in texCoords,
+	 *          followed by the number of texture coordinates, or null.
+	 * @param texCoords
+	 *          The texture coordinates, or null.
+	 * @return The packed geometry.
+	 * @throws IllegalArgumentException
+	 *           If the faces or texture coordinates are inconsistent or a face
+	 *           refers to a vertex that does not exist.
+	 */
+	public static PackedGeometry of ( FloatBuffer positions, IntBuffer faceStarts,
+	                                  IntBuffer faceIndices, IntBuffer texCoordRows,
+	                                  FloatBuffer texCoords ) {
+		return of(positions,null,faceStarts,faceIndices,texCoordRows,texCoords);
+	}
+
+	/**
+	 * Packs the geometry of an indexed face set given in buffers, as
+	 * of(positions, faceStarts, faceIndices, texCoordRows, texCoords) does, but
+	 * with the vertex normals given rather than averaged from the faces, e.g.
+	 * for a tessellated surface whose normals are known exactly. The face
+	 * normals are still computed.
+	 *
+	 * @param normals
+	 *          The vertex normals, 3 floats each, or null to compute them.
+	 * @return The packed geometry.
+	 * @throws IllegalArgumentException
+	 *           If there is not a normal for each vertex, the faces or texture
+	 *           coordinates are inconsistent or a face refers to a vertex that
+	 *           does not exist.
+	 */
+	public static PackedGeometry of ( FloatBuffer positions, FloatBuffer normals,
+	                                  IntBuffer faceStarts, IntBuffer faceIndices,
+	                                  IntBuffer texCoordRows,
+	                                  FloatBuffer texCoords ) {
+		int n = positions.limit() / 3, faces = faceStarts.limit() - 1;
+		if ( normals != null && normals.limit() != 3 * n ) {
+			throw new IllegalArgumentException(normals.limit() / 3 + " normals for "
+			    + n + " vertices");
+		}
+		int rows = texCoordRows == null ? -1 : texCoordRows.limit() - 1;
+		checkStarts(faceStarts,faceIndices.limit(),"face");
+		if ( rows >= 0 ) {
+			checkStarts(texCoordRows,texCoords.limit(),"texture coordinate row");
+		}
+		int triangles = 0;
+		for ( int f = 0 ; f < faces ; f++ ) {
+			triangles += Math.max(faceStarts.get(f + 1) - faceStarts.get(f) - 2,0);
+		}
+		PackedGeometry g =
+		    new PackedGeometry(n,faces,faceIndices.limit(),triangles,rows,
+		                       texCoords == null ? 0 : texCoords.limit());
+		copy(positions,g.vertexData,0,3 * n);
+		if ( normals != null ) {
+			copy(normals,g.vertexData,3 * n,3 * n);
+		}
+		copy(faceStarts,g.faceStarts);
+		copy(faceIndices,g.faceIndices);
+		if ( rows >= 0 ) {
+			copy(texCoordRows,g.texCoordRows);
+			copy(texCoords,g.texCoords,0,texCoords.limit());
+		}
+		g.checkIndices();
+		g.computeNormals(normals == null);
+		g.finish();
+		return g;
+	}
+
+	/**
+	 * Packs an indexed face set with the normals it already has, or computes
+	 * them if they are null.
+	 */
+	static PackedGeometry pack ( double[][] vertices, double[][] vertexNormals,
+	                             double[][] faceNormals, int[][] faces,
+	                             double[][] texCoords ) {
+		int corners = 0, triangles = 0;
+		for ( int[] face : faces ) {
+			corners += face.length;
+			triangles += Math.max(face.length - 2,0);
+		}
+		int rows = texCoords == null ? -1 : texCoords.length, values = 0;
+		for ( int i = 0 ; i < rows ; i++ ) {
+			values += texCoords[i].length;
+		}
+		int n = vertices.length;
+		PackedGeometry g =
+		    new PackedGeometry(n,faces.length,corners,triangles,rows,values);
+		for ( int i = 0 ; i < n ; i++ ) {
+			for ( int c = 0 ; c < 3 ; c++ ) {
+				g.vertexData.put(3 * i + c,(float) vertices[i][c]);
+			}
+		}
+		for ( int f = 0, k = 0 ; f < faces.length ; f++ ) {
+			g.faceStarts.put(f,k);
+			for ( int v : faces[f] ) {
+				g.faceIndices.put(k++,v);
+			}
+		}
+		g.faceStarts.put(faces.length,corners);
+		for ( int i = 0, k = 0 ; i < rows ; i++ ) {
+			g.texCoordRows.put(i,k);
+			for ( double value : texCoords[i] ) {
+				g.texCoords.put(k++,(float) value);
+			}
+		}
+		if ( rows >= 0 ) {
+			g.texCoordRows.put(rows,values);
+		}
+		g.checkIndices();
+		if ( vertexNormals == null || faceNormals == null ) {
+			g.computeNormals(true);
+		} else {
+			for ( int i = 0 ; i < n ; i++ ) {
+				for ( int c = 0 ; c < 3 ; c++ ) {
+					g.vertexData.put(3 * n + 3 * i + c,(float) vertexNormals[i][c]);
+				}
+			}
+			for ( int f = 0 ; f < faces.length ; f++ ) {
+				for ( int c = 0 ; c < 3 ; c++ ) {
+					g.faceNormals.put(3 * f + c,(float) faceNormals[f][c]);
+				}
+			}
+		}
+		g.finish();
+		return g;
+	}
+
+	/**
+	 * Checks that a table of starts is in order and ends with the count.
+	 */
+	private static void checkStarts ( IntBuffer starts, int count, String what ) {
+		int rows = starts.limit() - 1;
+		if ( rows < 0 || starts.get(0) < 0 || starts.get(rows) != count ) {
+			throw new IllegalArgumentException("the " + what + " starts do not "
+			    + "cover " + count + " values");
+		}
+		for ( int i = 0 ; i < rows ; i++ ) {
+			if ( starts.get(i + 1) < starts.get(i) ) {
+				throw new IllegalArgumentException(what + " " + i + " ends before it "
+				    + "starts");
+			}
+		}
+	}
+
+	private void checkIndices () {
+		for ( int k = 0 ; k < faceIndices.limit() ; k++ ) {
+			int v = faceIndices.get(k);
+			if ( v < 0 || v >= vertexCount ) {
+				throw new IllegalArgumentException("a face refers to vertex " + v
+				    + " of " + vertexCount);
+			}
+		}
+	}
+
+	/**
+	 * Computes the face normals from the first, second and last corners of
+	 * each face and, if asked to, the vertex normals as the average of the
+	 * normals of the faces around each vertex, in double precision as
+	 * ComplexShape does.
+	 */
+	private void computeNormals ( boolean vertexNormals ) {
+		int n = vertexCount;
+		double[] sums = new double[3 * n];
+		int[] counts = new int[n];
+		for ( int f = 0 ; f < faceCount ; f++ ) {
+			int start = faceStarts.get(f), end = faceStarts.get(f + 1);
+			double nx = 0, ny = 0, nz = 0;
+			if ( end - start >= 2 ) {
+				int a = 3 * faceIndices.get(start), b = 3 * faceIndices.get(start + 1),
+				    c = 3 * faceIndices.get(end - 1);
+				double px = vertexData.get(b) - (double) vertexData.get(a),
+				    py = vertexData.get(b + 1) - (double) vertexData.get(a + 1),
+				    pz = vertexData.get(b + 2) - (double) vertexData.get(a + 2);
+				double qx = vertexData.get(c) - (double) vertexData.get(a),
+				    qy = vertexData.get(c + 1) - (double) vertexData.get(a + 1),
+				    qz = vertexData.get(c + 2) - (double) vertexData.get(a + 2);
+				nx = py * qz - pz * qy;
+				ny = pz * qx - px * qz;
+				nz = px * qy - py * qx;
+				double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+				nx /= length;
+				ny /= length;
+				nz /= length;
+			}
+			faceNormals.put(3 * f,(float) nx);
+			faceNormals.put(3 * f + 1,(float) ny);
+			faceNormals.put(3 * f + 2,(float) nz);
+			for ( int k = start ; k < end ; k++ ) {
+				int v = faceIndices.get(k);
+				sums[3 * v] += nx;
+				sums[3 * v + 1] += ny;
+				sums[3 * v + 2] += nz;
+				counts[v]++;
+			}
+		}
+		for ( int v = 0 ; vertexNormals && v < n ; v++ ) {
+			double x = sums[3 * v] / counts[v], y = sums[3 * v + 1] / counts[v],
+			    z = sums[3 * v + 2] / counts[v];
+			double length = Math.sqrt(x * x + y * y + z * z);
+			vertexData.put(3 * n + 3 * v,(float) (x / length));
+			vertexData.put(3 * n + 3 * v + 1,(float) (y / length));
+			vertexData.put(3 * n + 3 * v + 2,(float) (z / length));
+		}
+	}
+
+	/**
+	 * Triangulates the faces and copies the texture coordinates GL uses, in
+	 * row-major order, after the normals.
+	 */
+	private void finish () {
+		int k = 0;
+		for ( int f = 0 ; f < faceCount ; f++ ) {
+			int start = faceStarts.get(f), end = faceStarts.get(f + 1);
+			for ( int j = start + 1 ; j + 1 < end ; j++ ) {
+				indices.put(k++,faceIndices.get(start));
+				indices.put(k++,faceIndices.get(j));
+				indices.put(k++,faceIndices.get(j + 1));
+			}
+		}
+		if ( vertexTexCoords ) {
+			copy(texCoords,vertexData,6 * vertexCount,2 * vertexCount);
+		}
+	}
+
+	private static FloatBuffer floats ( int count ) {
+		return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder())
+		    .asFloatBuffer();
+	}
+
+	private static IntBuffer ints ( int count ) {
+		return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder())
+		    .asIntBuffer();
+	}
+
+	private static void copy ( FloatBuffer from, FloatBuffer to, int at,
+	                           int count ) {
+		FloatBuffer source = from.duplicate();
+		source.position(0).limit(count);
+		FloatBuffer target = to.duplicate();
+		target.position(at);
+		target.put(source);
+	}
+
+	private static void copy ( IntBuffer from, IntBuffer to ) {
+		IntBuffer source = from.duplicate();
+		source.position(0);
+		to.duplicate().put(source);
+	}
+
+	public int getVertexCount () {
+		return vertexCount;
+	}
+
+	public int getFaceCount () {
+		return faceCount;
+	}
+
+	/**
+	 * Gets the number of indices, 3 for each triangle.
+	 */
+	public int getIndexCount () {
+		return indices.capacity();
+	}
+
+	/**
+	 * Tells whether the vertex data includes texture coordinates.
+	 */
+	public boolean hasVertexTexCoords () {
+		return vertexTexCoords;
+	}
+
+	/**
+	 * Gets the byte offset of the normals in the vertex data.
+	 */
+	public long getNormalOffset () {
+		return 12L * vertexCount;
+	}
+
+	/**
+	 * Gets the byte offset of the texture coordinates in the vertex data.
+	 *
+	 * @return The offset, or -1 if there are none.
+	 */
+	public long getTexCoordOffset () {
+		return vertexTexCoords ? 24L * vertexCount : -1;
+	}
+
+	/**
+	 * Gets the number of bytes the geometry takes, all of it off heap.
+	 */
+	public long getByteSize () {
+		long floats = vertexData.capacity() + faceNormals.capacity()
+		    + (texCoords == null ? 0 : texCoords.capacity());
+		long ints = indices.capacity() + faceStarts.capacity()
+		    + faceIndices.capacity()
+		    + (texCoordRows == null ? 0 : texCoordRows.capacity());
+		return 4 * (floats + ints);
+	}
+
+	/**
+	 * Gets the vertex data: positions, normals and texture coordinates.
+	 */
+	public FloatBuffer getVertexData () {
+		return vertexData.duplicate();
+	}
+
+	/**
+	 * Gets the triangles' indices into the vertices.
+	 */
+	public IntBuffer getIndices () {
+		return indices.duplicate();
+	}
+
+	/**
+	 * Gets where each face starts in the face indices, followed by the number
+	 * of face indices.
+	 */
+	public IntBuffer getFaceStarts () {
+		return faceStarts.duplicate();
+	}
+
+	/**
+	 * Gets the vertices of each face, one face after another.
+	 */
+	public IntBuffer getFaceIndices () {
+		return faceIndices.duplicate();
+	}
+
+	/**
+	 * Gets the face normals, 3 floats each.
+	 */
+	public FloatBuffer getFaceNormals () {
+		return faceNormals.duplicate();
+	}
+
+	/**
+	 * Gets where each row of texture coordinates starts, followed by the number
+	 * of texture coordinates.
+	 *
+	 * @return The row starts, or null if there are no texture coordinates.
+	 */
+	public IntBuffer getTexCoordRows () {
+		return texCoordRows == null ? null : texCoordRows.duplicate();
+	}
+
+	/**
+	 * Gets the texture coordinates, one row after another.
+	 *
+	 * @return The coordinates, or null if there are none.
+	 */
+	public FloatBuffer getTexCoords () {
+		return texCoords == null ? null : texCoords.duplicate();
+	}
+
+	/**
+	 * Copies the vertices into arrays of 3 numbers, as ComplexShape holds them.
+	 */
+	public double[][] toVertexArray () {
+		return rows(vertexData,0,vertexCount);
+	}
+
+	/**
+	 * Copies the vertex normals into arrays of 3 numbers.
+	 */
+	public double[][] toVertexNormalArray () {
+		return rows(vertexData,3 * vertexCount,vertexCount);
+	}
+
+	/**
+	 * Copies the face normals into arrays of 3 numbers.
+	 */
+	public double[][] toFaceNormalArray () {
+		return rows(faceNormals,0,faceCount);
+	}
+
+	/**
+	 * Copies the faces into arrays of vertex indices.
+	 */
+	public int[][] toFaceArray () {
+		int[][] faces = new int[faceCount][];
+		for ( int f = 0 ; f < faceCount ; f++ ) {
+			int start = faceStarts.get(f);
+			faces[f] = new int[faceStarts.get(f + 1) - start];
+			faceIndices.get(start,faces[f]);
+		}
+		return faces;
+	}
+
+	/**
+	 * Copies the texture coordinates into one array per row.
+	 *
+	 * @return The arrays, or null if there are no texture coordinates.
+	 */
+	public double[][] toTexCoordArray () {
+		if ( texCoordRows == null ) {
+			return null;
+		}
+		double[][] rows = new double[texCoordRows.capacity() - 1][];
+		for ( int i = 0 ; i < rows.length ; i++ ) {
+			int start = texCoordRows.get(i);
+			rows[i] = new double[texCoordRows.get(i + 1) - start];
+			for ( int j = 0 ; j < rows[i].length ; j++ ) {
+				rows[i][j] = texCoords.get(start + j);
+			}
+		}
+		return rows;
+	}
+
+	private static double[][] rows ( FloatBuffer data, int at, int count ) {
+		double[][] rows = new double[count][3];
+		for ( int i = 0 ; i < count ; i++ ) {
+			for ( int c = 0 ; c < 3 ; c++ ) {
+				rows[i][c] = data.get(at + 3 * i + c);
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,31 @@
+package shapes;
+
+/**
+ * The ways a shape can be rendered, resolved once from the shape's status
+ * string so that drawing does not need to compare strings.
+ *
+ * @author Sayf Elhawary
+ */
+public enum RenderMode {
+	SOLID, WIRE, TEXTURE, SMOOTH;
+
+	/**
+	 * Resolves a status string (case-insensitive) to a render mode. Unknown
+	 * statuses are rendered as SOLID, as before.
+	 *
+	 * @param status
+	 *          The shape status, e.g. "SOLID", "WIRE", "TEXTURE" or "SMOOTH".
+	 * @return The matching render mode.
+	 */
+	public static RenderMode of ( String status ) {
+		if ( status == null ) {
+			return SOLID;
+		}
+		for ( RenderMode mode : values() ) {
+			if ( mode.name().equalsIgnoreCase(status) ) {
+				return mode;
+			}
+		}
+		return SOLID;
+	}
+}
@@ -1,13 +1,23 @@
 package shapes;
 
+import main.ChangeListener;
+import main.ChangeListeners;
 import main.Renderer;
 
 /**
+ * The setters are not synchronized with drawing. To change a shape in a scene
+ * that another thread is drawing, make the change in SceneUpdate.run and
+ * pass the batch to Scene.submit.
+ *
  * @author Sayf Elhawary
  */
 public abstract class Shape {
+	private int version; // bumped whenever this shape changes
+	// the nodes holding this shape
+	private final ChangeListeners listeners = new ChangeListeners();
 
 	protected String status;
+	private RenderMode renderMode;
 
 	/**
 	 * Constructs a Shape with a specified status.
@@ -17,6 +27,7 @@ public abstract class Shape {
 	 */
 	public Shape ( String status ) {
 		this.status = status;
+		this.renderMode = RenderMode.of(status);
 	}
 
 	/**
@@ -36,6 +47,17 @@ public abstract class Shape {
 	 */
 	public void setStatus ( String status ) {
 		this.status = status;
+		this.renderMode = RenderMode.of(status);
+		modified();
+	}
+
+	/**
+	 * Gets the render mode resolved from the shape's status.
+	 * 
+	 * @return The render mode of the shape.
+	 */
+	public RenderMode getRenderMode () {
+		return renderMode;
 	}
 
 	/**
@@ -47,4 +69,45 @@ public abstract class Shape {
 	 *          The renderer responsible for drawing the shape.
 	 */
 	public abstract void draw ( Renderer renderer );
+
+	/**
+	 * Records that this shape's geometry or status has changed, and tells the
+	 * nodes holding it.
+	 */
+	protected void modified () {
+		version++;
+		listeners.fire(ChangeListener.GEOMETRY);
+	}
+
+	/**
+	 * Gets a counter that changes whenever this shape's geometry or status
+	 * changes, so that what was drawn from it can be kept until then.
+	 * 
+	 * @return The current version.
+	 */
+	public int getVersion () {
+		return version;
+	}
+
+	/**
+	 * Adds a listener told whenever this shape's geometry or status changes.
+	 * Nodes holding the shape add themselves, so that what is cached about
+	 * their subtrees is kept until it changes. Listeners are held weakly.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		listeners.remove(listener);
+	}
 }
@@ -57,6 +57,7 @@ public class Sphere extends Shape {
 	 */
 	public void setRadius ( double radius ) {
 		this.radius = radius;
+		modified();
 	}
 
 	/**
@@ -76,6 +77,7 @@ public class Sphere extends Shape {
 	 */
 	public void setSlices ( int slices ) {
 		this.slices = slices;
+		modified();
 	}
 
 	/**
@@ -95,6 +97,7 @@ public class Sphere extends Shape {
 	 */
 	public void setStacks ( int stacks ) {
 		this.stacks = stacks;
+		modified();
 	}
 
 	public static final Sphere UNIT_SPHERE = new Sphere("SOLID",1,32,64);
@@ -49,6 +49,7 @@ public class Teapot extends Shape {
 	 */
 	public void setSideLength ( float sideLength ) {
 		this.sideLength = sideLength;
+		modified();
 	}
 
 	public static final Teapot UNIT_TEAPUT = new Teapot("SOLID",1);
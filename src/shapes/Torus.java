@@ -64,6 +64,7 @@ public class Torus extends Shape {
 	 */
 	public void setInnerRadius ( double innerRadius ) {
 		this.innerRadius = innerRadius;
+		modified();
 	}
 
 	/**
@@ -83,6 +84,7 @@ public class Torus extends Shape {
 	 */
 	public void setOuterRadius ( double outerRadius ) {
 		this.outerRadius = outerRadius;
+		modified();
 	}
 
 	/**
@@ -102,6 +104,7 @@ public class Torus extends Shape {
 	 */
 	public void setSlices ( int slices ) {
 		this.slices = slices;
+		modified();
 	}
 
 	/**
@@ -121,6 +124,7 @@ public class Torus extends Shape {
 	 */
 	public void setStacks ( int stacks ) {
 		this.stacks = stacks;
+		modified();
 	}
 
 	public static final Torus UNIT_TORUS = new Torus("SOLID",.5,1,32,64);
@@ -0,0 +1,23 @@
+package transformations;
+
+/**
+ * A transform whose value changes over time. The value is a function of the
+ * tick of the renderer's AnimationClock only, so evaluating it is cheap, needs
+ * no per-frame state, and gives the same result for the same tick every time.
+ *
+ * @author Sayf Elhawary
+ */
+public interface Animated {
+
+	/**
+	 * Multiplies a matrix, in place, by this transform's value at a tick.
+	 *
+	 * @param m
+	 *          The array holding the column-major matrix.
+	 * @param offset
+	 *          The index of the matrix's first element.
+	 * @param tick
+	 *          The animation clock tick.
+	 */
+	void applyTo ( float[] m, int offset, long tick );
+}
@@ -1,13 +1,15 @@
 package transformations;
+import main.Mat4;
 import main.Renderer;
 
 /**
 * AnimatedRotation class extends the Rotation class.
-* This class is responsible for animated rotations.
+* This class is responsible for animated rotations. The angle grows by one degree
+* per animation clock tick, towards the given angle, and starts over on reaching it.
 * 
 * @author Sayf Elhawary
 */
-public class AnimatedRotation extends Rotation {
+public class AnimatedRotation extends Rotation implements Animated {
 
  /**
   * Constructor for the AnimatedRotation class.
@@ -32,4 +34,24 @@ public class AnimatedRotation extends Rotation {
      // Calls the 'animateRotate' method from the renderer to apply the rotation.
      renderer.animateRotate(this);
  }
+
+ /**
+  * Gets the angle of rotation at a tick of the animation clock.
+  *
+  * @param tick The tick.
+  * @return The angle, in degrees.
+  */
+ public float getAngleAt(long tick) {
+     float angle = getAngle();
+     if (angle > 0) {
+         return tick % angle;
+     } else if (angle < 0) {
+         return -tick % angle;
+     }
+     return 0;
+ }
+
+ public void applyTo(float[] m, int offset, long tick) {
+     Mat4.rotate(m, offset, getAngleAt(tick), getX(), getY(), getZ());
+ }
 }
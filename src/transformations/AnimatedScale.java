@@ -1,12 +1,15 @@
 package transformations;
 
+import main.Mat4;
 import main.Renderer;
 
 /**
  * AnimatedScale is a subclass of Scale, designed to handle animated scaling transformations.
+ * Along each axis with a nonzero factor the scale grows from 1 towards 1 + factor,
+ * one factor/min(x,y,z) step per animation clock tick, and starts over on reaching it.
  * Authors: Sayf Elhawary
  */
-public class AnimatedScale extends Scale {
+public class AnimatedScale extends Scale implements Animated {
 
     /**
      * Constructor for AnimatedScale class.
@@ -28,4 +31,43 @@ public class AnimatedScale extends Scale {
         // Call the animateScale method from the Renderer object.
         renderer.animateScale(this);
     }
+
+    /**
+     * Gets the x scale factor at a tick of the animation clock.
+     * @param tick The tick.
+     * @return The x scale factor.
+     */
+    public float getXAt(long tick) {
+        return factorAt(getX(), tick);
+    }
+
+    /**
+     * Gets the y scale factor at a tick of the animation clock.
+     * @param tick The tick.
+     * @return The y scale factor.
+     */
+    public float getYAt(long tick) {
+        return factorAt(getY(), tick);
+    }
+
+    /**
+     * Gets the z scale factor at a tick of the animation clock.
+     * @param tick The tick.
+     * @return The z scale factor.
+     */
+    public float getZAt(long tick) {
+        return factorAt(getZ(), tick);
+    }
+
+    private float factorAt(float factor, long tick) {
+        if (factor == 0) {
+            return 1;
+        }
+        float smallest = Math.min(Math.min(getX(), getY()), getZ());
+        return (tick * (factor / smallest)) % factor + 1;
+    }
+
+    public void applyTo(float[] m, int offset, long tick) {
+        Mat4.scale(m, offset, getXAt(tick), getYAt(tick), getZAt(tick));
+    }
 }
@@ -1,12 +1,15 @@
 package transformations;
 
+import main.Mat4;
 import main.Renderer;
 /**
  * AnimatedTranslation extends the Translation class to provide animated transformations.
+ * The translation moves along each axis from 0 towards the given offset, one
+ * offset/min(x,y,z) step per animation clock tick, and starts over on reaching it.
  * 
  * @author Sayf Elhawary
  */
-public class AnimatedTranslation extends Translation {
+public class AnimatedTranslation extends Translation implements Animated {
 
     /**
      * Constructor for creating an instance of AnimatedTranslation.
@@ -30,4 +33,50 @@ public class AnimatedTranslation extends Translation {
         // Calls the animateTranslate method of the renderer to perform the animation.
         renderer.animateTranslate(this);
     }
+
+    /**
+     * Gets the x offset at a tick of the animation clock.
+     *
+     * @param tick The tick.
+     * @return The x offset.
+     */
+    public float getXAt(long tick) {
+        float x = getX();
+        if (x > 0) {
+            return (tick * (x / smallest())) % x;
+        } else if (x < 0) {
+            return (-tick * (x / smallest())) % x;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the y offset at a tick of the animation clock.
+     *
+     * @param tick The tick.
+     * @return The y offset.
+     */
+    public float getYAt(long tick) {
+        float y = getY();
+        return y != 0 ? (tick * (y / smallest())) % y : 0;
+    }
+
+    /**
+     * Gets the z offset at a tick of the animation clock.
+     *
+     * @param tick The tick.
+     * @return The z offset.
+     */
+    public float getZAt(long tick) {
+        float z = getZ();
+        return z != 0 ? (tick * (z / smallest())) % z : 0;
+    }
+
+    private float smallest() {
+        return Math.min(Math.min(getX(), getY()), getZ());
+    }
+
+    public void applyTo(float[] m, int offset, long tick) {
+        Mat4.translate(m, offset, getXAt(tick), getYAt(tick), getZAt(tick));
+    }
 }
@@ -0,0 +1,45 @@
+package transformations;
+
+/**
+ * How a keyframe track's value moves from one key to the next.
+ *
+ * @author Sayf Elhawary
+ */
+public enum Interpolation {
+	/** Holds each key's value until the next key. */
+	STEP,
+	/** Straight-line blend; rotations use spherical linear interpolation. */
+	LINEAR,
+	/**
+	 * Cubic Bezier curve; each key's in and out values are the control points
+	 * before and after it.
+	 */
+	CUBIC_BEZIER,
+	/**
+	 * Cubic Hermite spline; each key's in and out values are the tangents
+	 * (change per second) arriving at and leaving it.
+	 */
+	HERMITE;
+
+	/**
+	 * Resolves a name (case-insensitive, with "bezier" and "cubic" accepted as
+	 * short forms) to an interpolation.
+	 *
+	 * @param name
+	 *          The name, e.g. "linear".
+	 * @return The matching interpolation.
+	 * @throws IllegalArgumentException
+	 *           if the name is not known.
+	 */
+	public static Interpolation of ( String name ) {
+		if ( name.equalsIgnoreCase("bezier") || name.equalsIgnoreCase("cubic") ) {
+			return CUBIC_BEZIER;
+		}
+		for ( Interpolation interpolation : values() ) {
+			if ( interpolation.name().equalsIgnoreCase(name) ) {
+				return interpolation;
+			}
+		}
+		throw new IllegalArgumentException("unknown interpolation: " + name);
+	}
+}
@@ -0,0 +1,551 @@
+package transformations;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import main.AnimationClock;
+
+/**
+ * Evaluates keyframe-animated transforms in bulk. Every track and every
+ * transform added to an animation is packed into flat primitive arrays (keys
+ * as one array per component, transforms as arrays of track indices), and an
+ * evaluation is two passes over them: one samples every track once, however
+ * many transforms share it, and one builds each transform's local matrix,
+ * T * R * S, from its tracks' samples into one float array. There is no
+ * per-transform object or virtual call in either pass, and each is split
+ * across the common fork/join pool once it has PARALLEL_THRESHOLD or more
+ * items.
+ *
+ * The renderer evaluates every animation of its command buffer once per
+ * clock tick, before the buffer's transforms are updated, so all of an
+ * animation's transforms are evaluated together however many there are, and
+ * the transforms themselves, on however many update threads, only read the
+ * matrices without taking the animation's lock.
+ *
+ * Transforms may be created while the animation is evaluated: every method
+ * that reads or resizes the packed arrays holds the animation's lock, except
+ * getMatrices.
+ *
+ * Key times are in seconds, and a clock tick is DEFAULT_STEP_NANOS of
+ * AnimationClock unless another length is given. Rotation keys are blended
+ * with spherical linear interpolation for LINEAR tracks and componentwise,
+ * then normalized, for cubic ones.
+ *
+ * @author Sayf Elhawary
+ */
+public class KeyframeAnimation {
+
+	/**
+	 * Passes over fewer tracks or transforms than this run on the calling
+	 * thread.
+	 */
+	public static final int PARALLEL_THRESHOLD = 4096;
+
+	private static final int MIN_SPLIT = 1024; // items per fork/join task
+
+	private static final int STEP = 0, LINEAR = 1, CUBIC = 2;
+
+	private final double secondsPerTick;
+
+	// tracks: a range of keys each
+	private final Map<KeyframeTrack,Integer> trackIds;
+	private KeyframeTrack[] tracks; // by id
+	private int[] trackStart, trackEnd; // first and last key
+	private int[] trackMode;
+	private boolean[] trackLoop, trackRotation;
+	private int[] trackCursor; // the segment sampled last time
+	private float[] sx, sy, sz, sw; // the samples of the last evaluation
+	private int trackCount;
+
+	// keys; in and out are tangents scaled by the length of their segment
+	private float[] keyTime;
+	private float[] kx, ky, kz, kw;
+	private float[] ix, iy, iz, iw;
+	private float[] ox, oy, oz, ow;
+	private int keyCount;
+
+	// transforms: a track index per channel, -1 for none
+	private int[] translationTrack, rotationTrack, scaleTrack;
+	private volatile float[] matrices; // replaced, under the lock, to grow
+	private int size;
+
+	private long evaluatedTick;
+	private int evaluatedSize;
+
+	/**
+	 * Constructs an empty animation for the default clock tick.
+	 */
+	public KeyframeAnimation () {
+		this(AnimationClock.DEFAULT_STEP_NANOS / 1e9);
+	}
+
+	/**
+	 * Constructs an empty animation.
+	 *
+	 * @param secondsPerTick
+	 *          The length of an animation clock tick, in seconds.
+	 */
+	public KeyframeAnimation ( double secondsPerTick ) {
+		this.secondsPerTick = secondsPerTick;
+		trackIds = new IdentityHashMap<>();
+		tracks = new KeyframeTrack[16];
+		trackStart = new int[16];
+		trackEnd = new int[16];
+		trackMode = new int[16];
+		trackLoop = new boolean[16];
+		trackRotation = new boolean[16];
+		trackCursor = new int[16];
+		sx = new float[16];
+		sy = new float[16];
+		sz = new float[16];
+		sw = new float[16];
+		keyTime = new float[64];
+		kx = new float[64];
+		ky = new float[64];
+		kz = new float[64];
+		kw = new float[64];
+		ix = new float[64];
+		iy = new float[64];
+		iz = new float[64];
+		iw = new float[64];
+		ox = new float[64];
+		oy = new float[64];
+		oz = new float[64];
+		ow = new float[64];
+		translationTrack = new int[16];
+		rotationTrack = new int[16];
+		scaleTrack = new int[16];
+		matrices = new float[16 * 16];
+		evaluatedSize = -1;
+	}
+
+	/**
+	 * Creates a transform driven by up to three tracks of this animation. A
+	 * track may be shared by any number of transforms.
+	 *
+	 * @param translation
+	 *          A TRANSLATION track, or null for no translation.
+	 * @param rotation
+	 *          A ROTATION track, or null for no rotation.
+	 * @param scale
+	 *          A SCALE track, or null for no scaling.
+	 * @param tex
+	 *          Whether the transform applies to texture coordinates.
+	 * @return The new transform.
+	 */
+	public synchronized KeyframeTransform
+	    createTransform ( KeyframeTrack translation, KeyframeTrack rotation,
+	                      KeyframeTrack scale, boolean tex ) {
+		int t = track(translation,KeyframeTrack.Target.TRANSLATION);
+		int r = track(rotation,KeyframeTrack.Target.ROTATION);
+		int s = track(scale,KeyframeTrack.Target.SCALE);
+		if ( size == translationTrack.length ) {
+			int n = size * 2;
+			translationTrack = Arrays.copyOf(translationTrack,n);
+			rotationTrack = Arrays.copyOf(rotationTrack,n);
+			scaleTrack = Arrays.copyOf(scaleTrack,n);
+			matrices = Arrays.copyOf(matrices,16 * n);
+		}
+		translationTrack[size] = t;
+		rotationTrack[size] = r;
+		scaleTrack[size] = s;
+		return new KeyframeTransform(this,size++,tex);
+	}
+
+	/**
+	 * Gets the length of an animation clock tick.
+	 *
+	 * @return The length in seconds.
+	 */
+	public double getSecondsPerTick () {
+		return secondsPerTick;
+	}
+
+	/**
+	 * Gets one of the tracks a transform was created with.
+	 *
+	 * @param transform
+	 *          The transform's index.
+	 * @param target
+	 *          Which of its tracks.
+	 * @return The track, or null if the transform has none for that target.
+	 */
+	public synchronized KeyframeTrack getTrack ( int transform,
+	                                             KeyframeTrack.Target target ) {
+		if ( transform < 0 || transform >= size ) {
+			throw new IllegalArgumentException("no transform " + transform);
+		}
+		int[] ids = target == KeyframeTrack.Target.TRANSLATION ? translationTrack
+		    : target == KeyframeTrack.Target.ROTATION ? rotationTrack : scaleTrack;
+		int id = ids[transform];
+		return id < 0 ? null : tracks[id];
+	}
+
+	/**
+	 * Gets the number of transforms.
+	 */
+	public synchronized int size () {
+		return size;
+	}
+
+	/**
+	 * Gets the transforms' local matrices, column-major; transform i's matrix
+	 * starts at 16*i. They are as of the last evaluation. This does not take
+	 * the animation's lock, so any number of threads may read the matrices
+	 * after the evaluation, and before the next.
+	 *
+	 * @return The live array, which is replaced when transforms are added.
+	 */
+	public float[] getMatrices () {
+		return matrices;
+	}
+
+	/**
+	 * Evaluates every transform at a tick of the animation clock, unless that
+	 * has already been done and no transforms have been added since.
+	 *
+	 * @param tick
+	 *          The tick.
+	 */
+	public synchronized void evaluateAt ( long tick ) {
+		if ( tick == evaluatedTick && size == evaluatedSize ) {
+			return;
+		}
+		evaluate(tick * secondsPerTick);
+		evaluatedTick = tick;
+		evaluatedSize = size;
+	}
+
+	/**
+	 * Evaluates every transform at a time.
+	 *
+	 * @param time
+	 *          The time, in seconds.
+	 */
+	public synchronized void evaluate ( double time ) {
+		evaluatedSize = -1; // not necessarily at a tick
+		if ( trackCount < PARALLEL_THRESHOLD ) {
+			sample(time,0,trackCount);
+		} else {
+			ForkJoinPool.commonPool().invoke(new Pass(time,0,trackCount,true));
+		}
+		if ( size < PARALLEL_THRESHOLD ) {
+			compose(0,size);
+		} else {
+			ForkJoinPool.commonPool().invoke(new Pass(time,0,size,false));
+		}
+	}
+
+	/**
+	 * Builds the matrices of transforms from to to-1 from their tracks' samples.
+	 */
+	private void compose ( int from, int to ) {
+		float[] m = matrices;
+		for ( int i = from ; i < to ; i++ ) {
+			int o = 16 * i;
+			int t = translationTrack[i], r = rotationTrack[i], s = scaleTrack[i];
+			float tx = 0, ty = 0, tz = 0;
+			float qx = 0, qy = 0, qz = 0, qw = 1;
+			float kx = 1, ky = 1, kz = 1;
+			if ( t >= 0 ) {
+				tx = sx[t];
+				ty = sy[t];
+				tz = sz[t];
+			}
+			if ( r >= 0 ) {
+				qx = sx[r];
+				qy = sy[r];
+				qz = sz[r];
+				qw = sw[r];
+			}
+			if ( s >= 0 ) {
+				kx = sx[s];
+				ky = sy[s];
+				kz = sz[s];
+			}
+			float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+			float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+			float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+			m[o] = (1 - 2 * (yy + zz)) * kx;
+			m[o + 1] = 2 * (xy + wz) * kx;
+			m[o + 2] = 2 * (xz - wy) * kx;
+			m[o + 3] = 0;
+			m[o + 4] = 2 * (xy - wz) * ky;
+			m[o + 5] = (1 - 2 * (xx + zz)) * ky;
+			m[o + 6] = 2 * (yz + wx) * ky;
+			m[o + 7] = 0;
+			m[o + 8] = 2 * (xz + wy) * kz;
+			m[o + 9] = 2 * (yz - wx) * kz;
+			m[o + 10] = (1 - 2 * (xx + yy)) * kz;
+			m[o + 11] = 0;
+			m[o + 12] = tx;
+			m[o + 13] = ty;
+			m[o + 14] = tz;
+			m[o + 15] = 1;
+		}
+	}
+
+	/**
+	 * Samples tracks from to to-1 at a time: 3 components, or 4 for rotations.
+	 */
+	private void sample ( double time, int from, int to ) {
+		for ( int track = from ; track < to ; track++ ) {
+			sample(track,time);
+		}
+	}
+
+	private void sample ( int track, double time ) {
+		int first = trackStart[track], last = trackEnd[track];
+		float t0 = keyTime[first], t1 = keyTime[last];
+		if ( trackLoop[track] && t1 > t0 ) {
+			double span = t1 - t0;
+			double wrapped = (time - t0) % span;
+			time = t0 + (wrapped < 0 ? wrapped + span : wrapped);
+		}
+		if ( time <= t0 || first == last ) {
+			copy(track,first);
+			return;
+		}
+		if ( time >= t1 ) {
+			copy(track,last);
+			return;
+		}
+		float t = (float) time;
+		// start from the segment used last time, which is usually still right
+		int k = trackCursor[track];
+		if ( k < first || k >= last || keyTime[k] > t ) {
+			k = Arrays.binarySearch(keyTime,first,last + 1,t);
+			k = k >= 0 ? k : -k - 2;
+		}
+		while ( keyTime[k + 1] <= t ) {
+			k++;
+		}
+		trackCursor[track] = k;
+		float s = (t - keyTime[k]) / (keyTime[k + 1] - keyTime[k]);
+		int n = k + 1;
+		switch ( trackMode[track] ) {
+		case STEP:
+			copy(track,k);
+			break;
+		case LINEAR:
+			if ( trackRotation[track] ) {
+				slerp(track,k,n,s);
+			} else {
+				sx[track] = kx[k] + (kx[n] - kx[k]) * s;
+				sy[track] = ky[k] + (ky[n] - ky[k]) * s;
+				sz[track] = kz[k] + (kz[n] - kz[k]) * s;
+			}
+			break;
+		default:
+			// Hermite basis; the tangents are already scaled by the segment length
+			float s2 = s * s, s3 = s2 * s;
+			float h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s;
+			float h01 = -2 * s3 + 3 * s2, h11 = s3 - s2;
+			sx[track] = h00 * kx[k] + h10 * ox[k] + h01 * kx[n] + h11 * ix[n];
+			sy[track] = h00 * ky[k] + h10 * oy[k] + h01 * ky[n] + h11 * iy[n];
+			sz[track] = h00 * kz[k] + h10 * oz[k] + h01 * kz[n] + h11 * iz[n];
+			if ( trackRotation[track] ) {
+				sw[track] = h00 * kw[k] + h10 * ow[k] + h01 * kw[n] + h11 * iw[n];
+				normalize(track);
+			}
+		}
+	}
+
+	private void copy ( int track, int k ) {
+		sx[track] = kx[k];
+		sy[track] = ky[k];
+		sz[track] = kz[k];
+		sw[track] = kw[k];
+	}
+
+	// keys of LINEAR rotation tracks are already in the same hemisphere
+	private void slerp ( int track, int a, int b, float s ) {
+		double cos = kx[a] * kx[b] + ky[a] * ky[b] + kz[a] * kz[b] + kw[a] * kw[b];
+		double wa, wb;
+		if ( cos > 0.9995 ) {
+			wa = 1 - s; // nearly parallel; blend and normalize
+			wb = s;
+		} else {
+			double theta = Math.acos(Math.min(cos,1));
+			double sin = Math.sin(theta);
+			wa = Math.sin((1 - s) * theta) / sin;
+			wb = Math.sin(s * theta) / sin;
+		}
+		sx[track] = (float) (wa * kx[a] + wb * kx[b]);
+		sy[track] = (float) (wa * ky[a] + wb * ky[b]);
+		sz[track] = (float) (wa * kz[a] + wb * kz[b]);
+		sw[track] = (float) (wa * kw[a] + wb * kw[b]);
+		normalize(track);
+	}
+
+	private void normalize ( int track ) {
+		float len = (float) Math.sqrt(sx[track] * sx[track] + sy[track] * sy[track]
+		    + sz[track] * sz[track] + sw[track] * sw[track]);
+		if ( len > 0 ) {
+			sx[track] /= len;
+			sy[track] /= len;
+			sz[track] /= len;
+			sw[track] /= len;
+		}
+	}
+
+	/**
+	 * Gets the index of a track, packing it the first time it is seen.
+	 */
+	private int track ( KeyframeTrack track, KeyframeTrack.Target target ) {
+		if ( track == null ) {
+			return -1;
+		}
+		if ( track.getTarget() != target ) {
+			throw new IllegalArgumentException("expected a " + target + " track, got "
+			    + track.getTarget());
+		}
+		Integer id = trackIds.get(track);
+		if ( id == null ) {
+			id = pack(track);
+			trackIds.put(track,id);
+		}
+		return id;
+	}
+
+	private int pack ( KeyframeTrack track ) {
+		int n = track.getKeyCount();
+		if ( n == 0 ) {
+			throw new IllegalArgumentException("a track needs at least one key");
+		}
+		if ( trackCount == trackStart.length ) {
+			int c = trackCount * 2;
+			tracks = Arrays.copyOf(tracks,c);
+			trackStart = Arrays.copyOf(trackStart,c);
+			trackEnd = Arrays.copyOf(trackEnd,c);
+			trackMode = Arrays.copyOf(trackMode,c);
+			trackLoop = Arrays.copyOf(trackLoop,c);
+			trackRotation = Arrays.copyOf(trackRotation,c);
+			trackCursor = Arrays.copyOf(trackCursor,c);
+			sx = Arrays.copyOf(sx,c);
+			sy = Arrays.copyOf(sy,c);
+			sz = Arrays.copyOf(sz,c);
+			sw = Arrays.copyOf(sw,c);
+		}
+		growKeys(keyCount + n);
+		boolean rotation = track.getTarget() == KeyframeTrack.Target.ROTATION;
+		Interpolation interpolation = track.getInterpolation();
+		int first = keyCount;
+		float[][] values = { kx, ky, kz, kw }, in = { ix, iy, iz, iw },
+		    out = { ox, oy, oz, ow };
+		int width = track.getTarget().getWidth();
+		boolean[] flipped = new boolean[n];
+		for ( int k = 0 ; k < n ; k++ ) {
+			int key = first + k;
+			keyTime[key] = track.getTime(k);
+			for ( int c = 0 ; c < 4 ; c++ ) {
+				values[c][key] = c < width ? track.getValue(k,c) : 0;
+				in[c][key] = 0;
+				out[c][key] = 0;
+			}
+			if ( rotation && k > 0 && interpolation != Interpolation.CUBIC_BEZIER
+			    && dot(key - 1,key) < 0 ) {
+				// q and -q are the same rotation; take the shorter way round
+				for ( int c = 0 ; c < 4 ; c++ ) {
+					values[c][key] = -values[c][key];
+				}
+				flipped[k] = true;
+			}
+		}
+		if ( interpolation == Interpolation.CUBIC_BEZIER
+		    || interpolation == Interpolation.HERMITE ) {
+			boolean bezier = interpolation == Interpolation.CUBIC_BEZIER;
+			for ( int k = 0 ; k < n ; k++ ) {
+				int key = first + k;
+				// a flipped key's tangents flip with it
+				float sign = flipped[k] ? -1 : 1;
+				for ( int c = 0 ; c < width ; c++ ) {
+					float v = track.getValue(k,c);
+					if ( k + 1 < n ) { // leaving this key
+						float dt = track.getTime(k + 1) - track.getTime(k);
+						out[c][key] =
+						    bezier ? 3 * (track.getOut(k,c) - v)
+						        : sign * dt * track.getOut(k,c);
+					}
+					if ( k > 0 ) { // arriving at this key
+						float dt = track.getTime(k) - track.getTime(k - 1);
+						in[c][key] =
+						    bezier ? 3 * (v - track.getIn(k,c))
+						        : sign * dt * track.getIn(k,c);
+					}
+				}
+			}
+		}
+		tracks[trackCount] = track;
+		trackStart[trackCount] = first;
+		trackEnd[trackCount] = first + n - 1;
+		trackMode[trackCount] = interpolation == Interpolation.STEP ? STEP
+		    : interpolation == Interpolation.LINEAR ? LINEAR : CUBIC;
+		trackLoop[trackCount] = track.isLoop();
+		trackRotation[trackCount] = rotation;
+		trackCursor[trackCount] = first;
+		keyCount += n;
+		return trackCount++;
+	}
+
+	private float dot ( int a, int b ) {
+		return kx[a] * kx[b] + ky[a] * ky[b] + kz[a] * kz[b] + kw[a] * kw[b];
+	}
+
+	private void growKeys ( int needed ) {
+		if ( needed <= keyTime.length ) {
+			return;
+		}
+		int n = Math.max(needed,keyTime.length * 2);
+		keyTime = Arrays.copyOf(keyTime,n);
+		kx = Arrays.copyOf(kx,n);
+		ky = Arrays.copyOf(ky,n);
+		kz = Arrays.copyOf(kz,n);
+		kw = Arrays.copyOf(kw,n);
+		ix = Arrays.copyOf(ix,n);
+		iy = Arrays.copyOf(iy,n);
+		iz = Arrays.copyOf(iz,n);
+		iw = Arrays.copyOf(iw,n);
+		ox = Arrays.copyOf(ox,n);
+		oy = Arrays.copyOf(oy,n);
+		oz = Arrays.copyOf(oz,n);
+		ow = Arrays.copyOf(ow,n);
+	}
+
+	/**
+	 * Halves its range of tracks or transforms until the pieces are small, then
+	 * runs the pass on each piece.
+	 */
+	private class Pass extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double time;
+		private final int from, to;
+		private final boolean tracks;
+
+		Pass ( double time, int from, int to, boolean tracks ) {
+			this.time = time;
+			this.from = from;
+			this.to = to;
+			this.tracks = tracks;
+		}
+
+		@Override
+		protected void compute () {
+			if ( to - from <= 2 * MIN_SPLIT ) {
+				if ( tracks ) {
+					sample(time,from,to);
+				} else {
+					compose(from,to);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Pass(time,from,mid,tracks),new Pass(time,mid,to,tracks));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package transformations;
+
+import java.util.Arrays;
+
+/**
+ * The keys for one channel (translation, rotation or scale) of a keyframe
+ * animation. Translation and scale keys have 3 components; rotation keys are
+ * unit quaternions (x, y, z, w), which axisAngle() can build.
+ *
+ * A track is only a description: it is packed into a KeyframeAnimation, which
+ * does the evaluation, when a transform using it is created. Keys added after
+ * that are not seen.
+ *
+ * @author Sayf Elhawary
+ */
+public class KeyframeTrack {
+
+	/**
+	 * The part of a transform a track animates.
+	 */
+	public enum Target {
+		TRANSLATION(3), ROTATION(4), SCALE(3);
+
+		private final int width;
+
+		Target ( int width ) {
+			this.width = width;
+		}
+
+		/**
+		 * Gets the number of components in a key of this target.
+		 */
+		public int getWidth () {
+			return width;
+		}
+	}
+
+	private final Target target;
+	private final Interpolation interpolation;
+	private boolean loop;
+	private float[] times;
+	private float[] values; // width per key
+	private float[] in, out; // width per key, as given to addKey
+	private int count;
+
+	/**
+	 * Constructs an empty track.
+	 *
+	 * @param target
+	 *          What the track animates.
+	 * @param interpolation
+	 *          How values move between keys.
+	 */
+	public KeyframeTrack ( Target target, Interpolation interpolation ) {
+		this.target = target;
+		this.interpolation = interpolation;
+		times = new float[4];
+		values = new float[4 * target.width];
+		in = new float[4 * target.width];
+		out = new float[4 * target.width];
+	}
+
+	/**
+	 * Adds a key with zero tangents, or with the key's own value as both Bezier
+	 * control points.
+	 *
+	 * @param time
+	 *          The time of the key, in seconds; must be after the last key's.
+	 * @param value
+	 *          The value, with getTarget().getWidth() components.
+	 * @return This track.
+	 */
+	public KeyframeTrack addKey ( float time, float... value ) {
+		if ( interpolation == Interpolation.CUBIC_BEZIER ) {
+			return addKey(time,value,value,value);
+		}
+		return addKey(time,value,null,null);
+	}
+
+	/**
+	 * Adds a key with the values cubic interpolation needs: for CUBIC_BEZIER the
+	 * control points before and after the key, for HERMITE the incoming and
+	 * outgoing tangents per second. They are ignored by STEP and LINEAR tracks.
+	 *
+	 * @param time
+	 *          The time of the key, in seconds; must be after the last key's.
+	 * @param value
+	 *          The value.
+	 * @param inValue
+	 *          The in control point or tangent, or null for zero.
+	 * @param outValue
+	 *          The out control point or tangent, or null for zero.
+	 * @return This track.
+	 */
+	public KeyframeTrack addKey ( float time, float[] value, float[] inValue,
+	                              float[] outValue ) {
+		int w = target.width;
+		if ( value.length < w ) {
+			throw new IllegalArgumentException(target + " keys need " + w
+			    + " components");
+		}
+		if ( count > 0 && !(time > times[count - 1]) ) {
+			throw new IllegalArgumentException("key times must increase: " + time);
+		}
+		if ( count == times.length ) {
+			times = Arrays.copyOf(times,count * 2);
+			values = Arrays.copyOf(values,count * 2 * w);
+			in = Arrays.copyOf(in,count * 2 * w);
+			out = Arrays.copyOf(out,count * 2 * w);
+		}
+		times[count] = time;
+		for ( int c = 0 ; c < w ; c++ ) {
+			values[count * w + c] = value[c];
+			in[count * w + c] = inValue == null ? 0 : inValue[c];
+			out[count * w + c] = outValue == null ? 0 : outValue[c];
+		}
+		count++;
+		return this;
+	}
+
+	/**
+	 * Builds the quaternion for a rotation of angle degrees around the axis
+	 * (x,y,z), for use as a rotation key.
+	 *
+	 * @return The unit quaternion (x, y, z, w).
+	 */
+	public static float[] axisAngle ( float angle, float x, float y, float z ) {
+		double len = Math.sqrt(x * x + y * y + z * z);
+		if ( len == 0 ) {
+			return new float[] { 0, 0, 0, 1 };
+		}
+		double half = Math.toRadians(angle) / 2;
+		double s = Math.sin(half) / len;
+		return new float[] { (float) (x * s), (float) (y * s), (float) (z * s),
+		                     (float) Math.cos(half) };
+	}
+
+	public Target getTarget () {
+		return target;
+	}
+
+	public Interpolation getInterpolation () {
+		return interpolation;
+	}
+
+	public boolean isLoop () {
+		return loop;
+	}
+
+	/**
+	 * Sets whether the track repeats from its first key after its last one,
+	 * rather than holding the last value. The default is false.
+	 *
+	 * @return This track.
+	 */
+	public KeyframeTrack setLoop ( boolean loop ) {
+		this.loop = loop;
+		return this;
+	}
+
+	public int getKeyCount () {
+		return count;
+	}
+
+	public float getTime ( int key ) {
+		return times[key];
+	}
+
+	public float getValue ( int key, int component ) {
+		return values[key * target.width + component];
+	}
+
+	public float getIn ( int key, int component ) {
+		return in[key * target.width + component];
+	}
+
+	public float getOut ( int key, int component ) {
+		return out[key * target.width + component];
+	}
+}
@@ -0,0 +1,63 @@
+package transformations;
+
+import main.Mat4;
+import main.Renderer;
+
+/**
+ * A transform driven by keyframe tracks. It is created by, and evaluated as
+ * part of, a KeyframeAnimation, which holds its tracks and its current matrix;
+ * this object only records where in the animation those are. Attach it to the
+ * scene with a TransformNode like any other transform.
+ *
+ * The x, y and z of a keyframe transform are not used.
+ *
+ * @author Sayf Elhawary
+ */
+public class KeyframeTransform extends Transform implements Animated {
+
+	private final KeyframeAnimation animation;
+	private final int index;
+
+	KeyframeTransform ( KeyframeAnimation animation, int index, boolean tex ) {
+		super(0,0,0,tex);
+		this.animation = animation;
+		this.index = index;
+	}
+
+	/**
+	 * Gets the animation that evaluates this transform.
+	 */
+	public KeyframeAnimation getAnimation () {
+		return animation;
+	}
+
+	/**
+	 * Gets the index of this transform's matrix in the animation's matrices.
+	 */
+	public int getIndex () {
+		return index;
+	}
+
+	/**
+	 * Multiplies m by the transform's matrix as of the animation's last
+	 * evaluation, without taking the animation's lock: the caller evaluates the
+	 * animation at the tick first, once for all its transforms.
+	 */
+	public void applyTo ( float[] m, int offset, long tick ) {
+		Mat4 product = Mat4.acquire();
+		Mat4.multiply(m,offset,animation.getMatrices(),16 * index,product.array(),
+		              0);
+		System.arraycopy(product.array(),0,m,offset,16);
+		Mat4.release(product);
+	}
+
+	/**
+	 * Applies the transform at the renderer's current animation tick.
+	 *
+	 * @param renderer
+	 *          The renderer.
+	 */
+	public void apply ( Renderer renderer ) {
+		renderer.animateKeyframes(this);
+	}
+}
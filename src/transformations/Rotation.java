@@ -44,6 +44,7 @@ public class Rotation extends Transform {
      */
 	public void setAngle(float angle) {
 		this.angle = angle;
+		modified();
 	}
 
     /**
@@ -1,16 +1,24 @@
 package transformations;
 
+import main.ChangeListener;
+import main.ChangeListeners;
 import main.Renderer;
 
 /**
+ * The setters are not synchronized with drawing. To change a transform in a scene
+ * that another thread is drawing, make the change in SceneUpdate.run and
+ * pass the batch to Scene.submit.
+ *
  * @author Sayf Elhawary
  */
 public abstract class Transform {
-
 	private float x;
 	private float y;
 	private float z;
 	private boolean tex;
+	private int version;
+	// the nodes holding this transform
+	private final ChangeListeners listeners = new ChangeListeners();
 
 	/**
 	 * Constructs a Transform with specified coordinates and a boolean flag.
@@ -40,6 +48,7 @@ public abstract class Transform {
 	 */
 	public void setX ( float x ) {
 		this.x = x;
+		modified();
 	}
 
 	/**
@@ -50,6 +59,7 @@ public abstract class Transform {
 	 */
 	public void setY ( float y ) {
 		this.y = y;
+		modified();
 	}
 
 	/**
@@ -60,6 +70,7 @@ public abstract class Transform {
 	 */
 	public void setZ ( float z ) {
 		this.z = z;
+		modified();
 	}
 
 	/**
@@ -70,6 +81,7 @@ public abstract class Transform {
 	 */
 	public void setTex ( boolean tex ) {
 		this.tex = tex;
+		modified();
 	}
 
 	/**
@@ -117,4 +129,45 @@ public abstract class Transform {
 	 */
 	public abstract void apply ( Renderer renderer );
 
+
+	/**
+	 * Records that this transform's values have changed, and tells the nodes
+	 * holding it.
+	 */
+	protected void modified () {
+		version++;
+		listeners.fire(ChangeListener.GEOMETRY);
+	}
+
+	/**
+	 * Gets a counter that changes whenever this transform's values change, so
+	 * that matrices computed from it can be cached.
+	 * 
+	 * @return The current version.
+	 */
+	public int getVersion () {
+		return version;
+	}
+
+	/**
+	 * Adds a listener told whenever this transform's values change. Nodes
+	 * holding the transform add themselves, so that what is cached about their
+	 * subtrees is kept until it changes. Listeners are held weakly.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void addChangeListener ( ChangeListener listener ) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addChangeListener.
+	 * 
+	 * @param listener
+	 *          The listener.
+	 */
+	public void removeChangeListener ( ChangeListener listener ) {
+		listeners.remove(listener);
+	}
 }